@@ -224,7 +224,7 @@ public class COMETSTree extends AStarTree<FullAStarNode> {
             //first make sure there are RCs available at each position
             boolean RCsAvailable = true;
             for(int pos=0; pos<stateNumPos[state]; pos++){
-                if(node.pruneMat[state].unprunedRCsAtPos(pos).isEmpty()){
+                if(node.pruneMat[state].countUnprunedRCsAtPos(pos)==0){
                     RCsAvailable = false;
                     break;
                 }
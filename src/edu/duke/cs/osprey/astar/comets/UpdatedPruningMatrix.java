@@ -5,13 +5,10 @@
  */
 package edu.duke.cs.osprey.astar.comets;
 
-import java.util.ArrayList;
-import java.util.TreeMap;
-import java.util.TreeSet;
-
 import edu.duke.cs.osprey.confspace.HigherTupleFinder;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.IntList;
 
 /**
  *
@@ -21,35 +18,35 @@ import edu.duke.cs.osprey.pruning.PruningMatrix;
  * This "updated" matrix will behave as a pruning matrix for purposes of storing/checking
  * pruned RCs and pairs at a node, but without full storage
  * 
+ * Updates are stored as sorted lists of one-body and pairwise indices (same indexing as a full matrix),
+ * so a node with a handful of updates only costs a handful of ints
+ * 
  * @author mhall44
  */
 public class UpdatedPruningMatrix extends PruningMatrix {
     
+	private static final long serialVersionUID = -3498213446097185526L;
+	
     public PruningMatrix parent;//This matrix will have everything pruned in parent, plus updates
     
-    ArrayList<TreeSet<Integer>> prunedRCUpdates = new ArrayList<>();
-    //list of pruned RCs (just for this update) at each position
+    private IntList prunedRCUpdates = new IntList(2);
+    //one-body indices of pruned RCs (just for this update), in ascending order
 
-    
-    ArrayList<ArrayList<TreeMap<Integer,TreeSet<Integer>>>> prunedPairUpdates = new ArrayList<>();
-    //list of pruned RCs (just for this update) at each position
+    private IntList prunedPairUpdates = new IntList(2);
+    //pairwise indices of pruned pairs (just for this update), in ascending order
     
     
     public UpdatedPruningMatrix(PruningMatrix parent) {
+        super(parent.getNumPos(), getNumConfsAtPos(parent), parent.getPruningInterval(), false);
         this.parent = parent;
-        
-        int numPos = parent.getNumPos();
-        
-        for(int pos=0; pos<numPos; pos++){
-            prunedRCUpdates.add(new TreeSet<Integer>());
-            prunedPairUpdates.add(new ArrayList<TreeMap<Integer,TreeSet<Integer>>>());
-            
-            for(int pos2=0; pos2<pos; pos2++){
-                prunedPairUpdates.get(pos).add(new TreeMap<Integer,TreeSet<Integer>>());
-            }
-        }
     }
     
+    private static int[] getNumConfsAtPos(PruningMatrix parent) {
+        int[] numConfsAtPos = new int[parent.getNumPos()];
+        for(int pos=0; pos<numConfsAtPos.length; pos++)
+            numConfsAtPos[pos] = parent.getNumConfAtPos(pos);
+        return numConfsAtPos;
+    }
     
     
     @Override
@@ -58,29 +55,17 @@ public class UpdatedPruningMatrix extends PruningMatrix {
         int tupNumPos = tup.pos.size();
         
         if(tupNumPos==1){
-            int pos = tup.pos.get(0);
-            int rc =  tup.RCs.get(0);
-            prunedRCUpdates.get(pos).add(rc);
+            int pos = tup.pos.getInt(0);
+            int rc =  tup.RCs.getInt(0);
+            addSorted(prunedRCUpdates, getOneBodyIndex(pos, rc));
         }
         else if(tupNumPos==2){
-            int pos1 = tup.pos.get(0);
-            int pos2 = tup.pos.get(1);
-            int rc1 =  tup.RCs.get(0);
-            int rc2 =  tup.RCs.get(1);
-            
-            if(pos1<pos2){//need to store the pair in descending order of position
-                pos2 = tup.pos.get(0);
-                pos1 = tup.pos.get(1);
-                rc2 =  tup.RCs.get(0);
-                rc1 =  tup.RCs.get(1);
-            }
-            
-            TreeMap<Integer,TreeSet<Integer>> pairs = prunedPairUpdates.get(pos1).get(pos2);
-            
-            if(!pairs.containsKey(rc1))//allocate the treeset for pairs involving rc1
-                pairs.put(rc1, new TreeSet<Integer>());
-            
-            pairs.get(rc1).add(rc2);
+            //pairwise indexing doesn't care about the order of the positions
+            int pos1 = tup.pos.getInt(0);
+            int pos2 = tup.pos.getInt(1);
+            int rc1 =  tup.RCs.getInt(0);
+            int rc2 =  tup.RCs.getInt(1);
+            addSorted(prunedPairUpdates, getPairwiseIndex(pos1, rc1, pos2, rc2));
         }
         else{
             throw new RuntimeException("ERROR: UpdatedPruningMatrix just stores updated"
@@ -88,6 +73,30 @@ public class UpdatedPruningMatrix extends PruningMatrix {
         }
     }
     
+    
+    private static void addSorted(IntList list, int index){
+        int i = binarySearch(list, index);
+        if(i<0)
+            list.addInt(-i-1, index);
+    }
+    
+    private static int binarySearch(IntList list, int index){
+        //same contract as Arrays.binarySearch()
+        int lo = 0;
+        int hi = list.size() - 1;
+        while(lo<=hi){
+            int mid = (lo + hi) >>> 1;
+            int val = list.getInt(mid);
+            if(val<index)
+                lo = mid + 1;
+            else if(val>index)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+    
         
     @Override
     public Boolean getPairwise(int res1, int index1, int res2, int index2){
@@ -97,20 +106,8 @@ public class UpdatedPruningMatrix extends PruningMatrix {
             return true;
         
         //also check updates
-        if(res1>res2)
-            return checkIntPair( prunedPairUpdates.get(res1).get(res2), index1, index2 );
-        else
-            return checkIntPair( prunedPairUpdates.get(res2).get(res1), index2, index1 );
-    }
-    
-    
-    private static boolean checkIntPair(TreeMap<Integer,TreeSet<Integer>> pairs, int rc1, int rc2){
-        //Check if (rc1, rc2) is in the map (ordered tuple)
-        if(pairs.containsKey(rc1)){
-            if(pairs.get(rc1).contains(rc2))
-                return true;
-        }
-        return false;
+        return !prunedPairUpdates.isEmpty()
+            && binarySearch(prunedPairUpdates, getPairwiseIndex(res1, index1, res2, index2))>=0;
     }
     
     
@@ -121,7 +118,8 @@ public class UpdatedPruningMatrix extends PruningMatrix {
             return true;
         
         //also check updates
-        return prunedRCUpdates.get(res).contains(index);
+        return !prunedRCUpdates.isEmpty()
+            && binarySearch(prunedRCUpdates, getOneBodyIndex(res, index))>=0;
     }
     
     
@@ -130,26 +128,17 @@ public class UpdatedPruningMatrix extends PruningMatrix {
     public HigherTupleFinder<Boolean> getHigherOrderTerms(int res1, int index1, int res2, int index2){
         return parent.getHigherOrderTerms(res1, index1, res2, index2);
     }
+    
+    @Override
+    public boolean hasHigherOrderTerms(){
+        return parent.hasHigherOrderTerms();
+    }
         
     
     
     public int countUpdates(){
         //How many update RCs and pairs are there, put together?
-        int count = 0;
-        
-        for(TreeSet<Integer> posUpdates : prunedRCUpdates){
-            count += posUpdates.size();
-        }
-        
-        for(ArrayList<TreeMap<Integer,TreeSet<Integer>>> posUpdates : prunedPairUpdates){
-            for(TreeMap<Integer,TreeSet<Integer>> ppUpdates : posUpdates){
-                for(TreeSet<Integer> pUpdates : ppUpdates.values()){
-                    count += pUpdates.size();
-                }
-            }
-        }
-        
-        return count;
+        return prunedRCUpdates.size() + prunedPairUpdates.size();
     }
     
     
@@ -0,0 +1,269 @@
+package edu.duke.cs.osprey.astar.conf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A* queue that packs nodes into primitive arrays rather than objects
+ *
+ * Each node takes 24 bytes in the node store and 12 bytes in the heap, compared to
+ * roughly 80 bytes for a ConfAStarNode, its Link, and its PriorityQueue slot.
+ * Nothing is allocated per queued node either, so the garbage collector never has to
+ * trace through the frontier.
+ *
+ * Nodes returned by poll() are re-built as ConfAStarNode instances, so the
+ * scorers and orders don't have to know about the packed storage.
+ */
+public class CompactConfAStarQueue implements ConfAStarQueue {
+
+	// store nodes in fixed-size chunks, so growing the store never copies old nodes
+	private static final int ChunkBits = 16;
+	private static final int ChunkSize = 1 << ChunkBits;
+	private static final int ChunkMask = ChunkSize - 1;
+
+	// a 4-ary heap is shallower than a binary heap, and siblings share cache lines
+	private static final int HeapArity = 4;
+
+	private static final int NoParent = -1;
+
+	private static class Node extends ConfAStarNode {
+
+		public final int index;
+
+		public Node(int index, int level, Link link) {
+			super(level, link);
+			this.index = index;
+		}
+	}
+
+	// node store, in struct-of-arrays layout
+	private int[][] parents;
+	private short[][] positions;
+	private short[][] rcs;
+	private double[][] gscores;
+	private double[][] hscores;
+	private int numNodes;
+
+	// min-heap of node indices, keyed on score
+	private int[] heapNodes;
+	private double[] heapScores;
+	private int heapSize;
+
+	private int[] path;
+
+	public CompactConfAStarQueue() {
+
+		parents = new int[16][];
+		positions = new short[16][];
+		rcs = new short[16][];
+		gscores = new double[16][];
+		hscores = new double[16][];
+		numNodes = 0;
+
+		heapNodes = new int[1024];
+		heapScores = new double[1024];
+		heapSize = 0;
+
+		path = new int[16];
+	}
+
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	@Override
+	public void add(ConfAStarNode node) {
+
+		// is this node already in the store?
+		if (node instanceof Node) {
+			int index = ((Node)node).index;
+			gscores[index >>> ChunkBits][index & ChunkMask] = node.getGScore();
+			hscores[index >>> ChunkBits][index & ChunkMask] = node.getHScore();
+			push(index, node.getScore());
+			return;
+		}
+
+		// nope, copy the link chain into the store, starting at the root
+		List<ConfAStarNode.Link> links = new ArrayList<>();
+		ConfAStarNode.Link link = node.getLink();
+		while (!link.isRoot()) {
+			links.add(link);
+			link = link.getParent();
+		}
+		int index = store(NoParent, -1, -1, Double.NaN, Double.NaN);
+		for (int i=links.size() - 1; i>=0; i--) {
+			link = links.get(i);
+			index = store(index, link.getPos(), link.getRC(), Double.NaN, Double.NaN);
+		}
+
+		// only the tail of the chain gets scores and goes into the heap
+		gscores[index >>> ChunkBits][index & ChunkMask] = node.getGScore();
+		hscores[index >>> ChunkBits][index & ChunkMask] = node.getHScore();
+		push(index, node.getScore());
+	}
+
+	@Override
+	public void add(ConfAStarNode parent, int pos, int rc, double gscore, double hscore) {
+
+		if (!(parent instanceof Node)) {
+			throw new IllegalArgumentException("parent node didn't come from this queue");
+		}
+
+		int index = store(((Node)parent).index, pos, rc, gscore, hscore);
+		push(index, gscore + hscore);
+	}
+
+	@Override
+	public ConfAStarNode poll() {
+
+		if (heapSize == 0) {
+			return null;
+		}
+
+		int index = pop();
+
+		// walk up to the root to get the path
+		int level = 0;
+		int i = index;
+		while (true) {
+			int parent = parents[i >>> ChunkBits][i & ChunkMask];
+			if (parent == NoParent) {
+				break;
+			}
+			if (level == path.length) {
+				path = Arrays.copyOf(path, path.length*2);
+			}
+			path[level++] = i;
+			i = parent;
+		}
+
+		// then re-build the link chain from the root down
+		ConfAStarNode.Link link = new ConfAStarNode.Link();
+		for (int j=level - 1; j>=0; j--) {
+			i = path[j];
+			link = new ConfAStarNode.Link(link, positions[i >>> ChunkBits][i & ChunkMask], rcs[i >>> ChunkBits][i & ChunkMask]);
+		}
+
+		Node node = new Node(index, level, link);
+		node.setGScore(gscores[index >>> ChunkBits][index & ChunkMask]);
+		node.setHScore(hscores[index >>> ChunkBits][index & ChunkMask]);
+		return node;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return heapSize == 0;
+	}
+
+	@Override
+	public int size() {
+		return heapSize;
+	}
+
+	private int store(int parent, int pos, int rc, double gscore, double hscore) {
+
+		assert (pos <= Short.MAX_VALUE);
+		assert (rc <= Short.MAX_VALUE);
+
+		if (numNodes == Integer.MAX_VALUE) {
+			throw new IllegalStateException("compact A* queue is full, can't store more than " + Integer.MAX_VALUE + " nodes");
+		}
+
+		int index = numNodes++;
+		int chunk = index >>> ChunkBits;
+		int i = index & ChunkMask;
+
+		// need a new chunk?
+		if (i == 0) {
+			if (chunk == parents.length) {
+				int numChunks = parents.length*2;
+				parents = Arrays.copyOf(parents, numChunks);
+				positions = Arrays.copyOf(positions, numChunks);
+				rcs = Arrays.copyOf(rcs, numChunks);
+				gscores = Arrays.copyOf(gscores, numChunks);
+				hscores = Arrays.copyOf(hscores, numChunks);
+			}
+			parents[chunk] = new int[ChunkSize];
+			positions[chunk] = new short[ChunkSize];
+			rcs[chunk] = new short[ChunkSize];
+			gscores[chunk] = new double[ChunkSize];
+			hscores[chunk] = new double[ChunkSize];
+		}
+
+		parents[chunk][i] = parent;
+		positions[chunk][i] = (short)pos;
+		rcs[chunk][i] = (short)rc;
+		gscores[chunk][i] = gscore;
+		hscores[chunk][i] = hscore;
+
+		return index;
+	}
+
+	private void push(int index, double score) {
+
+		if (heapSize == heapNodes.length) {
+			int capacity = (int)Math.min((long)heapNodes.length*2, Integer.MAX_VALUE - 8);
+			if (capacity == heapSize) {
+				throw new IllegalStateException("compact A* queue is full, can't queue more than " + heapSize + " nodes");
+			}
+			heapNodes = Arrays.copyOf(heapNodes, capacity);
+			heapScores = Arrays.copyOf(heapScores, capacity);
+		}
+
+		// sift up
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1)/HeapArity;
+			if (heapScores[parent] <= score) {
+				break;
+			}
+			heapNodes[i] = heapNodes[parent];
+			heapScores[i] = heapScores[parent];
+			i = parent;
+		}
+		heapNodes[i] = index;
+		heapScores[i] = score;
+	}
+
+	private int pop() {
+
+		int top = heapNodes[0];
+
+		heapSize--;
+		if (heapSize > 0) {
+
+			// sift the last node down from the top
+			int index = heapNodes[heapSize];
+			double score = heapScores[heapSize];
+			int i = 0;
+			while (true) {
+
+				int first = i*HeapArity + 1;
+				if (first >= heapSize) {
+					break;
+				}
+
+				// find the best child
+				int last = Math.min(first + HeapArity, heapSize);
+				int best = first;
+				for (int child=first + 1; child<last; child++) {
+					if (heapScores[child] < heapScores[best]) {
+						best = child;
+					}
+				}
+
+				if (heapScores[best] >= score) {
+					break;
+				}
+				heapNodes[i] = heapNodes[best];
+				heapScores[i] = heapScores[best];
+				i = best;
+			}
+			heapNodes[i] = index;
+			heapScores[i] = score;
+		}
+
+		return top;
+	}
+}
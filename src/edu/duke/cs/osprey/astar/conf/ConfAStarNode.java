@@ -53,7 +53,7 @@ public class ConfAStarNode implements Comparable<ConfAStarNode> {
 	private double gscore;
 	private double hscore;
 	
-	private ConfAStarNode(int level, Link link) {
+	ConfAStarNode(int level, Link link) {
 		assert (level <= Short.MAX_VALUE);
 		this.level = (short)level;
 		this.link = link;
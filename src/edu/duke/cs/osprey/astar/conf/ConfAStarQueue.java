@@ -0,0 +1,52 @@
+package edu.duke.cs.osprey.astar.conf;
+
+public interface ConfAStarQueue {
+	
+	public static enum Type {
+		
+		/** one ConfAStarNode object per node, in a java.util.PriorityQueue */
+		Objects {
+			@Override
+			public ConfAStarQueue make() {
+				return new ObjectConfAStarQueue();
+			}
+		},
+		
+		/** nodes packed into primitive arrays, with an index-based heap */
+		Compact {
+			@Override
+			public ConfAStarQueue make() {
+				return new CompactConfAStarQueue();
+			}
+		};
+		
+		public abstract ConfAStarQueue make();
+	}
+	
+	/**
+	 * Adds a scored node to the queue.
+	 * Any ancestors of the node that aren't in the queue yet are added too (but not queued for expansion).
+	 */
+	void add(ConfAStarNode node);
+	
+	/**
+	 * Adds a child of a node previously returned by poll() to the queue
+	 */
+	void add(ConfAStarNode parent, int pos, int rc, double gscore, double hscore);
+	
+	/**
+	 * Removes the node with the lowest score from the queue
+	 */
+	ConfAStarNode poll();
+	
+	boolean isEmpty();
+	int size();
+	
+	/**
+	 * Releases anything the queue keeps outside the heap, e.g. spill files.
+	 * The queue can't be used afterwards.
+	 */
+	default void cleanup() {
+		// nothing to release by default
+	}
+}
@@ -3,7 +3,6 @@ package edu.duke.cs.osprey.astar.conf;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import edu.duke.cs.osprey.astar.AStarProgress;
 import edu.duke.cs.osprey.astar.conf.order.AStarOrder;
@@ -12,38 +11,68 @@ import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.parallelism.TaskExecutor;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.Metrics;
 import edu.duke.cs.osprey.tools.ObjectPool;
 
 public class ConfAStarTree implements ConfSearch {
 	
+	private static final Metrics.Counter numExpansions = Metrics.counter("osprey_astar_expanded_nodes_total", "A* nodes expanded");
+	private static final Metrics.Counter numLeaves = Metrics.counter("osprey_astar_leaf_nodes_total", "A* leaf nodes (conformations) returned");
+	private static final Metrics.Gauge queueSize = Metrics.gauge("osprey_astar_queue_size", "size of the most recently updated A* queue");
+	
 	private static class ScoreContext {
 		public ConfIndex index;
 		public AStarScorer gscorer;
 		public AStarScorer hscorer;
 	}
 	
+	private static class Expansion {
+		
+		public final ConfAStarNode node;
+		public final int nextPos;
+		public final int[] nextRcs;
+		public final double[] gscores;
+		public final double[] hscores;
+		public final boolean[] isScored;
+		
+		public Expansion(ConfAStarNode node, int nextPos, int[] nextRcs) {
+			this.node = node;
+			this.nextPos = nextPos;
+			this.nextRcs = nextRcs;
+			this.gscores = new double[nextRcs.length];
+			this.hscores = new double[nextRcs.length];
+			this.isScored = new boolean[nextRcs.length];
+		}
+	}
+	
 	public final AStarOrder order;
 	public final AStarScorer gscorer;
 	public final AStarScorer hscorer;
 	public final RCs rcs;
 	
-	private PriorityQueue<ConfAStarNode> queue;
+	private ConfAStarQueue queue;
 	private ConfAStarNode rootNode;
 	private ConfIndex confIndex;
 	private AStarProgress progress;
 	private Parallelism parallelism;
 	private TaskExecutor tasks;
 	private ObjectPool<ScoreContext> contexts;
+	private int batchSize;
+	private List<ConfAStarNode> batch;
+	private List<Expansion> expansions;
 	
 	public ConfAStarTree(AStarOrder order, AStarScorer gscorer, AStarScorer hscorer, RCs rcs) {
 		this.order = order;
 		this.gscorer = gscorer;
 		this.hscorer = hscorer;
 		this.rcs = rcs;
-		this.queue = new PriorityQueue<>();
+		this.queue = ConfAStarQueue.Type.Objects.make();
 		this.rootNode = null;
 		this.confIndex = new ConfIndex(this.rcs.getNumPos());
 		this.progress = null;
+		this.batchSize = 1;
+		this.batch = new ArrayList<>();
+		this.expansions = new ArrayList<>();
 		
 		this.order.setScorers(this.gscorer, this.hscorer);
 		
@@ -81,6 +110,47 @@ public class ConfAStarTree implements ConfSearch {
 		contexts.allocate(parallelism.getParallelism());
 	}
 	
+	/**
+	 * Sets how many nodes to expand at once.
+	 * The children of all the nodes in a batch are scored in parallel, which keeps
+	 * threads busy even when each node only has a few children. Confs still come out in
+	 * score order, but bigger batches can expand some nodes that a one-at-a-time search wouldn't.
+	 */
+	public void setExpansionBatchSize(int val) {
+		
+		if (val < 1) {
+			throw new IllegalArgumentException("batch size must be at least 1");
+		}
+		
+		batchSize = val;
+	}
+	
+	/**
+	 * Chooses how nodes are stored in the A* queue.
+	 * Must be called before the search starts.
+	 */
+	public void setQueueType(ConfAStarQueue.Type type) {
+		setQueue(type.make());
+	}
+	
+	/**
+	 * Uses a custom A* queue, e.g. a SpillingConfAStarQueue.
+	 * Must be called before the search starts.
+	 */
+	public void setQueue(ConfAStarQueue val) {
+		
+		if (rootNode != null) {
+			throw new IllegalStateException("can't change queue after the search has started");
+		}
+		
+		queue = val;
+	}
+	
+	@Override
+	public void cleanup() {
+		queue.cleanup();
+	}
+	
 	@Override
 	public BigInteger getNumConformations() {
 		
@@ -153,6 +223,9 @@ public class ConfAStarTree implements ConfSearch {
 			// leaf node? report it
 			if (node.getLevel() == rcs.getNumPos()) {
 				
+				numLeaves.increment();
+				queueSize.set(queue.size());
+				
 				if (progress != null) {
 					progress.reportLeafNode(node.getGScore(), queue.size());
 				}
@@ -160,50 +233,87 @@ public class ConfAStarTree implements ConfSearch {
 				return node;
 			}
 			
-			// which pos to expand next?
-			int numChildren = 0;
-			confIndex.index(node);
-			int nextPos = order.getNextPos(confIndex, rcs);
-			assert (!confIndex.isDefined(nextPos));
-			assert (confIndex.isUndefined(nextPos));
-			
-			// score child nodes with tasks (possibly in parallel)
-			List<ConfAStarNode> children = new ArrayList<>();
-			for (int nextRc : rcs.get(nextPos)) {
+			// grab more nodes to expand at the same time, if we can
+			batch.clear();
+			batch.add(node);
+			while (batch.size() < batchSize && !queue.isEmpty()) {
 				
-				if (hasPrunedPair(confIndex, nextPos, nextRc)) {
-					continue;
+				ConfAStarNode nextNode = queue.poll();
+				
+				// don't expand past a leaf node, it's the next one to report
+				if (nextNode.getLevel() == rcs.getNumPos()) {
+					queue.add(nextNode);
+					break;
 				}
 				
-				ConfAStarNode child = new ConfAStarNode(node, nextPos, nextRc);
+				batch.add(nextNode);
+			}
+			
+			// score all the child nodes with tasks (possibly in parallel)
+			expansions.clear();
+			for (ConfAStarNode parentNode : batch) {
+				expansions.add(expand(parentNode));
+			}
+			tasks.waitForFinish();
+			
+			numExpansions.add(batch.size());
+			
+			// collect the possible children
+			for (Expansion expansion : expansions) {
 				
-				tasks.submit(() -> {
-					
-					try (ObjectPool<ScoreContext>.Checkout checkout = contexts.autoCheckout()) {
-						ScoreContext context = checkout.get();
-						
-						// score the child node differentially against the parent node
-						context.index.index(node);
-						child.setGScore(context.gscorer.calcDifferential(context.index, rcs, nextPos, nextRc));
-						child.setHScore(context.hscorer.calcDifferential(context.index, rcs, nextPos, nextRc));
+				int numChildren = 0;
+				for (int i=0; i<expansion.nextRcs.length; i++) {
+					if (expansion.isScored[i] && expansion.gscores[i] + expansion.hscores[i] < Double.POSITIVE_INFINITY) {
+						queue.add(expansion.node, expansion.nextPos, expansion.nextRcs[i], expansion.gscores[i], expansion.hscores[i]);
+						numChildren++;
 					}
-					
-				}, (Runnable task) -> {
-					
-					// collect the possible children
-					if (child.getScore() < Double.POSITIVE_INFINITY) {
-						children.add(child);
-					}
-				});
+				}
+				
+				if (progress != null) {
+					ConfAStarNode parentNode = expansion.node;
+					progress.reportInternalNode(parentNode.getLevel(), parentNode.getGScore(), parentNode.getHScore(), queue.size(), numChildren);
+				}
 			}
-			tasks.waitForFinish();
-			numChildren += children.size();
-			queue.addAll(children);
+			queueSize.set(queue.size());
+		}
+	}
+	
+	private Expansion expand(ConfAStarNode node) {
+		
+		// which pos to expand next?
+		confIndex.index(node);
+		int nextPos = order.getNextPos(confIndex, rcs);
+		assert (!confIndex.isDefined(nextPos));
+		assert (confIndex.isUndefined(nextPos));
+		
+		Expansion expansion = new Expansion(node, nextPos, rcs.get(nextPos));
+		
+		for (int i=0; i<expansion.nextRcs.length; i++) {
+			int nextRc = expansion.nextRcs[i];
 			
-            if (progress != null) {
-            	progress.reportInternalNode(node.getLevel(), node.getGScore(), node.getHScore(), queue.size(), numChildren);
-            }
+			if (hasPrunedPair(confIndex, nextPos, nextRc)) {
+				continue;
+			}
+			
+			int childIndex = i;
+			tasks.submit(() -> {
+				
+				try (ObjectPool<ScoreContext>.Checkout checkout = contexts.autoCheckout()) {
+					ScoreContext context = checkout.get();
+					
+					// score the child node differentially against the parent node
+					context.index.index(node);
+					expansion.gscores[childIndex] = context.gscorer.calcDifferential(context.index, rcs, nextPos, nextRc);
+					expansion.hscores[childIndex] = context.hscorer.calcDifferential(context.index, rcs, nextPos, nextRc);
+					expansion.isScored[childIndex] = true;
+				}
+				
+			}, (Runnable task) -> {
+				// nothing to do, children get collected after all the tasks finish
+			});
 		}
+		
+		return expansion;
 	}
 	
 	public List<ConfAStarNode> nextLeafNodes(double maxEnergy) {
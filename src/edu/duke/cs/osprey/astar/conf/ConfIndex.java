@@ -25,6 +25,16 @@ public class ConfIndex {
         this.undefinedPos = new int[numPos];
 	}
 	
+	public ConfIndex(ConfIndex other) {
+		this(other.numPos);
+		node = other.node;
+		numDefined = other.numDefined;
+		numUndefined = other.numUndefined;
+		System.arraycopy(other.definedPos, 0, definedPos, 0, numDefined);
+		System.arraycopy(other.definedRCs, 0, definedRCs, 0, numDefined);
+		System.arraycopy(other.undefinedPos, 0, undefinedPos, 0, numUndefined);
+	}
+	
 	public ConfIndex(ConfIndex other, int nextPos, int nextRc) {
 		this(other.numPos);
 		index(other, nextPos, nextRc);
@@ -0,0 +1,40 @@
+package edu.duke.cs.osprey.astar.conf;
+
+import java.util.PriorityQueue;
+
+public class ObjectConfAStarQueue implements ConfAStarQueue {
+	
+	private PriorityQueue<ConfAStarNode> queue;
+	
+	public ObjectConfAStarQueue() {
+		queue = new PriorityQueue<>();
+	}
+
+	@Override
+	public void add(ConfAStarNode node) {
+		queue.add(node);
+	}
+
+	@Override
+	public void add(ConfAStarNode parent, int pos, int rc, double gscore, double hscore) {
+		ConfAStarNode child = new ConfAStarNode(parent, pos, rc);
+		child.setGScore(gscore);
+		child.setHScore(hscore);
+		queue.add(child);
+	}
+
+	@Override
+	public ConfAStarNode poll() {
+		return queue.poll();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return queue.size();
+	}
+}
@@ -0,0 +1,431 @@
+package edu.duke.cs.osprey.astar.conf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A* queue that keeps at most a fixed number of nodes in memory
+ *
+ * When the in-memory queue gets too big, the worst-scoring half of it is sorted and
+ * written to memory-mapped run files on disk. Polling merges the in-memory queue with
+ * the heads of all the runs, so nodes still come out in exactly the same score order
+ * as if the whole queue were in memory.
+ *
+ * In-memory nodes are regular ConfAStarNode objects, so once a node is spilled,
+ * any part of its link chain not shared with other in-memory nodes can be garbage collected.
+ * Spilled records are self-contained (scores plus the full assignment path),
+ * so they don't need their ancestors when they're read back in.
+ *
+ * Run files are deleted (and unmapped) as soon as they're drained, or by clear() or cleanup().
+ * Searches that stop early should call ConfSearch.cleanup(), but any run files still around
+ * when the JVM exits are deleted then too.
+ * When there are too many runs, they're merged into one.
+ */
+public class SpillingConfAStarQueue implements ConfAStarQueue {
+
+	/**
+	 * rough estimate of the heap used by one queued node: ConfAStarNode, its Link,
+	 * the PriorityQueue slot, and its share of the interior links
+	 */
+	public static final int BytesPerNode = 100;
+
+	/** when there are more runs than this, merge them into one so polling stays cheap and the open file count stays bounded */
+	public static final int MaxNumRuns = 32;
+
+	// keep each run file within a single mapping
+	private static final long MaxBytesPerRun = Integer.MAX_VALUE;
+
+	// run files that haven't been deleted yet, so the shutdown hook can clean up after searches that weren't cleaned up
+	// NOTE: unlike File.deleteOnExit(), this forgets files once they're deleted, so it doesn't grow with every spill
+	private static final Set<File> liveFiles = ConcurrentHashMap.newKeySet();
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			for (File file : liveFiles) {
+				file.delete();
+			}
+		}, "astar-spill-cleanup"));
+	}
+
+	private class Run implements Comparable<Run> {
+
+		private final File file;
+		private MappedByteBuffer buf;
+		private final int numRecords;
+		private int numWritten;
+		private int nextRecord;
+		private double headScore;
+
+		public Run(int numRecords)
+		throws IOException {
+
+			file = File.createTempFile("astar-spill-", ".dat", dir);
+			liveFiles.add(file);
+			this.numRecords = numRecords;
+			numWritten = 0;
+			nextRecord = 0;
+
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long)numRecords*bytesPerRecord);
+			} catch (IOException ex) {
+				file.delete();
+				liveFiles.remove(file);
+				throw ex;
+			}
+		}
+
+		public void write(ConfAStarNode node, short[] path) {
+
+			// get the assignment path, from the root down
+			int level = node.getLevel();
+			ConfAStarNode.Link link = node.getLink();
+			for (int j=level - 1; j>=0; j--) {
+				path[j*2] = (short)link.getPos();
+				path[j*2 + 1] = (short)link.getRC();
+				link = link.getParent();
+			}
+
+			buf.position(numWritten*bytesPerRecord);
+			buf.putDouble(node.getGScore());
+			buf.putDouble(node.getHScore());
+			buf.putShort((short)level);
+			for (int j=0; j<level*2; j++) {
+				buf.putShort(path[j]);
+			}
+			numWritten++;
+		}
+
+		public void write(Run src, byte[] record) {
+			src.buf.position(src.nextRecord*bytesPerRecord);
+			src.buf.get(record);
+			src.skip();
+			buf.position(numWritten*bytesPerRecord);
+			buf.put(record);
+			numWritten++;
+		}
+
+		public void finishWriting() {
+			assert (numWritten == numRecords);
+			headScore = readHeadScore();
+		}
+
+		private double readHeadScore() {
+			int offset = nextRecord*bytesPerRecord;
+			return buf.getDouble(offset) + buf.getDouble(offset + Double.BYTES);
+		}
+
+		public boolean hasNext() {
+			return nextRecord < numRecords;
+		}
+
+		public int getNumRemaining() {
+			return numRecords - nextRecord;
+		}
+
+		public ConfAStarNode next() {
+
+			buf.position(nextRecord*bytesPerRecord);
+			double gscore = buf.getDouble();
+			double hscore = buf.getDouble();
+			int level = buf.getShort();
+			ConfAStarNode.Link link = new ConfAStarNode.Link();
+			for (int j=0; j<level; j++) {
+				int pos = buf.getShort();
+				int rc = buf.getShort();
+				link = new ConfAStarNode.Link(link, pos, rc);
+			}
+			skip();
+
+			ConfAStarNode node = new ConfAStarNode(level, link);
+			node.setGScore(gscore);
+			node.setHScore(hscore);
+			return node;
+		}
+
+		private void skip() {
+			nextRecord++;
+			if (hasNext()) {
+				headScore = readHeadScore();
+			}
+		}
+
+		public void delete() {
+
+			// release the mapping first, some platforms won't delete mapped files
+			if (buf != null) {
+				unmap(buf);
+				buf = null;
+			}
+			file.delete();
+			liveFiles.remove(file);
+		}
+
+		@Override
+		public int compareTo(Run other) {
+			return Double.compare(headScore, other.headScore);
+		}
+	}
+
+	private static final Method unsafeInvokeCleaner;
+	private static final Object unsafe;
+
+	static {
+
+		// the JDK only unmaps a MappedByteBuffer when it gets garbage collected,
+		// which can hold on to lots of address space and disk long after a run is drained,
+		// so release mappings explicitly when the runtime lets us
+		Method invokeCleaner = null;
+		Object theUnsafe = null;
+		try {
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			theUnsafe = f.get(null);
+			invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (Exception ex) {
+			// not available, fall back to the GC
+			invokeCleaner = null;
+			theUnsafe = null;
+		}
+		unsafeInvokeCleaner = invokeCleaner;
+		unsafe = theUnsafe;
+	}
+
+	private static void unmap(MappedByteBuffer buf) {
+		if (unsafeInvokeCleaner != null) {
+			try {
+				unsafeInvokeCleaner.invoke(unsafe, buf);
+			} catch (Exception ex) {
+				// the GC will get it eventually
+			}
+		}
+	}
+
+	public final int numPos;
+	public final int maxNumNodesInMemory;
+	public final File dir;
+
+	private final int bytesPerRecord;
+	private PriorityQueue<ConfAStarNode> queue;
+	private PriorityQueue<Run> runs;
+	private long numSpilledNodes;
+
+	/**
+	 * @param numPos number of design positions in the conf space
+	 * @param maxNumNodesInMemory spill to disk when more than this many nodes are queued in memory
+	 * @param dir where to put the spill files, or null to use the system temp dir
+	 */
+	public SpillingConfAStarQueue(int numPos, int maxNumNodesInMemory, File dir) {
+
+		if (maxNumNodesInMemory < 2) {
+			throw new IllegalArgumentException("need room for at least 2 nodes in memory");
+		}
+
+		this.numPos = numPos;
+		this.maxNumNodesInMemory = maxNumNodesInMemory;
+		this.dir = dir;
+
+		// gscore, hscore, level, then (pos,rc) for each assignment
+		bytesPerRecord = Double.BYTES*2 + Short.BYTES + numPos*Short.BYTES*2;
+
+		queue = new PriorityQueue<>();
+		runs = new PriorityQueue<>();
+		numSpilledNodes = 0;
+	}
+
+	public static SpillingConfAStarQueue makeForMemory(int numPos, long maxBytes, File dir) {
+		return new SpillingConfAStarQueue(numPos, (int)Math.min(maxBytes/BytesPerNode, Integer.MAX_VALUE), dir);
+	}
+
+	public long getNumSpilledNodes() {
+		return numSpilledNodes;
+	}
+
+	public int getNumRuns() {
+		return runs.size();
+	}
+
+	@Override
+	public void add(ConfAStarNode node) {
+		queue.add(node);
+		if (queue.size() > maxNumNodesInMemory) {
+			spill();
+		}
+	}
+
+	@Override
+	public void add(ConfAStarNode parent, int pos, int rc, double gscore, double hscore) {
+		ConfAStarNode child = new ConfAStarNode(parent, pos, rc);
+		child.setGScore(gscore);
+		child.setHScore(hscore);
+		add(child);
+	}
+
+	@Override
+	public ConfAStarNode poll() {
+
+		// does the best spilled node beat the best in-memory node?
+		// NOTE: prefer memory on ties, it's cheaper
+		ConfAStarNode memNode = queue.peek();
+		Run run = runs.peek();
+		if (run != null && (memNode == null || run.headScore < memNode.getScore())) {
+
+			runs.poll();
+			ConfAStarNode node = run.next();
+			numSpilledNodes--;
+			if (run.hasNext()) {
+				runs.add(run);
+			} else {
+				run.delete();
+			}
+			return node;
+		}
+
+		return queue.poll();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return queue.isEmpty() && runs.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return (int)Math.min(queue.size() + numSpilledNodes, Integer.MAX_VALUE);
+	}
+
+	public void clear() {
+		queue.clear();
+		for (Run run : runs) {
+			run.delete();
+		}
+		runs.clear();
+		numSpilledNodes = 0;
+	}
+
+	@Override
+	public void cleanup() {
+		clear();
+	}
+
+	private void spill() {
+
+		// partition the in-memory nodes around the median, keep the best half
+		// NOTE: only the spilled half needs to be in order, so don't sort the kept half
+		ConfAStarNode[] nodes = queue.toArray(new ConfAStarNode[queue.size()]);
+		int numKeep = nodes.length/2;
+		select(nodes, numKeep);
+		queue = new PriorityQueue<>(Arrays.asList(nodes).subList(0, numKeep));
+		Arrays.sort(nodes, numKeep, nodes.length);
+
+		// and write the rest to disk, already in score order
+		int maxRecordsPerRun = (int)(MaxBytesPerRun/bytesPerRecord);
+		short[] path = new short[numPos*2];
+		List<Run> newRuns = new ArrayList<>();
+		try {
+			for (int start=numKeep; start<nodes.length; start+=maxRecordsPerRun) {
+				int stop = (int)Math.min((long)start + maxRecordsPerRun, nodes.length);
+				Run run = new Run(stop - start);
+				newRuns.add(run);
+				for (int i=start; i<stop; i++) {
+					run.write(nodes[i], path);
+				}
+				run.finishWriting();
+			}
+		} catch (IOException ex) {
+			for (Run run : newRuns) {
+				run.delete();
+			}
+			throw new RuntimeException("can't spill A* queue to disk", ex);
+		}
+		for (Run run : newRuns) {
+			numSpilledNodes += run.getNumRemaining();
+			runs.add(run);
+		}
+
+		if (runs.size() > MaxNumRuns) {
+			mergeRuns();
+		}
+	}
+
+	private void mergeRuns() {
+
+		// k-way merge all the runs into as few new runs as the mapping size allows
+		// the old runs are deleted as soon as they're drained
+		int maxRecordsPerRun = (int)(MaxBytesPerRun/bytesPerRecord);
+		byte[] record = new byte[bytesPerRecord];
+		List<Run> mergedRuns = new ArrayList<>();
+		try {
+			long numRemaining = numSpilledNodes;
+			while (numRemaining > 0) {
+				Run merged = new Run((int)Math.min(numRemaining, maxRecordsPerRun));
+				mergedRuns.add(merged);
+				for (int i=0; i<merged.numRecords; i++) {
+					Run src = runs.poll();
+					merged.write(src, record);
+					if (src.hasNext()) {
+						runs.add(src);
+					} else {
+						src.delete();
+					}
+				}
+				merged.finishWriting();
+				numRemaining -= merged.numRecords;
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("can't merge A* queue spill files", ex);
+		}
+		assert (runs.isEmpty());
+		runs.addAll(mergedRuns);
+	}
+
+	/**
+	 * rearrange nodes so the k best nodes come first (in no particular order), quickselect style
+	 */
+	private static void select(ConfAStarNode[] nodes, int k) {
+		int lo = 0;
+		int hi = nodes.length - 1;
+		while (lo < hi) {
+
+			// partition around the middle node
+			ConfAStarNode pivot = nodes[lo + (hi - lo)/2];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (nodes[i].compareTo(pivot) < 0) {
+					i++;
+				}
+				while (nodes[j].compareTo(pivot) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					ConfAStarNode swap = nodes[i];
+					nodes[i] = nodes[j];
+					nodes[j] = swap;
+					i++;
+					j--;
+				}
+			}
+
+			// recurse into the side that has the boundary
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+}
@@ -1,9 +1,11 @@
 package edu.duke.cs.osprey.astar.conf.scoring;
 
+import edu.duke.cs.osprey.astar.conf.ConfAStarNode;
 import edu.duke.cs.osprey.astar.conf.ConfIndex;
 import edu.duke.cs.osprey.astar.conf.RCs;
 import edu.duke.cs.osprey.astar.conf.scoring.mplp.MPLPUpdater;
 import edu.duke.cs.osprey.astar.conf.scoring.mplp.MessageVars;
+import edu.duke.cs.osprey.astar.conf.scoring.mplp.MessageVarsCache;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 
 public class MPLPPairwiseHScorer implements AStarScorer {
@@ -12,26 +14,105 @@ public class MPLPPairwiseHScorer implements AStarScorer {
 	private EnergyMatrix emat;
 	private int maxNumIterations;
 	private double epsilon;
+	private MessageVarsCache cache;
+	
+	private ConfAStarNode cachedNode;
+	private MessageVars cachedVars;
 	
 	public MPLPPairwiseHScorer(MPLPUpdater updater, EnergyMatrix emat, int maxNumIterations, double epsilon) {
+		this(updater, emat, maxNumIterations, epsilon, null);
+	}
+	
+	/**
+	 * @param cache if not null, converged messages for scored nodes (including the root) are saved here,
+	 *              so their children can warm-start from them when the node is expanded later.
+	 *              Without a cache, children always start from the traditional heuristic
+	 */
+	public MPLPPairwiseHScorer(MPLPUpdater updater, EnergyMatrix emat, int maxNumIterations, double epsilon, MessageVarsCache cache) {
 		this.updater = updater;
 		this.emat = emat;
 		this.maxNumIterations = maxNumIterations;
 		this.epsilon = epsilon;
+		this.cache = cache;
+		this.cachedNode = null;
+		this.cachedVars = null;
 	}
 	
 	@Override
 	public MPLPPairwiseHScorer make() {
-		return new MPLPPairwiseHScorer(updater, emat, maxNumIterations, epsilon);
+		return new MPLPPairwiseHScorer(updater, emat, maxNumIterations, epsilon, cache);
 	}
 
 	@Override
 	public double calc(ConfIndex confIndex, RCs rcs) {
+		MessageVars lambdas = makeTraditionalVars(confIndex, rcs);
+		double energy = run(lambdas);
+		
+		// keep the messages (e.g., for the root node), so the children can warm-start from them
+		if (cache != null && maxNumIterations > 0) {
+			cache.put(lambdas);
+		}
+		
+		return energy;
+	}
+	
+	@Override
+	public double calcDifferential(ConfIndex confIndex, RCs rcs, int nextPos, int nextRc) {
+		
+		// with no iterations, MPLP is just the traditional heuristic, so there's nothing to warm-start
+		if (maxNumIterations <= 0) {
+			return calc(new ConfIndex(confIndex, nextPos, nextRc), rcs);
+		}
+		
+		ConfIndex childIndex = new ConfIndex(confIndex, nextPos, nextRc);
+		MessageVars lambdas;
+		
+		// warm-start the child messages from the parent messages, if we already have them
+		// NOTE: running MPLP on the parent just to warm-start its children costs more than it saves
+		MessageVars parentLambdas = getParentLambdas(confIndex);
+		if (parentLambdas != null) {
+			lambdas = new MessageVars(rcs, childIndex);
+			lambdas.initFromParent(parentLambdas, nextPos, nextRc, emat);
+		} else {
+			lambdas = makeTraditionalVars(childIndex, rcs);
+		}
+		double energy = run(lambdas);
+		
+		if (cache != null) {
+			cache.put(lambdas);
+		}
+		
+		return energy;
+	}
+	
+	private MessageVars makeTraditionalVars(ConfIndex confIndex, RCs rcs) {
 		
 		// init lambdas using the traditional A* heuristic
-		// NOTE: we must use these initial values for early stopping to be sound
+		// NOTE: we must start from a feasible set of messages for early stopping to be sound
 		MessageVars lambdas = new MessageVars(rcs, confIndex);
 		lambdas.initTraditionalAStar(emat);
+		return lambdas;
+	}
+	
+	private MessageVars getParentLambdas(ConfIndex confIndex) {
+		
+		// already looked for the messages for this node?
+		if (cachedNode != null && cachedNode == confIndex.getNode()) {
+			return cachedVars;
+		}
+		
+		// the parent's messages are only around if the cache kept them from when the parent was scored
+		MessageVars lambdas = null;
+		if (cache != null) {
+			lambdas = cache.get(confIndex);
+		}
+		
+		cachedNode = confIndex.getNode();
+		cachedVars = lambdas;
+		return lambdas;
+	}
+	
+	private double run(MessageVars lambdas) {
 		
 		// run MPLP
 		double energy = lambdas.getTotalEnergy();
@@ -100,6 +100,58 @@ public class MessageVars {
 		}
 	}
 	
+	/**
+	 * Initializes the messages for a child node by warm-starting from the messages of its parent node.
+	 * Messages between positions that are still undefined are copied from the parent,
+	 * and the i,i messages pick up the energies with the newly-defined position.
+	 * The copied messages still satisfy the pairwise constraints for the child,
+	 * so the total energy is still a lower bound, and early stopping is still sound.
+	 */
+	public void initFromParent(MessageVars parent, int nextPos, int nextRc, EnergyMatrix emat) {
+		
+		ConfIndex parentIndex = parent.confIndex;
+		assert (parentIndex.getNumUndefined() == confIndex.getNumUndefined() + 1);
+		
+		// where's the newly-defined position in the parent?
+		int nextPosi = -1;
+		for (int posi=0; posi<parentIndex.getNumUndefined(); posi++) {
+			if (parentIndex.getUndefinedPos()[posi] == nextPos) {
+				nextPosi = posi;
+				break;
+			}
+		}
+		assert (nextPosi >= 0);
+		
+		for (int posi1=0; posi1<confIndex.getNumUndefined(); posi1++) {
+			int pos1 = confIndex.getUndefinedPos()[posi1];
+			int parentPosi1 = posi1 < nextPosi ? posi1 : posi1 + 1;
+			
+			for (int rci1=0; rci1<rcs.getNum(pos1); rci1++) {
+				int rc1 = rcs.get(pos1, rci1);
+				
+				// add the new defined-undefined energy to the i,i message
+				set(posi1, posi1, rci1, parent.get(parentPosi1, parentPosi1, rci1) + emat.getPairwise(pos1, rc1, nextPos, nextRc));
+				
+				// copy the i,j messages
+				for (int posi2=0; posi2<confIndex.getNumUndefined(); posi2++) {
+					if (posi2 != posi1) {
+						int parentPosi2 = posi2 < nextPosi ? posi2 : posi2 + 1;
+						set(posi2, posi1, rci1, parent.get(parentPosi2, parentPosi1, rci1));
+					}
+				}
+				
+				if (canUsePrecomputedSums(posi1, rci1)) {
+					
+					double sum = 0;
+					for (int posi2=0; posi2<confIndex.getNumUndefined(); posi2++) {
+						sum += get(posi2, posi1, rci1);
+					}
+					sums[posi1][rci1] = sum;
+				}
+			}
+		}
+	}
+	
 	public RCs getRCs() {
 		return rcs;
 	}
@@ -0,0 +1,86 @@
+package edu.duke.cs.osprey.astar.conf.scoring.mplp;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.duke.cs.osprey.astar.conf.ConfIndex;
+
+/**
+ * Bounded LRU cache of converged MPLP messages, keyed by the partial conformation.
+ * Thread-safe, so it can be shared by all the scorers in an A* search.
+ */
+public class MessageVarsCache {
+	
+	private static class Key {
+		
+		private final int[] conf;
+		private final int hashCode;
+		
+		public Key(ConfIndex confIndex) {
+			conf = new int[confIndex.getNumPos()];
+			Arrays.fill(conf, -1);
+			for (int i=0; i<confIndex.getNumDefined(); i++) {
+				conf[confIndex.getDefinedPos()[i]] = confIndex.getDefinedRCs()[i];
+			}
+			hashCode = Arrays.hashCode(conf);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && Arrays.equals(conf, ((Key)other).conf);
+		}
+	}
+	
+	public final int maxSize;
+	
+	private final Map<Key,MessageVars> vars;
+	private long numHits;
+	private long numMisses;
+	
+	public MessageVarsCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.vars = new LinkedHashMap<Key,MessageVars>(16, 0.75f, true) {
+			
+			private static final long serialVersionUID = -2539209386408733062L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,MessageVars> eldest) {
+				return size() > MessageVarsCache.this.maxSize;
+			}
+		};
+		this.numHits = 0;
+		this.numMisses = 0;
+	}
+	
+	public synchronized MessageVars get(ConfIndex confIndex) {
+		MessageVars lambdas = vars.get(new Key(confIndex));
+		if (lambdas == null) {
+			numMisses++;
+		} else {
+			numHits++;
+		}
+		return lambdas;
+	}
+	
+	public synchronized void put(MessageVars lambdas) {
+		vars.put(new Key(lambdas.getConfIndex()), lambdas);
+	}
+	
+	public synchronized int size() {
+		return vars.size();
+	}
+	
+	public synchronized long getNumHits() {
+		return numHits;
+	}
+	
+	public synchronized long getNumMisses() {
+		return numMisses;
+	}
+}
@@ -1,8 +1,11 @@
 package edu.duke.cs.osprey.confspace;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.function.Supplier;
 
 public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializable {
 
@@ -28,6 +31,7 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
     //of the lowest pairwise lower bound
     
 	private ArrayList<HigherTupleFinder<T>> higherTerms; // indices: same as pairwise, can be null if no interactions
+	private transient volatile Supplier<ArrayList<HigherTupleFinder<T>>> higherTermsLoader; // if set, call this to get higherTerms on first use
     private T defaultHigherInteraction;//We only mark sparse higher interactions;
     //if unmarked we assume this value (e.g., 0 for energy, false for pruning)
     
@@ -43,8 +47,19 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
     }
     
     protected AbstractTupleMatrix(int numPos, int[] numConfAtPos, double pruningInterval, T defaultHigherInteraction) {
+    	this(numPos, numConfAtPos, pruningInterval, defaultHigherInteraction, true);
+    }
+    
+    protected AbstractTupleMatrix(int numPos, int[] numConfAtPos, double pruningInterval, T defaultHigherInteraction, boolean allocate) {
+    	this(numPos, numConfAtPos, pruningInterval, defaultHigherInteraction, allocate, null);
+    }
+    
+    protected AbstractTupleMatrix(int numPos, int[] numConfAtPos, double pruningInterval, T defaultHigherInteraction, boolean allocate, boolean[][] hasPairBlocks) {
         //allocate the matrix based on the provided conformational space size
         //also specify what pruningInterval it's valid up to
+        //if !allocate, the subclass is responsible for its own storage (e.g., it's mapped from a file)
+        //if hasPairBlocks is given (indices: res1, res2 where res1>res2), only store pairwise blocks for the marked residue pairs
+        //(for a sparse matrix, where the other residue pairs don't interact)
     	
     	this.pruningInterval = pruningInterval;
     	this.defaultHigherInteraction = defaultHigherInteraction;
@@ -68,14 +83,20 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
         int pairwiseIndex = 0;
         for (int res1=0; res1<numPos; res1++) {
         	for (int res2=0; res2<res1; res2++) {
-        		pairwiseOffsets[pairwiseIndex++] = pairwiseOffset;
-        		pairwiseOffset += numConfAtPos[res1]*numConfAtPos[res2];
+        		if (hasPairBlocks == null || hasPairBlocks[res1][res2]) {
+        			pairwiseOffsets[pairwiseIndex++] = pairwiseOffset;
+        			pairwiseOffset += numConfAtPos[res1]*numConfAtPos[res2];
+        		} else {
+        			pairwiseOffsets[pairwiseIndex++] = -1;
+        		}
         	}
         }
         numPairwiseTerms = pairwiseOffset;
         assert (pairwiseIndex == pairwiseOffsets.length);
         
-        allocate(oneBodyOffset, numPairwiseTerms);
+        if (allocate) {
+        	allocate(oneBodyOffset, numPairwiseTerms);
+        }
         
     	// don't allocate space for higher terms right now
         // wait till we write something
@@ -89,7 +110,7 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
     	this.pairwiseOffsets = other.pairwiseOffsets.clone();
     	this.numPairwiseTerms = other.numPairwiseTerms;
     	this.pruningInterval = other.pruningInterval;
-    	if (other.higherTerms != null) {
+    	if (other.hasHigherOrderTerms()) {
     		throw new UnsupportedOperationException("copying higher order terms isn't implemented yet");
     	}
     	this.higherTerms = null;
@@ -98,6 +119,40 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
     
     protected abstract void allocate(int numOneBody, int numPairwise);
     
+    public int getNumOneBodyTerms() {
+    	return numPos == 0 ? 0 : oneBodyOffsets[numPos - 1] + numConfAtPos[numPos - 1];
+    }
+    
+    public int getNumPairwiseTerms() {
+    	return numPairwiseTerms;
+    }
+    
+    protected void setHigherOrderTermsLoader(Supplier<ArrayList<HigherTupleFinder<T>>> loader) {
+    	// higher terms can be big, and lots of searches never look at them, so don't read them until someone asks
+    	higherTerms = null;
+    	higherTermsLoader = loader;
+    }
+    
+    private ArrayList<HigherTupleFinder<T>> getHigherTerms() {
+    	if (higherTermsLoader != null) {
+    		synchronized (this) {
+    			Supplier<ArrayList<HigherTupleFinder<T>>> loader = higherTermsLoader;
+    			if (loader != null) {
+    				higherTerms = loader.get();
+    				higherTermsLoader = null;
+    			}
+    		}
+    	}
+    	return higherTerms;
+    }
+    
+    private void writeObject(ObjectOutputStream out)
+    throws IOException {
+    	// make sure lazy higher terms get written too
+    	getHigherTerms();
+    	out.defaultWriteObject();
+    }
+    
     public double getPruningInterval() {
         return pruningInterval;
     }
@@ -126,6 +181,33 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
     	return res1*(res1 - 1)/2 + res2;
     }
     
+    /**
+     * false if this is a sparse matrix that doesn't store the pairwise block for these residues
+     */
+    public boolean hasPairBlock(int res1, int res2) {
+    	return pairwiseOffsets[getPairwiseIndex(res1, res2)] >= 0;
+    }
+    
+    public boolean isSparse() {
+    	for (int offset : pairwiseOffsets) {
+    		if (offset < 0) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+    
+    public boolean[][] getPairBlocks() {
+    	boolean[][] hasPairBlocks = new boolean[numPos][];
+    	for (int res1=0; res1<numPos; res1++) {
+    		hasPairBlocks[res1] = new boolean[res1];
+    		for (int res2=0; res2<res1; res2++) {
+    			hasPairBlocks[res1][res2] = hasPairBlock(res1, res2);
+    		}
+    	}
+    	return hasPairBlocks;
+    }
+    
     protected int getPairwiseIndex(int res1, int res2) {
     	
     	// res2 should be strictly less than res1
@@ -154,7 +236,12 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
     		throw new Error("Can't pair residue " + res1 + " with itself");
     	}
     	
-    	return pairwiseOffsets[getPairwiseIndexNoCheck(res1, res2)] + numConfAtPos[res2]*conf1 + conf2;
+    	// pairs in blocks we don't store have no index
+    	int offset = pairwiseOffsets[getPairwiseIndexNoCheck(res1, res2)];
+    	if (offset < 0) {
+    		return -1;
+    	}
+    	return offset + numConfAtPos[res2]*conf1 + conf2;
     }
     
     @Override
@@ -191,7 +278,7 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
     
     @Override
     public boolean hasHigherOrderTerms() {
-    	return higherTerms != null;
+    	return higherTermsLoader != null || higherTerms != null;
     }
     
     @Override
@@ -242,14 +329,26 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
     
     @Override
     public HigherTupleFinder<T> getHigherOrderTerms(int res1, int conf1, int res2, int conf2) {
+    	ArrayList<HigherTupleFinder<T>> higherTerms = getHigherTerms();
     	if (higherTerms != null) {
-    		return higherTerms.get(getPairwiseIndex(res1, conf1, res2, conf2));
+    		int index = getPairwiseIndex(res1, conf1, res2, conf2);
+    		if (index >= 0) {
+    			return higherTerms.get(index);
+    		}
     	}
     	return null;
     }
     
     @Override
     public void setHigherOrderTerms(int res1, int conf1, int res2, int conf2, HigherTupleFinder<T> val) {
+    	getHigherTerms();
+    	int index = getPairwiseIndex(res1, conf1, res2, conf2);
+    	if (index < 0) {
+    		if (val != null) {
+    			throw new IllegalArgumentException("can't set higher-order terms for residues " + res1 + "," + res2 + ", the matrix doesn't store that pair");
+    		}
+    		return;
+    	}
     	if (val != null && higherTerms == null) {
     		
     		// lazy allocation
@@ -259,7 +358,7 @@ public abstract class AbstractTupleMatrix<T> implements TupleMatrix<T>, Serializ
 			}
     	}
     	if (higherTerms != null) {
-    		higherTerms.set(getPairwiseIndex(res1, conf1, res2, conf2), val);
+    		higherTerms.set(index, val);
     	}
     }
 }
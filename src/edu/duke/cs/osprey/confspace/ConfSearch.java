@@ -25,6 +25,14 @@ public interface ConfSearch {
     ScoredConf nextConf();
     List<ScoredConf> nextConfs(double maxEnergy);
     
+    /**
+     * releases anything the search keeps outside the heap (e.g. A* queue spill files),
+     * call when done with the search, even if it stopped early
+     */
+    default void cleanup() {
+        // nothing to release by default
+    }
+    
     public static class ScoredConf {
         
         private int[] assignments;
@@ -80,6 +88,21 @@ public interface ConfSearch {
         }
     }
     
+    // an energied conf that also remembers where the minimizer left its degrees of freedom
+    public static class MinimizedConf extends EnergiedConf {
+        
+        private double[] dofValues;
+        
+        public MinimizedConf(ScoredConf conf, double energy, double[] dofValues) {
+        	super(conf, energy);
+        	this.dofValues = dofValues;
+        }
+        
+        public double[] getDofValues() {
+        	return dofValues;
+        }
+    }
+    
 	// lets multiple consumers read confs from the stream regardless of order of reads
 	public static class Splitter {
 		
@@ -6,7 +6,9 @@ package edu.duke.cs.osprey.confspace;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.Arrays;
+
+import edu.duke.cs.osprey.tools.IntList;
 
 /**
  *
@@ -15,19 +17,26 @@ import java.util.TreeMap;
  * ("trivial" meaning 0 for energies, unpruned for pruning)
  * Tuples of order size(t)+1 are held explicitly; we recursively list HigherTupleFinder
  * objects for higher orders if there are even bigger tuples
+ *
+ * Interactions are stored in one small open-addressing hash table keyed on (pos,RC),
+ * with primitive keys, so lookups don't box or allocate
  * 
  * @author mhall44
  */
 public class HigherTupleFinder<T> implements Serializable {
     
-    private ArrayList<Integer> interactingPos = new ArrayList<>();
-    //flexible positions interacting with t in higher tuples
+    private static final long serialVersionUID = -2437781624733415098L;
     
-    //For sparseness purposes, the following lists are indexed by interacting position,
-    //not by the usual position number
-    //They map RC numbers (at the specified position) to the value of interest
-    private ArrayList<TreeMap<Integer,T>> interactions = new ArrayList<>();
-    private ArrayList<TreeMap<Integer,HigherTupleFinder<T>>> higher = new ArrayList<>();//next order up...
+    private IntList interactingPos = new IntList(2);
+    //flexible positions interacting with t in higher tuples, in the order they were added
+    
+    //hash table mapping (pos,RC) to the interaction value and the next-order-up HigherTupleFinder
+    //NOTE: tables are allocated on the first set, since most tuples never get any interactions
+    private static final long EmptyKey = Long.MIN_VALUE;//not a real (pos,RC) since pos is never negative
+    private long[] keys = null;
+    private Object[] vals = null;//null means no explicit interaction
+    private HigherTupleFinder<T>[] higher = null;//next order up...
+    private int numEntries = 0;
     
     //Note: the RC number could potentially be a code (e.g., -2) indicating a set of RCs,
     //not just one RC.
@@ -41,24 +50,17 @@ public class HigherTupleFinder<T> implements Serializable {
         this.defaultInteraction = defaultInteraction;
     }
 
-    public ArrayList<Integer> getInteractingPos() {
+    public IntList getInteractingPos() {
         return interactingPos;
     }
     
+    @SuppressWarnings("unchecked")
     public T getInteraction(int posNum, int RCNum) {
         //get interaction of this tuple with the RC (posNum,RCNum)
         
-        for(int interactionNum=0; interactionNum<interactingPos.size(); interactionNum++){
-            //there should be only a few interacting positions so we can loop over them quickly
-            
-            if(interactingPos.get(interactionNum) == posNum){
-                
-                if(interactions.get(interactionNum).containsKey(RCNum))
-                    return interactions.get(interactionNum).get(RCNum);
-                else
-                    return defaultInteraction;
-            }
-        }
+        int slot = findSlot(posNum, RCNum);
+        if(slot>=0 && vals[slot]!=null)
+            return (T)vals[slot];
         
         //if we get here no interaction (i.e., just default)
         return defaultInteraction;
@@ -68,17 +70,9 @@ public class HigherTupleFinder<T> implements Serializable {
         //get higher-order interactions involving the super-tuple 
         //consisting of this tuple plus the RC (posNum,RCNum)
         
-        for(int interactionNum=0; interactionNum<interactingPos.size(); interactionNum++){
-            //there should be only a few interacting positions so we can loop over them quickly
-            
-            if(interactingPos.get(interactionNum) == posNum){
-                
-                if(higher.get(interactionNum).containsKey(RCNum))
-                    return higher.get(interactionNum).get(RCNum);
-                else
-                    return null;
-            }
-        }
+        int slot = findSlot(posNum, RCNum);
+        if(slot>=0)
+            return higher[slot];
         
         //if we get here no higher interaction
         return null;
@@ -90,28 +84,27 @@ public class HigherTupleFinder<T> implements Serializable {
         //set the interaction of this tuple with tup to the given value
         
         if(tup.pos.size()==1){//store interaction directly in this HigherTupleFinder
-            int pos = tup.pos.get(0);
-            int rc = tup.RCs.get(0);
+            int pos = tup.pos.getInt(0);
+            int rc = tup.RCs.getInt(0);
             
-            int posIndex = getPosIndex(pos);
-            
-            interactions.get(posIndex).put(rc, val);
+            int slot = getOrAddSlot(pos, rc);
+            vals[slot] = val;
         }
         else {//kick it up to the next level.  Make sure all sub-tuples of tup know about this interaction.  
             
             for(int index=0; index<tup.pos.size(); index++){
-                int pos = tup.pos.get(index);
-                int rc = tup.RCs.get(index);
+                int pos = tup.pos.getInt(index);
+                int rc = tup.RCs.getInt(index);
                 
-                int posIndex = getPosIndex(pos);
+                int slot = getOrAddSlot(pos, rc);
                 
                 RCTuple subTup = tup.subtractMember(index);
                 
-                HigherTupleFinder<T> nextHTF = higher.get(posIndex).get(rc);
+                HigherTupleFinder<T> nextHTF = higher[slot];
                 
                 if(nextHTF == null){//allocate next-level HTF if not currently existent
                     nextHTF = new HigherTupleFinder<>(defaultInteraction);
-                    higher.get(posIndex).put(rc, nextHTF);
+                    higher[slot] = nextHTF;
                 }
                 
                 nextHTF.setInteraction(subTup, val);
@@ -120,23 +113,115 @@ public class HigherTupleFinder<T> implements Serializable {
     }
     
     
-    private int getPosIndex(int pos){
-        //find the index in interactingPos of pos
+    private static long makeKey(int pos, int rc){
+        return ((long)pos << 32) | (rc & 0xffffffffL);
+    }
+    
+    private static int hash(long key){
+        //mix the bits so consecutive RCs at the same pos spread out
+        long h = key*0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+    
+    private int findSlot(int pos, int rc){
+        //index of (pos,rc) in the table, or -1 if it's not there
+        
+        if(keys==null)
+            return -1;
+        
+        long key = makeKey(pos, rc);
+        int mask = keys.length - 1;
+        for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask){
+            if(keys[slot]==key)
+                return slot;
+            if(keys[slot]==EmptyKey)
+                return -1;
+        }
+    }
+    
+    private int getOrAddSlot(int pos, int rc){
+        //find the slot for (pos,rc)
         //Create one if non-existent
         //This function is called when we need to set new interactions
         
-        for(int interactionNum=0; interactionNum<interactingPos.size(); interactionNum++){
-            //there should be only a few interacting positions so we can loop over them quickly
-            
-            if(interactingPos.get(interactionNum) == pos)
-                return interactionNum;
-        }
+        int slot = findSlot(pos, rc);
+        if(slot>=0)
+            return slot;
         
         //not found...create
-        interactingPos.add(pos);
-        interactions.add(new TreeMap<Integer,T>());
-        higher.add(new TreeMap<Integer,HigherTupleFinder<T>>());
-        return interactingPos.size()-1;
+        if(!interactingPos.containsInt(pos))
+            interactingPos.addInt(pos);
+        
+        //keep the load factor under 1/2 so probe sequences stay short
+        if(keys==null)
+            allocate(4);
+        else if((numEntries + 1)*2 > keys.length)
+            allocate(keys.length*2);
+        
+        long key = makeKey(pos, rc);
+        int mask = keys.length - 1;
+        slot = hash(key) & mask;
+        while(keys[slot]!=EmptyKey)
+            slot = (slot + 1) & mask;
+        keys[slot] = key;
+        numEntries++;
+        return slot;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> HigherTupleFinder<T>[] makeHigher(int capacity){
+        return (HigherTupleFinder<T>[])new HigherTupleFinder<?>[capacity];
+    }
+    
+    private void allocate(int capacity){
+        
+        long[] oldKeys = keys;
+        Object[] oldVals = vals;
+        HigherTupleFinder<T>[] oldHigher = higher;
+        
+        keys = new long[capacity];
+        Arrays.fill(keys, EmptyKey);
+        vals = new Object[capacity];
+        higher = makeHigher(capacity);
+        
+        if(oldKeys!=null){
+            int mask = capacity - 1;
+            for(int i=0; i<oldKeys.length; i++){
+                if(oldKeys[i]!=EmptyKey){
+                    int slot = hash(oldKeys[i]) & mask;
+                    while(keys[slot]!=EmptyKey)
+                        slot = (slot + 1) & mask;
+                    keys[slot] = oldKeys[i];
+                    vals[slot] = oldVals[i];
+                    higher[slot] = oldHigher[i];
+                }
+            }
+        }
+    }
+    
+    private int[] getSortedSlots(int pos){
+        //slots for pos, in order of increasing RC
+        
+        int[] slots = new int[numEntries];
+        int numSlots = 0;
+        for(int slot=0; slot<keys.length; slot++){
+            if(keys[slot]!=EmptyKey && (int)(keys[slot] >> 32)==pos)
+                slots[numSlots++] = slot;
+        }
+        
+        //insertion sort, there aren't many
+        for(int i=1; i<numSlots; i++){
+            int slot = slots[i];
+            int rc = (int)keys[slot];
+            int j = i - 1;
+            while(j>=0 && (int)keys[slots[j]]>rc){
+                slots[j+1] = slots[j];
+                j--;
+            }
+            slots[j+1] = slot;
+        }
+        
+        return Arrays.copyOf(slots, numSlots);
     }
     
     
@@ -157,28 +242,37 @@ public class HigherTupleFinder<T> implements Serializable {
         //Find tuples with all pos numbers less than maxPos that have interactions value val
         //add them to tupList
         
+        if(keys==null)
+            return;
+        
         for(int interactionNum=0; interactionNum<interactingPos.size(); interactionNum++){
             
-            int pos = interactingPos.get(interactionNum);
+            int pos = interactingPos.getInt(interactionNum);
             
             if(pos<maxPos){
                 
-                for(int rc : interactions.get(interactionNum).keySet()){
+                int[] slots = getSortedSlots(pos);
+                
+                for(int slot : slots){
                     
-                    if(interactions.get(interactionNum).get(rc) == val){
-                        tupList.add( new RCTuple(pos,rc) );
+                    if(vals[slot]!=null && vals[slot] == val){
+                        tupList.add( new RCTuple(pos,(int)keys[slot]) );
                     }
                 }
                 
-                for(int rc : higher.get(interactionNum).keySet()){
+                for(int slot : slots){
+                    
+                    if(higher[slot]==null)
+                        continue;
                     
+                    int rc = (int)keys[slot];
                     ArrayList<RCTuple> subTupList = new ArrayList<>();
-                    higher.get(interactionNum).get(rc).recordInteractionsWithValue(val, subTupList, pos);
+                    higher[slot].recordInteractionsWithValue(val, subTupList, pos);
                     //the HigherTupleFinders in higher don't know about (pos,rc), so add that
                     
                     for(RCTuple subTup : subTupList){
-                        subTup.pos.add(pos);
-                        subTup.RCs.add(rc);
+                        subTup.pos.addInt(pos);
+                        subTup.RCs.addInt(rc);
                         tupList.add(subTup);
                     }
                 }
@@ -5,7 +5,9 @@
 package edu.duke.cs.osprey.confspace;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.List;
+
+import edu.duke.cs.osprey.tools.IntList;
 
 /**
  *
@@ -13,23 +15,25 @@ import java.util.ArrayList;
  */
 public class RCTuple implements Serializable {
     
-	private static final long serialVersionUID = 3773470316855163174L;
+	private static final long serialVersionUID = 3773470316855163175L;
 	
 	//a tuple of RCs
-    public ArrayList<Integer> pos;//which flexible positions
-    public ArrayList<Integer> RCs;//the RCs themselves (residue-specific numbering, as in the TupleMatrices)
+    //stored as primitive int lists, so hot loops can use getInt() without boxing
+    public IntList pos;//which flexible positions
+    public IntList RCs;//the RCs themselves (residue-specific numbering, as in the TupleMatrices)
 
     
     public RCTuple(){
         //empty pos, RCs (basically tuple of nothing
-        pos = new ArrayList<>();
-        RCs = new ArrayList<>();
+        pos = new IntList();
+        RCs = new IntList();
     }
     
     
-    public RCTuple(ArrayList<Integer> pos, ArrayList<Integer> RCs) {
-        this.pos = pos;
-        this.RCs = RCs;
+    public RCTuple(List<Integer> pos, List<Integer> RCs) {
+        //IntLists are used as-is, other lists get copied
+        this.pos = pos instanceof IntList ? (IntList)pos : new IntList(pos);
+        this.RCs = RCs instanceof IntList ? (IntList)RCs : new IntList(RCs);
     }
     
     
@@ -59,19 +63,19 @@ public class RCTuple implements Serializable {
     	this.pos.clear();
     	this.RCs.clear();
     	
-        this.pos.add(pos);
-        this.RCs.add(rc);
+        this.pos.addInt(pos);
+        this.RCs.addInt(rc);
     }
     
     public void set(int pos1, int rc1, int pos2, int rc2) {
     	this.pos.clear();
     	this.RCs.clear();
     	
-        this.pos.add(pos1);
-        this.RCs.add(rc1);
+        this.pos.addInt(pos1);
+        this.RCs.addInt(rc1);
         
-        this.pos.add(pos2);
-        this.RCs.add(rc2);
+        this.pos.addInt(pos2);
+        this.RCs.addInt(rc2);
     }
     
     public void set(int[] conf) {
@@ -79,8 +83,8 @@ public class RCTuple implements Serializable {
     	RCs.clear();
         for(int posNum=0; posNum<conf.length; posNum++){
             if(conf[posNum]>=0){//RC fully defined
-                pos.add(posNum);
-                RCs.add(conf[posNum]);
+                pos.addInt(posNum);
+                RCs.addInt(conf[posNum]);
             }
         }
     }
@@ -88,8 +92,10 @@ public class RCTuple implements Serializable {
     public void set(RCTuple other) {
     	pos.clear();
     	RCs.clear();
-    	pos.addAll(other.pos);
-    	RCs.addAll(other.RCs);
+    	for(int i=0; i<other.pos.size(); i++){
+    		pos.addInt(other.pos.getInt(i));
+    		RCs.addInt(other.RCs.getInt(i));
+    	}
     }
     
     public int size() {
@@ -114,9 +120,9 @@ public class RCTuple implements Serializable {
         
         //tuples are well-defined and same size...check position by position
         for(int index=0; index<pos.size(); index++){
-            if(pos.get(index)!=tuple2.pos.get(index))
+            if(pos.getInt(index)!=tuple2.pos.getInt(index))
                 return false;
-            if(RCs.get(index)!=tuple2.RCs.get(index))
+            if(RCs.getInt(index)!=tuple2.RCs.getInt(index))
                 return false;
         }
         
@@ -140,27 +146,26 @@ public class RCTuple implements Serializable {
     public RCTuple subtractMember(int index){
         //Make a copy of this RCTuple with the given member removed
         //index is an index in pos and RCs
-        ArrayList<Integer> newPos = new ArrayList<>();
-        ArrayList<Integer> newRCs = new ArrayList<>();
+        IntList newPos = new IntList(Math.max(pos.size()-1, 1));
+        IntList newRCs = new IntList(Math.max(pos.size()-1, 1));
         
         for(int ind=0; ind<pos.size(); ind++){
             if(ind!=index){
-                newPos.add(pos.get(ind));
-                newRCs.add(RCs.get(ind));
+                newPos.addInt(pos.getInt(ind));
+                newRCs.addInt(RCs.getInt(ind));
             }
         }
         
         return new RCTuple(newPos,newRCs);
     }
     
-    @SuppressWarnings("unchecked")
-	public RCTuple addRC(int addedPos, int addedRC){
+    public RCTuple addRC(int addedPos, int addedRC){
         //Make a copy of this RCTuple with (addPos,addRC) added
-        ArrayList<Integer> newPos = (ArrayList<Integer>) pos.clone();
-        ArrayList<Integer> newRCs = (ArrayList<Integer>) RCs.clone();
+        IntList newPos = new IntList(pos);
+        IntList newRCs = new IntList(RCs);
         
-        newPos.add(addedPos);
-        newRCs.add(addedRC);
+        newPos.addInt(addedPos);
+        newRCs.addInt(addedRC);
         
         return new RCTuple(newPos,newRCs);
     }
@@ -4,6 +4,7 @@
  */
 package edu.duke.cs.osprey.confspace;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 
@@ -11,6 +12,7 @@ import edu.duke.cs.osprey.control.EnvironmentVars;
 import edu.duke.cs.osprey.dof.deeper.DEEPerSettings;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.ematrix.EnergyMatrixCalculator;
+import edu.duke.cs.osprey.ematrix.EnergyMatrixFile;
 import edu.duke.cs.osprey.ematrix.ReferenceEnergies;
 import edu.duke.cs.osprey.ematrix.SimpleEnergyMatrixCalculator;
 import edu.duke.cs.osprey.ematrix.epic.EPICMatrix;
@@ -80,6 +82,7 @@ public class SearchProblem implements Serializable {
     public boolean addResEntropy = false;
     
     public int numEmatThreads = 1;
+    public double ematPairCutoff = Double.POSITIVE_INFINITY;//skip pairwise energies for residues farther apart than this
     
     
     public SearchProblem(SearchProblem other){//shallow copy
@@ -111,6 +114,7 @@ public class SearchProblem implements Serializable {
         useERef = other.useERef;
         addResEntropy = other.addResEntropy;
         numEmatThreads = other.numEmatThreads;
+        ematPairCutoff = other.ematPairCutoff;
     }
     
     
@@ -280,15 +284,52 @@ public class SearchProblem implements Serializable {
         //matrix file names are determined by the name of the search problem
         
         if(!loadMatrixFromFile( type, matrixFileName )){
-            TupleMatrix<?> matrix = calcMatrix(type);
-            ObjectIO.writeObject( matrix, matrixFileName );
+            TupleMatrix<?> matrix = calcMatrix(type, getCheckpointFile(type));
+            writeMatrixFile( matrix, matrixFileName );
+            
+            //the matrix is safely saved, so we don't need the partial results anymore
+            getCheckpointFile(type).delete();
+            
             loadMatrixFromFile( type, matrixFileName );
         }
     }
     
     
+    //where to save partial results while computing a matrix, so a restarted run can resume
+    public File getCheckpointFile(MatrixType type){
+        return new File(name + "." + type.name() + ".checkpoint");
+    }
+    
+    
+    //plain energy matrices go in the flat binary format, so they can be memory-mapped when we load them again
+    //anything else (e.g. EPIC matrices) is just serialized
+    public static void writeMatrixFile(TupleMatrix<?> matrix, String matrixFileName){
+        if(matrix.getClass() == EnergyMatrix.class)
+            EnergyMatrixFile.write( (EnergyMatrix)matrix, new File(matrixFileName) );
+        else
+            ObjectIO.writeObject( matrix, matrixFileName );
+    }
+    
+    
+    //read a matrix written by writeMatrixFile, or a serialized matrix from an older version
+    public static Object readMatrixFile(String matrixFileName, boolean allowNull){
+        File file = new File(matrixFileName);
+        if(EnergyMatrixFile.isEnergyMatrixFile(file))
+            return EnergyMatrixFile.read(file, allowNull);
+        else
+            return ObjectIO.readObject(matrixFileName, allowNull);
+    }
+    
+    
     //compute the matrix of the specified type
     public TupleMatrix<?> calcMatrix(MatrixType type){
+        return calcMatrix(type, null);
+    }
+    
+    
+    //compute the matrix of the specified type, saving partial results to the checkpoint file (if not null)
+    //the caller deletes the checkpoint once the matrix is safely saved
+    public TupleMatrix<?> calcMatrix(MatrixType type, File checkpointFile){
     
         // TODO: the search problem shouldn't concern itself with energy matrices and how to compute them
         
@@ -307,6 +348,8 @@ public class SearchProblem implements Serializable {
                 }
                 
                 EnergyMatrixCalculator emCalc = new EnergyMatrixCalculator(confSpace, shellResidues, useERef, addResEntropy);
+                emCalc.setCheckpointFile(checkpointFile);
+                emCalc.setPairCutoff(ematPairCutoff);
                 emCalc.calcPEM();
                 return emCalc.getEMatrix();
             
@@ -316,6 +359,8 @@ public class SearchProblem implements Serializable {
                 
                 // calculate the emat! Yeah!
                 SimpleEnergyMatrixCalculator ecalc = new SimpleEnergyMatrixCalculator.Cpu(numEmatThreads, EnvironmentVars.curEFcnGenerator.ffParams, confSpace, shellResidues);
+                ecalc.setCheckpointFile(checkpointFile);
+                ecalc.setPairCutoff(ematPairCutoff);
                 EnergyMatrix emat = ecalc.calcEnergyMatrix();
                 
                 // need to subtract reference energies?
@@ -345,6 +390,7 @@ public class SearchProblem implements Serializable {
         else if(type == MatrixType.EPICMAT){
             EnergyMatrixCalculator emCalc = new EnergyMatrixCalculator(confSpace,shellResidues,
                     pruneMat,epicSettings);
+            emCalc.setCheckpointFile(checkpointFile);
             emCalc.calcPEM();
             return emCalc.getEPICMatrix();
         }
@@ -383,7 +429,7 @@ public class SearchProblem implements Serializable {
         //return true if successful, false if not, in which case we'll have to compute it
         //also if the matrix's pruning interval is too low, it may be missing some RCs
         //that are unpruned at our current pruningInterval, so we have to recompute
-        Object matrixFromFile = ObjectIO.readObject(matrixFileName, true);
+        Object matrixFromFile = readMatrixFile(matrixFileName, true);
         
         if(type == MatrixType.EMAT)
             emat = (EnergyMatrix) matrixFromFile;
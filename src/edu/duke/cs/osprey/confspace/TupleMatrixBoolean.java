@@ -35,6 +35,11 @@ public class TupleMatrixBoolean extends AbstractTupleMatrix<Boolean> {
     	super(numPos, numAllowedAtPos, pruningInterval, defaultHigherInteraction);
     }
     
+    protected TupleMatrixBoolean(int numPos, int[] numAllowedAtPos, double pruningInterval, boolean defaultHigherInteraction, boolean allocate) {
+    	// if !allocate, we get the indexing but no storage, for subclasses that store their values some other way
+    	super(numPos, numAllowedAtPos, pruningInterval, defaultHigherInteraction, allocate);
+    }
+    
     @Override
     protected void allocate(int numOneBody, int numPairwise) {
         oneBody = new BitSet(numOneBody);
@@ -79,4 +84,97 @@ public class TupleMatrixBoolean extends AbstractTupleMatrix<Boolean> {
     		}
     	}
     }
+    
+    @Override
+    public void fill(Boolean val) {
+    	if (hasStorage()) {
+    		// do whole words at a time
+    		oneBody.set(0, getNumOneBodyTerms(), val);
+    		pairwise.set(0, getNumPairwiseTerms(), val);
+    	} else {
+    		super.fill(val);
+    	}
+    }
+    
+    /**
+     * Subclasses that override the getters to implement views of other matrices usually don't have storage,
+     * so the word-level operations below are only available when this is true.
+     */
+    public boolean hasStorage() {
+    	return oneBody != null;
+    }
+    
+    private void checkStorage() {
+    	if (!hasStorage()) {
+    		throw new UnsupportedOperationException("this " + getClass().getSimpleName() + " has no storage of its own");
+    	}
+    }
+    
+    private void checkSameShape(TupleMatrixBoolean other) {
+    	checkStorage();
+    	other.checkStorage();
+    	if (getNumPos() != other.getNumPos()) {
+    		throw new IllegalArgumentException("matrices have different numbers of positions");
+    	}
+    	for (int res=0; res<getNumPos(); res++) {
+    		if (getNumConfAtPos(res) != other.getNumConfAtPos(res)) {
+    			throw new IllegalArgumentException("matrices have different numbers of RCs at position " + res);
+    		}
+    	}
+    }
+    
+    /** how many one-body entries have value true */
+    public int countOneBody() {
+    	checkStorage();
+    	return oneBody.cardinality();
+    }
+    
+    /** how many pairwise entries have value true */
+    public int countPairwise() {
+    	checkStorage();
+    	return pairwise.cardinality();
+    }
+    
+    /**
+     * Iterate over RCs at a position with a given value, a word at a time, e.g.:
+     * for (int rc = nextOneBody(res, 0, false); rc >= 0; rc = nextOneBody(res, rc + 1, false))
+     * 
+     * @return the first RC at res that's at least conf and has value val, or -1 if there is none
+     */
+    public int nextOneBody(int res, int conf, boolean val) {
+    	checkStorage();
+    	int numConfs = getNumConfAtPos(res);
+    	if (conf >= numConfs) {
+    		return -1;
+    	}
+    	int start = getOneBodyIndex(res, 0);
+    	int index = val ? oneBody.nextSetBit(start + conf) : oneBody.nextClearBit(start + conf);
+    	if (index < 0 || index >= start + numConfs) {
+    		return -1;
+    	}
+    	return index - start;
+    }
+    
+    /** how many RCs at res have value val */
+    public int countOneBody(int res, boolean val) {
+    	int count = 0;
+    	for (int conf = nextOneBody(res, 0, true); conf >= 0; conf = nextOneBody(res, conf + 1, true)) {
+    		count++;
+    	}
+    	return val ? count : getNumConfAtPos(res) - count;
+    }
+    
+    /** sets every one-body and pairwise entry to (this entry OR the other entry) */
+    public void or(TupleMatrixBoolean other) {
+    	checkSameShape(other);
+    	oneBody.or(other.oneBody);
+    	pairwise.or(other.pairwise);
+    }
+    
+    /** sets every one-body and pairwise entry to (this entry AND the other entry) */
+    public void and(TupleMatrixBoolean other) {
+    	checkSameShape(other);
+    	oneBody.and(other.oneBody);
+    	pairwise.and(other.pairwise);
+    }
 }
@@ -4,8 +4,12 @@
  */
 package edu.duke.cs.osprey.confspace;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 
+import edu.duke.cs.osprey.tools.MappedDoubleArray;
+
 public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
 	
 	private static final long serialVersionUID = -1286639255089978027L;
@@ -13,6 +17,12 @@ public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
     //note: tuples are sets not ordered pairs, i.e. E(i_r,j_s) = E(j_s,i_r), and pruning (i_r,j_s) means pruning (j_s,i_r)
 	private double[] oneBody; // indices: res1, RC1
 	private double[] pairwise; // indices: res1, res2, RC1, RC2 where res1>res2
+	
+	// or, if the matrix was mapped from a file, the same thing but in the file
+	// NOTE: the mappings are read-only, so the first write copies everything into the arrays
+	// NOTE: volatile, so threads that see a mapping cleared also see the arrays that replaced it
+	private transient volatile MappedDoubleArray mappedOneBody;
+	private transient volatile MappedDoubleArray mappedPairwise;
     
     public TupleMatrixDouble(ConfSpace cSpace, double pruningInterval, double defaultHigherInteraction) {
     	super(cSpace, pruningInterval, defaultHigherInteraction);
@@ -22,10 +32,49 @@ public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
     	super(numPos, numAllowedAtPos, pruningInterval, defaultHigherInteraction);
     }
     
+    public TupleMatrixDouble(int numPos, int[] numAllowedAtPos, double pruningInterval, double defaultHigherInteraction, boolean[][] hasPairBlocks) {
+    	super(numPos, numAllowedAtPos, pruningInterval, defaultHigherInteraction, true, hasPairBlocks);
+    }
+    
+    protected TupleMatrixDouble(int numPos, int[] numAllowedAtPos, double pruningInterval, double defaultHigherInteraction, boolean[][] hasPairBlocks, MappedDoubleArray oneBody, MappedDoubleArray pairwise) {
+    	super(numPos, numAllowedAtPos, pruningInterval, defaultHigherInteraction, false, hasPairBlocks);
+    	if (oneBody.size() != getNumOneBodyTerms() || pairwise.size() != getNumPairwiseTerms()) {
+    		throw new IllegalArgumentException("mapped arrays don't match the matrix size");
+    	}
+    	this.mappedOneBody = oneBody;
+    	this.mappedPairwise = pairwise;
+    }
+    
     public TupleMatrixDouble(TupleMatrixDouble other) {
     	super(other);
-    	this.oneBody = other.oneBody.clone();
-    	this.pairwise = other.pairwise.clone();
+    	this.oneBody = other.getOneBodyArray();
+    	this.pairwise = other.getPairwiseArray();
+    }
+    
+    public boolean isMapped() {
+    	return mappedOneBody != null;
+    }
+    
+    // copies, so changes to the arrays don't change the matrix
+    private double[] getOneBodyArray() {
+    	MappedDoubleArray mapped = mappedOneBody;
+    	return mapped != null ? mapped.toArray() : oneBody.clone();
+    }
+    
+    private double[] getPairwiseArray() {
+    	MappedDoubleArray mapped = mappedPairwise;
+    	return mapped != null ? mapped.toArray() : pairwise.clone();
+    }
+    
+    private void writeObject(ObjectOutputStream out)
+    throws IOException {
+    	// mapped matrices get serialized like regular ones
+    	MappedDoubleArray mappedOneBody = this.mappedOneBody;
+    	MappedDoubleArray mappedPairwise = this.mappedPairwise;
+    	ObjectOutputStream.PutField fields = out.putFields();
+    	fields.put("oneBody", mappedOneBody != null ? mappedOneBody.toArray() : oneBody);
+    	fields.put("pairwise", mappedPairwise != null ? mappedPairwise.toArray() : pairwise);
+    	out.writeFields();
     }
     
     @Override
@@ -36,30 +85,30 @@ public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
     
     @Override
     public Double getOneBody(int res, int conf) {
-    	return oneBody[getOneBodyIndex(res, conf)];
+    	return getOneBodyByIndex(getOneBodyIndex(res, conf));
     }
     
     @Override
     public void setOneBody(int res, int conf, Double val) {
-    	oneBody[getOneBodyIndex(res, conf)] = val;
+    	setOneBodyByIndex(getOneBodyIndex(res, conf), val);
     }
     
     @Override
     public void setOneBody(int res, ArrayList<Double> val) {
     	int n = getNumConfAtPos(res);
     	for (int i=0; i<n; i++) {
-    		oneBody[getOneBodyIndex(res, i)] = val.get(i);
+    		setOneBodyByIndex(getOneBodyIndex(res, i), val.get(i));
     	}
     }
     
     @Override
     public Double getPairwise(int res1, int conf1, int res2, int conf2) {
-    	return pairwise[getPairwiseIndex(res1, conf1, res2, conf2)];
+    	return getPairwiseByIndex(getPairwiseIndex(res1, conf1, res2, conf2));
     }
     
     @Override
     public void setPairwise(int res1, int conf1, int res2, int conf2, Double val) {
-    	pairwise[getPairwiseIndex(res1, conf1, res2, conf2)] = val;
+    	setPairwiseByIndex(getPairwiseIndex(res1, conf1, res2, conf2), val);
     }
     
     @Override
@@ -68,8 +117,62 @@ public class TupleMatrixDouble extends AbstractTupleMatrix<Double> {
     	int n2 = getNumConfAtPos(res2);
     	for (int i1=0; i1<n1; i1++) {
     		for (int i2=0; i2<n2; i2++) {
-    			pairwise[getPairwiseIndex(res1, i1, res2, i2)] = val.get(i1).get(i2);
+    			setPairwiseByIndex(getPairwiseIndex(res1, i1, res2, i2), val.get(i1).get(i2));
     		}
     	}
     }
+    
+    /**
+     * one-body terms, in storage order (by position, then RC)
+     */
+    public double getOneBodyByIndex(int i) {
+    	MappedDoubleArray mapped = mappedOneBody;
+    	if (mapped != null) {
+    		return mapped.get(i);
+    	}
+    	return oneBody[i];
+    }
+    
+    public void setOneBodyByIndex(int i, double val) {
+    	if (mappedOneBody != null) {
+    		unmap();
+    	}
+    	oneBody[i] = val;
+    }
+    
+    /**
+     * pairwise terms, in storage order (by pos1, then pos2 < pos1, then RC1, then RC2)
+     * pairs in blocks that aren't stored (index -1) are always zero, and writes to them are ignored
+     */
+    public double getPairwiseByIndex(int i) {
+    	if (i < 0) {
+    		return 0;
+    	}
+    	MappedDoubleArray mapped = mappedPairwise;
+    	if (mapped != null) {
+    		return mapped.get(i);
+    	}
+    	return pairwise[i];
+    }
+    
+    public void setPairwiseByIndex(int i, double val) {
+    	if (i < 0) {
+    		return;
+    	}
+    	if (mappedPairwise != null) {
+    		unmap();
+    	}
+    	pairwise[i] = val;
+    }
+    
+    private synchronized void unmap() {
+    	if (mappedOneBody != null) {
+    		// NOTE: assign the arrays before clearing the (volatile) mappings,
+    		// so readers that see a cleared mapping are guaranteed to see the array too
+    		pairwise = mappedPairwise.toArray();
+    		oneBody = mappedOneBody.toArray();
+    		mappedPairwise = null;
+    		mappedOneBody = null;
+    	}
+    }
 }
@@ -0,0 +1,395 @@
+package edu.duke.cs.osprey.control;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.duke.cs.osprey.energy.EnergySignature;
+import edu.duke.cs.osprey.tools.AppendLog;
+
+/**
+ * Remembers minimized conformation energies (and DOF values) across runs
+ *
+ * Entries are keyed by an EnergySignature of everything that goes into a minimized energy
+ * (the structure, the conf space, the shell, the forcefield settings, and the minimizer) plus the RC assignments,
+ * so one cache file can hold confs from many conf spaces, eg all the states of a K* or MSK* design.
+ * New entries are appended to a log file as soon as they're computed, and the whole log is read back when the cache is opened.
+ * Only the most recently used entries are kept in memory, but every record in the log is indexed
+ * (by a 64-bit hash of its key, 16 bytes per record), so evicted entries are read back from the log when they're needed again.
+ * Caches opened by file are shared, and the log is closed when the last user closes it.
+ *
+ * Log records (see AppendLog) are:
+ *   signature (32 bytes), numPos, assignments, energy, numDofs, dof values
+ */
+public class ConfEnergyCache {
+
+	public static final int SignatureSize = EnergySignature.Size;
+
+	private static final int Magic = 0x4f434543; // OCEC
+	private static final int Version = 1;
+
+	public static class Entry {
+
+		public final double energy;
+		public final double[] dofValues;
+
+		public Entry(double energy, double[] dofValues) {
+			this.energy = energy;
+			this.dofValues = dofValues;
+		}
+	}
+
+	private static class Key {
+
+		public final byte[] signature;
+		public final int[] assignments;
+		private final int hashCode;
+
+		public Key(byte[] signature, int[] assignments) {
+			this.signature = signature;
+			this.assignments = assignments;
+			this.hashCode = Arrays.hashCode(signature)*31 + Arrays.hashCode(assignments);
+		}
+
+		/** a wider hash than hashCode(), so the log index rarely has collisions */
+		public long longHashCode() {
+			long hash = 1125899906842597L;
+			for (byte b : signature) {
+				hash = hash*31 + b;
+			}
+			for (int rc : assignments) {
+				hash = hash*1000003 + rc;
+			}
+			return hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key otherKey = (Key)other;
+			return hashCode == otherKey.hashCode
+				&& Arrays.equals(assignments, otherKey.assignments)
+				&& Arrays.equals(signature, otherKey.signature);
+		}
+	}
+
+	/**
+	 * Maps key hashes to log offsets, without boxing anything
+	 *
+	 * Open addressing with linear probing, since the index has an entry for every record in the log.
+	 */
+	private static class LogIndex {
+
+		private static final long NoOffset = -1;
+
+		private long[] hashes;
+		private long[] offsets;
+		private int size;
+
+		public LogIndex() {
+			hashes = new long[1024];
+			offsets = new long[hashes.length];
+			Arrays.fill(offsets, NoOffset);
+			size = 0;
+		}
+
+		private int find(long hash) {
+			int mask = hashes.length - 1;
+			int i = (int)(hash ^ (hash >>> 32)) & mask;
+			while (offsets[i] != NoOffset && hashes[i] != hash) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		/** returns the offset of the record with this hash, or NoOffset if there isn't one */
+		public long get(long hash) {
+			return offsets[find(hash)];
+		}
+
+		/** returns false and keeps the old offset if the hash is already indexed */
+		public boolean add(long hash, long offset) {
+			int i = find(hash);
+			if (offsets[i] != NoOffset) {
+				return false;
+			}
+			hashes[i] = hash;
+			offsets[i] = offset;
+			size++;
+			if (size*2 > hashes.length) {
+				grow();
+			}
+			return true;
+		}
+
+		private void grow() {
+			long[] oldHashes = hashes;
+			long[] oldOffsets = offsets;
+			hashes = new long[oldHashes.length*2];
+			offsets = new long[hashes.length];
+			Arrays.fill(offsets, NoOffset);
+			for (int i=0; i<oldHashes.length; i++) {
+				if (oldOffsets[i] != NoOffset) {
+					int j = find(oldHashes[i]);
+					hashes[j] = oldHashes[i];
+					offsets[j] = oldOffsets[i];
+				}
+			}
+		}
+	}
+
+	// all the energy calculators in a run should append to the same log, so share caches by file
+	private static final Map<File,ConfEnergyCache> openCaches = new HashMap<>();
+
+	public static ConfEnergyCache open(File file, int maxEntries) {
+		synchronized (openCaches) {
+			File key = file.getAbsoluteFile();
+			ConfEnergyCache cache = openCaches.get(key);
+			if (cache == null) {
+				cache = new ConfEnergyCache(key, maxEntries);
+				openCaches.put(key, cache);
+			} else {
+				cache.numOpens++;
+			}
+			return cache;
+		}
+	}
+
+	public static ConfEnergyCache openFromConfig(ConfigFileParser cfp) {
+		String path = cfp.getParams().getValue("ConfEnergyCacheFile", "");
+		if (path.isEmpty()) {
+			return null;
+		}
+		return open(new File(path), cfp.getParams().getInt("ConfEnergyCacheMaxEntries", 1000000));
+	}
+
+	private final File file;
+	private final LinkedHashMap<Key,Entry> entries;
+	private final Map<Key,byte[]> signatures;
+	private final LogIndex index;
+	private final ReentrantLock lock;
+	private AppendLog log;
+	private int numOpens;
+	private int numHits;
+	private int numMisses;
+
+	public ConfEnergyCache(File file, int maxEntries) {
+
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be > 0");
+		}
+
+		this.file = file;
+
+		// keep the most recently used entries in memory
+		this.entries = new LinkedHashMap<Key,Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+
+		// share signature arrays between keys
+		this.signatures = new HashMap<>();
+
+		// remember where everything is in the log, even after it's evicted from memory
+		// NOTE: only keep hashes, a collision just means a conf doesn't get logged, not a wrong energy,
+		// since records read back from the log are checked against the whole key
+		this.index = new LogIndex();
+
+		// NOTE: minimizer listeners can run on VirtualThreadTaskExecutor threads,
+		// and waiting for a ReentrantLock doesn't pin their carrier threads like synchronized does
+		this.lock = new ReentrantLock();
+		this.numOpens = 1;
+
+		try {
+			log = AppendLog.open(file, Magic, Version, new byte[0], (in, offset) -> {
+				Key key = readKey(in);
+				entries.put(key, readEntry(in));
+				index.add(key.longHashCode(), offset);
+			});
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't open conf energy cache " + file + "\n" + ex.getMessage(), ex);
+		}
+	}
+
+	private Key readKey(DataInputStream in)
+	throws IOException {
+		byte[] signature = new byte[SignatureSize];
+		in.readFully(signature);
+		int[] assignments = new int[in.readInt()];
+		for (int i=0; i<assignments.length; i++) {
+			assignments[i] = in.readInt();
+		}
+		return makeKey(signature, assignments);
+	}
+
+	private Entry readEntry(DataInputStream in)
+	throws IOException {
+		double energy = in.readDouble();
+		double[] dofValues = new double[in.readInt()];
+		for (int i=0; i<dofValues.length; i++) {
+			dofValues[i] = in.readDouble();
+		}
+		return new Entry(energy, dofValues);
+	}
+
+	/** reads an evicted entry back from the log, or returns null if the key isn't there */
+	private Entry readLogged(Key key)
+	throws IOException {
+
+		long offset = index.get(key.longHashCode());
+		if (offset == LogIndex.NoOffset) {
+			return null;
+		}
+
+		Entry[] entry = { null };
+		log.read(offset, (in, recordOffset) -> {
+			// different keys can have the same hash, so check the whole key
+			if (readKey(in).equals(key)) {
+				entry[0] = readEntry(in);
+			}
+		});
+		return entry[0];
+	}
+
+	private Key makeKey(byte[] signature, int[] assignments) {
+
+		// intern the signature, so we only store one copy per conf space
+		Key signatureKey = new Key(signature, new int[0]);
+		byte[] sharedSignature = signatures.get(signatureKey);
+		if (sharedSignature == null) {
+			sharedSignature = signature.clone();
+			signatures.put(signatureKey, sharedSignature);
+		}
+
+		return new Key(sharedSignature, assignments);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return entries.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getNumHits() {
+		return numHits;
+	}
+
+	public int getNumMisses() {
+		return numMisses;
+	}
+
+	/** returns the cached entry, or null if the conf hasn't been minimized yet */
+	public Entry get(byte[] signature, int[] assignments) {
+		lock.lock();
+		try {
+			Key key = new Key(signature, assignments);
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				entry = readLogged(key);
+				if (entry != null) {
+					entries.put(makeKey(signature, assignments.clone()), entry);
+				}
+			}
+			if (entry == null) {
+				numMisses++;
+			} else {
+				numHits++;
+			}
+			return entry;
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't read from conf energy cache " + file, ex);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void put(byte[] signature, int[] assignments, double energy, double[] dofValues) {
+
+		if (signature.length != SignatureSize) {
+			throw new IllegalArgumentException("signature should have " + SignatureSize + " bytes, not " + signature.length);
+		}
+		if (dofValues == null) {
+			dofValues = new double[0];
+		}
+
+		lock.lock();
+		try {
+
+			Key key = makeKey(signature, assignments.clone());
+			if (entries.containsKey(key)) {
+				return;
+			}
+			entries.put(key, new Entry(energy, dofValues.clone()));
+			if (index.get(key.longHashCode()) != LogIndex.NoOffset) {
+				return;
+			}
+
+			// append to the log right away, so a killed run still keeps everything it minimized
+			double[] fDofValues = dofValues;
+			long offset = log.append((out) -> {
+				out.write(key.signature);
+				out.writeInt(assignments.length);
+				for (int rc : assignments) {
+					out.writeInt(rc);
+				}
+				out.writeDouble(energy);
+				out.writeInt(fDofValues.length);
+				for (double val : fDofValues) {
+					out.writeDouble(val);
+				}
+			});
+			index.add(key.longHashCode(), offset);
+
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't write to conf energy cache " + file, ex);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** closes the log once everyone who opened this cache has closed it */
+	public void close() {
+
+		synchronized (openCaches) {
+			if (--numOpens > 0) {
+				return;
+			}
+			if (openCaches.get(file) == this) {
+				openCaches.remove(file);
+			}
+		}
+
+		lock.lock();
+		try {
+			log.close();
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't close conf energy cache " + file, ex);
+		} finally {
+			lock.unlock();
+		}
+	}
+}
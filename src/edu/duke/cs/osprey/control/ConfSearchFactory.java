@@ -1,8 +1,12 @@
 package edu.duke.cs.osprey.control;
 
+import java.io.File;
+
 import edu.duke.cs.osprey.astar.ConfTree;
+import edu.duke.cs.osprey.astar.conf.ConfAStarQueue;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
 import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.astar.conf.SpillingConfAStarQueue;
 import edu.duke.cs.osprey.astar.conf.order.AStarOrder;
 import edu.duke.cs.osprey.astar.conf.order.DynamicHMeanAStarOrder;
 import edu.duke.cs.osprey.astar.conf.order.StaticScoreHMeanAStarOrder;
@@ -12,6 +16,7 @@ import edu.duke.cs.osprey.astar.conf.scoring.PairwiseGScorer;
 import edu.duke.cs.osprey.astar.conf.scoring.TraditionalPairwiseHScorer;
 import edu.duke.cs.osprey.astar.conf.scoring.mplp.EdgeUpdater;
 import edu.duke.cs.osprey.astar.conf.scoring.mplp.MPLPUpdater;
+import edu.duke.cs.osprey.astar.conf.scoring.mplp.MessageVarsCache;
 import edu.duke.cs.osprey.astar.conf.scoring.mplp.NodeUpdater;
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.confspace.SearchProblem;
@@ -76,7 +81,9 @@ public interface ConfSearchFactory {
 						}
 						
 						double convergenceThreshold = cfp.getParams().getDouble("MPLPConvergenceThreshold");
-						hscorer = new MPLPPairwiseHScorer(updater, emat, numMPLPIters, convergenceThreshold);
+						int cacheSize = cfp.getParams().getInt("MPLPMessageCacheSize", 1000);
+						MessageVarsCache cache = cacheSize > 0 ? new MessageVarsCache(cacheSize) : null;
+						hscorer = new MPLPPairwiseHScorer(updater, emat, numMPLPIters, convergenceThreshold, cache);
 						
 						// also, always use a static order with MPLP
 						// MPLP isn't optimized to do differential node scoring quickly so DynamicHMean is super slow!
@@ -85,7 +92,25 @@ public interface ConfSearchFactory {
 					
 					// init the A* tree
 					ConfAStarTree tree = new ConfAStarTree(order, gscorer, hscorer, rcs);
-					tree.setParallelism(Parallelism.makeCpu(cfp.getParams().getInt("AStarThreads")));
+					tree.setParallelism(Parallelism.makeCpu(
+						cfp.getParams().getInt("AStarThreads"),
+						Parallelism.TaskExecutorType.makeFromConfig(cfp)
+					));
+					tree.setExpansionBatchSize(cfp.getParams().getInt("AStarExpansionBatchSize", 1));
+					int queueMemoryMB = cfp.getParams().getInt("AStarQueueMemoryMB", 0);
+					if (queueMemoryMB > 0) {
+						if (cfp.getParams().getBool("AStarCompactQueue", false)) {
+							System.out.println("WARNING: AStarQueueMemoryMB is set, so AStarCompactQueue is ignored");
+						}
+						String spillDir = cfp.getParams().getValue("AStarQueueSpillDir", "");
+						tree.setQueue(SpillingConfAStarQueue.makeForMemory(
+							rcs.getNumPos(),
+							queueMemoryMB*1024L*1024L,
+							spillDir.isEmpty() ? null : new File(spillDir)
+						));
+					} else if (cfp.getParams().getBool("AStarCompactQueue", false)) {
+						tree.setQueueType(ConfAStarQueue.Type.Compact);
+					}
 					tree.initProgress();
 					return tree;
 				}
@@ -178,6 +178,7 @@ public class ConfigFileParser {
         );
         
         search.numEmatThreads = params.getInt("EmatThreads");
+        search.ematPairCutoff = params.getDouble("EmatPairCutoff");
         
         return search;
     }
@@ -359,6 +360,9 @@ public class ConfigFileParser {
 		params.getDouble("SOLVSCALE"),
                 params.getBool("HELECT"),
                 params.getBool("HVDW") );
+        curForcefieldParams.neighborListCutoff = params.getDouble("NEIGHBORLISTCUTOFF");
+        curForcefieldParams.neighborListSkin = params.getDouble("NEIGHBORLISTSKIN");
+        curForcefieldParams.incrementalEnergies = params.getBool("INCREMENTALENERGIES");
         
         
         EnvironmentVars.curEFcnGenerator = new EnergyFunctionGenerator( 
@@ -252,7 +252,9 @@ public class GMECFinder {
 					// for "regular" conf minimization, use the spiffy new ConfMinimizer!
 					ForcefieldParams ffparams = EnvironmentVars.curEFcnGenerator.ffParams;
 					Parallelism parallelism = Parallelism.makeFromConfig(cfp);
-					ecalc = MinimizingEnergyCalculator.make(ffparams, search, parallelism);
+					MinimizingEnergyCalculator minimizingEcalc = MinimizingEnergyCalculator.make(ffparams, search, parallelism);
+					minimizingEcalc.setCacheFromConfig(cfp, search, ffparams);
+					ecalc = minimizingEcalc;
 				}
 			}
 			
@@ -332,6 +334,7 @@ public class GMECFinder {
             
             // no confs in the search space, can't recover, just bail
             System.out.println("All conformations pruned. Try choosing a larger pruning interval or steric threshold.");
+            confSearch.cleanup();
             return new ArrayList<>();
         }
         System.out.println("Found min score conformation in " + minScoreStopwatch.getTime(1));
@@ -387,6 +390,7 @@ public class GMECFinder {
         System.out.println(String.format("\tFound %d more", lowEnergyConfs.size() - 1));
         
         // we're done with A*, release the tree so we can get the memory back
+        confSearch.cleanup();
         confSearch = null;
 
         if (!lowEnergyConfs.isEmpty()) {
@@ -624,6 +628,7 @@ public class GMECFinder {
 			System.out.println(String.format("\tFound %d more", lowEnergyConfs.size() - 1));
 
 			// we're done with A*, release the tree so we can get the memory back
+			confSearch.cleanup();
 			confSearch = null;
 
 			if (!lowEnergyConfs.isEmpty()) {
@@ -708,6 +713,7 @@ public class GMECFinder {
             
             // no confs in the search space, can't recover, just bail
             System.out.println("All conformations pruned. Try choosing a larger pruning interval.");
+            confSearch.cleanup();
             return new ArrayList<>();
         }
         System.out.println("Found min score conformation in " + minScoreStopwatch.getTime(1));
@@ -753,6 +759,7 @@ public class GMECFinder {
                 break;
             }
         }
+        confSearch.cleanup();
         
         return sequenceConfs;
     }
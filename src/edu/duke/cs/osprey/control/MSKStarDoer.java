@@ -486,6 +486,7 @@ public class MSKStarDoer {
 			e.printStackTrace();
 		} finally {
 			if(fout != null) {fout.flush();fout.close();}
+			tree.cleanup();//stop the tree's task executor
 			cleanup();//free energy calculators
 		}
 
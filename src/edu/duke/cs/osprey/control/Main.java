@@ -5,15 +5,18 @@
 package edu.duke.cs.osprey.control;
 
 import edu.duke.cs.osprey.energy.LigandResEnergies;
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
 import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
 import edu.duke.cs.osprey.kstar.KSConfigFileParser;
+import edu.duke.cs.osprey.handlempi.MPIMaster;
 import edu.duke.cs.osprey.minimization.CCDMinimizer;
 import edu.duke.cs.osprey.parallelism.ThreadParallelism;
 import edu.duke.cs.osprey.tests.UnitTestSuite;
+import edu.duke.cs.osprey.tools.Metrics;
 import edu.duke.cs.osprey.tools.Stopwatch;
 
 /**
@@ -67,6 +70,10 @@ public class Main {
 			throw new RuntimeException("ERROR: OSPREY command unrecognized: "+command);
                 
                 EnvironmentVars.closeSpecialWarningLogs();
+                if (EnvironmentVars.useMPI) {
+                    MPIMaster.getInstance().stopSlaves();
+                }
+                Metrics.stopExport();
                 
 		System.out.println("Total OSPREY execution time: " + stopwatch.getTime(2));
 		System.out.println("OSPREY finished");
@@ -83,6 +90,21 @@ public class Main {
                 CCDMinimizer.numIter = cfp.params.getInt("CCDNumIter");
                 EnvironmentVars.alwaysIdealizeSidechainsAfterMutation = cfp.params.getBool("ALWAYSIDEALIZESIDECHAINSAFTERMUTATION");
                 
+                // distribute energy matrix calculations to slave JVMs, if requested
+                int numMPISlaves = cfp.params.getInt("MPISlaves");
+                if (numMPISlaves > 0) {
+                    EnvironmentVars.useMPI = true;
+                    MPIMaster.getInstance().setSlaveArgs(args);
+                    MPIMaster.getInstance().setNumSlaves(numMPISlaves);
+                }
+                
+                // export runtime metrics, if requested
+                String metricsPath = cfp.params.getValue("MetricsFile", "");
+                if (!metricsPath.isEmpty()) {
+                    File metricsFile = new File(metricsPath);
+                    Metrics.startExport(metricsFile, Metrics.Format.fromFile(metricsFile), cfp.params.getInt("MetricsIntervalS")*1000L);
+                }
+                
 		// TODO Auto-generated method stub
 		commands = new HashMap<String, Runnable>();
 
@@ -4,10 +4,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
+import edu.duke.cs.osprey.confspace.ConfSearch.MinimizedConf;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.confspace.ConfSpace;
 import edu.duke.cs.osprey.confspace.SearchProblem;
 import edu.duke.cs.osprey.ematrix.ReferenceEnergies;
+import edu.duke.cs.osprey.energy.EnergySignature;
 import edu.duke.cs.osprey.energy.ForcefieldInteractionsGenerator;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
@@ -16,6 +18,7 @@ import edu.duke.cs.osprey.minimization.CpuConfMinimizer;
 import edu.duke.cs.osprey.minimization.GpuConfMinimizer;
 import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.structure.Residue;
 import edu.duke.cs.osprey.tools.Factory;
 
 public class MinimizingEnergyCalculator implements ConfEnergyCalculator.Async {
@@ -37,6 +40,7 @@ public class MinimizingEnergyCalculator implements ConfEnergyCalculator.Async {
 			case Cpu:
 				minimizer = new CpuConfMinimizer.Builder(ffparams, ffinteractions, search.confSpace)
 					.setNumThreads(parallelism.numThreads)
+					.setTaskExecutorType(parallelism.taskExecutorType)
 					.build();
 			break;
 			case Gpu:
@@ -79,21 +83,79 @@ public class MinimizingEnergyCalculator implements ConfEnergyCalculator.Async {
 	
 	private ConfMinimizer minimizer;
 	private List<ConfPostProcessor> postProcessors;
+	private ConfEnergyCache cache;
+	private byte[] cacheSignature;
+	private boolean ownsCache;
 	
 	public MinimizingEnergyCalculator(ConfMinimizer minimizer) {
 		this.minimizer = minimizer;
 		this.postProcessors = new ArrayList<>();
+		this.cache = null;
+		this.cacheSignature = null;
+		this.ownsCache = false;
 	}
 	
 	public void addConfPostProcessor(ConfPostProcessor val) {
 		this.postProcessors.add(val);
 	}
 	
+	/**
+	 * Look up minimized energies in the cache before minimizing, and add new ones after.
+	 * The cache holds energies before post processing, so post processors still apply to cached confs.
+	 * The caller still owns the cache, and should close it when it's done.
+	 */
+	public void setCache(ConfEnergyCache cache, ConfSpace confSpace, List<Residue> shellResidues, ForcefieldParams ffparams) {
+		
+		if (cache != null && minimizer.getSettings() == null) {
+			System.out.println("WARNING: minimizer settings are unknown, so minimized energies won't be cached");
+			cache = null;
+		}
+		
+		this.cache = cache;
+		this.cacheSignature = cache == null ? null : EnergySignature.make(confSpace, shellResidues, ffparams, minimizer.getSettings());
+		this.ownsCache = false;
+	}
+	
+	/** uses the cache named by ConfEnergyCacheFile in the config, if any, and closes it in cleanup() */
+	public void setCacheFromConfig(ConfigFileParser cfp, SearchProblem search, ForcefieldParams ffparams) {
+		ConfEnergyCache cache = ConfEnergyCache.openFromConfig(cfp);
+		if (cache != null) {
+			setCache(cache, search.confSpace, search.shellResidues, ffparams);
+			if (this.cache == null) {
+				cache.close();
+			} else {
+				ownsCache = true;
+			}
+		}
+	}
+	
+	public ConfEnergyCache getCache() {
+		return cache;
+	}
+	
 	@Override
 	public int getParallelism() {
 		return minimizer.getAsync().getParallelism();
 	}
 	
+	private EnergiedConf getCachedConf(ScoredConf conf) {
+		if (cache == null) {
+			return null;
+		}
+		ConfEnergyCache.Entry entry = cache.get(cacheSignature, conf.getAssignments());
+		if (entry == null) {
+			return null;
+		}
+		return new MinimizedConf(conf, entry.energy, entry.dofValues.clone());
+	}
+	
+	private void cacheConf(EnergiedConf econf) {
+		if (cache != null) {
+			double[] dofValues = econf instanceof MinimizedConf ? ((MinimizedConf)econf).getDofValues() : null;
+			cache.put(cacheSignature, econf.getAssignments(), econf.getEnergy(), dofValues);
+		}
+	}
+	
 	private EnergiedConf postProcessConf(EnergiedConf econf) {
 		for (ConfPostProcessor postProcessor : postProcessors) {
 			postProcessor.postProcess(econf);
@@ -103,14 +165,36 @@ public class MinimizingEnergyCalculator implements ConfEnergyCalculator.Async {
 
 	@Override
 	public EnergiedConf calcEnergy(ScoredConf conf) {
-		return postProcessConf(minimizer.getAsync().minimizeSync(conf));
+		
+		EnergiedConf econf = getCachedConf(conf);
+		if (econf == null) {
+			econf = minimizer.getAsync().minimizeSync(conf);
+			cacheConf(econf);
+		}
+		
+		return postProcessConf(econf);
 	}
 	
 	@Override
 	public void calcEnergyAsync(ScoredConf conf, Listener listener) {
+		
+		// already minimized? skip the minimizer entirely
+		// but still report the energy on the listener thread, so callers never get two energies at once
+		EnergiedConf cachedConf = getCachedConf(conf);
+		if (cachedConf != null) {
+			minimizer.getAsync().reportAsync(cachedConf, new ConfMinimizer.Async.Listener() {
+				@Override
+				public void onMinimized(EnergiedConf econf) {
+					listener.onEnergy(postProcessConf(econf));
+				}
+			});
+			return;
+		}
+		
 		minimizer.getAsync().minimizeAsync(conf, new ConfMinimizer.Async.Listener() {
 			@Override
 			public void onMinimized(EnergiedConf econf) {
+				cacheConf(econf);
 				listener.onEnergy(postProcessConf(econf));
 			}
 		});
@@ -124,5 +208,12 @@ public class MinimizingEnergyCalculator implements ConfEnergyCalculator.Async {
 	@Override
 	public void cleanup() {
 		minimizer.cleanup();
+		
+		// NOTE: the minimizer waits for its tasks to finish, so nothing else gets cached after this
+		if (ownsCache) {
+			cache.close();
+			cache = null;
+			ownsCache = false;
+		}
 	}
 }
@@ -8,6 +8,7 @@ package edu.duke.cs.osprey.dof;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.Residue;
 import edu.duke.cs.osprey.tools.RotationMatrix;
+import edu.duke.cs.osprey.tools.VectorAlgebra;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -127,6 +128,28 @@ public class MoveableStrand implements Serializable, DOFBlock {
         return res;
     }
     
+    public double[] getRotationCenter(){
+        return VectorAlgebra.add(initCenter, curTrans);
+    }
+    
+    public double[] getRotationAxis(int angleNum){
+        //Unit axis that changing the given angle currently rotates the strand around
+        //curRotMatrix = rot3*rot2*rot1, so angle 0 rotates about rot3*rot2*x,
+        //angle 1 about rot3*y, and angle 2 about z
+        RotationMatrix rot2 = new RotationMatrix(0, 1, 0, curAngles[1], false);
+        RotationMatrix rot3 = new RotationMatrix(0, 0, 1, curAngles[2], false);
+        switch(angleNum){
+            case 0:
+                return rot3.rotateVector(rot2.rotateVector(new double[] {1,0,0}));
+            case 1:
+                return rot3.rotateVector(new double[] {0,1,0});
+            case 2:
+                return new double[] {0,0,1};
+            default:
+                throw new IllegalArgumentException("ERROR: invalid strand rotation angle " + angleNum);
+        }
+    }
+    
     
     public static double[] getStrandDOFBounds(DegreeOfFreedom strandDOF){
         //What are the bounds on this strand rigid-motion DOF?
@@ -49,6 +49,10 @@ public class StrandRotation extends DegreeOfFreedom {
     public MoveableStrand getMoveableStrand(){
         return strand;
     }
+    
+    public int getAngleNumber(){
+        return angleNum;
+    }
 
     @Override
     public DOFBlock getBlock(){
@@ -44,6 +44,10 @@ public class StrandTranslation extends DegreeOfFreedom {
         return strand;
     }
     
+    public int getCoordNumber(){
+        return coordNum;
+    }
+    
     @Override
     public DOFBlock getBlock(){
         return strand;
@@ -5,11 +5,14 @@
 package edu.duke.cs.osprey.ematrix;
 
 import java.util.ArrayList;
+import java.util.function.Supplier;
 
 import edu.duke.cs.osprey.confspace.ConfSpace;
 import edu.duke.cs.osprey.confspace.HigherTupleFinder;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.TupleMatrixDouble;
+import edu.duke.cs.osprey.tools.IntList;
+import edu.duke.cs.osprey.tools.MappedDoubleArray;
 
 /**
  *
@@ -38,12 +41,39 @@ public class EnergyMatrix extends TupleMatrixDouble {
     }
     
     
+    public EnergyMatrix(ConfSpace cSpace, double pruningInterval, boolean[][] hasPairBlocks){
+        //sparse matrix: only store pairwise energies for residue pairs marked in hasPairBlocks (indices: res1, res2 where res1>res2)
+        //the other pairwise energies are all zero (see RCBoundingSpheres to find pairs that can't interact)
+        this(cSpace.numPos, cSpace.getNumRCsAtPos(), pruningInterval, hasPairBlocks);
+    }
+    
+    public EnergyMatrix(int numPos, int[] numRCsAtPos, double pruningInterval, boolean[][] hasPairBlocks){
+        super(numPos, numRCsAtPos, pruningInterval, 0., hasPairBlocks);
+    }
+    
+    
+    EnergyMatrix(int numPos, int[] numRCsAtPos, double pruningInterval, boolean[][] hasPairBlocks, MappedDoubleArray oneBody, MappedDoubleArray pairwise){
+        //for matrices mapped from a file, see EnergyMatrixFile
+        super(numPos, numRCsAtPos, pruningInterval, 0., hasPairBlocks, oneBody, pairwise);
+    }
+    
+    
     public EnergyMatrix(EnergyMatrix other) {
     	super(other);
     	this.constTerm = other.constTerm;
     }
     
     
+    void setHigherOrderTermsFromFile(Supplier<ArrayList<HigherTupleFinder<Double>>> loader) {
+    	setHigherOrderTermsLoader(loader);
+    }
+    
+    void seteRefMatFromFile(ReferenceEnergies val) {
+    	//the energies in the file were already corrected, so don't correct them again
+    	eRefMat = val;
+    }
+    
+    
     public double rcContribAtPos(int pos, int[] conf, int numResInHot) {
     	// value of an rc
     	RCTuple tup = new RCTuple(conf);
@@ -97,8 +127,8 @@ public class EnergyMatrix extends TupleMatrixDouble {
 		// this does wonders to CPU cache performance!
 		boolean useHigherOrderTerms = hasHigherOrderTerms();
 		
-		ArrayList<Integer> tuppos = tup.pos;
-		ArrayList<Integer> tupRCs = tup.RCs;
+		IntList tuppos = tup.pos;
+		IntList tupRCs = tup.RCs;
 		
         // OPTIMIZATION: split oneBody and pairwise energies into separate loops
 		// to improve CPU cache performance
@@ -107,19 +137,19 @@ public class EnergyMatrix extends TupleMatrixDouble {
         double energy = 0;
         
         for(int indexInTuple=0; indexInTuple<numPosInTuple; indexInTuple++){
-            int posNum = tuppos.get(indexInTuple);
-            int RCNum = tupRCs.get(indexInTuple);
+            int posNum = tuppos.getInt(indexInTuple);
+            int RCNum = tupRCs.getInt(indexInTuple);
             
             energy += getOneBody(posNum,RCNum);
         }
         
         for(int indexInTuple=0; indexInTuple<numPosInTuple; indexInTuple++){
-            int posNum = tuppos.get(indexInTuple);
-            int RCNum = tupRCs.get(indexInTuple);
+            int posNum = tuppos.getInt(indexInTuple);
+            int RCNum = tupRCs.getInt(indexInTuple);
             
             for(int index2=0; index2<indexInTuple; index2++){
-                int pos2 = tuppos.get(index2);
-                int rc2 = tupRCs.get(index2);
+                int pos2 = tuppos.getInt(index2);
+                int rc2 = tupRCs.getInt(index2);
                 
                 energy += getPairwise(posNum,RCNum,pos2,rc2);
                 
@@ -135,10 +165,10 @@ public class EnergyMatrix extends TupleMatrixDouble {
     }
     
     public double getHigherOrderEnergy(RCTuple tup, int i1, int i2) {
-    	int res1 = tup.pos.get(i1);
-    	int rc1 = tup.pos.get(i1);
-    	int res2 = tup.pos.get(i2);
-    	int rc2 = tup.RCs.get(i2);
+    	int res1 = tup.pos.getInt(i1);
+    	int rc1 = tup.RCs.getInt(i1);
+    	int res2 = tup.pos.getInt(i2);
+    	int rc2 = tup.RCs.getInt(i2);
 		HigherTupleFinder<Double> htf = getHigherOrderTerms(res1, rc1, res2, rc2);
 		if (htf != null) {
 			return internalEHigherOrder(tup, i2, htf);
@@ -152,19 +182,22 @@ public class EnergyMatrix extends TupleMatrixDouble {
         //with RCs whose indices in tup are < curIndex
         double E = 0;
         
-        for(int ipos : htf.getInteractingPos()){
+        IntList interactingPos = htf.getInteractingPos();
+        
+        for(int i=0; i<interactingPos.size(); i++){
+            int ipos = interactingPos.getInt(i);
             
             //see if ipos is in tup with index < curIndex
             int iposIndex = -1;
             for(int ind=0; ind<curIndex; ind++){
-                if(tup.pos.get(ind)==ipos){
+                if(tup.pos.getInt(ind)==ipos){
                     iposIndex = ind;
                     break;
                 }
             }
 
             if(iposIndex > -1){//ipos interactions need to be counted
-                int iposRC = tup.RCs.get(iposIndex);
+                int iposRC = tup.RCs.getInt(iposIndex);
                 E += htf.getInteraction(ipos, iposRC);
                 
                 //see if need to go up to highers order again...
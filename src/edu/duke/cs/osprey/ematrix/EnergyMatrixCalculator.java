@@ -4,6 +4,8 @@
  */
 package edu.duke.cs.osprey.ematrix;
 
+import java.io.File;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -14,6 +16,7 @@ import edu.duke.cs.osprey.control.EnvironmentVars;
 import edu.duke.cs.osprey.ematrix.epic.EPICMatrix;
 import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
 import edu.duke.cs.osprey.ematrix.epic.EPoly;
+import edu.duke.cs.osprey.energy.EnergySignature;
 import edu.duke.cs.osprey.handlempi.MPIMaster;
 import edu.duke.cs.osprey.handlempi.MPISlaveTask;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
@@ -44,6 +47,11 @@ public class EnergyMatrixCalculator {
     private EnergyMatrix emat = null;
     private EPICMatrix epicMat = null;
     
+    //if set, finished residues and residue pairs are saved here as we go, so an interrupted calculation can resume
+    private File checkpointFile = null;
+    private EnergyMatrixCheckpoint checkpoint = null;
+    private double pairCutoff = Double.POSITIVE_INFINITY;//only calc pairs that can get this close (not for EPIC)
+    
     
     //constructor for calculating a scalar energy matrix (rigid or pairwise lower bounds)
     public EnergyMatrixCalculator(ConfSpace s, ArrayList<Residue> sr, boolean useERef, 
@@ -93,6 +101,15 @@ public class EnergyMatrixCalculator {
 	}
     
     
+   public void setCheckpointFile(File val){
+       checkpointFile = val;
+   }
+    
+   public void setPairCutoff(double val){
+       pairCutoff = val;
+   }
+    
+    
    //Calculate a pairwise energy matrix based on a pairwise energy function
    public void calcPEM(){
        
@@ -104,12 +121,18 @@ public class EnergyMatrixCalculator {
        System.out.println();
        
        initMatrix();
+       openCheckpoint();
        
        if(EnvironmentVars.useMPI)
            calcPEMDistributed();
        else
            calcPEMLocally();
        
+       if(checkpoint != null){
+           checkpoint.close();
+           checkpoint = null;
+       }
+       
        if(useERef){
            System.out.println("COMPUTING REFERENCE ENERGIES");
            emat.seteRefMat(new ReferenceEnergies(searchSpace));
@@ -124,22 +147,37 @@ public class EnergyMatrixCalculator {
         
         for(int res=0; res<searchSpace.numPos; res++){
             
-            System.out.println("Starting intra+shell energy calculations for residue "+res);
-            
-            TermECalculator oneBodyECalc = new TermECalculator(searchSpace,shellResidues,doEPIC,
-                    false,pruneMat,epicSettings,addResEntropy,res);
-            
-            Object oneBodyE = oneBodyECalc.doCalculation();
-            storeEnergy(oneBodyE, res);
+            if(storeCheckpointedEnergy(res)){
+                System.out.println("Using checkpointed intra+shell energies for residue "+res);
+            }
+            else {
+                System.out.println("Starting intra+shell energy calculations for residue "+res);
+                
+                TermECalculator oneBodyECalc = new TermECalculator(searchSpace,shellResidues,doEPIC,
+                        false,pruneMat,epicSettings,addResEntropy,res);
+                
+                Object oneBodyE = oneBodyECalc.doCalculation();
+                storeEnergy(oneBodyE, res);
+                checkpointEnergy(oneBodyE, res);
+            }
 
             for(int res2=0; res2<res; res2++){
                 
+                if(isSkippedPair(res, res2))
+                    continue;
+                
+                if(storeCheckpointedEnergy(res, res2)){
+                    System.out.println("Using checkpointed pairwise energies for residues "+res+", "+res2);
+                    continue;
+                }
+                
                 System.out.println("Starting pairwise energy calculations for residues "+res+", "+res2);
                 
                 TermECalculator pairECalc = new TermECalculator(searchSpace,shellResidues,doEPIC,
                         false,pruneMat,epicSettings,false,res,res2);
                 Object pairE = pairECalc.doCalculation();
                 storeEnergy(pairE, res, res2);
+                checkpointEnergy(pairE, res, res2);
             }
         }
     }
@@ -153,41 +191,87 @@ public class EnergyMatrixCalculator {
         
         //generate TermMinECalc objects, in the same order as for local calculation,
         //but this time pass them off to MPI
+        //(skipping anything we already have in the checkpoint)
         for(int res=0; res<searchSpace.numPos; res++){
             
-            tasks.add( new TermECalculator(searchSpace,shellResidues,doEPIC,false,
-                    pruneMat,epicSettings,addResEntropy,res) );
+            if(!storeCheckpointedEnergy(res))
+                tasks.add( new TermECalculator(searchSpace,shellResidues,doEPIC,false,
+                        pruneMat,epicSettings,addResEntropy,res) );
 
             for(int res2=0; res2<res; res2++)
-                tasks.add( new TermECalculator(searchSpace,shellResidues,doEPIC,false,
-                        pruneMat,epicSettings,false,res,res2) );
+                if(!isSkippedPair(res, res2) && !storeCheckpointedEnergy(res, res2))
+                    tasks.add( new TermECalculator(searchSpace,shellResidues,doEPIC,false,
+                            pruneMat,epicSettings,false,res,res2) );
         }
         
         ArrayList<Object> calcResults = mm.handleTasks(tasks);
         
         //Now go through our task results in the same order and put the energies in our matrix
+        //NOTE: MPI gives us all the results at once, so they're only checkpointed at the end
         int resultCount = 0;
         
         for(int res=0; res<searchSpace.numPos; res++){
             
-            storeEnergy( calcResults.get(resultCount), res );
-            resultCount++;
+            if(checkpoint==null || !checkpoint.has(res)){
+                storeEnergy( calcResults.get(resultCount), res );
+                checkpointEnergy( calcResults.get(resultCount), res );
+                resultCount++;
+            }
 
             for(int res2=0; res2<res; res2++){
-                storeEnergy( calcResults.get(resultCount), res, res2 );
-                resultCount++;
+                if(!isSkippedPair(res, res2) && (checkpoint==null || !checkpoint.has(res, res2))){
+                    storeEnergy( calcResults.get(resultCount), res, res2 );
+                    checkpointEnergy( calcResults.get(resultCount), res, res2 );
+                    resultCount++;
+                }
             }
         }
     }
     
     
+    private void openCheckpoint(){
+        if(checkpointFile == null)
+            return;
+        
+        //the checkpoint is only good for the same inputs and calculation settings
+        String settings = "EnergyMatrixCalculator doEPIC=" + doEPIC + " addResEntropy=" + addResEntropy;
+        if(doEPIC)
+            settings += " pruningInterval=" + pruneMat.getPruningInterval();
+        checkpoint = new EnergyMatrixCheckpoint(checkpointFile, EnergySignature.make(
+                searchSpace, shellResidues, EnvironmentVars.curEFcnGenerator.ffParams, settings));
+    }
+    
+    private boolean storeCheckpointedEnergy(int... res){
+        //if the checkpoint has this residue or pair, store its energies and return true
+        if(checkpoint == null)
+            return false;
+        Object calcResult = checkpoint.get(res);
+        if(calcResult == null)
+            return false;
+        storeEnergy(calcResult, res);
+        return true;
+    }
+    
+    private void checkpointEnergy(Object calcResult, int... res){
+        if(checkpoint != null)
+            checkpoint.put((Serializable)calcResult, res);
+    }
+    
     private void initMatrix(){
         //initialize the matrix we're calculating
         if(doEPIC)
             epicMat = new EPICMatrix(searchSpace, pruneMat.getPruningInterval());
-        else
+        else if(pairCutoff == Double.POSITIVE_INFINITY)
             emat = new EnergyMatrix(searchSpace, Double.POSITIVE_INFINITY);
             //all RCs included (infinite pruning interval)
+        else//leave out the pairs that are too far apart to interact
+            emat = new EnergyMatrix(searchSpace, Double.POSITIVE_INFINITY,
+                    new RCBoundingSpheres(searchSpace).getInteractingPairs(pairCutoff));
+    }
+    
+    private boolean isSkippedPair(int res, int res2){
+        //pairs left out of a sparse matrix don't need calculating
+        return !doEPIC && !emat.hasPairBlock(res, res2);
     }
     
     private void storeEnergy(Object calcResult, int... res){
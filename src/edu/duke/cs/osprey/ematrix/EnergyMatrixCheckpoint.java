@@ -0,0 +1,182 @@
+package edu.duke.cs.osprey.ematrix;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.duke.cs.osprey.energy.EnergySignature;
+import edu.duke.cs.osprey.tools.AppendLog;
+
+/**
+ * Append-only log of finished energy matrix blocks, so a long energy matrix calculation can pick up where it left off
+ *
+ * A block is all the terms for one position (one-body) or one pair of positions (pairwise).
+ * Blocks are appended as soon as they're finished, so a crash only loses the blocks that were still running.
+ * The header has an EnergySignature of the inputs (structure, conf space, shell, forcefield, and calculator settings),
+ * so a checkpoint left over from a different design is thrown away instead of mixed into this one.
+ *
+ * Log records (see AppendLog) are:
+ *   numPos, positions, numBytes, Java-serialized block
+ */
+public class EnergyMatrixCheckpoint {
+
+	private static final int Magic = 0x4f454350; // OECP
+	private static final int Version = 1;
+
+	private final File file;
+	private final Map<List<Integer>,Object> blocks;
+	private final ReentrantLock lock;
+	private AppendLog log;
+
+	public EnergyMatrixCheckpoint(File file, byte[] signature) {
+
+		if (signature.length != EnergySignature.Size) {
+			throw new IllegalArgumentException("signature should have " + EnergySignature.Size + " bytes, not " + signature.length);
+		}
+
+		this.file = file;
+		this.blocks = new HashMap<>();
+		this.lock = new ReentrantLock();
+
+		try {
+			try {
+				log = AppendLog.open(file, Magic, Version, signature, (in, offset) -> readBlock(in));
+			} catch (AppendLog.HeaderMismatchException ex) {
+				System.out.println("WARNING: energy matrix checkpoint " + file + " " + ex.getMessage() + ", starting over");
+				log = AppendLog.create(file, Magic, Version, signature);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't open energy matrix checkpoint " + file + "\n" + ex.getMessage(), ex);
+		}
+
+		if (!blocks.isEmpty()) {
+			System.out.println("Resuming energy matrix calculation from " + file + " with " + blocks.size() + " finished blocks");
+		}
+	}
+
+	private void readBlock(DataInputStream in)
+	throws IOException {
+
+		int numPos = in.readInt();
+		List<Integer> pos = new ArrayList<>(numPos);
+		for (int i=0; i<numPos; i++) {
+			pos.add(in.readInt());
+		}
+		byte[] blockBytes = new byte[in.readInt()];
+		in.readFully(blockBytes);
+
+		blocks.put(pos, deserialize(blockBytes));
+	}
+
+	private static List<Integer> makeKey(int ... pos) {
+		List<Integer> key = new ArrayList<>(pos.length);
+		for (int p : pos) {
+			key.add(p);
+		}
+		return key;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getNumBlocks() {
+		lock.lock();
+		try {
+			return blocks.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean has(int ... pos) {
+		lock.lock();
+		try {
+			return blocks.containsKey(makeKey(pos));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** returns the finished block at these positions, or null if it's not finished yet */
+	@SuppressWarnings("unchecked")
+	public <T> T get(int ... pos) {
+		lock.lock();
+		try {
+			return (T)blocks.get(makeKey(pos));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void put(Serializable block, int ... pos) {
+
+		byte[] blockBytes = serialize(block);
+
+		lock.lock();
+		try {
+
+			List<Integer> key = makeKey(pos);
+			if (blocks.containsKey(key)) {
+				return;
+			}
+			blocks.put(key, block);
+
+			log.append((out) -> {
+				out.writeInt(pos.length);
+				for (int p : pos) {
+					out.writeInt(p);
+				}
+				out.writeInt(blockBytes.length);
+				out.write(blockBytes);
+			});
+
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't write to energy matrix checkpoint " + file, ex);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void close() {
+		lock.lock();
+		try {
+			log.close();
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't close energy matrix checkpoint " + file, ex);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static byte[] serialize(Serializable block) {
+		try {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+				out.writeObject(block);
+			}
+			return buf.toByteArray();
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't serialize energy matrix block", ex);
+		}
+	}
+
+	private static Object deserialize(byte[] blockBytes)
+	throws IOException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(blockBytes))) {
+			return in.readObject();
+		} catch (ClassNotFoundException ex) {
+			throw new IOException("can't read energy matrix block", ex);
+		}
+	}
+}
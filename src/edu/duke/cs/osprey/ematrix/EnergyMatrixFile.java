@@ -0,0 +1,334 @@
+package edu.duke.cs.osprey.ematrix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import edu.duke.cs.osprey.confspace.HigherTupleFinder;
+import edu.duke.cs.osprey.tools.MappedDoubleArray;
+
+/**
+ * Flat binary file format for energy matrices, that can be memory-mapped instead of deserialized
+ *
+ * Loading a mapped matrix doesn't read the energies at all, the OS pages them in as they're used,
+ * and jobs on the same machine using the same file share the same pages in the page cache.
+ * Mappings are read-only, so changing a loaded matrix copies it into memory first, and never changes the file.
+ *
+ * Layout (all little-endian):
+ *   header: magic, version, numPos, pruningInterval, constTerm,
+ *           then offset and length of each section, then numRCs at each pos,
+ *           then one byte for each residue pair, 1 if the pairwise block is stored (version 2+)
+ *   one-body energies, as doubles in storage order (8-byte aligned)
+ *   pairwise energies, as doubles in storage order (only the stored blocks, so sparse matrices make smaller files)
+ *   reference energies, Java-serialized (optional)
+ *   higher-order terms, Java-serialized (optional, read the first time they're used)
+ */
+public class EnergyMatrixFile {
+
+	private static final byte[] Magic = "OSPREMAT".getBytes();
+	public static final int Version = 2;
+
+	private static final ByteOrder Order = ByteOrder.LITTLE_ENDIAN;
+
+	private static final int FixedHeaderSize = Magic.length
+		+ Integer.BYTES*2 // version, numPos
+		+ Double.BYTES*2 // pruningInterval, constTerm
+		+ Long.BYTES*8; // offset and length of four sections
+
+	public static boolean isEnergyMatrixFile(File file) {
+		if (!file.isFile() || file.length() < Magic.length) {
+			return false;
+		}
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			byte[] magic = new byte[Magic.length];
+			new DataInputStream(in).readFully(magic);
+			return Arrays.equals(magic, Magic);
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	public static void write(EnergyMatrix emat, File file) {
+
+		int numPos = emat.getNumPos();
+
+		// serialize the optional sections up front, so we know how big they are
+		byte[] erefBytes = null;
+		if (emat.geteRefMat() != null) {
+			erefBytes = serialize(emat.geteRefMat());
+		}
+		byte[] higherBytes = null;
+		if (emat.hasHigherOrderTerms()) {
+			ArrayList<HigherTupleFinder<Double>> higherTerms = new ArrayList<>(emat.getNumPairwiseTerms());
+			for (int pos1=0; pos1<numPos; pos1++) {
+				for (int pos2=0; pos2<pos1; pos2++) {
+					if (!emat.hasPairBlock(pos1, pos2)) {
+						continue;
+					}
+					for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+						for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+							higherTerms.add(emat.getHigherOrderTerms(pos1, rc1, pos2, rc2));
+						}
+					}
+				}
+			}
+			higherBytes = serialize(higherTerms);
+		}
+
+		// lay out the sections
+		long headerSize = FixedHeaderSize + (long)numPos*Integer.BYTES + getNumPairs(numPos);
+		long oneBodyOffset = align(headerSize);
+		long oneBodyLength = (long)emat.getNumOneBodyTerms()*Double.BYTES;
+		long pairwiseOffset = oneBodyOffset + oneBodyLength;
+		long pairwiseLength = (long)emat.getNumPairwiseTerms()*Double.BYTES;
+		long erefOffset = pairwiseOffset + pairwiseLength;
+		long erefLength = erefBytes == null ? 0 : erefBytes.length;
+		long higherOffset = erefOffset + erefLength;
+		long higherLength = higherBytes == null ? 0 : higherBytes.length;
+
+		// write to a temp file first, so other jobs never map a half-written matrix
+		File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		try {
+
+			try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+				raf.setLength(0);
+				FileChannel channel = raf.getChannel();
+
+				ByteBuffer header = ByteBuffer.allocate((int)(oneBodyOffset)).order(Order);
+				header.put(Magic);
+				header.putInt(Version);
+				header.putInt(numPos);
+				header.putDouble(emat.getPruningInterval());
+				header.putDouble(emat.getConstTerm());
+				header.putLong(oneBodyOffset);
+				header.putLong(oneBodyLength);
+				header.putLong(pairwiseOffset);
+				header.putLong(pairwiseLength);
+				header.putLong(erefOffset);
+				header.putLong(erefLength);
+				header.putLong(higherOffset);
+				header.putLong(higherLength);
+				for (int pos=0; pos<numPos; pos++) {
+					header.putInt(emat.getNumConfAtPos(pos));
+				}
+				for (int pos1=0; pos1<numPos; pos1++) {
+					for (int pos2=0; pos2<pos1; pos2++) {
+						header.put((byte)(emat.hasPairBlock(pos1, pos2) ? 1 : 0));
+					}
+				}
+				header.rewind();
+				writeFully(channel, header, 0);
+
+				writeDoubles(channel, oneBodyOffset, emat.getNumOneBodyTerms(), (i) -> emat.getOneBodyByIndex(i));
+				writeDoubles(channel, pairwiseOffset, emat.getNumPairwiseTerms(), (i) -> emat.getPairwiseByIndex(i));
+
+				if (erefBytes != null) {
+					writeFully(channel, ByteBuffer.wrap(erefBytes), erefOffset);
+				}
+				if (higherBytes != null) {
+					writeFully(channel, ByteBuffer.wrap(higherBytes), higherOffset);
+				}
+
+				channel.force(true);
+			}
+
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+
+		} catch (IOException ex) {
+			tempFile.delete();
+			throw new RuntimeException("ERROR: can't write energy matrix to " + file, ex);
+		}
+	}
+
+	/**
+	 * Reads the matrix in the file. If allowNull, returns null when the file can't be read
+	 * (e.g., it doesn't exist or has a different version), otherwise raises an error.
+	 */
+	public static EnergyMatrix read(File file, boolean allowNull) {
+		try {
+			return read(file);
+		} catch (IOException | RuntimeException ex) {
+			if (allowNull) {
+				return null;
+			}
+			throw new RuntimeException("ERROR: Failed to read energy matrix from file " + file + "\n" + ex.getMessage(), ex);
+		}
+	}
+
+	private static EnergyMatrix read(File file)
+	throws IOException {
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+
+			// read the fixed part of the header
+			ByteBuffer header = ByteBuffer.allocate(FixedHeaderSize).order(Order);
+			readFully(channel, header, 0);
+			header.flip();
+
+			byte[] magic = new byte[Magic.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, Magic)) {
+				throw new IOException("not an energy matrix file");
+			}
+			int version = header.getInt();
+			if (version < 1 || version > Version) {
+				throw new IOException("energy matrix file has version " + version + ", expected " + Version);
+			}
+			int numPos = header.getInt();
+			double pruningInterval = header.getDouble();
+			double constTerm = header.getDouble();
+			long oneBodyOffset = header.getLong();
+			long oneBodyLength = header.getLong();
+			long pairwiseOffset = header.getLong();
+			long pairwiseLength = header.getLong();
+			long erefOffset = header.getLong();
+			long erefLength = header.getLong();
+			long higherOffset = header.getLong();
+			long higherLength = header.getLong();
+
+			if (higherOffset + higherLength > channel.size()) {
+				throw new IOException("energy matrix file is truncated");
+			}
+
+			// then the RCs at each position
+			ByteBuffer numRCsBuf = ByteBuffer.allocate(numPos*Integer.BYTES).order(Order);
+			readFully(channel, numRCsBuf, FixedHeaderSize);
+			numRCsBuf.flip();
+			int[] numRCsAtPos = new int[numPos];
+			for (int pos=0; pos<numPos; pos++) {
+				numRCsAtPos[pos] = numRCsBuf.getInt();
+			}
+
+			// then which pairwise blocks are stored (version 1 files always store all of them)
+			boolean[][] hasPairBlocks = null;
+			if (version >= 2) {
+				ByteBuffer pairsBuf = ByteBuffer.allocate(getNumPairs(numPos));
+				readFully(channel, pairsBuf, FixedHeaderSize + (long)numPos*Integer.BYTES);
+				pairsBuf.flip();
+				hasPairBlocks = new boolean[numPos][];
+				for (int pos1=0; pos1<numPos; pos1++) {
+					hasPairBlocks[pos1] = new boolean[pos1];
+					for (int pos2=0; pos2<pos1; pos2++) {
+						hasPairBlocks[pos1][pos2] = pairsBuf.get() != 0;
+					}
+				}
+			}
+
+			// map the energies
+			MappedDoubleArray oneBody = new MappedDoubleArray(channel, oneBodyOffset, (int)(oneBodyLength/Double.BYTES), FileChannel.MapMode.READ_ONLY, Order);
+			MappedDoubleArray pairwise = new MappedDoubleArray(channel, pairwiseOffset, (int)(pairwiseLength/Double.BYTES), FileChannel.MapMode.READ_ONLY, Order);
+			EnergyMatrix emat = new EnergyMatrix(numPos, numRCsAtPos, pruningInterval, hasPairBlocks, oneBody, pairwise);
+			emat.setConstTerm(constTerm);
+
+			if (erefLength > 0) {
+				emat.seteRefMatFromFile((ReferenceEnergies)deserialize(channel, erefOffset));
+			}
+
+			if (higherLength > 0) {
+				emat.setHigherOrderTermsFromFile(() -> {
+					// the file may be closed by now, so open it again
+					try (RandomAccessFile lazyRaf = new RandomAccessFile(file, "r")) {
+						@SuppressWarnings("unchecked")
+						ArrayList<HigherTupleFinder<Double>> higherTerms = (ArrayList<HigherTupleFinder<Double>>)deserialize(lazyRaf.getChannel(), higherOffset);
+						return higherTerms;
+					} catch (IOException ex) {
+						throw new RuntimeException("ERROR: can't read higher-order terms from energy matrix file " + file, ex);
+					}
+				});
+			}
+
+			// NOTE: the mappings stay valid after the channel is closed
+			return emat;
+		}
+	}
+
+	private static int getNumPairs(int numPos) {
+		return numPos*(numPos - 1)/2;
+	}
+
+	private static interface DoubleGetter {
+		double get(int i);
+	}
+
+	private static void writeDoubles(FileChannel channel, long offset, int size, DoubleGetter getter)
+	throws IOException {
+
+		// write in blocks, so we don't need another copy of the whole matrix in memory
+		final int BlockSize = 1 << 16;
+		ByteBuffer buf = ByteBuffer.allocateDirect(BlockSize*Double.BYTES).order(Order);
+		for (int start=0; start<size; start+=BlockSize) {
+			int stop = Math.min(start + BlockSize, size);
+			buf.clear();
+			for (int i=start; i<stop; i++) {
+				buf.putDouble(getter.get(i));
+			}
+			buf.flip();
+			writeFully(channel, buf, offset + (long)start*Double.BYTES);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf, long offset)
+	throws IOException {
+		while (buf.hasRemaining()) {
+			offset += channel.write(buf, offset);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long offset)
+	throws IOException {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, offset);
+			if (n < 0) {
+				throw new IOException("energy matrix file is truncated");
+			}
+			offset += n;
+		}
+	}
+
+	private static long align(long offset) {
+		return (offset + Double.BYTES - 1)/Double.BYTES*Double.BYTES;
+	}
+
+	private static byte[] serialize(Object obj) {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(buf))) {
+			out.writeObject(obj);
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't serialize " + obj.getClass().getSimpleName(), ex);
+		}
+		return buf.toByteArray();
+	}
+
+	private static Object deserialize(FileChannel channel, long offset)
+	throws IOException {
+		// NOTE: don't close the stream, that would close the channel too
+		channel.position(offset);
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		try {
+			return in.readObject();
+		} catch (ClassNotFoundException ex) {
+			throw new IOException(ex);
+		}
+	}
+}
@@ -1,7 +1,22 @@
 package edu.duke.cs.osprey.ematrix;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+
 import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.confspace.ParameterizedMoleculeCopy;
+import edu.duke.cs.osprey.confspace.ParameterizedMoleculePool;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
 
+/**
+ * Energy matrix that calculates missing energies the first time they're used
+ *
+ * Safe to share between threads: each missing energy is calculated exactly once,
+ * and other threads that want it at the same time wait for that calculation instead of repeating it.
+ * Calculations get their own copy of the molecule, so they can run in parallel.
+ * Use prefetch() to calculate energies ahead of time on a TaskExecutor.
+ */
 public class LazyEnergyMatrix extends EnergyMatrix {
 
 	private static final long serialVersionUID = -6363593602037378135L;
@@ -10,6 +25,8 @@ public class LazyEnergyMatrix extends EnergyMatrix {
 	
 	private SimpleEnergyCalculator ecalc;
 	private double nullVal;
+	private ConcurrentHashMap<Long,CompletableFuture<Double>> pendingVals;
+	private ParameterizedMoleculePool pmols;
 	
 	public LazyEnergyMatrix(LazyEnergyMatrix other) {
 		super(other);
@@ -38,6 +55,8 @@ public class LazyEnergyMatrix extends EnergyMatrix {
 	private void init(SimpleEnergyCalculator ecalc, double nullVal) {
 		this.ecalc = ecalc;
 		this.nullVal = nullVal;
+		this.pendingVals = new ConcurrentHashMap<>();
+		this.pmols = new ParameterizedMoleculePool(ecalc.confSpace);
 	}
 	
     @Override
@@ -46,9 +65,16 @@ public class LazyEnergyMatrix extends EnergyMatrix {
     	if (hasVal(val)) {
     		return val;
     	}
-    	val = ecalc.calcSingle(res, conf).energy;
-    	super.setOneBody(res, conf, val);
-    	return val;
+    	return calcVal(makeKey(res, conf, res, 0), () -> super.getOneBody(res, conf), () -> {
+    		ParameterizedMoleculeCopy pmol = checkout();
+    		try {
+    			double calcVal = ecalc.calcSingle(res, conf, pmol).energy;
+    			super.setOneBody(res, conf, calcVal);
+    			return calcVal;
+    		} finally {
+    			release(pmol);
+    		}
+    	});
     }
 
 	@Override
@@ -57,11 +83,129 @@ public class LazyEnergyMatrix extends EnergyMatrix {
     	if (hasVal(val)) {
     		return val;
     	}
-    	val = ecalc.calcPair(res1, conf1, res2, conf2).energy;
-    	super.setPairwise(res1, conf1, res2, conf2, val);
-    	return val;
+    	
+    	// always calculate pairs in the same order, so we get the same energy no matter who asks first
+    	if (res1 > res2) {
+    		return calcPairwise(res1, conf1, res2, conf2);
+    	} else {
+    		return calcPairwise(res2, conf2, res1, conf1);
+    	}
     }
 	
+	private double calcPairwise(int res1, int conf1, int res2, int conf2) {
+    	return calcVal(makeKey(res1, conf1, res2, conf2), () -> super.getPairwise(res1, conf1, res2, conf2), () -> {
+    		ParameterizedMoleculeCopy pmol = checkout();
+    		try {
+    			double calcVal = ecalc.calcPair(res1, conf1, res2, conf2, pmol).energy;
+    			super.setPairwise(res1, conf1, res2, conf2, calcVal);
+    			return calcVal;
+    		} finally {
+    			release(pmol);
+    		}
+    	});
+	}
+	
+	private static long makeKey(int res1, int conf1, int res2, int conf2) {
+		// pairs always have res1 > res2, so res1 == res2 can mean one-body energies
+		return ((long)res1 << 48) | ((long)res2 << 32) | ((long)conf1 << 16) | conf2;
+	}
+	
+	private double calcVal(long key, DoubleSupplier getter, DoubleSupplier calculator) {
+		
+		// is someone else already calculating this energy? then wait for them
+		CompletableFuture<Double> future = new CompletableFuture<>();
+		CompletableFuture<Double> otherFuture = pendingVals.putIfAbsent(key, future);
+		if (otherFuture != null) {
+			return otherFuture.join();
+		}
+		
+		try {
+			
+			// it's our job now, but someone might have finished it after we first checked
+			double val = getter.getAsDouble();
+			if (!hasVal(val)) {
+				val = calculator.getAsDouble();
+			}
+			
+			future.complete(val);
+			return val;
+			
+		} catch (Throwable t) {
+			future.completeExceptionally(t);
+			throw t;
+		} finally {
+			pendingVals.remove(key, future);
+		}
+	}
+	
+	private ParameterizedMoleculeCopy checkout() {
+		synchronized (pmols) {
+			return pmols.checkout();
+		}
+	}
+	
+	private void release(ParameterizedMoleculeCopy pmol) {
+		synchronized (pmols) {
+			pmols.release(pmol);
+		}
+	}
+	
+	/**
+	 * Calculates all the missing energies on the executor, a row at a time,
+	 * ie, the one-body energy for an RC, or its pairwise energies with all the RCs at another position.
+	 * Call tasks.waitForFinish() to wait for the energies.
+	 */
+	public void prefetch(TaskExecutor tasks) {
+		for (int res1=0; res1<getNumPos(); res1++) {
+			for (int conf1=0; conf1<getNumConfAtPos(res1); conf1++) {
+				// only look at lower positions, so we don't submit every pair twice
+				prefetchRow(tasks, res1, conf1, res1);
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the missing energies for this RC on the executor, a row at a time.
+	 * Call tasks.waitForFinish() to wait for the energies.
+	 */
+	public void prefetchRow(TaskExecutor tasks, int res1, int conf1) {
+		prefetchRow(tasks, res1, conf1, getNumPos());
+	}
+	
+	private void prefetchRow(TaskExecutor tasks, int res1, int conf1, int numRes2) {
+		
+		TaskExecutor.TaskListener noop = (task) -> {};
+		
+		if (!hasOneBody(res1, conf1)) {
+			tasks.submit(() -> getOneBody(res1, conf1), noop);
+		}
+		
+		for (int res2=0; res2<numRes2; res2++) {
+			if (res2 == res1) {
+				continue;
+			}
+			final int fres2 = res2;
+			
+			// skip rows we already have
+			boolean isMissing = false;
+			for (int conf2=0; conf2<getNumConfAtPos(res2); conf2++) {
+				if (!hasPairwise(res1, conf1, res2, conf2)) {
+					isMissing = true;
+					break;
+				}
+			}
+			if (!isMissing) {
+				continue;
+			}
+			
+			tasks.submit(() -> {
+				for (int conf2=0; conf2<getNumConfAtPos(fres2); conf2++) {
+					getPairwise(res1, conf1, fres2, conf2);
+				}
+			}, noop);
+		}
+	}
+	
 	public boolean hasOneBody(int res, int conf) {
 		return hasVal(super.getOneBody(res, conf));
 	}
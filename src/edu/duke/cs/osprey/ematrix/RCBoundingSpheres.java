@@ -0,0 +1,148 @@
+package edu.duke.cs.osprey.ematrix;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.confspace.ParameterizedMoleculeCopy;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.minimization.MoleculeModifierAndScorer;
+import edu.duke.cs.osprey.minimization.ObjectiveFunction;
+import edu.duke.cs.osprey.structure.Residue;
+
+/**
+ * Spheres that bound every atom of a residue over the whole voxel of each RC
+ *
+ * Used to decide up front which residue pairs are too far apart to interact,
+ * so sparse energy matrices can skip calculating and storing their pairwise energies.
+ * The voxel is sampled at its center and at the bounds of each DOF, plus some slack
+ * for atoms that move farther when several DOFs change at once.
+ */
+public class RCBoundingSpheres {
+
+	public static final double DefaultSlack = 1.0; // angstroms
+
+	public static class Sphere {
+
+		public final double x;
+		public final double y;
+		public final double z;
+		public final double radius;
+
+		public Sphere(double x, double y, double z, double radius) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.radius = radius;
+		}
+
+		/** distance between the surfaces of the spheres, or 0 if they overlap */
+		public double getDistance(Sphere other) {
+			double dx = x - other.x;
+			double dy = y - other.y;
+			double dz = z - other.z;
+			return Math.max(0, Math.sqrt(dx*dx + dy*dy + dz*dz) - radius - other.radius);
+		}
+	}
+
+	private final ConfSpace confSpace;
+	private final Sphere[][] spheres;
+
+	public RCBoundingSpheres(ConfSpace confSpace) {
+		this(confSpace, DefaultSlack);
+	}
+
+	public RCBoundingSpheres(ConfSpace confSpace, double slack) {
+
+		this.confSpace = confSpace;
+
+		// use a copy of the molecule, so we don't disturb the one in the conf space
+		ParameterizedMoleculeCopy pmol = new ParameterizedMoleculeCopy(confSpace);
+
+		spheres = new Sphere[confSpace.numPos][];
+		for (int pos=0; pos<confSpace.numPos; pos++) {
+			int numRCs = confSpace.posFlex.get(pos).RCs.size();
+			spheres[pos] = new Sphere[numRCs];
+			for (int rc=0; rc<numRCs; rc++) {
+				spheres[pos][rc] = makeSphere(pos, rc, pmol, slack);
+			}
+		}
+	}
+
+	private Sphere makeSphere(int pos, int rc, ParameterizedMoleculeCopy pmol, double slack) {
+
+		// no energy function needed, we only want the geometry
+		MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(null, confSpace, new RCTuple(pos, rc), pmol);
+		Residue res = pmol.getCopiedMolecule().residues.get(confSpace.posFlex.get(pos).res.indexInMolecule);
+
+		// center the sphere on the residue at the center of the voxel
+		ObjectiveFunction.DofBounds bounds = new ObjectiveFunction.DofBounds(mof.getConstraints());
+		DoubleMatrix1D x = DoubleFactory1D.dense.make(bounds.size());
+		bounds.getCenter(x);
+		mof.setDOFs(x);
+		int numAtoms = res.coords.length/3;
+		double cx = 0;
+		double cy = 0;
+		double cz = 0;
+		for (int i=0; i<numAtoms; i++) {
+			cx += res.coords[i*3];
+			cy += res.coords[i*3 + 1];
+			cz += res.coords[i*3 + 2];
+		}
+		cx /= numAtoms;
+		cy /= numAtoms;
+		cz /= numAtoms;
+		double radiusSq = getMaxDistSq(res, cx, cy, cz);
+
+		// then grow it to cover the extremes of each DOF
+		for (int d=0; d<bounds.size(); d++) {
+			for (double xd : new double[] { bounds.getMin(d), bounds.getMax(d) }) {
+				mof.setDOF(d, xd);
+				radiusSq = Math.max(radiusSq, getMaxDistSq(res, cx, cy, cz));
+			}
+			mof.setDOF(d, bounds.getCenter(d));
+		}
+
+		return new Sphere(cx, cy, cz, Math.sqrt(radiusSq) + slack);
+	}
+
+	private static double getMaxDistSq(Residue res, double cx, double cy, double cz) {
+		double maxDistSq = 0;
+		for (int i=0; i<res.coords.length; i+=3) {
+			double dx = res.coords[i] - cx;
+			double dy = res.coords[i + 1] - cy;
+			double dz = res.coords[i + 2] - cz;
+			maxDistSq = Math.max(maxDistSq, dx*dx + dy*dy + dz*dz);
+		}
+		return maxDistSq;
+	}
+
+	public Sphere get(int pos, int rc) {
+		return spheres[pos][rc];
+	}
+
+	/** returns the smallest distance between any RCs at these positions */
+	public double getMinDistance(int pos1, int pos2) {
+		double minDist = Double.POSITIVE_INFINITY;
+		for (Sphere sphere1 : spheres[pos1]) {
+			for (Sphere sphere2 : spheres[pos2]) {
+				minDist = Math.min(minDist, sphere1.getDistance(sphere2));
+			}
+		}
+		return minDist;
+	}
+
+	/**
+	 * returns which residue pairs have any RCs closer than the cutoff, indexed by [pos1][pos2] where pos1 > pos2,
+	 * in the form the sparse EnergyMatrix constructor expects
+	 */
+	public boolean[][] getInteractingPairs(double cutoff) {
+		boolean[][] pairs = new boolean[confSpace.numPos][];
+		for (int pos1=0; pos1<confSpace.numPos; pos1++) {
+			pairs[pos1] = new boolean[pos1];
+			for (int pos2=0; pos2<pos1; pos2++) {
+				pairs[pos1][pos2] = getMinDistance(pos1, pos2) < cutoff;
+			}
+		}
+		return pairs;
+	}
+}
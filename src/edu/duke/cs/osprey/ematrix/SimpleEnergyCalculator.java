@@ -22,9 +22,12 @@ import edu.duke.cs.osprey.minimization.MoleculeModifierAndScorer;
 import edu.duke.cs.osprey.minimization.SimpleCCDMinimizer;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.tools.Metrics;
 
 public abstract class SimpleEnergyCalculator {
 	
+	protected static final Metrics.Histogram termTimes = Metrics.histogram("osprey_ematrix_term_seconds", "time to calculate (and minimize) one energy matrix term");
+	
 	public final ForcefieldParams ffparams;
 	public ConfSpace confSpace;
 	public List<Residue> shellResidues;
@@ -100,16 +103,23 @@ public abstract class SimpleEnergyCalculator {
 		
 		public Minimizer.Result calc(EnergyFunction efunc, RCTuple tuple, ParameterizedMoleculeCopy pmol) {
 			
-			// put molecule in correct conformation for rcs
-			MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(efunc, confSpace, tuple, pmol);
-			
-			// optimize the degrees of freedom, if needed
-			if (mof.getNumDOFs() > 0) {
-				return new SimpleCCDMinimizer(mof).minimize();
+			long startNs = termTimes.start();
+			try {
+				
+				// put molecule in correct conformation for rcs
+				MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(efunc, confSpace, tuple, pmol);
+				
+				// optimize the degrees of freedom, if needed
+				if (mof.getNumDOFs() > 0) {
+					return new SimpleCCDMinimizer(mof).minimize();
+				}
+				
+				// otherwise, just evaluate the energy function
+				return new Minimizer.Result(null, efunc.getEnergy());
+				
+			} finally {
+				termTimes.recordSince(startNs);
 			}
-
-			// otherwise, just evaluate the energy function
-			return new Minimizer.Result(null, efunc.getEnergy());
 		}
 	}
 	
@@ -190,21 +200,28 @@ public abstract class SimpleEnergyCalculator {
 		
 		public Minimizer.Result calc(EnergyFunction efunc, RCTuple tuple, ParameterizedMoleculeCopy pmol) {
 			
-			// put molecule in correct conformation for rcs
-			MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(efunc, confSpace, tuple, pmol);
-			
-			// optimize the degrees of freedom, if needed
-			if (mof.getNumDOFs() > 0) {
-				CudaCCDMinimizer minimizer = new CudaCCDMinimizer(pool, mof);
-				try {
-					return minimizer.minimize();
-				} finally {
-					minimizer.cleanup();
+			long startNs = termTimes.start();
+			try {
+				
+				// put molecule in correct conformation for rcs
+				MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(efunc, confSpace, tuple, pmol);
+				
+				// optimize the degrees of freedom, if needed
+				if (mof.getNumDOFs() > 0) {
+					CudaCCDMinimizer minimizer = new CudaCCDMinimizer(pool, mof);
+					try {
+						return minimizer.minimize();
+					} finally {
+						minimizer.cleanup();
+					}
 				}
+				
+				// otherwise, just evaluate the energy function
+				return new Minimizer.Result(null, efunc.getEnergy());
+				
+			} finally {
+				termTimes.recordSince(startNs);
 			}
-
-			// otherwise, just evaluate the energy function
-			return new Minimizer.Result(null, efunc.getEnergy());
 		}
 	}
 }
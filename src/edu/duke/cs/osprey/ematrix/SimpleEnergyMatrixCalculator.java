@@ -1,11 +1,14 @@
 package edu.duke.cs.osprey.ematrix;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 import edu.duke.cs.osprey.confspace.AbstractTupleMatrix;
 import edu.duke.cs.osprey.confspace.ConfSpace;
 import edu.duke.cs.osprey.confspace.ParameterizedMoleculeCopy;
 import edu.duke.cs.osprey.confspace.ParameterizedMoleculePool;
+import edu.duke.cs.osprey.energy.EnergySignature;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
 import edu.duke.cs.osprey.gpu.cuda.GpuStreamPool;
 import edu.duke.cs.osprey.minimization.Minimizer;
@@ -77,13 +80,41 @@ public abstract class SimpleEnergyMatrixCalculator {
 	
 	protected SimpleEnergyCalculator ecalc;
 	protected TaskExecutor tasks;
+	private File checkpointFile = null;
+	private double pairCutoff = Double.POSITIVE_INFINITY;
 	
 	protected SimpleEnergyMatrixCalculator() {
 		// only subclasses should directly make these
 	}
 	
+	/**
+	 * Save finished blocks of the energy matrix to this file as we go,
+	 * and skip the blocks that are already there
+	 */
+	public void setCheckpointFile(File val) {
+		checkpointFile = val;
+	}
+	
+	/**
+	 * Only calculate pairwise energies for residues that can get closer than this (in angstroms).
+	 * Energies for the other pairs are left out of the matrix and read as zero.
+	 * The default (infinity) calculates all the pairs.
+	 */
+	public void setPairCutoff(double val) {
+		pairCutoff = val;
+	}
+	
 	public EnergyMatrix calcEnergyMatrix() {
-		EnergyMatrix emat = new EnergyMatrix(ecalc.confSpace, Double.POSITIVE_INFINITY);
+		EnergyMatrix emat;
+		if (pairCutoff == Double.POSITIVE_INFINITY) {
+			emat = new EnergyMatrix(ecalc.confSpace, Double.POSITIVE_INFINITY);
+		} else {
+			boolean[][] hasPairBlocks = new RCBoundingSpheres(ecalc.confSpace).getInteractingPairs(pairCutoff);
+			emat = new EnergyMatrix(ecalc.confSpace, Double.POSITIVE_INFINITY, hasPairBlocks);
+			System.out.println(String.format("Skipping %d of %d residue pairs farther apart than %.1f A",
+				countSkippedPairs(emat), emat.getNumPos()*(emat.getNumPos() - 1)/2, pairCutoff
+			));
+		}
 		calcMatrices(emat, null);
 		return emat;
 	}
@@ -126,17 +157,63 @@ public abstract class SimpleEnergyMatrixCalculator {
 			tasks = new TaskExecutor();
 		}
 		
+		// pick up where the last run left off, if we can
+		EnergyMatrixCheckpoint checkpoint = null;
+		if (checkpointFile != null) {
+			if (dofmat != null) {
+				throw new IllegalArgumentException("checkpoints only hold energies, not DOF values");
+			}
+			checkpoint = new EnergyMatrixCheckpoint(checkpointFile, EnergySignature.make(
+				ecalc.confSpace, ecalc.shellResidues, ecalc.ffparams, SimpleEnergyMatrixCalculator.class.getName()
+			));
+			readCheckpoint(checkpoint, emat);
+		}
+		
+		// make the blocks we still need to compute
+		int numPos = sizemat.getNumPos();
+		List<Integer> singleBlocks = new ArrayList<>();
+		for (int pos1=0; pos1<numPos; pos1++) {
+			if (checkpoint == null || !checkpoint.has(pos1)) {
+				singleBlocks.add(pos1);
+			}
+		}
+		List<int[]> pairBlocks = new ArrayList<>();
+		for (int pos1=0; pos1<numPos; pos1++) {
+			for (int pos2=0; pos2<pos1; pos2++) {
+				boolean isStored = emat == null || emat.hasPairBlock(pos1, pos2);
+				if (isStored && (checkpoint == null || !checkpoint.has(pos1, pos2))) {
+					pairBlocks.add(new int[] { pos1, pos2 });
+				}
+			}
+		}
+		
+		// do the biggest pairs first, so we're not left waiting on one big pair at the end
+		AbstractTupleMatrix<?> fSizemat = sizemat;
+		pairBlocks.sort((a, b) -> Long.compare(
+			(long)fSizemat.getNumConfAtPos(b[0])*fSizemat.getNumConfAtPos(b[1]),
+			(long)fSizemat.getNumConfAtPos(a[0])*fSizemat.getNumConfAtPos(a[1])
+		));
+		
 		// count how much work there is to do
 		long numWork = 0;
-		for (int pos1=0; pos1<sizemat.getNumPos(); pos1++) {
+		for (int pos1 : singleBlocks) {
 			numWork += sizemat.getNumConfAtPos(pos1);
+		}
+		for (int[] block : pairBlocks) {
+			numWork += (long)sizemat.getNumConfAtPos(block[0])*sizemat.getNumConfAtPos(block[1]);
+		}
+		Progress progress = new Progress(numWork);
+		
+		// track how many tasks are left in each block, so we can checkpoint blocks as they finish
+		int[] numSingleTasksLeft = new int[numPos];
+		int[][] numPairTasksLeft = new int[numPos][numPos];
+		for (int pos1=0; pos1<numPos; pos1++) {
+			numSingleTasksLeft[pos1] = sizemat.getNumConfAtPos(pos1);
 			for (int pos2=0; pos2<pos1; pos2++) {
-				for (int rc1=0; rc1<sizemat.getNumConfAtPos(pos1); rc1++) {
-					numWork += sizemat.getNumConfAtPos(pos2);
-				}
+				numPairTasksLeft[pos1][pos2] = sizemat.getNumConfAtPos(pos1);
 			}
 		}
-		Progress progress = new Progress(numWork);
+		EnergyMatrixCheckpoint fCheckpoint = checkpoint;
 		
 		// init molecule pool
 		ParameterizedMoleculePool pmols = new ParameterizedMoleculePool(ecalc.confSpace);
@@ -154,6 +231,10 @@ public abstract class SimpleEnergyMatrixCalculator {
 					dofmat.setOneBody(task.pos1, task.rc1, task.result.dofValues);
 				}
 				
+				if (fCheckpoint != null && finishTask(numSingleTasksLeft, task.pos1)) {
+					fCheckpoint.put(getSingleBlock(emat, task.pos1), task.pos1);
+				}
+				
 				progress.incrementProgress();
 			}
 		};
@@ -173,40 +254,106 @@ public abstract class SimpleEnergyMatrixCalculator {
 					}
 				}
 				
+				if (fCheckpoint != null && finishTask(numPairTasksLeft[task.pos1], task.pos2)) {
+					fCheckpoint.put(getPairBlock(emat, task.pos1, task.pos2), task.pos1, task.pos2);
+				}
+				
 				progress.incrementProgress(task.numrc2);
 			}
 		};
 		
 		System.out.println("Calculating energies...");
 		
-		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
-			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
-			
-				// NOTE: single terms tend to be much larger than pair terms,
-				// so split up single terms into more different tasks than pair terms
-				
-				// singles
+		// NOTE: single terms tend to be much larger than pair terms,
+		// so split up single terms into more different tasks than pair terms
+		
+		// singles
+		for (int pos1 : singleBlocks) {
+			for (int rc1=0; rc1<sizemat.getNumConfAtPos(pos1); rc1++) {
 				SingleTask singleTask = new SingleTask();
 				singleTask.pmols = pmols;
 				singleTask.pos1 = pos1;
 				singleTask.rc1 = rc1;
 				tasks.submit(singleTask, singleListener);
-				
-				// pairs
-				for (int pos2=0; pos2<pos1; pos2++) {
-					
-					PairTask pairTask = new PairTask();
-					pairTask.pmols = pmols;
-					pairTask.pos1 = pos1;
-					pairTask.rc1 = rc1;
-					pairTask.pos2 = pos2;
-					pairTask.numrc2 = emat.getNumConfAtPos(pos2);
-					tasks.submit(pairTask, pairListener);
-				}
+			}
+		}
+		
+		// pairs
+		for (int[] block : pairBlocks) {
+			for (int rc1=0; rc1<sizemat.getNumConfAtPos(block[0]); rc1++) {
+				PairTask pairTask = new PairTask();
+				pairTask.pmols = pmols;
+				pairTask.pos1 = block[0];
+				pairTask.rc1 = rc1;
+				pairTask.pos2 = block[1];
+				pairTask.numrc2 = sizemat.getNumConfAtPos(block[1]);
+				tasks.submit(pairTask, pairListener);
 			}
 		}
 		
 		tasks.waitForFinish();
+		
+		if (checkpoint != null) {
+			checkpoint.close();
+		}
+	}
+	
+	private static int countSkippedPairs(EnergyMatrix emat) {
+		int count = 0;
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int pos2=0; pos2<pos1; pos2++) {
+				if (!emat.hasPairBlock(pos1, pos2)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+	
+	private static void readCheckpoint(EnergyMatrixCheckpoint checkpoint, EnergyMatrix emat) {
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			double[] singles = checkpoint.get(pos1);
+			if (singles != null) {
+				for (int rc1=0; rc1<singles.length; rc1++) {
+					emat.setOneBody(pos1, rc1, singles[rc1]);
+				}
+			}
+			for (int pos2=0; pos2<pos1; pos2++) {
+				double[][] pairs = checkpoint.get(pos1, pos2);
+				if (pairs != null && emat.hasPairBlock(pos1, pos2)) {
+					for (int rc1=0; rc1<pairs.length; rc1++) {
+						for (int rc2=0; rc2<pairs[rc1].length; rc2++) {
+							emat.setPairwise(pos1, rc1, pos2, rc2, pairs[rc1][rc2]);
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	private static boolean finishTask(int[] numTasksLeft, int index) {
+		// NOTE: task executors don't all call listeners from the same thread
+		synchronized (numTasksLeft) {
+			return --numTasksLeft[index] == 0;
+		}
+	}
+	
+	private static double[] getSingleBlock(EnergyMatrix emat, int pos1) {
+		double[] block = new double[emat.getNumConfAtPos(pos1)];
+		for (int rc1=0; rc1<block.length; rc1++) {
+			block[rc1] = emat.getOneBody(pos1, rc1);
+		}
+		return block;
+	}
+	
+	private static double[][] getPairBlock(EnergyMatrix emat, int pos1, int pos2) {
+		double[][] block = new double[emat.getNumConfAtPos(pos1)][emat.getNumConfAtPos(pos2)];
+		for (int rc1=0; rc1<block.length; rc1++) {
+			for (int rc2=0; rc2<block[rc1].length; rc2++) {
+				block[rc1][rc2] = emat.getPairwise(pos1, rc1, pos2, rc2);
+			}
+		}
+		return block;
 	}
 	
 	public abstract void cleanup();
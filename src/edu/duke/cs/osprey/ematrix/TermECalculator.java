@@ -37,6 +37,8 @@ import java.util.HashMap;
 
 public class TermECalculator implements MPISlaveTask {
     
+    private static final long serialVersionUID = -2719283736574061522L;
+    
     ConfSpace confSpace;
     boolean doingEPIC;//doing EPIC fit instead of just minimum computation
     boolean doingIntra;//doing just intra energy (only relevant for one-body energies)
@@ -383,7 +385,7 @@ public class TermECalculator implements MPISlaveTask {
 			
 			// store rc and its energy
 			if(!skipTuple)
-				nBodyE.put(RCs.RCs, minEnergy);
+				nBodyE.put(new ArrayList<>(RCs.RCs), minEnergy);
 		}
         else
             throw new UnsupportedOperationException("ERROR: Trying to precompute term for "+numBodies+" bodies");
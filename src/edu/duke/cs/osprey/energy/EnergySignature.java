@@ -0,0 +1,73 @@
+package edu.duke.cs.osprey.energy;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.confspace.PositionConfSpace;
+import edu.duke.cs.osprey.confspace.RC;
+import edu.duke.cs.osprey.dof.DegreeOfFreedom;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.structure.Residue;
+
+/**
+ * SHA-256 hash of everything that goes into energies computed in a conf space
+ * (the structure, the RCs and their voxels, the shell, the forcefield settings, and how the energies are computed),
+ * so saved energies can be matched to the inputs that made them
+ */
+public class EnergySignature {
+
+	public static final int Size = 32;
+
+	/**
+	 * @param settings describes how the energies are computed (eg, the minimizer, or the energy matrix calculator),
+	 *                 since eg CCD and L-BFGS can find different minima
+	 */
+	public static byte[] make(ConfSpace confSpace, List<Residue> shellResidues, ForcefieldParams ffparams, String settings) {
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new Error("SHA-256 should always be available", ex);
+		}
+
+		StringBuilder buf = new StringBuilder();
+
+		// the forcefield and calculation settings
+		buf.append(ffparams.getEnergySettings()).append('\n');
+		buf.append(settings).append('\n');
+
+		// the structure, down to the exact coords
+		for (Residue res : confSpace.m.residues) {
+			buf.append(res.fullName).append(':');
+			for (double coord : res.coords) {
+				buf.append(Long.toHexString(Double.doubleToLongBits(coord))).append(',');
+			}
+			buf.append('\n');
+		}
+
+		// the shell
+		for (Residue res : shellResidues) {
+			buf.append("shell ").append(res.getPDBResNumber()).append('\n');
+		}
+
+		// the RCs, and their voxels
+		for (PositionConfSpace pos : confSpace.posFlex) {
+			buf.append("pos ").append(pos.res.getPDBResNumber()).append('\n');
+			for (RC rc : pos.RCs) {
+				buf.append(rc.RCIndex).append(' ').append(rc.AAType).append(' ').append(rc.rotNum);
+				for (int i=0; i<rc.DOFs.size(); i++) {
+					DegreeOfFreedom dof = rc.DOFs.get(i);
+					buf.append(' ').append(dof.getClass().getSimpleName())
+						.append('[').append(rc.DOFmin.get(i)).append(',').append(rc.DOFmax.get(i)).append(']');
+				}
+				buf.append('\n');
+			}
+		}
+
+		return digest.digest(buf.toString().getBytes(StandardCharsets.UTF_8));
+	}
+}
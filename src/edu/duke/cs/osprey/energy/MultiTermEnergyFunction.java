@@ -12,6 +12,7 @@ import edu.duke.cs.osprey.energy.forcefield.ResPairEnergy;
 import edu.duke.cs.osprey.energy.forcefield.SingleResEnergy;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.tools.Metrics;
 
 /**
  *
@@ -25,6 +26,9 @@ import edu.duke.cs.osprey.structure.Residue;
 public class MultiTermEnergyFunction implements EnergyFunction.DecomposableByDof {
 
 	private static final long serialVersionUID = -3516267414126293331L;
+	
+	// NOTE: shared with BigForcefieldEnergy
+	private static final Metrics.Counter numEnergies = Metrics.counter("osprey_energy_evaluations_total", "energy function evaluations, including gradients");
 
 	private static int NUM_THREADS = 1;
 
@@ -79,6 +83,8 @@ public class MultiTermEnergyFunction implements EnergyFunction.DecomposableByDof
 	@Override
 	public double getEnergy(){
 
+		numEnergies.increment();
+
 		double E = 0;
 
 		if(terms.size()!=coeffs.size()){
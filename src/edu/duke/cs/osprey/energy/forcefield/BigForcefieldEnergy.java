@@ -20,11 +20,14 @@ import edu.duke.cs.osprey.structure.AtomNeighbors;
 import edu.duke.cs.osprey.structure.AtomNeighbors.NEIGHBORTYPE;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.tools.Metrics;
 
 public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, EnergyFunction.ExplicitChemicalChanges {
 	
 	private static final long serialVersionUID = 5242606861996508290L;
 	
+	private static final Metrics.Counter numEnergies = Metrics.counter("osprey_energy_evaluations_total", "energy function evaluations, including gradients");
+	
 	public static class ParamInfo {
 		
 		// physical constants and constant params
@@ -43,6 +46,11 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		public final boolean useHElectrostatics;
 		public final boolean useHVdw;
 		public final boolean useEEF1;
+		public final boolean useNeighborList;
+		public final double neighborCutoff2;
+		public final double neighborListCutoff2;
+		public final double neighborMaxMove2;
+		public final boolean useIncrementalEnergies;
 		
 		public ParamInfo(ForcefieldParams params) {
 			
@@ -66,6 +74,19 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 			this.useHElectrostatics = params.hElect;
 			this.useHVdw = params.hVDW;
 			this.useEEF1 = params.doSolvationE;
+			
+			// neighbor list settings
+			this.useNeighborList = params.neighborListCutoff < Double.POSITIVE_INFINITY;
+			if (useNeighborList && (params.neighborListCutoff <= 0 || params.neighborListSkin < 0)) {
+				throw new IllegalArgumentException("neighbor list cutoff must be positive and skin must be non-negative");
+			}
+			this.neighborCutoff2 = params.neighborListCutoff*params.neighborListCutoff;
+			double listCutoff = params.neighborListCutoff + params.neighborListSkin;
+			this.neighborListCutoff2 = listCutoff*listCutoff;
+			double maxMove = params.neighborListSkin/2;
+			this.neighborMaxMove2 = maxMove*maxMove;
+			
+			this.useIncrementalEnergies = params.incrementalEnergies;
 		}
 	}
 	
@@ -375,6 +396,18 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		}
 	}
 	
+	public static enum Kernel {
+		
+		/** reads the interleaved flags, coords, and params straight out of the buffers, one atom pair at a time */
+		Buffers,
+		
+		/**
+		 * copies each subset's atom pairs into flat arrays (one array per field) first,
+		 * so the energy loops are branch-free and can be vectorized by the JIT compiler
+		 */
+		Vectorized
+	}
+	
 	private static class VdwParams {
 		public double Aij;
 		public double Bij;
@@ -383,6 +416,7 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 	private ParamInfo pinfo;
 	private ForcefieldInteractions interactions;
 	private BufferTools.Type bufferType;
+	private Kernel kernel;
 	private Groups groups;
 	private int groupsSequenceNumber;
 	
@@ -390,8 +424,10 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 	
 	// atom coordinates for all groups
 	private int[] atomOffsets;
+	private int numAtoms;
 	// layout per atom: x, y, z
 	private DoubleBuffer coords;
+	private double[] coordsArray; // only used by the vectorized kernel and incremental energies
 	
 	// atom pair into
 	// layout per atom pair: atom1 flags, atom2 flags
@@ -409,12 +445,17 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 	}
 	
 	public BigForcefieldEnergy(ForcefieldParams params, ForcefieldInteractions interactions, BufferTools.Type bufferType) {
+		this(params, interactions, bufferType, Kernel.Buffers);
+	}
+	
+	public BigForcefieldEnergy(ForcefieldParams params, ForcefieldInteractions interactions, BufferTools.Type bufferType, Kernel kernel) {
 		
 		// TODO: implement solvation toggle
 		
 		this.pinfo = new ParamInfo(params);
 		this.interactions = interactions;
 		this.bufferType = bufferType;
+		this.kernel = kernel;
 		
 		// compute all the info for each group pair
 		groups = new Groups(interactions.size());
@@ -436,7 +477,7 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		groupsSequenceNumber = groups.handleChemicalChanges();
 		
 		// convert the group list into an atom list
-		int numAtoms = 0;
+		numAtoms = 0;
 		atomOffsets = new int[groups.getNumGroups()];
 		for (int i=0; i<groups.getNumGroups(); i++) {
 			AtomGroup group = groups.get(i);
@@ -444,6 +485,9 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 			numAtoms += group.getAtoms().size();
 		}
 		coords = makeOrResizeBuffer(coords, numAtoms*3);
+		if (kernel == Kernel.Vectorized || pinfo.useIncrementalEnergies) {
+			coordsArray = new double[numAtoms*3];
+		}
 		
 		// do one pass over the group pairs to count the number of atom pairs
 		int numAtomPairs = 0;
@@ -528,14 +572,35 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		return interactions;
 	}
 	
+	public Kernel getKernel() {
+		return kernel;
+	}
+	
 	public DoubleBuffer getCoords() {
 		return coords;
 	}
 	
+	public int getNumAtoms() {
+		return numAtoms;
+	}
+	
 	public int getAtomOffset(Residue res) {
 		return getAtomOffset(interactions.getResidueAtomGroup(res));
 	}
 	
+	/** like getAtomOffset(), but returns -1 instead of throwing if the residue isn't in this forcefield */
+	public int findAtomOffset(Residue res) {
+		AtomGroup group = interactions.getResidueAtomGroup(res);
+		if (group == null) {
+			return -1;
+		}
+		Integer groupIndex = groups.getGroupIndex(group);
+		if (groupIndex == null) {
+			return -1;
+		}
+		return getGlobalAtomIndex(groupIndex, 0);
+	}
+	
 	public int getAtomOffset(AtomGroup group) {
 		Integer groupIndex = groups.getGroupIndex(group);
 		if (groupIndex == null) {
@@ -584,12 +649,24 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 			AtomGroup group = groups.get(i);
 			coords.put(group.getCoords());
 		}
+		
+		// and the array too, if needed
+		if (coordsArray != null) {
+			for (int i=0; i<groups.getNumGroups(); i++) {
+				double[] groupCoords = groups.get(i).getCoords();
+				System.arraycopy(groupCoords, 0, coordsArray, atomOffsets[i]*3, groupCoords.length);
+			}
+		}
 	}
 	
 	@Override
 	public double getEnergy() {
 		return fullSubset.getEnergy();
 	}
+	
+	public double getEnergyAndGradient(double[] gradient) {
+		return fullSubset.getEnergyAndGradient(gradient);
+	}
 		
 	@Override
 	public List<EnergyFunction> decomposeByDof(Molecule m, List<DegreeOfFreedom> dofs) {
@@ -719,6 +796,44 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		private double internalSolvEnergy;
 		private IntBuffer subsetTable;
 		
+		// Verlet neighbor list, only used if the forcefield has a cutoff
+		// lists atom pairs within cutoff + skin, so the list stays good until some atom moves more than skin/2
+		private int[] neighborPairs;
+		private int numNeighborPairs;
+		private double[] neighborListCoords;
+		private int numNeighborListBuilds;
+		
+		// structure-of-arrays copy of the atom pairs, only used by the vectorized kernel and incremental energies
+		// holds either all the atom pairs in the subset, or just the ones in the neighbor list
+		// NOTE: incremental energies index the packed pairs by subset index, so they always get all the pairs
+		private boolean packedPairsDirty = true;
+		private int numPackedPairs;
+		private int[] packedAtom1Index3;
+		private int[] packedAtom2Index3;
+		private double[] packedEsFactor; // charge times coulomb factor, or zero if the pair is skipped
+		private double[] packedAij; // zero if the pair is skipped
+		private double[] packedBij;
+		private double[] packedR2;
+		private int numPackedSolvPairs;
+		private int[] packedSolvPairs; // indices into the packed pairs
+		private int[] packedSolvIndices; // the reverse, or -1 if the pair has no solvation
+		private double[] packedInvLambda1;
+		private double[] packedRadius1;
+		private double[] packedAlpha1;
+		private double[] packedInvLambda2;
+		private double[] packedRadius2;
+		private double[] packedAlpha2;
+		
+		// cached atom pair energies, only used for incremental energies
+		// lists the atom pairs of each atom, so we only visit the pairs with an atom that moved since the last evaluation
+		private int[] atomPairStarts; // per atom, plus one at the end: where its pairs start in the lists
+		private int[] atomPairIndices; // subset indices
+		private int[] atomPairPartners; // the other atom in each pair
+		private double[] pairEnergies;
+		private double[] lastCoords;
+		private boolean[] movedAtoms;
+		private long numPairEnergyCalcs;
+		
 		public Subset(ForcefieldInteractions interactions) {
 			this(interactions, true);
 		}
@@ -759,6 +874,192 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 				}
 				subsetTable.flip();
 			}
+			
+			if (pinfo.useIncrementalEnergies) {
+				buildAtomPairLists();
+			}
+			
+			// atom pairs changed, so rebuild the neighbor list and the cached energies next time
+			neighborPairs = null;
+			packedPairsDirty = true;
+			pairEnergies = null;
+		}
+		
+		private void updateNeighborList() {
+			
+			if (neighborPairs != null && !movedPastSkin()) {
+				return;
+			}
+			
+			if (neighborPairs == null || neighborPairs.length < numPairs) {
+				neighborPairs = new int[numPairs];
+			}
+			numNeighborPairs = 0;
+			
+			// keep the pairs in the same order as the subset, so 1-4 pairs stay first
+			// NOTE: the list has indices into the subset, not into the whole forcefield
+			double listCutoff2 = pinfo.neighborListCutoff2;
+			for (int j=0; j<numPairs; j++) {
+				int i = subsetTable != null ? subsetTable.get(j) : j;
+				if (getR2(i) < listCutoff2) {
+					neighborPairs[numNeighborPairs++] = j;
+				}
+			}
+			
+			// remember where the atoms were
+			if (neighborListCoords == null || neighborListCoords.length != numAtoms*3) {
+				neighborListCoords = new double[numAtoms*3];
+			}
+			for (int i=0; i<neighborListCoords.length; i++) {
+				neighborListCoords[i] = coords.get(i);
+			}
+			
+			numNeighborListBuilds++;
+			if (!pinfo.useIncrementalEnergies) {
+				packedPairsDirty = true;
+			}
+		}
+		
+		private void buildAtomPairLists() {
+			
+			// count the pairs for each atom
+			atomPairStarts = new int[numAtoms + 1];
+			for (int k=0; k<numPairs; k++) {
+				int i = subsetTable != null ? subsetTable.get(k) : k;
+				atomPairStarts[unpackAtomIndex(atomFlags.get(i*2)) + 1]++;
+				atomPairStarts[unpackAtomIndex(atomFlags.get(i*2 + 1)) + 1]++;
+			}
+			for (int a=0; a<numAtoms; a++) {
+				atomPairStarts[a + 1] += atomPairStarts[a];
+			}
+			
+			// then fill in the lists
+			atomPairIndices = new int[numPairs*2];
+			atomPairPartners = new int[numPairs*2];
+			int[] nextIndices = Arrays.copyOf(atomPairStarts, numAtoms);
+			for (int k=0; k<numPairs; k++) {
+				int i = subsetTable != null ? subsetTable.get(k) : k;
+				int atom1Index = unpackAtomIndex(atomFlags.get(i*2));
+				int atom2Index = unpackAtomIndex(atomFlags.get(i*2 + 1));
+				int j = nextIndices[atom1Index]++;
+				atomPairIndices[j] = k;
+				atomPairPartners[j] = atom2Index;
+				j = nextIndices[atom2Index]++;
+				atomPairIndices[j] = k;
+				atomPairPartners[j] = atom1Index;
+			}
+		}
+		
+		private void packPairs() {
+			
+			// the gradient path can still build the neighbor list in incremental mode, so ignore it here
+			int[] neighborPairs = pinfo.useIncrementalEnergies ? null : this.neighborPairs;
+			int numAtomPairs = neighborPairs != null ? numNeighborPairs : numPairs;
+			
+			if (packedAtom1Index3 == null || packedAtom1Index3.length < numAtomPairs) {
+				packedAtom1Index3 = new int[numAtomPairs];
+				packedAtom2Index3 = new int[numAtomPairs];
+				packedEsFactor = new double[numAtomPairs];
+				packedAij = new double[numAtomPairs];
+				packedBij = new double[numAtomPairs];
+				packedR2 = new double[numAtomPairs];
+				packedSolvPairs = new int[numAtomPairs];
+				packedSolvIndices = new int[numAtomPairs];
+				packedInvLambda1 = new double[numAtomPairs];
+				packedRadius1 = new double[numAtomPairs];
+				packedAlpha1 = new double[numAtomPairs];
+				packedInvLambda2 = new double[numAtomPairs];
+				packedRadius2 = new double[numAtomPairs];
+				packedAlpha2 = new double[numAtomPairs];
+			}
+			
+			// do all the branching here, so the energy loops don't have to
+			numPackedPairs = numAtomPairs;
+			numPackedSolvPairs = 0;
+			for (int j=0; j<numAtomPairs; j++) {
+				
+				int k = neighborPairs != null ? neighborPairs[j] : j;
+				int i = subsetTable != null ? subsetTable.get(k) : k;
+				int i9 = i*9;
+				
+				int atom1Flags = atomFlags.get(i*2);
+				int atom2Flags = atomFlags.get(i*2 + 1);
+				packedAtom1Index3[j] = unpackAtomIndex(atom1Flags)*3;
+				packedAtom2Index3[j] = unpackAtomIndex(atom2Flags)*3;
+				boolean bothHeavy = !unpackIsHydrogen(atom1Flags) && !unpackIsHydrogen(atom2Flags);
+				
+				if (bothHeavy || pinfo.useHElectrostatics) {
+					boolean is14Pair = k < num14Pairs;
+					packedEsFactor[j] = (is14Pair ? pinfo.scaledCoulombFactor : pinfo.coulombFactor)*precomputed.get(i9 + 2);
+				} else {
+					packedEsFactor[j] = 0;
+				}
+				
+				if (bothHeavy || pinfo.useHVdw) {
+					packedAij[j] = precomputed.get(i9);
+					packedBij[j] = precomputed.get(i9 + 1);
+				} else {
+					packedAij[j] = 0;
+					packedBij[j] = 0;
+				}
+				
+				packedSolvIndices[j] = -1;
+				if (pinfo.useEEF1 && bothHeavy) {
+					int s = numPackedSolvPairs++;
+					packedSolvPairs[s] = j;
+					packedSolvIndices[j] = s;
+					packedInvLambda1[s] = 1.0/precomputed.get(i9 + 3);
+					packedRadius1[s] = precomputed.get(i9 + 4);
+					packedAlpha1[s] = precomputed.get(i9 + 5);
+					packedInvLambda2[s] = 1.0/precomputed.get(i9 + 6);
+					packedRadius2[s] = precomputed.get(i9 + 7);
+					packedAlpha2[s] = precomputed.get(i9 + 8);
+				}
+			}
+			
+			packedPairsDirty = false;
+		}
+		
+		private boolean movedPastSkin() {
+			double maxMove2 = pinfo.neighborMaxMove2;
+			for (int i=0; i<neighborListCoords.length; i+=3) {
+				double d = coords.get(i) - neighborListCoords[i];
+				double d2 = d*d;
+				d = coords.get(i + 1) - neighborListCoords[i + 1];
+				d2 += d*d;
+				d = coords.get(i + 2) - neighborListCoords[i + 2];
+				d2 += d*d;
+				if (d2 > maxMove2) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		private double getR2(int i) {
+			int atom1Index3 = unpackAtomIndex(atomFlags.get(i*2))*3;
+			int atom2Index3 = unpackAtomIndex(atomFlags.get(i*2 + 1))*3;
+			double d = coords.get(atom1Index3) - coords.get(atom2Index3);
+			double r2 = d*d;
+			d = coords.get(atom1Index3 + 1) - coords.get(atom2Index3 + 1);
+			r2 += d*d;
+			d = coords.get(atom1Index3 + 2) - coords.get(atom2Index3 + 2);
+			r2 += d*d;
+			return r2;
+		}
+		
+		/** number of atom pairs in the neighbor list, or all the atom pairs if there's no cutoff */
+		public int getNumNeighborPairs() {
+			return pinfo.useNeighborList ? numNeighborPairs : numPairs;
+		}
+		
+		public int getNumNeighborListBuilds() {
+			return numNeighborListBuilds;
+		}
+		
+		/** number of atom pair energies computed so far with incremental energies, rather than read from the cache */
+		public long getNumPairEnergyCalcs() {
+			return numPairEnergyCalcs;
 		}
 		
 		public IntBuffer getSubsetTable() {
@@ -790,6 +1091,8 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 		@Override
 		public double getEnergy() {
 			
+			numEnergies.increment();
+			
 			// OPTIMIZATION: this function gets hit a lot! so even pedantic optimizations can make a difference
 			// I've also tweaked the code with fancy scoping to try to reduce register pressure
 			// the idea is to limit the scope of temporary variables as much as possible
@@ -799,10 +1102,28 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 			handleChemicalChanges();
 			updateCoords();
 			
+			// incremental energies don't need the neighbor list, since they only look at pairs with moved atoms anyway
+			if (pinfo.useIncrementalEnergies) {
+				return getEnergyIncremental(pinfo.useNeighborList ? pinfo.neighborCutoff2 : Double.POSITIVE_INFINITY);
+			}
+			
+			// with a cutoff, only look at pairs in the neighbor list
+			int[] neighborPairs = null;
+			double cutoff2 = Double.POSITIVE_INFINITY;
+			if (pinfo.useNeighborList) {
+				updateNeighborList();
+				neighborPairs = this.neighborPairs;
+				cutoff2 = pinfo.neighborCutoff2;
+			}
+			
+			if (kernel == Kernel.Vectorized) {
+				return getEnergyVectorized(cutoff2);
+			}
+			
 			// copy some things to the local stack
 			IntBuffer subsetTable = this.subsetTable;
 			int num14Pairs = this.num14Pairs;
-			int numAtomPairs = this.numPairs;
+			int numAtomPairs = neighborPairs != null ? this.numNeighborPairs : this.numPairs;
 			boolean distDepDielect = pinfo.useDistDependentDielectric;
 			boolean useHEs = pinfo.useHElectrostatics;
 			boolean useHVdw = pinfo.useHVdw;
@@ -817,6 +1138,7 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 			double r2;
 			double r = 0;
 			int i;
+			int k;
 			int i2;
 			int i9;
 			
@@ -826,10 +1148,16 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 			double solvEnergy = internalSolvEnergy;
 			for (int j=0; j<numAtomPairs; j++) {
 				
+				// k indexes the subset, i indexes the whole forcefield
+				if (neighborPairs != null) {
+					k = neighborPairs[j];
+				} else {
+					k = j;
+				}
 				if (subsetTable != null) {
-					i = subsetTable.get(j);
+					i = subsetTable.get(k);
 				} else {
-					i = j;
+					i = k;
 				}
 				
 				i2 = i*2;
@@ -859,6 +1187,11 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 					}
 				}
 				
+				// skip pairs beyond the cutoff, if any
+				if (r2 >= cutoff2) {
+					continue;
+				}
+				
 				// do we need the sqrt?
 				// they're expensive to compute, so let's only do it once per atom pair
 				inRangeForSolv = r2 < solvCutoff2;
@@ -872,7 +1205,8 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 					double charge = precomputed.get(i9 + 2);
 					
 					// compute electrostatics
-					boolean is14Pair = i < num14Pairs;
+					// NOTE: the subset lists its 1-4 pairs first, so check the subset index
+					boolean is14Pair = k < num14Pairs;
 					esEnergy += (is14Pair ? scaledCoulombFactor : coulombFactor)
 						/ (distDepDielect ? r2 : r)
 						* charge;
@@ -909,5 +1243,282 @@ public class BigForcefieldEnergy implements EnergyFunction.DecomposableByDof, En
 			
 			return esEnergy + vdwEnergy + solvEnergy;
 		}
+		
+		private double getEnergyIncremental(double cutoff2) {
+			
+			// NOTE: in this mode, the packed pairs are always all the pairs in the subset, in subset order
+			if (packedPairsDirty) {
+				packPairs();
+			}
+			
+			// first time (or after chemical changes)? compute everything
+			boolean computeAll = pairEnergies == null;
+			if (computeAll) {
+				pairEnergies = new double[numPairs];
+				if (lastCoords == null || lastCoords.length != numAtoms*3) {
+					lastCoords = new double[numAtoms*3];
+					movedAtoms = new boolean[numAtoms];
+				}
+			}
+			
+			// find the atoms in this subset that moved since last time
+			double[] coords = BigForcefieldEnergy.this.coordsArray;
+			for (int a=0; a<numAtoms; a++) {
+				boolean moved = false;
+				if (atomPairStarts[a] < atomPairStarts[a + 1]) {
+					for (int i=a*3; i<a*3 + 3; i++) {
+						double coord = coords[i];
+						if (coord != lastCoords[i]) {
+							lastCoords[i] = coord;
+							moved = true;
+						}
+					}
+				}
+				movedAtoms[a] = moved;
+			}
+			
+			// recompute the energies for pairs with moved atoms
+			if (computeAll) {
+				for (int k=0; k<numPairs; k++) {
+					updatePairEnergy(k, cutoff2);
+				}
+			} else {
+				for (int a=0; a<numAtoms; a++) {
+					if (movedAtoms[a]) {
+						int stop = atomPairStarts[a + 1];
+						for (int j=atomPairStarts[a]; j<stop; j++) {
+							
+							// if both atoms moved, only update the pair once
+							int partner = atomPairPartners[j];
+							if (partner < a && movedAtoms[partner]) {
+								continue;
+							}
+							
+							updatePairEnergy(atomPairIndices[j], cutoff2);
+						}
+					}
+				}
+			}
+			
+			// add up all the pair energies
+			// NOTE: adding the cached energies is much cheaper than computing them,
+			// and unlike adding differences, doesn't accumulate roundoff error over many evaluations
+			double energy = internalSolvEnergy;
+			for (int k=0; k<numPairs; k++) {
+				energy += pairEnergies[k];
+			}
+			return energy;
+		}
+		
+		private void updatePairEnergy(int j, double cutoff2) {
+			
+			double[] coords = BigForcefieldEnergy.this.coordsArray;
+			int a1 = packedAtom1Index3[j];
+			int a2 = packedAtom2Index3[j];
+			double d = coords[a1] - coords[a2];
+			double r2 = d*d;
+			d = coords[a1 + 1] - coords[a2 + 1];
+			r2 += d*d;
+			d = coords[a1 + 2] - coords[a2 + 2];
+			r2 += d*d;
+			
+			double energy = 0;
+			if (r2 < cutoff2) {
+				
+				// electrostatics and vdW, the packed params are already zero for skipped pairs
+				double r6 = r2*r2*r2;
+				energy = packedEsFactor[j]/(pinfo.useDistDependentDielectric ? r2 : Math.sqrt(r2))
+					+ packedAij[j]/(r6*r6) - packedBij[j]/r6;
+				
+				// solvation
+				int s = packedSolvIndices[j];
+				if (s >= 0 && r2 < pinfo.solvationCutoff2) {
+					double r = Math.sqrt(r2);
+					double Xij = (r - packedRadius1[s])*packedInvLambda1[s];
+					double Xji = (r - packedRadius2[s])*packedInvLambda2[s];
+					energy -= (packedAlpha1[s]*Math.exp(-Xij*Xij) + packedAlpha2[s]*Math.exp(-Xji*Xji))/r2;
+				}
+			}
+			
+			pairEnergies[j] = energy;
+			numPairEnergyCalcs++;
+		}
+		
+		private double getEnergyVectorized(double cutoff2) {
+			
+			if (packedPairsDirty) {
+				packPairs();
+			}
+			
+			// copy some things to the local stack
+			int numAtomPairs = this.numPackedPairs;
+			int[] atom1Index3 = this.packedAtom1Index3;
+			int[] atom2Index3 = this.packedAtom2Index3;
+			double[] esFactor = this.packedEsFactor;
+			double[] Aij = this.packedAij;
+			double[] Bij = this.packedBij;
+			double[] r2s = this.packedR2;
+			double[] coords = BigForcefieldEnergy.this.coordsArray;
+			boolean distDepDielect = pinfo.useDistDependentDielectric;
+			
+			// first pass: gather the squared radii
+			// pairs beyond the cutoff get an infinite radius, which zeroes out all their energies
+			for (int j=0; j<numAtomPairs; j++) {
+				int a1 = atom1Index3[j];
+				int a2 = atom2Index3[j];
+				double d = coords[a1] - coords[a2];
+				double r2 = d*d;
+				d = coords[a1 + 1] - coords[a2 + 1];
+				r2 += d*d;
+				d = coords[a1 + 2] - coords[a2 + 2];
+				r2 += d*d;
+				r2s[j] = r2 < cutoff2 ? r2 : Double.POSITIVE_INFINITY;
+			}
+			
+			// second pass: electrostatics and vdW, no branches or indirection
+			double esEnergy = 0;
+			double vdwEnergy = 0;
+			for (int j=0; j<numAtomPairs; j++) {
+				double r2 = r2s[j];
+				double r6 = r2*r2*r2;
+				esEnergy += esFactor[j]/(distDepDielect ? r2 : Math.sqrt(r2));
+				vdwEnergy += Aij[j]/(r6*r6) - Bij[j]/r6;
+			}
+			
+			// third pass: solvation, only for heavy atom pairs
+			double solvEnergy = internalSolvEnergy;
+			double solvCutoff2 = pinfo.solvationCutoff2;
+			int numSolvPairs = this.numPackedSolvPairs;
+			int[] solvPairs = this.packedSolvPairs;
+			double[] invLambda1 = this.packedInvLambda1;
+			double[] radius1 = this.packedRadius1;
+			double[] alpha1 = this.packedAlpha1;
+			double[] invLambda2 = this.packedInvLambda2;
+			double[] radius2 = this.packedRadius2;
+			double[] alpha2 = this.packedAlpha2;
+			for (int s=0; s<numSolvPairs; s++) {
+				double r2 = r2s[solvPairs[s]];
+				if (r2 < solvCutoff2) {
+					double r = Math.sqrt(r2);
+					double Xij = (r - radius1[s])*invLambda1[s];
+					double Xji = (r - radius2[s])*invLambda2[s];
+					solvEnergy -= (alpha1[s]*Math.exp(-Xij*Xij) + alpha2[s]*Math.exp(-Xji*Xji))/r2;
+				}
+			}
+			
+			return esEnergy + vdwEnergy + solvEnergy;
+		}
+		
+		/**
+		 * Computes the energy like getEnergy(), and also its gradient with respect to the atom coords.
+		 * The gradient is laid out like getCoords() (x, y, z per atom) and gets overwritten.
+		 * Always uses the buffers kernel, since the gradient scatters into atoms anyway.
+		 */
+		public double getEnergyAndGradient(double[] gradient) {
+			
+			numEnergies.increment();
+			
+			handleChemicalChanges();
+			updateCoords();
+			
+			if (gradient.length < numAtoms*3) {
+				throw new IllegalArgumentException("gradient should have room for " + numAtoms*3 + " values");
+			}
+			Arrays.fill(gradient, 0, numAtoms*3, 0.0);
+			
+			// with a cutoff, only look at pairs in the neighbor list
+			int[] neighborPairs = null;
+			double cutoff2 = Double.POSITIVE_INFINITY;
+			if (pinfo.useNeighborList) {
+				updateNeighborList();
+				neighborPairs = this.neighborPairs;
+				cutoff2 = pinfo.neighborCutoff2;
+			}
+			
+			int numAtomPairs = neighborPairs != null ? this.numNeighborPairs : this.numPairs;
+			boolean distDepDielect = pinfo.useDistDependentDielectric;
+			double solvCutoff2 = pinfo.solvationCutoff2;
+			
+			double esEnergy = 0;
+			double vdwEnergy = 0;
+			double solvEnergy = internalSolvEnergy;
+			for (int j=0; j<numAtomPairs; j++) {
+				
+				int k = neighborPairs != null ? neighborPairs[j] : j;
+				int i = subsetTable != null ? subsetTable.get(k) : k;
+				int i9 = i*9;
+				
+				int atom1Flags = atomFlags.get(i*2);
+				int atom2Flags = atomFlags.get(i*2 + 1);
+				int atom1Index3 = unpackAtomIndex(atom1Flags)*3;
+				int atom2Index3 = unpackAtomIndex(atom2Flags)*3;
+				boolean bothHeavy = !unpackIsHydrogen(atom1Flags) && !unpackIsHydrogen(atom2Flags);
+				
+				double dx = coords.get(atom1Index3) - coords.get(atom2Index3);
+				double dy = coords.get(atom1Index3 + 1) - coords.get(atom2Index3 + 1);
+				double dz = coords.get(atom1Index3 + 2) - coords.get(atom2Index3 + 2);
+				double r2 = dx*dx + dy*dy + dz*dz;
+				if (r2 >= cutoff2) {
+					continue;
+				}
+				double r = Math.sqrt(r2);
+				
+				// derivative of the pair energy with respect to r2
+				double dEdr2 = 0;
+				
+				if (bothHeavy || pinfo.useHElectrostatics) {
+					boolean is14Pair = k < num14Pairs;
+					double factor = (is14Pair ? pinfo.scaledCoulombFactor : pinfo.coulombFactor)*precomputed.get(i9 + 2);
+					if (distDepDielect) {
+						esEnergy += factor/r2;
+						dEdr2 -= factor/(r2*r2);
+					} else {
+						esEnergy += factor/r;
+						dEdr2 -= 0.5*factor/(r2*r);
+					}
+				}
+				
+				if (bothHeavy || pinfo.useHVdw) {
+					double Aij = precomputed.get(i9);
+					double Bij = precomputed.get(i9 + 1);
+					double r6 = r2*r2*r2;
+					double r12 = r6*r6;
+					vdwEnergy += Aij/r12 - Bij/r6;
+					dEdr2 += (3*Bij/r6 - 6*Aij/r12)/r2;
+				}
+				
+				if (pinfo.useEEF1 && bothHeavy && r2 < solvCutoff2) {
+					double lambda1 = precomputed.get(i9 + 3);
+					double radius1 = precomputed.get(i9 + 4);
+					double alpha1 = precomputed.get(i9 + 5);
+					double lambda2 = precomputed.get(i9 + 6);
+					double radius2 = precomputed.get(i9 + 7);
+					double alpha2 = precomputed.get(i9 + 8);
+					double Xij = (r - radius1)/lambda1;
+					double Xji = (r - radius2)/lambda2;
+					double e1 = alpha1*Math.exp(-Xij*Xij);
+					double e2 = alpha2*Math.exp(-Xji*Xji);
+					solvEnergy -= (e1 + e2)/r2;
+					
+					// E = -f/r2, so dE/dr = -f'/r2 + 2f/r^3
+					double dfdr = -2*(Xij/lambda1*e1 + Xji/lambda2*e2);
+					double dEdr = -dfdr/r2 + 2*(e1 + e2)/(r2*r);
+					dEdr2 += dEdr/(2*r);
+				}
+				
+				// dr2/dx1 = 2(x1 - x2), dr2/dx2 = -2(x1 - x2)
+				double gx = 2*dEdr2*dx;
+				double gy = 2*dEdr2*dy;
+				double gz = 2*dEdr2*dz;
+				gradient[atom1Index3] += gx;
+				gradient[atom1Index3 + 1] += gy;
+				gradient[atom1Index3 + 2] += gz;
+				gradient[atom2Index3] -= gx;
+				gradient[atom2Index3 + 1] -= gy;
+				gradient[atom2Index3 + 2] -= gz;
+			}
+			
+			return esEnergy + vdwEnergy + solvEnergy;
+		}
 	}
 }
@@ -78,6 +78,23 @@ public class ForcefieldParams implements Serializable {
     boolean hElect = true;
     boolean hVDW = true;
     
+    //optional cutoff for all non-bonded interactions, only used by BigForcefieldEnergy
+    //atom pairs farther apart than the cutoff are skipped, using a Verlet neighbor list
+    //that's rebuilt when some atom moves more than half the skin distance
+    public double neighborListCutoff = Double.POSITIVE_INFINITY;//infinity means no cutoff (and no neighbor list)
+    public double neighborListSkin = 2.0;
+    
+    //optional caching of atom pair energies between evaluations, only used by BigForcefieldEnergy
+    //only the atom pairs with an atom that moved since the last evaluation get recomputed
+    public boolean incrementalEnergies = false;
+    
+    //describes all the settings that change energies, eg to tell apart energies cached by different runs
+    public String getEnergySettings() {
+        return forcefld + " distDepDielect=" + distDepDielect + " dielectric=" + dielectric
+            + " vdwMultiplier=" + vdwMultiplier + " solvScale=" + solvScale + " doSolvationE=" + doSolvationE
+            + " hElect=" + hElect + " hVDW=" + hVDW + " cutoff=" + neighborListCutoff;
+    }
+    
     public enum FORCEFIELD {
         
         // KER: if charmm19 then reduce C radii for 1-4 interactions
@@ -4,7 +4,23 @@
  */
 package edu.duke.cs.osprey.handlempi;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -16,8 +32,23 @@ public class MPIMaster {
     //When given a list of MPISlaveTasks to handle, it'll farm them out to slave nodes
     //and return their calculation results
     
+    //Slave nodes are separate JVMs (see MPISlave) that connect back to us over a local socket.
+    //Each slave works on one task at a time and asks for another when it's done,
+    //so slow tasks don't hold up the rest of the queue.
+    //With no slaves, tasks just run here, in sequence.
+
     
     static int processRank = 0;
+
+    //how long to wait for launched slaves to connect
+    private static final int ConnectTimeoutMs = 60*1000;
+
+    //serialization recurses through the whole molecule graph, so it needs a much deeper stack than usual
+    static final long SerializationStackSize = 512L*1024*1024;
+
+    private int numSlaves = 0;
+    private String[] slaveArgs = new String[0];//passed to MPISlave after the connection info (e.g. config files)
+    private List<Slave> slaves = new ArrayList<>();
     
     private MPIMaster() {
     }
@@ -35,11 +66,114 @@ public class MPIMaster {
         return MPIMasterHolder.INSTANCE;
     }
 
-    public ArrayList<Object> handleTasks(ArrayList<MPISlaveTask> tasks) {
+    public synchronized void setNumSlaves(int val){
+        //how many slave JVMs to launch on this host (0 means run tasks locally)
+        if(val<0)
+            throw new IllegalArgumentException("numSlaves must be >= 0");
+        if(val!=numSlaves)
+            stopSlaves();
+        numSlaves = val;
+    }
+
+    public synchronized int getNumSlaves(){
+        return numSlaves;
+    }
+
+    public synchronized void setSlaveArgs(String... val){
+        //e.g. "-c KStar.cfg command System.cfg ..." so slaves load the same data files we did
+        if(!Arrays.equals(val,slaveArgs))
+            stopSlaves();
+        slaveArgs = val;
+    }
+
+    public synchronized ArrayList<Object> handleTasks(ArrayList<MPISlaveTask> tasks) {
         //Given the list of tasks, return their results in the same order
         
-        //DEBUG!!!!
-        //BEFORE WE IMPLEMENT MPI JUST DO THESE LOCALLY
+        if(numSlaves==0)
+            return handleTasksLocally(tasks);
+
+        if(slaves.isEmpty())
+            startSlaves();
+
+        Object[] results = new Object[tasks.size()];
+        ConcurrentLinkedQueue<Integer> taskQueue = new ConcurrentLinkedQueue<>();
+        for(int i=0; i<tasks.size(); i++)
+            taskQueue.add(i);
+
+        //send each slave its first task of this batch on a fresh stream,
+        //so shared objects (e.g. the conf space) go over once per slave, but nothing stale gets reused
+        for(Slave slave : slaves)
+            slave.needsReset = true;
+
+        Throwable[] taskError = new Throwable[1];
+
+        //a slave that dies puts its task back, so keep going until the queue is really empty
+        while(!taskQueue.isEmpty() && taskError[0]==null){
+
+            if(slaves.isEmpty()){
+                System.out.println("WARNING: all MPI slaves died, finishing the remaining "+taskQueue.size()+" tasks locally");
+                Integer i;
+                while((i=taskQueue.poll())!=null)
+                    results[i] = tasks.get(i).doCalculation();
+                break;
+            }
+
+            List<Thread> threads = new ArrayList<>();
+            for(Slave slave : slaves){
+                Thread thread = new Thread(null, () -> {
+                    Integer i;
+                    while(taskError[0]==null && (i=taskQueue.poll())!=null){
+                        try {
+                            results[i] = slave.doCalculation(tasks.get(i));
+                        }
+                        catch(IOException ex){
+                            System.out.println("WARNING: lost MPI slave "+slave.rank+": "+ex.getMessage());
+                            taskQueue.add(i);
+                            slave.kill();
+                            return;
+                        }
+                        catch(TaskFailedException ex){
+                            synchronized(taskError){
+                                if(taskError[0]==null)
+                                    taskError[0] = ex.getCause();
+                            }
+                            return;
+                        }
+                        catch(Throwable t){
+                            //something went wrong on our end, the stream isn't usable anymore
+                            slave.kill();
+                            synchronized(taskError){
+                                if(taskError[0]==null)
+                                    taskError[0] = t;
+                            }
+                            return;
+                        }
+                    }
+                }, "MPIMaster-slave-"+slave.rank, SerializationStackSize);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+
+            for(Thread thread : threads){
+                try {
+                    thread.join();
+                }
+                catch(InterruptedException ex){
+                    throw new Error(ex);
+                }
+            }
+
+            slaves.removeIf((slave) -> !slave.isAlive());
+        }
+
+        if(taskError[0]!=null)
+            throw new RuntimeException("ERROR: MPI slave task failed", taskError[0]);
+
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    private ArrayList<Object> handleTasksLocally(ArrayList<MPISlaveTask> tasks){
         ArrayList<Object> ans = new ArrayList<>();
         for(MPISlaveTask task : tasks){
             ans.add( task.doCalculation() );
@@ -47,6 +181,165 @@ public class MPIMaster {
         return ans;
     }
     
+    private void startSlaves(){
+
+        //launch the slave JVMs with the same classpath and heap size we have
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> jvmArgs = new ArrayList<>();
+        for(String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()){
+            if(arg.startsWith("-Xmx") || arg.startsWith("-Xss"))
+                jvmArgs.add(arg);
+        }
+
+        List<Process> processes = new ArrayList<>();
+        try(ServerSocket server = new ServerSocket(0, numSlaves, InetAddress.getLoopbackAddress())){
+
+            server.setSoTimeout(ConnectTimeoutMs);
+
+            for(int rank=1; rank<=numSlaves; rank++){
+                List<String> command = new ArrayList<>();
+                command.add(java);
+                command.addAll(jvmArgs);
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(MPISlave.class.getName());
+                command.add(Integer.toString(server.getLocalPort()));
+                command.add(Integer.toString(rank));
+                command.addAll(Arrays.asList(slaveArgs));
+                processes.add(new ProcessBuilder(command).inheritIO().start());
+            }
+
+            //slaves can connect in any order, they tell us their rank first
+            Slave[] connected = new Slave[numSlaves];
+            for(int i=0; i<numSlaves; i++){
+                Socket socket = server.accept();
+                Slave slave = new Slave(socket);
+                slave.process = processes.get(slave.rank - 1);
+                connected[slave.rank - 1] = slave;
+            }
+            slaves.addAll(Arrays.asList(connected));
+
+            //NOTE: no shutdown hook needed, slaves quit on their own when our end of the socket closes
+        }
+        catch(SocketTimeoutException ex){
+            processes.forEach((process) -> process.destroy());
+            throw new RuntimeException("ERROR: MPI slaves didn't connect within "+ConnectTimeoutMs/1000+" seconds", ex);
+        }
+        catch(IOException ex){
+            processes.forEach((process) -> process.destroy());
+            throw new RuntimeException("ERROR: can't start MPI slaves", ex);
+        }
+
+        System.out.println("Started "+numSlaves+" MPI slaves");
+    }
+
+    public synchronized void stopSlaves(){
+        for(Slave slave : slaves)
+            slave.stop();
+        slaves.clear();
+    }
+
+    private static class TaskFailedException extends Exception {
+
+        private static final long serialVersionUID = 5473587306553651733L;
+
+        public TaskFailedException(Throwable cause){
+            super(cause);
+        }
+    }
+
+    private static class Slave {
+
+        final int rank;
+        final Socket socket;
+        final ObjectOutputStream out;
+        final ObjectInputStream in;
+        Process process = null;
+        boolean needsReset = false;
+
+        Slave(Socket socket) throws IOException {
+            this.socket = socket;
+            out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            rank = in.readInt();
+
+            //did the slave start up OK?
+            if(!in.readBoolean()){
+                Throwable error;
+                try {
+                    error = (Throwable)MPISlave.decode((byte[])in.readObject());
+                }
+                catch(ClassNotFoundException ex){
+                    error = ex;
+                }
+                throw new IOException("MPI slave "+rank+" failed to start", error);
+            }
+        }
+
+        Object doCalculation(MPISlaveTask task) throws IOException, TaskFailedException {
+
+            if(needsReset){
+                out.reset();
+                needsReset = false;
+            }
+            try {
+                out.writeObject(task);
+                out.flush();
+            }
+            catch(NotSerializableException ex){
+                //not the slave's fault, but the stream is garbage now, so this slave is done too
+                kill();
+                throw new TaskFailedException(ex);
+            }
+
+            try {
+                boolean succeeded = in.readBoolean();
+                Object result = MPISlave.decode((byte[])in.readObject());
+                if(!succeeded)
+                    throw new TaskFailedException((Throwable)result);
+                return result;
+            }
+            catch(ClassNotFoundException ex){
+                throw new TaskFailedException(ex);
+            }
+        }
+
+        boolean isAlive(){
+            return !socket.isClosed();
+        }
+
+        void stop(){
+            //ask nicely first, a null task means we're done
+            try {
+                if(isAlive()){
+                    out.writeObject(null);
+                    out.flush();
+                }
+                if(process!=null)
+                    process.waitFor(5, TimeUnit.SECONDS);
+            }
+            catch(IOException ex){
+                //slave is already gone, that's fine
+            }
+            catch(InterruptedException ex){
+                throw new Error(ex);
+            }
+            kill();
+        }
+
+        void kill(){
+            try {
+                socket.close();
+            }
+            catch(IOException ex){
+                //don't care, we're done with it
+            }
+            if(process!=null)
+                process.destroy();
+        }
+    }
+
     private static class MPIMasterHolder {
 
         private static final MPIMaster INSTANCE = new MPIMaster();
@@ -0,0 +1,170 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package edu.duke.cs.osprey.handlempi;
+
+import edu.duke.cs.osprey.control.ConfigFileParser;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ *
+ * Slave node for MPIMaster: a separate JVM that connects back to the master over a local socket,
+ * then does MPISlaveTasks one at a time until the master sends a null task or goes away
+ *
+ * args: port rank [-c KStar.cfg command config_file_1.cfg ...]
+ * The config files, if any, are loaded just like Main does,
+ * so tasks can use EnvironmentVars on this node too
+ *
+ * Protocol, after the master and slave open their object streams:
+ * slave sends its rank, then whether it started up OK (and if not, the error);
+ * then for each task the master sends, the slave sends back whether it succeeded,
+ * and the result (or the error), serialized separately so a bad result can't break the stream.
+ */
+public class MPISlave {
+
+    public static void main(String[] args) throws Exception {
+
+        int port = Integer.parseInt(args[0]);
+        int rank = Integer.parseInt(args[1]);
+        String[] configArgs = Arrays.copyOfRange(args, 2, args.length);
+
+        //so we don't print all the config again
+        MPIMaster.processRank = rank;
+
+        //do the work on a thread with a deep stack, see MPIMaster.SerializationStackSize
+        Throwable[] error = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                run(port, rank, configArgs);
+            }
+            catch(Throwable t){
+                error[0] = t;
+            }
+        }, "MPISlave", MPIMaster.SerializationStackSize);
+        thread.start();
+        thread.join();
+
+        //errors we could report went to the master already, this is just for the ones we couldn't (e.g. the master is gone)
+        if(error[0] instanceof Exception)
+            throw (Exception)error[0];
+        else if(error[0] instanceof Error)
+            throw (Error)error[0];
+        else if(error[0]!=null)
+            throw new RuntimeException(error[0]);
+    }
+
+    private static void run(int port, int rank, String[] configArgs) throws IOException, ClassNotFoundException {
+
+        try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)){
+
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(rank);
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            //load the config after connecting, so the master hears about it if something goes wrong
+            try {
+                if(configArgs.length>0){
+                    ConfigFileParser cfp = new ConfigFileParser(configArgs);
+                    cfp.loadData();
+                }
+            }
+            catch(Throwable t){
+                sendResult(out, false, t);
+                return;
+            }
+            out.writeBoolean(true);
+            out.flush();
+
+            while(true){
+
+                MPISlaveTask task;
+                try {
+                    task = (MPISlaveTask)in.readObject();
+                }
+                catch(EOFException ex){
+                    //master went away
+                    break;
+                }
+                if(task==null)
+                    break;
+
+                Object result;
+                boolean succeeded;
+                try {
+                    result = task.doCalculation();
+                    succeeded = true;
+                }
+                catch(Throwable t){
+                    result = t;
+                    succeeded = false;
+                }
+
+                sendResult(out, succeeded, result);
+            }
+        }
+    }
+
+    private static void sendResult(ObjectOutputStream out, boolean succeeded, Object result) throws IOException {
+
+        byte[] bytes;
+        try {
+            bytes = encode(result);
+        }
+        catch(IOException ex){
+            //can't send the result itself, so tell the master why instead
+            succeeded = false;
+            bytes = encode(new RuntimeException("ERROR: MPI task result can't be sent back to the master: "+ex));
+        }
+
+        out.writeBoolean(succeeded);
+        out.writeObject(bytes);
+        out.flush();
+
+        //results aren't shared between tasks, so don't keep them around in the stream
+        out.reset();
+    }
+
+    static byte[] encode(Object obj) throws IOException {
+
+        //throwables can hold on to things that don't serialize,
+        //so if the real one can't make it, send a copy with just the message and stack trace
+        if(obj instanceof Throwable){
+            try {
+                return serialize(obj);
+            }
+            catch(IOException ex){
+                Throwable t = (Throwable)obj;
+                RuntimeException copy = new RuntimeException(t.toString());
+                copy.setStackTrace(t.getStackTrace());
+                return serialize(copy);
+            }
+        }
+        return serialize(obj);
+    }
+
+    static Object decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))){
+            return in.readObject();
+        }
+    }
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(buf)){
+            out.writeObject(obj);
+        }
+        return buf.toByteArray();
+    }
+}
@@ -4,6 +4,8 @@
  */
 package edu.duke.cs.osprey.handlempi;
 
+import java.io.Serializable;
+
 /**
  *
  * @author mhall44
@@ -12,8 +14,9 @@ package edu.duke.cs.osprey.handlempi;
 //these are farmed out to various slave nodes
 //they doCalculation and return whatever they're supposed to
 //which can then be cast by the master to the form used by the task calling the master
+//tasks (and their results) get sent to slave JVMs by serialization
 
-public interface MPISlaveTask {
+public interface MPISlaveTask extends Serializable {
     
     Object doCalculation();
     
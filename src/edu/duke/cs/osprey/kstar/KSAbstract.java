@@ -17,6 +17,7 @@ import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.EApproxReached;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.RunState;
 import edu.duke.cs.osprey.kstar.pfunc.PFFactory;
+import edu.duke.cs.osprey.kstar.pfunc.PFStore;
 import edu.duke.cs.osprey.kstar.pruning.APrioriPruningProver;
 import edu.duke.cs.osprey.pruning.Pruner;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
@@ -46,6 +47,7 @@ public abstract class KSAbstract implements KSInterface {
 	protected HashMap<Integer, KSAllowedSeqs> strand2AllowedSeqs = new HashMap<>(3);
 	protected ConcurrentHashMap<String, KSSearchProblem> name2SP = new ConcurrentHashMap<>();
 	protected ConcurrentHashMap<String, PFAbstract> name2PF = new ConcurrentHashMap<>();
+	protected PFStore pfStore = null;
 
 	protected double EW;
 	protected double I0;
@@ -97,6 +99,10 @@ public abstract class KSAbstract implements KSInterface {
 		useVoxelG = cfp.getParams().getBool("useVoxelG", false);
 		if(useVoxelG && !useTupExp)
 			throw new RuntimeException("ERROR: K* with continuous entropy requires LUTE");
+
+		String pfStoreDir = cfp.getParams().getValue("kStarPFuncStoreDir");
+		if(pfStoreDir.length() > 0)
+			pfStore = new PFStore(new File(pfStoreDir), cfp.getParams());
 	}
 
 
@@ -387,6 +393,16 @@ public abstract class KSAbstract implements KSInterface {
 
 	protected ConcurrentHashMap<Integer, PFAbstract> createPFs4Seqs(ArrayList<ArrayList<String>> seqs, 
 			ArrayList<Boolean> contSCFlexVals, ArrayList<String> pfImplVals) {
+		return createPFs4Seqs(seqs, contSCFlexVals, pfImplVals, true);
+	}
+
+
+	/**
+	 * @param init false to leave initPF() to whoever runs the partition functions,
+	 * eg KSScheduler, whose threads could already be running some of these partition functions
+	 */
+	protected ConcurrentHashMap<Integer, PFAbstract> createPFs4Seqs(ArrayList<ArrayList<String>> seqs, 
+			ArrayList<Boolean> contSCFlexVals, ArrayList<String> pfImplVals, boolean init) {
 
 		ConcurrentHashMap<Integer, PFAbstract> ans = new ConcurrentHashMap<>();
 
@@ -410,38 +426,7 @@ public abstract class KSAbstract implements KSInterface {
 			// put in local map
 			ans.put(strand, pf);
 
-			// only continue if we have not already started computed the PF
-			if( pf.getRunState() == RunState.NOTSTARTED ) {
-
-				// get energy matrix
-				if(pf.getReducedSearchProblem().getEnergyMatrix() == null) {
-					pf.getReducedSearchProblem().loadEnergyMatrix();
-				}
-
-				// re-prune, since we have fewer witnesses now that we have trimmed the emat?
-				// type dependent pruning doesn't take care of this?
-
-				if(pf.getReducedSearchProblem().numConfs(pf.getReducedPruningMatrix()).compareTo(BigInteger.ZERO) == 0) {
-					// no conformations in search space, so this cannot give a valid
-					// partition function
-					
-					System.out.println("\nRe-pruning to steric threshold...");
-					double maxPruningInterval = cfp.getParams().getDouble("StericThresh");
-					pf.rePruneReducedSP(maxPruningInterval);
-					
-					if(pf.getReducedSearchProblem().numConfs(pf.getReducedPruningMatrix()).compareTo(BigInteger.ZERO) == 0) {
-						
-						System.out.println("\nWARNING: there are no valid conformations for sequence " + 
-								KSAbstract.list1D2String(pf.getSequence(), " ") + " " + pf.getFlexibility() + "\n");
-						
-						pf.setEpsilonStatus(EApproxReached.NOT_POSSIBLE);
-					}
-				}
-
-				// initialize conf counts for K*
-				pf.setNumUnPruned();
-				pf.setNumPruned();
-			}
+			if( init ) initPF(pf, strand);
 		}
 		//});
 
@@ -452,6 +437,51 @@ public abstract class KSAbstract implements KSInterface {
 	}
 
 
+	/** loads the energy matrix, counts conformations, and loads stored results, for partition functions that haven't started yet */
+	protected void initPF(PFAbstract pf, int strand) {
+
+		// only continue if we have not already started computed the PF
+		if( pf.getRunState() != RunState.NOTSTARTED ) return;
+
+		// get energy matrix
+		if(pf.getReducedSearchProblem().getEnergyMatrix() == null) {
+			pf.getReducedSearchProblem().loadEnergyMatrix();
+		}
+
+		// re-prune, since we have fewer witnesses now that we have trimmed the emat?
+		// type dependent pruning doesn't take care of this?
+
+		if(pf.getReducedSearchProblem().numConfs(pf.getReducedPruningMatrix()).compareTo(BigInteger.ZERO) == 0) {
+			// no conformations in search space, so this cannot give a valid
+			// partition function
+			
+			System.out.println("\nRe-pruning to steric threshold...");
+			double maxPruningInterval = cfp.getParams().getDouble("StericThresh");
+			pf.rePruneReducedSP(maxPruningInterval);
+			
+			if(pf.getReducedSearchProblem().numConfs(pf.getReducedPruningMatrix()).compareTo(BigInteger.ZERO) == 0) {
+				
+				System.out.println("\nWARNING: there are no valid conformations for sequence " + 
+						KSAbstract.list1D2String(pf.getSequence(), " ") + " " + pf.getFlexibility() + "\n");
+				
+				pf.setEpsilonStatus(EApproxReached.NOT_POSSIBLE);
+			}
+		}
+
+		// initialize conf counts for K*
+		pf.setNumUnPruned();
+		pf.setNumPruned();
+
+		// reuse what earlier runs computed for this partition function
+		if( pfStore != null && pf.isFullyDefined() && pf.getEpsilonStatus() == EApproxReached.FALSE
+				&& pf.getImpl().equalsIgnoreCase(PFAbstract.getCFGImpl()) ) {
+
+			if( pfStore.load(pf) && strand != 2 )
+				checkStoredPFStability(strand, pf);
+		}
+	}
+
+
 	public void removeFromMap(String spName, boolean sp, boolean pf) {
 		if(sp) name2SP.remove(spName);
 		if(pf) name2PF.remove(spName);
@@ -520,6 +550,7 @@ public abstract class KSAbstract implements KSInterface {
                 }
 
                 panSeqSP.numEmatThreads = cfp.getParams().getInt("EmatThreads");
+                panSeqSP.ematPairCutoff = cfp.getParams().getDouble("EmatPairCutoff");
 		return panSeqSP;
 	}
 
@@ -724,6 +755,19 @@ public abstract class KSAbstract implements KSInterface {
 	}
 
 
+	private void checkStoredPFStability( int strand, PFAbstract pf ) {
+
+		// stored partition functions skip KSCalc.runPF(), so check them against the wild type here
+		PFAbstract wtPF = wtKSCalc == null ? null : wtKSCalc.getPF(strand);
+		if( wtPF == null || wtPF == pf ) return;
+
+		if( !wtKSCalc.unboundIsStable(wtPF, pf) ) {
+			pf.setEpsilonStatus( EApproxReached.NOT_STABLE );
+			System.out.println("\nSequence " + KSAbstract.list1D2String(pf.getSequence(), " ") + " " + pf.getFlexibility() + " is unstable\n");
+		}
+	}
+
+
 	protected PFAbstract deSerializePF( String spName, String path, boolean contSCFlex ) {
 
 		if( !new File(path).exists() ) return null;
@@ -2,8 +2,6 @@ package edu.duke.cs.osprey.kstar;
 
 import java.io.Serializable;
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.LinkedHashSet;
 
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
@@ -22,13 +20,17 @@ public class KSConfQ extends Thread implements Serializable {
 	private ConfSearch confSearch;
 	private int minCapacity;
 
-	// lock for queue access
+	// lock for waiting on the queue. the queue itself is lock-free,
+	// so consumers only need this to sleep until confs arrive, or to wake a sleeping producer
 	public final String lock = new String("LOCK");
 
-	private LinkedHashSet<ArrayList<Integer>> q = null;
-	private int qCap = (int)Math.pow(2, 20);
-	private boolean confsExhausted = false;
-	private ArrayList<Integer> tail = null;
+	private KSConfRing q = null;
+	private volatile int qCap = (int)Math.pow(2, 20);
+	private volatile boolean confsExhausted = false;
+
+	// only the producer touches these
+	private KSConfSet enqueuedConfs = null;
+	private double tailBound = Double.NaN;
 
 	/**
 	 * 
@@ -45,7 +47,8 @@ public class KSConfQ extends Thread implements Serializable {
 		this.minCapacity = minCapacity;
 		qCap = Math.max( minCapacity, PFAbstract.qCapacity );
 
-		q = new LinkedHashSet<>(qCap);
+		q = new KSConfRing(qCap);
+		enqueuedConfs = new KSConfSet();
 	}
 
 
@@ -65,6 +68,7 @@ public class KSConfQ extends Thread implements Serializable {
 
 
 	public int size() {
+		KSConfRing q = this.q;
 		if(q == null) return 0;
 		
 		return q.size();
@@ -84,19 +88,6 @@ public class KSConfQ extends Thread implements Serializable {
 	public double getConfBound( int[] conf ) {
 		return pf.getConfBound(confSearch, conf);
 	}
-	
-
-	public KSConf peekTail() {
-		return size() > 0 ? new KSConf(tail, pf.getConfBound(confSearch, KSConf.list2Array(tail))) : null;
-	}
-
-
-	public KSConf peekHead() {
-		if(size() == 0) return null;
-
-		ArrayList<Integer> value = q.iterator().next();
-		return new KSConf(value, pf.getConfBound(confSearch, KSConf.list2Array(value)));
-	}
 
 
 	protected double enQueue( int[] conf ) {
@@ -107,33 +98,27 @@ public class KSConfQ extends Thread implements Serializable {
 		BigDecimal boltzmannWeight = pf.getBoltzmannWeight(energyBound);
 		if( boltzmannWeight.compareTo(BigDecimal.ZERO) == 0 ) energyBound = Double.POSITIVE_INFINITY;
 
-		ArrayList<Integer> list = KSConf.array2List(conf);
-
-		if(KSAbstract.doCheckPoint && size() > 0 && energyBound < peekTail().getEnergyBound() ) return energyBound;
+		if(KSAbstract.doCheckPoint && size() > 0 && energyBound < tailBound ) return energyBound;
 
-		if( pf.getProcessedConfsSet().contains(list) || q.contains(list) ) return energyBound;
+		if( pf.getProcessedConfsSet().contains(conf) || !enqueuedConfs.add(conf) ) return energyBound;
 
-		q.add(list);
+		// the producer waits before the queue gets full, so this shouldn't happen
+		if( !q.offer(conf, energyBound) )
+			throw new RuntimeException("ERROR: the conformation queue is full");
 
-		tail = list;
+		tailBound = energyBound;
 
 		return energyBound;
 	}
 
 
 	public KSConf deQueue() {
-		// assuming locks are in place
-		KSConf conf = size() > 0 ? peekHead() : null;
+		// no locks needed, but only consumers waiting on the lock get notified when confs arrive
+		KSConf conf = q != null ? q.poll() : null;
 
 		if(conf == null) 
 			throw new RuntimeException("ERROR: attempting to dequeue from an empty list");
 
-		q.remove(conf.getConf());
-
-		if(size() == 0) tail = null;
-
-		conf.getConf().trimToSize();
-		
 		return conf;
 	}
 
@@ -149,7 +134,7 @@ public class KSConfQ extends Thread implements Serializable {
 
 
 	public void setQCapacity( int newCap ) {
-		qCap = Math.max(newCap, minCapacity);
+		qCap = Math.min(Math.max(newCap, minCapacity), q.getCapacity());
 	}
 
 
@@ -168,7 +153,14 @@ public class KSConfQ extends Thread implements Serializable {
 	private void nullify() {
 		confSearch = null;
 		q = null;
-		tail = null;
+		enqueuedConfs = null;
+	}
+
+
+	private void wakeConsumer() {
+		synchronized( lock ) {
+			lock.notify();
+		}
 	}
 
 
@@ -184,35 +176,38 @@ public class KSConfQ extends Thread implements Serializable {
 
 				conf = confSearch.nextConf();
 
-				synchronized( lock ) {
-
-					if( conf == null ) {
+				// enqueue without the lock, so consumers don't wait on us while we compute bounds
+				if( conf == null || enQueue(conf.getAssignments()) == Double.POSITIVE_INFINITY ) {
+					// no more confs, or the energy lower bound is pos infinity. no need to keep enumerating
+					synchronized( lock ) {
 						confsExhausted = true;
 						lock.notify();
-						return;
 					}
+					return;
+				}
 
-					// this means the energy lower bound is pos infinity. no need to keep enumerating
-					if( enQueue(conf.getAssignments()) == Double.POSITIVE_INFINITY ) { confsExhausted = true; lock.notify(); return; }
+				// notify queue consumer ONLY if queue was empty before
+				// i added latest conformation. this condition means that
+				// the partition function is waiting for this signal to process
+				// conformations.
+				// it's wasteful to call notify for every insertion
+				if( size() == minCapacity ) wakeConsumer();
 
-					// notify queue consumer ONLY if queue was empty before
-					// i added latest conformation. this condition means that
-					// the partition function is waiting for this signal to process
-					// conformations.
-					// it's wasteful to call notify for every insertion
-					if( size() == minCapacity ) lock.notify();
+				if( size() >= qCap ) {
 
-					if( size() >= qCap ) {
+					synchronized( lock ) {
 
 						lock.notify();
 
+						// consumers may have made room since we checked, so check again before sleeping
+						while( size() >= qCap && pf.getEpsilonStatus() == EApproxReached.FALSE ) lock.wait();
+
 						if( pf.getEpsilonStatus() != EApproxReached.FALSE ) return;
-						else lock.wait();
 					}
-
-					// exit thread if we have an e-approximation
-					if( pf.getEpsilonStatus() != EApproxReached.FALSE ) { lock.notify(); return; }
 				}
+
+				// exit thread if we have an e-approximation
+				if( pf.getEpsilonStatus() != EApproxReached.FALSE ) { wakeConsumer(); return; }
 			}
 
 		} catch (Exception e) {
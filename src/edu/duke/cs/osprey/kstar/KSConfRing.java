@@ -0,0 +1,120 @@
+package edu.duke.cs.osprey.kstar;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded FIFO of conformations and their energy bounds, for one producer thread and any number of consumers
+ *
+ * Confs are stored packed in int arrays, not as boxed lists, and nobody takes a lock:
+ * the producer publishes a slot by advancing the tail, and consumers claim slots by advancing the head
+ * with a compare-and-set. A consumer copies the slot before claiming it, so if the producer
+ * reuses the slot in the meantime, the claim fails and the consumer just tries again.
+ *
+ * Storage is allocated in chunks as the queue first fills up, so a big capacity doesn't cost anything until it's used.
+ */
+@SuppressWarnings("serial")
+public class KSConfRing implements Serializable {
+
+	private static final int ChunkBits = 10;
+
+	private final int capacity;
+	private final int mask;
+	private final int chunkBits;
+
+	// the conf length is set by the first offer()
+	private volatile int numPos = -1;
+
+	private final int[][] confChunks;
+	private final double[][] boundChunks;
+
+	private final AtomicLong head = new AtomicLong(0);
+	private volatile long tail = 0;
+
+	/** capacity is rounded up to a power of two */
+	public KSConfRing(int capacity) {
+
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive, not " + capacity);
+		}
+
+		this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		mask = this.capacity - 1;
+		chunkBits = Math.min(ChunkBits, Integer.numberOfTrailingZeros(this.capacity));
+
+		int numChunks = this.capacity >> chunkBits;
+		confChunks = new int[numChunks][];
+		boundChunks = new double[numChunks][];
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		// read the head first, so the size is never negative
+		long h = head.get();
+		return (int)Math.min(tail - h, capacity);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * adds the conf to the end of the queue, or returns false if the queue is full
+	 *
+	 * Only the producer thread may call this.
+	 */
+	public boolean offer(int[] conf, double energyBound) {
+
+		if (numPos < 0) {
+			numPos = conf.length;
+		} else if (conf.length != numPos) {
+			throw new IllegalArgumentException("conf has " + conf.length + " positions, but queue has " + numPos);
+		}
+
+		long t = tail;
+		if (t - head.get() >= capacity) {
+			return false;
+		}
+
+		int slot = (int)(t & mask);
+		int chunk = slot >> chunkBits;
+		int index = slot & ((1 << chunkBits) - 1);
+		if (confChunks[chunk] == null) {
+			confChunks[chunk] = new int[numPos << chunkBits];
+			boundChunks[chunk] = new double[1 << chunkBits];
+		}
+		System.arraycopy(conf, 0, confChunks[chunk], index*numPos, numPos);
+		boundChunks[chunk][index] = energyBound;
+
+		// publish the slot
+		tail = t + 1;
+		return true;
+	}
+
+	/** removes the conf at the front of the queue, or returns null if the queue is empty */
+	public KSConf poll() {
+		while (true) {
+
+			long h = head.get();
+			if (h >= tail) {
+				return null;
+			}
+
+			int slot = (int)(h & mask);
+			int chunk = slot >> chunkBits;
+			int index = slot & ((1 << chunkBits) - 1);
+			int[] conf = new int[numPos];
+			System.arraycopy(confChunks[chunk], index*numPos, conf, 0, numPos);
+			double energyBound = boundChunks[chunk][index];
+
+			if (head.compareAndSet(h, h + 1)) {
+				return new KSConf(conf, energyBound);
+			}
+
+			// another consumer got there first, try the next slot
+		}
+	}
+}
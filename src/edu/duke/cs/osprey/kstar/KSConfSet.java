@@ -0,0 +1,216 @@
+package edu.duke.cs.osprey.kstar;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Set of conformations (int[] RC assignments), without boxing
+ *
+ * Confs are packed end-to-end into one int array (length first, then the RCs),
+ * and found with an open-addressing hash table of offsets into that array,
+ * so each conf costs a few ints instead of an ArrayList of Integers plus a HashMap entry.
+ * Confs can't be removed, which is fine for the processed and enqueued conf sets.
+ *
+ * The producer of a conf queue asks about membership while the partition function adds confs,
+ * so all the methods take a (usually uncontended) lock.
+ */
+@SuppressWarnings("serial")
+public class KSConfSet implements Serializable, Iterable<int[]> {
+
+	private static final int DefaultCapacity = 16;
+
+	// confs, packed as: len, rc0, rc1, ...
+	private int[] pool;
+	private int poolSize;
+
+	// offset+1 of each conf in the pool, or 0 for empty
+	private int[] slots;
+	private int[] hashes;
+	private int size;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	public KSConfSet() {
+		this(DefaultCapacity);
+	}
+
+	public KSConfSet(int capacity) {
+		int numSlots = Integer.highestOneBit(Math.max(capacity, DefaultCapacity) - 1) << 2;
+		slots = new int[numSlots];
+		hashes = new int[numSlots];
+		pool = new int[numSlots];
+		poolSize = 0;
+		size = 0;
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public boolean contains(int[] conf) {
+		lock.lock();
+		try {
+			return slots[find(conf, hash(conf))] != 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** returns true if the conf wasn't in the set already */
+	public boolean add(int[] conf) {
+		lock.lock();
+		try {
+
+			int hash = hash(conf);
+			int i = find(conf, hash);
+			if (slots[i] != 0) {
+				return false;
+			}
+
+			// copy the conf into the pool
+			int offset = poolSize;
+			ensurePoolCapacity(offset + conf.length + 1);
+			pool[offset] = conf.length;
+			System.arraycopy(conf, 0, pool, offset + 1, conf.length);
+			poolSize += conf.length + 1;
+
+			slots[i] = offset + 1;
+			hashes[i] = hash;
+			size++;
+
+			// keep the table at most half full, so probes stay short
+			if (size*2 > slots.length) {
+				rehash(slots.length*2);
+			}
+
+			return true;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void clear() {
+		lock.lock();
+		try {
+			Arrays.fill(slots, 0);
+			pool = new int[pool.length];
+			poolSize = 0;
+			size = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** iterates over copies of the confs, in insertion order, as of when the iterator was made */
+	@Override
+	public Iterator<int[]> iterator() {
+
+		final int[] pool;
+		final int end;
+		lock.lock();
+		try {
+			// the pool is append-only, so we can read up to the current end without the lock
+			pool = this.pool;
+			end = poolSize;
+		} finally {
+			lock.unlock();
+		}
+
+		return new Iterator<int[]>() {
+
+			private int offset = 0;
+
+			@Override
+			public boolean hasNext() {
+				return offset < end;
+			}
+
+			@Override
+			public int[] next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				int len = pool[offset];
+				int[] conf = Arrays.copyOfRange(pool, offset + 1, offset + 1 + len);
+				offset += len + 1;
+				return conf;
+			}
+		};
+	}
+
+	private static int hash(int[] conf) {
+		int h = 1;
+		for (int rc : conf) {
+			h = 31*h + rc;
+		}
+		// spread the bits, since we index by the low bits
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	/** returns the slot holding the conf, or the empty slot where it should go */
+	private int find(int[] conf, int hash) {
+		int mask = slots.length - 1;
+		int i = hash & mask;
+		while (slots[i] != 0) {
+			if (hashes[i] == hash && matches(slots[i] - 1, conf)) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private boolean matches(int offset, int[] conf) {
+		if (pool[offset] != conf.length) {
+			return false;
+		}
+		for (int i=0; i<conf.length; i++) {
+			if (pool[offset + 1 + i] != conf[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void ensurePoolCapacity(int capacity) {
+		if (capacity > pool.length) {
+			// copy to a new array rather than growing in place, so iterators keep seeing their old pool
+			pool = Arrays.copyOf(pool, Math.max(capacity, pool.length*2));
+		}
+	}
+
+	private void rehash(int numSlots) {
+		int[] oldSlots = slots;
+		int[] oldHashes = hashes;
+		slots = new int[numSlots];
+		hashes = new int[numSlots];
+		int mask = numSlots - 1;
+		for (int j=0; j<oldSlots.length; j++) {
+			if (oldSlots[j] == 0) {
+				continue;
+			}
+			int i = oldHashes[j] & mask;
+			while (slots[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			slots[i] = oldSlots[j];
+			hashes[i] = oldHashes[j];
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package edu.duke.cs.osprey.kstar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.duke.cs.osprey.confspace.ConfSpace;
+import edu.duke.cs.osprey.energy.EnergyFunction;
+import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
+import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.EApproxReached;
+import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.RunState;
+import edu.duke.cs.osprey.parallelism.ThreadPoolTaskExecutor;
+import edu.duke.cs.osprey.tools.ObjectIO;
+
+/**
+ * Computes the partition functions of many K* sequences at once, on one pool of threads
+ *
+ * Partition functions run in slices of a few conformations at a time (see PFAbstract.runSlice()).
+ * Whenever a thread is free, it gets the next slice of whichever partition function has the biggest
+ * gap left between its bounds (ie, the highest effective epsilon), so all the sequences converge together
+ * instead of one after another.
+ *
+ * Each sequence still computes its ligand, protein, and complex partition functions in that order, like KSCalc.run(),
+ * and stops early if one isn't possible or isn't stable. Partition functions shared by several sequences
+ * (eg, the same unbound ligand) are only computed once.
+ *
+ * Each thread runs one partition function at a time, so this works best with single-threaded partition functions,
+ * like the traditional method.
+ */
+public class KSScheduler {
+
+	public static interface CalcListener {
+		void onFinished(KSCalc calc);
+	}
+
+	/** gets a partition function ready to start, eg KSAbstract.initPF() */
+	public static interface PFInitializer {
+		void init(PFAbstract pf, int strand);
+	}
+
+	private static final List<Integer> Strands = Arrays.asList(1, 0, 2);
+
+	private class PFTask implements Runnable {
+
+		final PFAbstract pf;
+		final int strand;
+		final long order;
+		final List<CalcState> waiters = new ArrayList<>();
+		ConfSpace confSpace;
+		EnergyFunction fullConfE;
+		Throwable error = null;
+
+		PFTask(PFAbstract pf, int strand, long order) {
+			this.pf = pf;
+			this.strand = strand;
+			this.order = order;
+			rememberConfSpace();
+		}
+
+		void rememberConfSpace() {
+
+			// remember the shared conf space before we swap in any copies
+			KSSearchProblem sp = pf.getReducedSearchProblem();
+			confSpace = sp == null ? null : sp.confSpace;
+			fullConfE = sp == null ? null : sp.fullConfE;
+		}
+
+		@Override
+		public void run() {
+			try {
+
+				// NOTE: this task is the only one running its partition function, so nothing else can be initializing it
+				// but initializing can compute energy matrices on the shared conf space, so only initialize one at a time
+				if( pf.getRunState() == RunState.NOTSTARTED && initializer != null ) {
+					initLock.lock();
+					try {
+						initializer.init(pf, strand);
+					} finally {
+						initLock.unlock();
+					}
+
+					// re-pruning can replace the search problem
+					rememberConfSpace();
+				}
+
+				useThreadConfSpace(this);
+
+				if( pf.getRunState() == RunState.NOTSTARTED && pf.getEpsilonStatus() == EApproxReached.FALSE ) {
+					System.out.println("\n" + pf.getImpl() + ": Initializing partition function for " + KSAbstract.list1D2String(pf.getSequence(), " ") + " " + pf.getFlexibility());
+					pf.start();
+				}
+
+				if( pf.getEpsilonStatus() == EApproxReached.FALSE )
+					pf.runSlice(sliceConfs);
+
+			} catch (Throwable t) {
+				error = t;
+			}
+		}
+	}
+
+	private static class CalcState {
+
+		final KSCalc calc;
+		final CalcListener listener;
+		int strandIndex = 0;
+
+		CalcState(KSCalc calc, CalcListener listener) {
+			this.calc = calc;
+			this.listener = listener;
+		}
+	}
+
+	// minimizing changes the conf space's molecule, and all the sequences of a strand share one conf space,
+	// so each thread minimizes on its own copy, like the threads in PFParallel2
+	private final ThreadLocal<IdentityHashMap<ConfSpace,Object[]>> confSpaceCopies = ThreadLocal.withInitial(IdentityHashMap::new);
+
+	private final KSCalc wtKSCalc;
+	private final long sliceConfs;
+	private final int maxCalcs;
+	private final PFInitializer initializer;
+	private final ThreadPoolTaskExecutor tasks;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ReentrantLock initLock = new ReentrantLock();
+	private final Condition calcFinished = lock.newCondition();
+
+	// listeners write output files, so only call one at a time
+	private final ReentrantLock listenerLock = new ReentrantLock();
+
+	// biggest gap first, then oldest first
+	private final PriorityQueue<PFTask> readyTasks = new PriorityQueue<>((a, b) -> {
+		int cmp = Double.compare(b.pf.getEffectiveEpsilon(), a.pf.getEffectiveEpsilon());
+		return cmp != 0 ? cmp : Long.compare(a.order, b.order);
+	});
+	private final IdentityHashMap<PFAbstract,PFTask> tasksByPF = new IdentityHashMap<>();
+	private long nextOrder = 0;
+	private int numRunning = 0;
+	private int numCalcs = 0;
+	private Throwable failure = null;
+
+	/**
+	 * @param wtKSCalc the finished wild-type calculation, for stability checks, or null to skip them
+	 * @param numThreads number of partition functions to run at once
+	 * @param sliceConfs number of conformations to process before picking the next partition function
+	 * @param maxCalcs number of sequences to keep in flight, add() waits when there are this many
+	 */
+	public KSScheduler(KSCalc wtKSCalc, int numThreads, long sliceConfs, int maxCalcs) {
+		this(wtKSCalc, numThreads, sliceConfs, maxCalcs, null);
+	}
+
+	/**
+	 * @param initializer called on the scheduler threads before each partition function starts, or null if they're ready to start.
+	 * Partition functions can be shared between sequences, so initializing them anywhere else can race with a running one
+	 */
+	public KSScheduler(KSCalc wtKSCalc, int numThreads, long sliceConfs, int maxCalcs, PFInitializer initializer) {
+
+		this.wtKSCalc = wtKSCalc;
+		this.sliceConfs = Math.max(1, sliceConfs);
+		this.maxCalcs = Math.max(numThreads, maxCalcs);
+		this.initializer = initializer;
+
+		tasks = new ThreadPoolTaskExecutor();
+		tasks.start(numThreads);
+	}
+
+	public int getParallelism() {
+		return tasks.getParallelism();
+	}
+
+	/**
+	 * starts computing the sequence, after waiting until there's room for it.
+	 * The listener gets called (on some other thread) when the sequence is finished,
+	 * ie its K* score is known, or it can't be computed
+	 */
+	public void add(KSCalc calc, CalcListener listener) {
+
+		List<CalcState> finished = new ArrayList<>();
+
+		lock.lock();
+		try {
+
+			while( numCalcs >= maxCalcs && failure == null ) {
+				calcFinished.awaitUninterruptibly();
+			}
+			checkFailure();
+
+			numCalcs++;
+			advance(new CalcState(calc, listener), finished);
+			fill();
+
+		} finally {
+			lock.unlock();
+		}
+
+		notifyListeners(finished);
+	}
+
+	/** waits for all the sequences to finish, then stops the threads */
+	public void finish() {
+
+		lock.lock();
+		try {
+			while( numCalcs > 0 && failure == null ) {
+				calcFinished.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		tasks.waitForFinish();
+		tasks.stop();
+
+		lock.lock();
+		try {
+			checkFailure();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void checkFailure() {
+		if( failure != null )
+			throw new RuntimeException("ERROR: a partition function failed", failure);
+	}
+
+	/** moves the sequence to its next unfinished partition function, or finishes the sequence */
+	private void advance(CalcState state, List<CalcState> finished) {
+
+		while( state.strandIndex < Strands.size() ) {
+
+			// same early exit as KSCalc.run()
+			if( state.calc.getEpsilonStatus() != EApproxReached.FALSE ) break;
+
+			int strand = Strands.get(state.strandIndex);
+			PFAbstract pf = state.calc.getPF(strand);
+
+			// already finished, maybe by another sequence
+			if( pf.getEpsilonStatus() != EApproxReached.FALSE ) {
+				state.strandIndex++;
+				continue;
+			}
+
+			// wait for the partition function
+			PFTask task = tasksByPF.get(pf);
+			if( task == null ) {
+				task = new PFTask(pf, strand, nextOrder++);
+				tasksByPF.put(pf, task);
+				readyTasks.add(task);
+			}
+			task.waiters.add(state);
+			return;
+		}
+
+		// finished, but keep counting it until its listener returns
+		finished.add(state);
+	}
+
+	/** starts ready slices until all the threads are busy */
+	private void fill() {
+		while( numRunning < tasks.getParallelism() && !readyTasks.isEmpty() ) {
+			PFTask task = readyTasks.poll();
+			numRunning++;
+			tasks.submit(task, (runnable) -> onSliceFinished(task));
+		}
+	}
+
+	private void onSliceFinished(PFTask task) {
+
+		List<CalcState> finished = new ArrayList<>();
+
+		lock.lock();
+		try {
+
+			numRunning--;
+
+			if( task.error != null ) {
+				if( failure == null ) failure = task.error;
+				calcFinished.signalAll();
+				return;
+			}
+
+			PFAbstract pf = task.pf;
+
+			if( pf.getEpsilonStatus() == EApproxReached.FALSE ) {
+				// not done yet, get back in line
+				readyTasks.add(task);
+
+			} else {
+
+				tasksByPF.remove(pf);
+				System.out.println("\n" + pf.getImpl() + ": Completed partition function for " + KSAbstract.list1D2String(pf.getSequence(), " ")  + " " + pf.getFlexibility() + "\n");
+
+				checkStability(task);
+
+				for( CalcState state : task.waiters ) {
+					state.strandIndex++;
+					advance(state, finished);
+				}
+			}
+
+			if( failure == null ) fill();
+
+		} finally {
+			lock.unlock();
+		}
+
+		notifyListeners(finished);
+	}
+
+	private void useThreadConfSpace(PFTask task) {
+
+		KSSearchProblem sp = task.pf.getReducedSearchProblem();
+		if( sp == null || task.confSpace == null ) return;
+
+		// copy the conf space and energy function together, so the copied energy function uses the copied molecule
+		Object[] copy = confSpaceCopies.get().computeIfAbsent(task.confSpace,
+			(key) -> (Object[])ObjectIO.deepCopy(new Object[] { task.confSpace, task.fullConfE })
+		);
+		sp.confSpace = (ConfSpace)copy[0];
+		sp.fullConfE = (EnergyFunction)copy[1];
+	}
+
+	private void checkStability(PFTask task) {
+
+		// same check as KSCalc.runPF(), but only once per partition function
+		PFAbstract wtPF = wtKSCalc == null ? null : wtKSCalc.getPF(task.strand);
+		if( task.strand == 2 || wtPF == null || wtPF == task.pf ) return;
+		if( task.pf.getEpsilonStatus() == EApproxReached.NOT_POSSIBLE ) return;
+
+		if( !task.waiters.get(0).calc.unboundIsStable(wtPF, task.pf) ) {
+			task.pf.setEpsilonStatus( EApproxReached.NOT_STABLE );
+			System.out.println("\nSequence " + KSAbstract.list1D2String(task.pf.getSequence(), " ") + " " + task.pf.getFlexibility() + " is unstable\n");
+		}
+	}
+
+	private void notifyListeners(List<CalcState> finished) {
+
+		if( finished.isEmpty() ) return;
+
+		listenerLock.lock();
+		try {
+			for( CalcState state : finished ) {
+				state.listener.onFinished(state.calc);
+			}
+		} finally {
+			listenerLock.unlock();
+		}
+
+		lock.lock();
+		try {
+			numCalcs -= finished.size();
+			calcFinished.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
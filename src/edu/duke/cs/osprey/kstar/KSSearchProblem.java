@@ -49,7 +49,11 @@ public class KSSearchProblem extends SearchProblem {
 		this.reducedAllowedAAs = allowedAAs;
 		this.posNums = getMaxPosNums();
 		
-		this.numEmatThreads = params.getInt("EMATTHREADS");
+		// tests make search problems without any config, so keep the defaults then
+		if (params != null) {
+			this.numEmatThreads = params.getInt("EMATTHREADS");
+			this.ematPairCutoff = params.getDouble("EMATPAIRCUTOFF");
+		}
 	}
 
 
@@ -83,6 +87,7 @@ public class KSSearchProblem extends SearchProblem {
 		this.competitorPruneMat = other.competitorPruneMat;
 		this.confSpace = other.confSpace;
 		this.numEmatThreads = other.numEmatThreads;
+		this.ematPairCutoff = other.ematPairCutoff;
 	}
 
 	public enum MatrixType {
@@ -292,7 +297,7 @@ public class KSSearchProblem extends SearchProblem {
 		BigInteger ans = BigInteger.ONE;
 
 		for( int pos = 0; pos < pruneMat.getNumPos(); ++pos ) {
-			long numRCs = pruneMat.unprunedRCsAtPos(pos).size();
+			long numRCs = pruneMat.countUnprunedRCsAtPos(pos);
 			if(numRCs == 0) return BigInteger.ZERO;
 			ans = ans.multiply( BigInteger.valueOf( numRCs ) );
 		}
@@ -9,6 +9,7 @@ import edu.duke.cs.osprey.kstar.KSAllowedSeqs;
 import edu.duke.cs.osprey.kstar.KSAbstract;
 import edu.duke.cs.osprey.kstar.KSCalc;
 import edu.duke.cs.osprey.kstar.KSConfigFileParser;
+import edu.duke.cs.osprey.kstar.KSScheduler;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.EApproxReached;
 import edu.duke.cs.osprey.tools.ObjectIO;
@@ -22,6 +23,8 @@ public class KSImplLinear extends KSAbstract {
 	
 	private boolean contSCFlex;
 	private String pfImpl;
+	private int schedulerThreads;
+	private long schedulerSliceConfs;
 
 	public KSImplLinear( KSConfigFileParser cfp ) {
 		super( cfp );
@@ -44,6 +47,8 @@ public class KSImplLinear extends KSAbstract {
 		ArrayList<Boolean> contSCFlexVals = new ArrayList<Boolean>(Arrays.asList(contSCFlex));
 		createEmats(contSCFlexVals);
 		pfImpl = cfp.getParams().getValue("kStarPFuncMethod");
+		schedulerThreads = cfp.getParams().getInt("kStarSchedulerThreads");
+		schedulerSliceConfs = cfp.getParams().getInt("kStarSchedulerSliceConfs");
 	}
 
 
@@ -64,6 +69,9 @@ public class KSImplLinear extends KSAbstract {
 		if(doCheckPoint)
 			runRR();
 
+		else if(schedulerThreads > 1)
+			runScheduled();
+
 		else
 			runFCFS();
 
@@ -120,6 +128,71 @@ public class KSImplLinear extends KSAbstract {
 	}
 
 
+	protected void runScheduled() {
+
+		// each value corresponds to the desired flexibility of the 
+		// pl, p, and l conformation spaces, respectively
+		ArrayList<Boolean> contSCFlexVals = new ArrayList<>(Arrays.asList(contSCFlex, contSCFlex, contSCFlex));
+		ArrayList<String> pfImplVals = new ArrayList<>(Arrays.asList(pfImpl, pfImpl, pfImpl));
+
+		// run wt
+		int startSeq = 0;
+		if( doWTCalc ) {
+			computeWTCalc();
+			startSeq = 1;
+		}
+
+		// keep a few sequences per thread in flight, so there's always another slice to run
+		KSScheduler scheduler = new KSScheduler(wtKSCalc, schedulerThreads, schedulerSliceConfs, schedulerThreads*4, (pf, strand) -> initPF(pf, strand));
+		System.out.println("\nComputing K* for many sequences at once on " + scheduler.getParallelism() + " threads");
+
+		// only touched by the scheduler listener, which is called one at a time
+		ArrayList<KSCalc> completed = new ArrayList<>();
+
+		int numSeqs = strand2AllowedSeqs.get(2).getNumSeqs();
+		for( int i = startSeq; i < numSeqs; ++i ) {
+
+			System.out.println("\nQueueing K* for sequence " + i + "/" + 
+					(numSeqs-1) + ": " + 
+					list1D2String(strand2AllowedSeqs.get(2).getStrandSeqAtPos(i), " ") + "\n");
+
+			// create partition functions, but let the scheduler initialize them,
+			// since its threads could be running some of them already. add() waits if the scheduler is full
+			ConcurrentHashMap<Integer, PFAbstract> pfs = createPFs4Seqs(getStrandStringsAtPos(i), contSCFlexVals, pfImplVals, false);
+
+			scheduler.add(new KSCalc(i, pfs), (calc) -> {
+				if( calc.getEpsilonStatus() == EApproxReached.TRUE || calc.getEpsilonStatus() == EApproxReached.NOT_POSSIBLE ) {
+					calc.printSummary( getOputputFilePath(), getStartTime(), getNumSeqsCreated(1), getNumSeqsCompleted(1) );
+				}
+				if( calc.getEpsilonStatus() == EApproxReached.TRUE ) {
+					completed.add(calc);
+				}
+			});
+		}
+
+		scheduler.finish();
+
+		printRanking(completed);
+	}
+
+
+	protected void printRanking(ArrayList<KSCalc> calcs) {
+
+		// sequences finish in whatever order the scheduler likes, so sort them by score
+		calcs.sort((a, b) -> Double.compare(getKStarScoreLog10(b), getKStarScoreLog10(a)));
+
+		System.out.println("\nSequences ranked by log10 K* score:");
+		for( KSCalc calc : calcs ) {
+			System.out.println(String.format("%12.6f\t%s", getKStarScoreLog10(calc), list1D2String(calc.getPF(2).getSequence(), " ")));
+		}
+	}
+
+
+	private static double getKStarScoreLog10(KSCalc calc) {
+		return KSCalc.getKStarScoreLog10(calc.getPF(1), calc.getPF(0), calc.getPF(2), false);
+	}
+
+
 	protected void runRR() {
 
 		// each value corresponds to the desired flexibility of the 
@@ -3,14 +3,31 @@ package edu.duke.cs.osprey.kstar.pfunc;
 import java.math.BigDecimal;
 
 import edu.duke.cs.osprey.energy.PoissonBoltzmannEnergy;
+import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.ExpFunction;
 
 public class BoltzmannCalculator {
 	
+	// calc() rounds weights to 8 decimal places, so anything smaller than this is zero there
+	private static final BigExp MinWeight = BigExp.valueOf(0.5e-8);
+	
 	private double constRT = PoissonBoltzmannEnergy.constRT;
 	private ExpFunction e = new ExpFunction();
 	
 	public BigDecimal calc(double energy) {
 		return e.exp(-energy/constRT);
 	}
+	
+	/**
+	 * same as calc(), but much cheaper, and only accurate to about double precision
+	 *
+	 * Weights too small for calc() are zero here too, so both agree on which confs have zero weight.
+	 */
+	public BigExp calcBigExp(double energy) {
+		BigExp weight = BigExp.exp(-energy/constRT);
+		if (weight.compareTo(MinWeight) < 0) {
+			return BigExp.ZERO;
+		}
+		return weight;
+	}
 }
@@ -8,18 +8,19 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.PriorityQueue;
 
 import edu.duke.cs.osprey.astar.ConfTree;
 import edu.duke.cs.osprey.astar.FullAStarNode;
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
+import edu.duke.cs.osprey.confspace.SearchProblem;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.kstar.KAStarConfTree;
 import edu.duke.cs.osprey.kstar.KSAbstract;
 import edu.duke.cs.osprey.kstar.KSAllowedSeqs;
 import edu.duke.cs.osprey.kstar.KSConf;
+import edu.duke.cs.osprey.kstar.KSConfSet;
 import edu.duke.cs.osprey.kstar.KSConfigFileParser;
 import edu.duke.cs.osprey.kstar.KSSearchProblem;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
@@ -97,7 +98,7 @@ public abstract class PFAbstract implements Serializable {
 
 	protected BigInteger prunedConfs = BigInteger.ZERO;
 	protected BigInteger unPrunedConfs = BigInteger.ZERO;
-	protected HashSet<ArrayList<Integer>> processedConfsSet = new HashSet<>();
+	protected KSConfSet processedConfsSet = new KSConfSet();
 	protected BigDecimal partialQLB = BigDecimal.ZERO;
 	protected BigInteger processedConfsDuringInterval = BigInteger.ZERO;
 	protected BigInteger processedConfs = BigInteger.ZERO;
@@ -105,6 +106,12 @@ public abstract class PFAbstract implements Serializable {
 
 	protected PriorityQueue<KSConf> topConfsPQ = null;
 
+	// set by PFStore.load()
+	protected transient PFStore store = null;
+	protected String storeKey = null;
+	protected String storePruning = null;
+	protected PFStore.ConfLog storeConfs = null;
+
 	protected PFAbstract() {}
 
 	protected PFAbstract( int strand, ArrayList<String> sequence, 
@@ -183,8 +190,7 @@ public abstract class PFAbstract implements Serializable {
 	protected BigDecimal reComputePartialQLB( ConfSearch confSearch ) {
 		partialQLB = BigDecimal.ZERO;
 
-		for(ArrayList<Integer> conf : processedConfsSet) {
-			int[] confArray = KSConf.list2Array(conf);
+		for(int[] confArray : processedConfsSet) {
 			partialQLB = partialQLB.add( getBoltzmannWeight(getConfBound(confSearch, confArray)) );
 		}
 
@@ -377,7 +383,7 @@ public abstract class PFAbstract implements Serializable {
 	}
 
 
-	public HashSet<ArrayList<Integer>> getProcessedConfsSet() {
+	public KSConfSet getProcessedConfsSet() {
 		return processedConfsSet;
 	}
 
@@ -576,11 +582,9 @@ public abstract class PFAbstract implements Serializable {
 
 	protected void updateQStar( KSConf conf ) {
 
-		if( processedConfsSet.contains(conf.getConf()) ) 
+		if( !processedConfsSet.add(conf.getConfArray()) ) 
 			return;
 		
-		processedConfsSet.add(conf.getConf());
-		
 		qStar = qStar.add( getBoltzmannWeight( conf.getEnergy() ) );
 
 		if( getImpl().toLowerCase().contains("parallel") )
@@ -589,6 +593,9 @@ public abstract class PFAbstract implements Serializable {
 		if(isFullyDefined() && saveTopConfsAsPDB)
 			saveTopConf(conf);
 
+		if( storeConfs != null )
+			storeConfs.add(conf.getConfArray(), conf.getEnergyBound(), conf.getEnergy());
+
 		processedConfs = processedConfs.add(BigInteger.ONE);
 		processedConfsDuringInterval = processedConfsDuringInterval.add(BigInteger.ONE);
 	}
@@ -623,8 +630,10 @@ public abstract class PFAbstract implements Serializable {
 
 		if( isFullyDefined() && saveTopConfsAsPDB && eAppx == EApproxReached.TRUE ) writeTopConfs();
 
-		if( eAppx != EApproxReached.FALSE ) 
+		if( eAppx != EApproxReached.FALSE ) {
+			saveToStore();
 			cleanup();
+		}
 
 		resetProcessedDuringInterval();
 	}
@@ -646,9 +655,24 @@ public abstract class PFAbstract implements Serializable {
 
 		if( isFullyDefined() && saveTopConfsAsPDB ) writeTopConfs();
 
+		saveToStore();
 		cleanup();
 	}
 
+
+	protected void saveToStore() {
+		if( store != null ) store.save(this);
+	}
+
+
+	/**
+	 * true if conformations minimized by an earlier run can be loaded with updateQStar()
+	 * before the partition function starts, and will then be skipped when enumerated
+	 */
+	public boolean canResume() {
+		return false;
+	}
+
 	/**
 	 * computes partition function for an interval of time then yields
 	 */
@@ -734,6 +758,7 @@ public abstract class PFAbstract implements Serializable {
 		panSP = null;
 		reducedSP = null;
 		processedConfsSet = null;
+		storeConfs = null;
 	}
 
 
@@ -951,7 +976,7 @@ public abstract class PFAbstract implements Serializable {
 	
 	public void rePruneReducedSP(double pruningInterval) {	
 		panSP = (KSSearchProblem) ObjectIO.deepCopy(panSP);
-		if(panSP.emat == null) panSP.emat = (EnergyMatrix) ObjectIO.readObject(panSP.getMatrixFileName(panSP.getMatrixType()), false);
+		if(panSP.emat == null) panSP.emat = (EnergyMatrix) SearchProblem.readMatrixFile(panSP.getMatrixFileName(panSP.getMatrixType()), false);
 		cfp.setupPruning(panSP, pruningInterval, panSP.useEPIC, panSP.useTupExpForSearch).prune();
 		reducedSP = createReducedSP(panSP.contSCFlex, strand, sequence, absolutePos);
 	}
@@ -95,6 +95,7 @@ public class PFFactory {
 						strandInfo.ecalc
 					);
 					pfunc.setReportProgress(!PFAbstract.suppressOutput);
+					pfunc.setUseBigExp(cfp.getParams().getBool("kStarPFuncBigExp"));
 					setPartitionFunction(pfunc);
 				}
 
@@ -127,7 +128,9 @@ public class PFFactory {
 		public StrandInfo(KSConfigFileParser cfp, KSSearchProblem multiSeqSearch) {
 			Parallelism parallelism = Parallelism.makeFromConfig(cfp);
 			ForcefieldParams ffparams = EnvironmentVars.curEFcnGenerator.ffParams;
-			ecalc = MinimizingEnergyCalculator.make(ffparams, multiSeqSearch, parallelism);
+			MinimizingEnergyCalculator minimizingEcalc = MinimizingEnergyCalculator.make(ffparams, multiSeqSearch, parallelism);
+			minimizingEcalc.setCacheFromConfig(cfp, multiSeqSearch, ffparams);
+			ecalc = minimizingEcalc;
 		}
 		
 		public void cleanup() {
@@ -0,0 +1,306 @@
+package edu.duke.cs.osprey.kstar.pfunc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import edu.duke.cs.osprey.control.ParamSet;
+import edu.duke.cs.osprey.kstar.KSAbstract;
+import edu.duke.cs.osprey.kstar.KSConf;
+import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.EApproxReached;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.ObjectIO;
+
+/**
+ * Keeps partition functions on disk, so later K* runs can reuse them instead of starting over
+ *
+ * Records are keyed by strand, sequence, flexibility, and the parameters that define the energy of a conformation,
+ * so different runs and designs that share a strand share its partition functions too.
+ *
+ * A record that reached an epsilon at least as tight as the current target is reused as is.
+ * Otherwise, if the pruning is the same, the minimized conformations of the record are loaded into the
+ * new partition function, so it only minimizes the conformations the earlier run didn't get to.
+ */
+public class PFStore {
+
+	// parameters that change the energy of a conformation, and so the value of a partition function
+	// pruning and search parameters don't, they're covered by the pruning fingerprint instead
+	// NOTE: the neighbor list cutoff drops atom pairs, and incremental energies and the minimizer settings
+	// can change energies in the last few digits, so they count too
+	private static final List<String> EnergyParams = Arrays.asList(
+		"PDBNAME", "FORCEFIELD", "DISTDEPDIELECT", "DIELECTCONST", "VDWMULT", "DOSOLVATIONE", "SOLVSCALE",
+		"HELECT", "HVDW", "SHELLDISTCUTOFF", "NEIGHBORLISTCUTOFF", "INCREMENTALENERGIES",
+		"USEEREF", "ADDRESENTROPY", "RESENTROPYFILE", "ADDWTROTS", "USEVOXELG", "USETUPEXP", "USEEPIC",
+		"USEPOISSONBOLTZMANN", "DOPERTURBATIONS", "ROTFILE", "USEDUNBRACKROTAMERS", "DUNBRACKROTFILE",
+		"DIHEDFLEXINTERVAL", "CCDECONVTOL", "CCDNUMITER"
+	);
+
+	/** minimized conformations of a partition function, packed into flat arrays */
+	public static class ConfLog implements Serializable {
+
+		private static final long serialVersionUID = -1403712384209173501L;
+
+		private int numPos = -1;
+		private int size = 0;
+		private int[] confs = new int[0];
+		private double[] bounds = new double[0];
+		private double[] energies = new double[0];
+
+		public void add(int[] conf, double energyBound, double energy) {
+
+			if (numPos < 0) {
+				numPos = conf.length;
+			} else if (conf.length != numPos) {
+				throw new IllegalArgumentException("conf has " + conf.length + " positions, but log has " + numPos);
+			}
+
+			if (size == bounds.length) {
+				int capacity = Math.max(16, size*2);
+				confs = Arrays.copyOf(confs, capacity*numPos);
+				bounds = Arrays.copyOf(bounds, capacity);
+				energies = Arrays.copyOf(energies, capacity);
+			}
+
+			System.arraycopy(conf, 0, confs, size*numPos, numPos);
+			bounds[size] = energyBound;
+			energies[size] = energy;
+			size++;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public KSConf get(int i) {
+			return new KSConf(Arrays.copyOfRange(confs, i*numPos, (i + 1)*numPos), bounds[i], energies[i]);
+		}
+	}
+
+	public static class Record implements Serializable {
+
+		private static final long serialVersionUID = 6385192447102835160L;
+
+		public String key;
+		public String pruning;
+		public boolean canResume;
+		public EApproxReached status;
+		public double effectiveEpsilon;
+		public BigDecimal qStar;
+		public BigDecimal qPrime;
+		public BigDecimal pStar;
+		public BigInteger numProcessed;
+		public ConfLog confs;
+	}
+
+	private final File dir;
+	private final String energySettings;
+
+	public PFStore(File dir, ParamSet params) {
+
+		this.dir = dir;
+
+		if (!dir.exists()) {
+			ObjectIO.makeDir(dir.getPath(), false);
+		}
+
+		// only look at the parameters that are set, the defaults are the same in every run
+		List<String> names = new ArrayList<>();
+		for (String name : params.searchParams("")) {
+			if (EnergyParams.contains(name) || name.startsWith("STRAND")) {
+				names.add(name);
+			}
+		}
+		Collections.sort(names);
+
+		StringBuilder buf = new StringBuilder();
+		for (String name : names) {
+			buf.append(name).append("=").append(params.getValue(name)).append(";");
+		}
+		energySettings = buf.toString();
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	public String getKey(PFAbstract pf) {
+		String flexibility = pf.isContinuous() ? "min" : "rig";
+		return "Strand" + pf.getStrand() + "." + flexibility + "." + KSAbstract.list1D2String(pf.getSequence(), ".") + "|" + energySettings;
+	}
+
+	public File getFile(String key) {
+		// keys are long, so name the file after a hash, and check the key when reading
+		return new File(dir, key.substring(0, key.indexOf('.')) + "." + hash(key.getBytes()) + ".pf");
+	}
+
+	public Record read(String key) {
+
+		File file = getFile(key);
+		if (!file.exists()) {
+			return null;
+		}
+
+		Record record = (Record)ObjectIO.readObject(file.getPath(), true);
+		if (record == null || !key.equals(record.key)) {
+			return null;
+		}
+		return record;
+	}
+
+	public void write(Record record) {
+
+		File file = getFile(record.key);
+
+		// write a temp file and move it, so other runs never read a half-written record
+		// the temp file gets a unique name, since other runs (in other JVMs) can write the same record at the same time
+		try {
+			Path tempFile = Files.createTempFile(dir.toPath(), file.getName() + ".", ".tmp");
+			try {
+				ObjectIO.writeObject(record, tempFile.toString());
+				Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't write partition function record " + file, ex);
+		}
+	}
+
+	/**
+	 * starts keeping the partition function, and loads anything earlier runs computed for it.
+	 * Call after the conf counts are set, but before the partition function starts.
+	 *
+	 * @return true if the partition function is already finished
+	 */
+	public boolean load(PFAbstract pf) {
+
+		pf.store = this;
+		pf.storeKey = getKey(pf);
+		pf.storePruning = getPruningFingerprint(pf.getReducedPruningMatrix());
+		pf.storeConfs = new ConfLog();
+
+		Record record = read(pf.storeKey);
+		if (record == null) {
+			return false;
+		}
+
+		String desc = KSAbstract.list1D2String(pf.getSequence(), " ") + " " + pf.getFlexibility();
+
+		if (record.status == EApproxReached.TRUE && record.effectiveEpsilon <= PFAbstract.targetEpsilon) {
+
+			pf.qStar = record.qStar;
+			pf.qPrime = record.qPrime;
+			pf.pStar = record.pStar;
+			pf.processedConfs = record.numProcessed;
+			pf.effectiveEpsilon = record.effectiveEpsilon;
+			pf.eAppx = EApproxReached.TRUE;
+
+			System.out.println("\nReusing stored partition function for " + desc + ", epsilon: " + record.effectiveEpsilon);
+			return true;
+		}
+
+		if (pf.canResume() && record.canResume && pf.storePruning != null && pf.storePruning.equals(record.pruning)) {
+
+			for (int i=0; i<record.confs.size(); i++) {
+				pf.updateQStar(record.confs.get(i));
+			}
+			pf.resetProcessedDuringInterval();
+
+			System.out.println("\nResuming stored partition function for " + desc + " with " + record.confs.size() + " minimized conformations");
+		}
+
+		return false;
+	}
+
+	/** writes the partition function, including the conformations it minimized */
+	public void save(PFAbstract pf) {
+
+		Record record = new Record();
+		record.key = pf.storeKey;
+		record.pruning = pf.storePruning;
+
+		// relaxed pruning or merged positions change which confs there are, so the confs only fit the original conf space
+		record.canResume = !pf.doingPhase2 && (pf.HOTs == null || pf.HOTs.isEmpty());
+
+		record.status = pf.getEpsilonStatus();
+		record.effectiveEpsilon = pf.getEffectiveEpsilon();
+		record.qStar = pf.getQStar();
+		record.qPrime = pf.getQPrime();
+		record.pStar = pf.getPStar();
+		record.numProcessed = pf.getNumProcessed();
+		record.confs = pf.storeConfs;
+
+		write(record);
+	}
+
+	/**
+	 * hashes the pruning interval and which RCs and RC pairs are pruned, ie, everything that decides
+	 * which conformations a partition function can enumerate, so minimized confs are only reused in the same space
+	 *
+	 * @return null if there's no pruning matrix, which never matches a stored record
+	 */
+	public static String getPruningFingerprint(PruningMatrix pruneMat) {
+
+		if (pruneMat == null) {
+			return null;
+		}
+
+		int numPos = pruneMat.getNumPos();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+
+			out.writeDouble(pruneMat.getPruningInterval());
+			out.writeInt(numPos);
+			for (int pos1=0; pos1<numPos; pos1++) {
+				out.writeInt(pruneMat.getNumConfAtPos(pos1));
+			}
+
+			// pack the pruned flags into bits, pairwise matrices can be big
+			BitSet pruned = new BitSet();
+			int i = 0;
+			for (int pos1=0; pos1<numPos; pos1++) {
+				for (int rc1=0; rc1<pruneMat.getNumConfAtPos(pos1); rc1++) {
+					pruned.set(i++, pruneMat.getOneBody(pos1, rc1));
+					for (int pos2=0; pos2<pos1; pos2++) {
+						for (int rc2=0; rc2<pruneMat.getNumConfAtPos(pos2); rc2++) {
+							pruned.set(i++, pruneMat.getPairwise(pos1, rc1, pos2, rc2));
+						}
+					}
+				}
+			}
+			out.writeInt(i);
+			out.write(pruned.toByteArray());
+
+		} catch (IOException ex) {
+			throw new Error("can't happen, we're writing to memory", ex);
+		}
+
+		return hash(bytes.toByteArray());
+	}
+
+	private static String hash(byte[] bytes) {
+		try {
+			StringBuilder buf = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes)) {
+				buf.append(String.format("%02x", b));
+			}
+			return buf.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new Error(ex);
+		}
+	}
+}
@@ -14,10 +14,14 @@ import edu.duke.cs.osprey.control.ConfSearchFactory;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.pruning.InvertedPruningMatrix;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.Stopwatch;
 
 public class ParallelConfPartitionFunction implements PartitionFunction {
 	
+	// the scale of BigDecimal boltzmann weights (see ExpFunction)
+	private static final int ValueScale = 8;
+	
     protected EnergyMatrix emat;
     protected PruningMatrix pmat;
     protected ConfSearchFactory confSearchFactory;
@@ -27,6 +31,7 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 	protected Status status;
 	protected Values values;
 	protected BoltzmannCalculator boltzmann;
+	protected ConfSearch tree;
 	protected ConfSearch.Splitter.Stream scoreConfs;
 	protected ConfSearch.Splitter.Stream energyConfs;
 	protected int numConfsEvaluated;
@@ -37,6 +42,15 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 	protected boolean isReportingProgress;
 	protected ConfListener confListener;
 	
+	// BigExp versions of the pfunc state, used instead of the BigDecimal ones if useBigExp is set
+	// values is only kept in sync between calls to init() and compute()
+	protected boolean useBigExp;
+	protected BigExp qstarExp;
+	protected BigExp qprimeExp;
+	protected BigExp pstarExp;
+	protected BigExp qprimeUnevaluatedExp;
+	protected BigExp qprimeUnscoredExp;
+	
 	public ParallelConfPartitionFunction(EnergyMatrix emat, PruningMatrix pmat, ConfSearchFactory confSearchFactory, ConfEnergyCalculator.Async ecalc) {
 		this.emat = emat;
 		this.pmat = pmat;
@@ -57,6 +71,25 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 		stopwatch = null;
 		isReportingProgress = true;
 		confListener = null;
+		
+		useBigExp = false;
+		qstarExp = null;
+		qprimeExp = null;
+		pstarExp = null;
+		qprimeUnevaluatedExp = null;
+		qprimeUnscoredExp = null;
+	}
+	
+	/**
+	 * Do the pfunc arithmetic with BigExp instead of BigDecimal. Much faster, but only about double precision.
+	 * Set this before init().
+	 */
+	public void setUseBigExp(boolean val) {
+		useBigExp = val;
+	}
+	
+	public boolean isUsingBigExp() {
+		return useBigExp;
 	}
 	
 	@Override
@@ -93,10 +126,16 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 		values = new Values();
 		
 		// compute p*: boltzmann-weight the scores for all pruned conformations
-		values.pstar = calcWeightSumUpperBound(confSearchFactory.make(emat, new InvertedPruningMatrix(pmat)));
+		ConfSearch ptree = confSearchFactory.make(emat, new InvertedPruningMatrix(pmat));
+		if (useBigExp) {
+			values.pstar = toValue(calcWeightSumUpperBoundBigExp(ptree));
+		} else {
+			values.pstar = calcWeightSumUpperBound(ptree);
+		}
+		ptree.cleanup();
 		
 		// make the search tree for computing q*
-		ConfSearch tree = confSearchFactory.make(emat, pmat);
+		tree = confSearchFactory.make(emat, pmat);
 		ConfSearch.Splitter confsSplitter = new ConfSearch.Splitter(tree);
 		scoreConfs = confsSplitter.makeStream();
 		energyConfs = confsSplitter.makeStream();
@@ -104,8 +143,74 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 		numConfsToScore = tree.getNumConformations();
 		qprimeUnevaluated = BigDecimal.ZERO;
 		qprimeUnscored = BigDecimal.ZERO;
+		qprimeUnevaluatedExp = BigExp.ZERO;
+		qprimeUnscoredExp = BigExp.ZERO;
 		stopwatch = new Stopwatch().start();
 	}
+	
+	/** copies values into the BigExp state, in case someone changed them since the last compute() */
+	protected void loadValues() {
+		if (useBigExp) {
+			qstarExp = BigExp.valueOf(values.qstar);
+			qprimeExp = BigExp.valueOf(values.qprime);
+			pstarExp = BigExp.valueOf(values.pstar);
+		}
+	}
+	
+	/** copies the BigExp state back into values */
+	protected void saveValues() {
+		if (useBigExp) {
+			values.qstar = toValue(qstarExp);
+			values.qprime = toValue(qprimeExp);
+			values.pstar = toValue(pstarExp);
+		}
+	}
+	
+	/**
+	 * converts a BigExp to a BigDecimal with at least the scale of the BigDecimal weights,
+	 * since pfunc code divides values with a rounding mode, which keeps the scale of the dividend
+	 */
+	protected static BigDecimal toValue(BigExp val) {
+		BigDecimal out = val.toBigDecimal();
+		if (out.scale() < ValueScale) {
+			out = out.setScale(ValueScale);
+		}
+		return out;
+	}
+	
+	protected double getEffectiveEpsilon() {
+		
+		if (!useBigExp) {
+			return values.getEffectiveEpsilon();
+		}
+		
+		// same as Values.getEffectiveEpsilon()
+		BigExp s = qprimeExp.add(pstarExp);
+		BigExp q = s.add(qstarExp);
+		if (q.isZero()) {
+			return Double.NaN;
+		}
+		return s.divide(q).doubleValue();
+	}
+	
+	/** adds a newly-evaluated conf to q*, and updates q' */
+	protected void updateValues(EnergiedConf econf) {
+		if (useBigExp) {
+			qstarExp = qstarExp.add(boltzmann.calcBigExp(econf.getEnergy()));
+			qprimeExp = updateQprimeBigExp(econf);
+		} else {
+			values.qstar = values.qstar.add(boltzmann.calc(econf.getEnergy()));
+			values.qprime = updateQprime(econf);
+		}
+	}
+	
+	protected boolean isZeroWeight(double energy) {
+		if (useBigExp) {
+			return boltzmann.calcBigExp(energy).isZero();
+		} else {
+			return boltzmann.calc(energy).compareTo(BigDecimal.ZERO) == 0;
+		}
+	}
 
 	protected BigDecimal calcWeightSumUpperBound(ConfSearch tree) {
 		
@@ -148,6 +253,42 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 		return boundOnAll;
 	}
 	
+	protected BigExp calcWeightSumUpperBoundBigExp(ConfSearch tree) {
+		
+		// same as calcWeightSumUpperBound()
+		BigExp sum = BigExp.ZERO;
+		BigExp boundOnAll = BigExp.ZERO;
+		
+		BigInteger numConfsRemaining = tree.getNumConformations();
+		
+		while (true) {
+			
+			ScoredConf conf = tree.nextConf();
+			if (conf == null) {
+				break;
+			}
+			
+			BigExp weight = boltzmann.calcBigExp(conf.getScore());
+			if (weight.isZero()) {
+				break;
+			}
+			
+			sum = sum.add(weight);
+			
+			numConfsRemaining = numConfsRemaining.subtract(BigInteger.ONE);
+			BigExp boundOnRemaining = weight.multiply(numConfsRemaining);
+			
+			boundOnAll = sum.add(boundOnRemaining);
+			
+			double effectiveEpsilon = boundOnRemaining.divide(boundOnAll).doubleValue();
+			if (effectiveEpsilon <= 0.01) {
+				break;
+			}
+		}
+		
+		return boundOnAll;
+	}
+	
 	@Override
 	public void compute() {
 		compute(Integer.MAX_VALUE);
@@ -160,6 +301,8 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 			throw new IllegalStateException("can't continue from status " + status);
 		}
 		
+		loadValues();
+		
 		int stopAtConf = numConfsEvaluated + maxNumConfs;
 		while (true) {
 			
@@ -169,7 +312,7 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 			synchronized (this) {
 			
 				// did we win?
-				boolean hitEpsilonTarget = values.getEffectiveEpsilon() <= targetEpsilon;
+				boolean hitEpsilonTarget = getEffectiveEpsilon() <= targetEpsilon;
 				if (hitEpsilonTarget) {
 					status = Status.Estimated;
 					break;
@@ -213,11 +356,11 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 					}
 					
 					// update pfunc state
-					values.qstar = values.qstar.add(boltzmann.calc(econf.getEnergy()));
-					values.qprime = updateQprime(econf);
+					updateValues(econf);
 					
 					// report progress if needed
 					if (isReportingProgress) {
+						saveValues();
 						MemoryUsage heapMem = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
 						System.out.println(String.format("conf: %4d, energy: %.6f, q*: %12e, q': %12e, epsilon: %.6f, time: %10s, heapMem: %.0f%%",
 							numConfsEvaluated, econf.getEnergy(), values.qstar, values.qprime, values.getEffectiveEpsilon(),
@@ -238,6 +381,13 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 		
 		// wait for any remaining async minimizations to finish
 		ecalc.waitForFinish();
+		
+		saveValues();
+		
+		// we can't continue from here, so we're done with the tree
+		if (!status.canContinue()) {
+			tree.cleanup();
+		}
 	}
 
 	protected BigDecimal updateQprime(EnergiedConf econf) {
@@ -273,4 +423,33 @@ public class ParallelConfPartitionFunction implements PartitionFunction {
 		qprimeUnevaluated = qprimeUnevaluated.subtract(boltzmann.calc(econf.getScore()));
 		return qprimeUnevaluated.add(qprimeUnscored);
 	}
+	
+	protected BigExp updateQprimeBigExp(EnergiedConf econf) {
+		
+		// same as updateQprime()
+		while (true) {
+			
+			ScoredConf conf = scoreConfs.next();
+			if (conf == null) {
+				break;
+			}
+			
+			BigExp scoreWeight = boltzmann.calcBigExp(conf.getScore());
+			if (scoreWeight.isZero()) {
+				break;
+			}
+			
+			numConfsToScore = numConfsToScore.subtract(BigInteger.ONE);
+			qprimeUnevaluatedExp = qprimeUnevaluatedExp.add(scoreWeight);
+			qprimeUnscoredExp = scoreWeight.multiply(numConfsToScore);
+			
+			double tightness = qprimeUnscoredExp.divide(qprimeUnevaluatedExp.add(qprimeUnscoredExp)).doubleValue();
+			if (tightness <= 0.01) {
+				break;
+			}
+		}
+		
+		qprimeUnevaluatedExp = qprimeUnevaluatedExp.subtract(boltzmann.calcBigExp(econf.getScore()));
+		return qprimeUnevaluatedExp.add(qprimeUnscoredExp);
+	}
 }
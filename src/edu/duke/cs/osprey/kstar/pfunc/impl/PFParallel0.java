@@ -81,7 +81,7 @@ public class PFParallel0 extends PFParallel1 implements Serializable {
 	
 			if( (conf = confSearch.nextConf()) != null ) {
 	
-				if( processedConfsSet.contains(conf) ) return;
+				if( processedConfsSet.contains(conf.getAssignments()) ) return;
 	
 				KSConf ksConf = new KSConf(conf.getAssignments(), getConfBound(confSearch, conf.getAssignments()));
 	
@@ -226,6 +226,11 @@ public class PFTraditional extends PFAbstract implements Serializable {
 	}
 
 
+	public boolean canResume() {
+		return true;
+	}
+
+
 	public String getImpl() {
 		return "Traditional";
 	}
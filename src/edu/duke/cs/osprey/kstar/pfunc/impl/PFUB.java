@@ -115,6 +115,11 @@ public class PFUB extends PFTraditional implements Serializable {
 	}
 
 
+	public boolean canResume() {
+		return false;
+	}
+
+
 	public String getImpl() {
 		return "UB";
 	}
@@ -3,22 +3,27 @@ package edu.duke.cs.osprey.minimization;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
+import edu.duke.cs.osprey.confspace.ConfSearch.MinimizedConf;
 import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.confspace.ConfSpace;
 import edu.duke.cs.osprey.confspace.ParameterizedMoleculeCopy;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.energy.EnergyFunction;
+import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.parallelism.TaskExecutor;
-import edu.duke.cs.osprey.parallelism.ThreadPoolTaskExecutor;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.tools.Factory;
+import edu.duke.cs.osprey.tools.Metrics;
 import edu.duke.cs.osprey.tools.ObjectPool;
 import edu.duke.cs.osprey.tools.Progress;
 
 public abstract class ConfMinimizer {
 	
+	private static final Metrics.Histogram minimizationTimes = Metrics.histogram("osprey_conf_minimization_seconds", "time to minimize one conformation");
+	
 	public static class Async {
 		
 		private static class TaskStuff {
@@ -46,6 +51,10 @@ public abstract class ConfMinimizer {
 		private TaskExecutor tasks;
 		private Factory<? extends Minimizer,MoleculeModifierAndScorer> minimizers;
 		private ObjectPool<TaskStuff> taskStuffPool;
+		
+		// NOTE: tasks run on virtual threads with VirtualThreadTaskExecutor,
+		// and waiting for a ReentrantLock doesn't pin their carrier threads like synchronized does
+		private ReentrantLock taskStuffLock;
 	
 		public Async(Factory<? extends EnergyFunction,Molecule> efuncs, ConfSpace confSpace, TaskExecutor tasks, Factory<? extends Minimizer,MoleculeModifierAndScorer> minimizers) {
 			
@@ -67,15 +76,22 @@ public abstract class ConfMinimizer {
 				}
 			});
 			
+			taskStuffLock = new ReentrantLock();
+			
 			// pre-allocate the pool
 			taskStuffPool.allocate(tasks.getParallelism());
 		}
 		
 		public EnergiedConf minimizeSync(ScoredConf conf) {
 			
+			long startNs = minimizationTimes.start();
+			
 			TaskStuff stuff;
-			synchronized (taskStuffPool) {
+			taskStuffLock.lock();
+			try {
 				stuff = taskStuffPool.checkout();
+			} finally {
+				taskStuffLock.unlock();
 			}
 			try {
 				
@@ -102,11 +118,15 @@ public abstract class ConfMinimizer {
 					((Minimizer.NeedsCleanup)minimizer).cleanup();
 				}
 				
-				return new EnergiedConf(conf, result.energy);
+				minimizationTimes.recordSince(startNs);
+				return new MinimizedConf(conf, result.energy, result.dofValues.toArray());
 			
 			} finally {
-				synchronized (taskStuffPool) {
+				taskStuffLock.lock();
+				try {
 					taskStuffPool.release(stuff);
+				} finally {
+					taskStuffLock.unlock();
 				}
 			}
 		}
@@ -130,6 +150,24 @@ public abstract class ConfMinimizer {
 			});
 		}
 		
+		/**
+		 * Calls the listener for a conf that's already minimized (eg, from a cache)
+		 * on the same thread minimizeAsync() would, so listeners never have to handle two confs at once
+		 */
+		public void reportAsync(EnergiedConf econf, Listener listener) {
+			
+			if (listener == null) {
+				throw new IllegalArgumentException("listener can't be null");
+			}
+			
+			tasks.submit(() -> {}, new TaskExecutor.TaskListener() {
+				@Override
+				public void onFinished(Runnable task) {
+					listener.onMinimized(econf);
+				}
+			});
+		}
+		
 		public void waitForFinish() {
 			tasks.waitForFinish();
 		}
@@ -149,7 +187,8 @@ public abstract class ConfMinimizer {
 				// this could be being called in an error handler, so we should still try to cleanup
 			}
 			
-			synchronized (taskStuffPool) {
+			taskStuffLock.lock();
+			try {
 				
 				// make sure everything has been returned to the pool
 				if (taskStuffPool.available() < taskStuffPool.size()) {
@@ -171,29 +210,36 @@ public abstract class ConfMinimizer {
 					}
 				}
 				taskStuffPool.clear();
+			} finally {
+				taskStuffLock.unlock();
 			}
 		}
 	}
 	
-	private ThreadPoolTaskExecutor tasks;
+	private TaskExecutor tasks;
 	private Async asyncMinimizer;
 	private boolean reportProgress;
+	private String settings;
 	
 	protected ConfMinimizer() {
 		tasks = null;
 		asyncMinimizer = null;
 		reportProgress = false;
+		settings = null;
 	}
 	
 	protected void init(int numThreads, Factory<? extends EnergyFunction,Molecule> efuncs, Factory<? extends Minimizer,MoleculeModifierAndScorer> minimizers, ConfSpace confSpace) {
+		init(numThreads, Parallelism.TaskExecutorType.ThreadPool, efuncs, minimizers, confSpace);
+	}
+	
+	protected void init(int numThreads, Parallelism.TaskExecutorType taskExecutorType, Factory<? extends EnergyFunction,Molecule> efuncs, Factory<? extends Minimizer,MoleculeModifierAndScorer> minimizers, ConfSpace confSpace) {
 		
 		if (numThreads <= 0) {
 			throw new IllegalArgumentException("numThreads must be > 0");
 		}
 		
 		// start the thread pool
-		tasks = new ThreadPoolTaskExecutor();
-		tasks.start(numThreads);
+		tasks = taskExecutorType.make(numThreads, null);
 		
 		// make the minimizer
 		asyncMinimizer = new Async(efuncs, confSpace, tasks, minimizers);
@@ -207,6 +253,18 @@ public abstract class ConfMinimizer {
 		return asyncMinimizer;
 	}
 	
+	/**
+	 * Describes the energy function and minimization algorithm, eg for caching minimized energies,
+	 * or null if they're not known (eg, custom minimizer factories)
+	 */
+	public String getSettings() {
+		return settings;
+	}
+	
+	protected void setSettings(String val) {
+		settings = val;
+	}
+	
 	/**
 	 * NOTE: don't call this in a loop, you'll loose all the parallelism
 	 * but it's here if you need one-off minimizations
@@ -3,8 +3,11 @@ package edu.duke.cs.osprey.minimization;
 import edu.duke.cs.osprey.confspace.ConfSpace;
 import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.energy.EnergyFunctionGenerator;
+import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.gpu.BufferTools;
+import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.tools.Factory;
 
@@ -17,7 +20,10 @@ public class CpuConfMinimizer extends ConfMinimizer {
 		public final ConfSpace confSpace;
 		
 		public int numThreads;
+		public Parallelism.TaskExecutorType taskExecutorType;
+		public BigForcefieldEnergy.Kernel forcefieldKernel;
 		Factory<Minimizer,MoleculeModifierAndScorer> minimizers;
+		String minimizersName;
 		
 		public Builder(ForcefieldParams ffparams, Factory<ForcefieldInteractions,Molecule> interactions, ConfSpace confSpace) {
 			
@@ -26,7 +32,10 @@ public class CpuConfMinimizer extends ConfMinimizer {
 			this.confSpace = confSpace;
 			
 			numThreads = 1;
+			taskExecutorType = Parallelism.TaskExecutorType.ThreadPool;
+			forcefieldKernel = null;
 			minimizers = (mof) -> new SimpleCCDMinimizer(mof);
+			minimizersName = SimpleCCDMinimizer.class.getSimpleName();
 		}
 		
 		public Builder setNumThreads(int val) {
@@ -34,27 +43,75 @@ public class CpuConfMinimizer extends ConfMinimizer {
 			return this;
 		}
 		
+		public Builder setTaskExecutorType(Parallelism.TaskExecutorType val) {
+			taskExecutorType = val;
+			return this;
+		}
+		
 		public Builder setMinimizers(Factory<Minimizer,MoleculeModifierAndScorer> val) {
+			return setMinimizers(val, null);
+		}
+		
+		/**
+		 * @param name identifies the minimization algorithm (eg, for caching minimized energies),
+		 *             or null if it's not known
+		 */
+		public Builder setMinimizers(Factory<Minimizer,MoleculeModifierAndScorer> val, String name) {
 			minimizers = val;
+			minimizersName = name;
+			return this;
+		}
+		
+		/**
+		 * Use a BigForcefieldEnergy with this kernel instead of the per-residue energy terms,
+		 * which also gives minimizers analytic gradients. null uses the per-residue terms.
+		 */
+		public Builder setForcefieldKernel(BigForcefieldEnergy.Kernel val) {
+			forcefieldKernel = val;
 			return this;
 		}
 		
 		public CpuConfMinimizer build() {
-			return new CpuConfMinimizer(numThreads, ffparams, interactions, confSpace, minimizers);
+			CpuConfMinimizer minimizer = new CpuConfMinimizer(numThreads, taskExecutorType, forcefieldKernel, ffparams, interactions, confSpace, minimizers);
+			if (minimizersName != null) {
+				minimizer.setSettings(String.format("CPU forcefield=%s minimizer=%s",
+					forcefieldKernel == null ? "residues" : "BigForcefield/" + forcefieldKernel.name(),
+					minimizersName
+				));
+			}
+			return minimizer;
 		}
 	}
 	
 	public CpuConfMinimizer(int numThreads, ForcefieldParams ffparams, Factory<ForcefieldInteractions,Molecule> interactions, ConfSpace confSpace, Factory<? extends Minimizer,MoleculeModifierAndScorer> minimizers) {
+		this(numThreads, Parallelism.TaskExecutorType.ThreadPool, ffparams, interactions, confSpace, minimizers);
+	}
+	
+	public CpuConfMinimizer(int numThreads, Parallelism.TaskExecutorType taskExecutorType, ForcefieldParams ffparams, Factory<ForcefieldInteractions,Molecule> interactions, ConfSpace confSpace, Factory<? extends Minimizer,MoleculeModifierAndScorer> minimizers) {
+		this(numThreads, taskExecutorType, null, ffparams, interactions, confSpace, minimizers);
+	}
+	
+	public CpuConfMinimizer(int numThreads, Parallelism.TaskExecutorType taskExecutorType, BigForcefieldEnergy.Kernel forcefieldKernel, ForcefieldParams ffparams, Factory<ForcefieldInteractions,Molecule> interactions, ConfSpace confSpace, Factory<? extends Minimizer,MoleculeModifierAndScorer> minimizers) {
 		
 		// make the energy function factory
-		EnergyFunctionGenerator egen = new EnergyFunctionGenerator(ffparams, Double.POSITIVE_INFINITY, false);
-		Factory<? extends EnergyFunction,Molecule> efuncs = new Factory<EnergyFunction,Molecule>() {
-			@Override
-			public EnergyFunction make(Molecule mol) {
-				return egen.interactionEnergy(interactions.make(mol));
-			}
-		};
+		Factory<? extends EnergyFunction,Molecule> efuncs;
+		if (forcefieldKernel == null) {
+			EnergyFunctionGenerator egen = new EnergyFunctionGenerator(ffparams, Double.POSITIVE_INFINITY, false);
+			efuncs = new Factory<EnergyFunction,Molecule>() {
+				@Override
+				public EnergyFunction make(Molecule mol) {
+					return egen.interactionEnergy(interactions.make(mol));
+				}
+			};
+		} else {
+			efuncs = new Factory<EnergyFunction,Molecule>() {
+				@Override
+				public EnergyFunction make(Molecule mol) {
+					return new BigForcefieldEnergy(ffparams, interactions.make(mol), BufferTools.Type.Normal, forcefieldKernel);
+				}
+			};
+		}
 		
-		init(numThreads, efuncs, minimizers, confSpace);
+		init(numThreads, taskExecutorType, efuncs, minimizers, confSpace);
 	}
 }
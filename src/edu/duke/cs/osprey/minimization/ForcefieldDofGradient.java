@@ -0,0 +1,168 @@
+package edu.duke.cs.osprey.minimization;
+
+import java.nio.DoubleBuffer;
+import java.util.List;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import edu.duke.cs.osprey.dof.DegreeOfFreedom;
+import edu.duke.cs.osprey.dof.FreeDihedral;
+import edu.duke.cs.osprey.dof.MoveableStrand;
+import edu.duke.cs.osprey.dof.StrandRotation;
+import edu.duke.cs.osprey.dof.StrandTranslation;
+import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
+import edu.duke.cs.osprey.structure.Residue;
+
+/**
+ * Analytic gradient of a BigForcefieldEnergy with respect to dihedral and rigid-body degrees of freedom
+ *
+ * The forcefield gives the gradient with respect to the atom coords, then each dof maps that onto its own value
+ * using the motion it applies: dihedrals and strand rotations turn atoms about an axis (so we want the torque
+ * about that axis), and strand translations move atoms along an axis (so we want the total force along it).
+ * Angles are in degrees, like the dofs themselves.
+ */
+public class ForcefieldDofGradient {
+
+	public static boolean isSupported(DegreeOfFreedom dof) {
+		return dof instanceof FreeDihedral
+			|| dof instanceof StrandRotation
+			|| dof instanceof StrandTranslation;
+	}
+
+	public static boolean isSupported(List<DegreeOfFreedom> dofs) {
+		for (DegreeOfFreedom dof : dofs) {
+			if (!isSupported(dof)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private BigForcefieldEnergy efunc;
+	private List<DegreeOfFreedom> dofs;
+	private double[] atomGradient;
+
+	public ForcefieldDofGradient(BigForcefieldEnergy efunc, List<DegreeOfFreedom> dofs) {
+
+		if (!isSupported(dofs)) {
+			throw new IllegalArgumentException("analytic gradients aren't supported for some of these degrees of freedom");
+		}
+
+		this.efunc = efunc;
+		this.dofs = dofs;
+		this.atomGradient = null;
+	}
+
+	/**
+	 * Computes the energy at the current conformation, and writes its gradient
+	 * with respect to the dofs into gradient
+	 */
+	public double getEnergyAndGradient(DoubleMatrix1D gradient) {
+
+		// NOTE: the number of atoms can change with mutations, so check every time
+		int numAtoms = efunc.getNumAtoms();
+		if (atomGradient == null || atomGradient.length < numAtoms*3) {
+			atomGradient = new double[numAtoms*3];
+		}
+
+		double energy = efunc.getEnergyAndGradient(atomGradient);
+
+		DoubleBuffer coords = efunc.getCoords();
+		for (int d=0; d<dofs.size(); d++) {
+			gradient.set(d, getDerivative(dofs.get(d), coords));
+		}
+
+		return energy;
+	}
+
+	private double getDerivative(DegreeOfFreedom dof, DoubleBuffer coords) {
+
+		if (dof instanceof FreeDihedral) {
+
+			FreeDihedral dihedral = (FreeDihedral)dof;
+			Residue res = dihedral.getResidue();
+			int offset = efunc.findAtomOffset(res);
+			if (offset < 0) {
+				return 0;
+			}
+
+			// the dihedral rotates atoms about the bond from its second atom to its third atom
+			int[] definingAtoms = res.template.getDihedralDefiningAtoms(dihedral.getDihedralNumber());
+			double[] center = getAtomCoords(coords, offset + definingAtoms[2]);
+			double[] axis = getAtomCoords(coords, offset + definingAtoms[1]);
+			for (int i=0; i<3; i++) {
+				axis[i] = center[i] - axis[i];
+			}
+			normalize(axis);
+
+			double torque = 0;
+			for (int atomIndex : res.template.getDihedralRotatedAtoms(dihedral.getDihedralNumber())) {
+				torque += getTorque(coords, offset + atomIndex, axis, center);
+			}
+			return Math.toRadians(torque);
+
+		} else if (dof instanceof StrandRotation) {
+
+			StrandRotation rotation = (StrandRotation)dof;
+			MoveableStrand strand = rotation.getMoveableStrand();
+			double[] center = strand.getRotationCenter();
+			double[] axis = strand.getRotationAxis(rotation.getAngleNumber());
+
+			double torque = 0;
+			for (Residue res : strand.getResidues()) {
+				int offset = efunc.findAtomOffset(res);
+				if (offset >= 0) {
+					for (int i=0; i<res.atoms.size(); i++) {
+						torque += getTorque(coords, offset + i, axis, center);
+					}
+				}
+			}
+			return Math.toRadians(torque);
+
+		} else if (dof instanceof StrandTranslation) {
+
+			StrandTranslation translation = (StrandTranslation)dof;
+			int coordNum = translation.getCoordNumber();
+
+			double force = 0;
+			for (Residue res : translation.getMoveableStrand().getResidues()) {
+				int offset = efunc.findAtomOffset(res);
+				if (offset >= 0) {
+					for (int i=0; i<res.atoms.size(); i++) {
+						force += atomGradient[(offset + i)*3 + coordNum];
+					}
+				}
+			}
+			return force;
+		}
+
+		throw new UnsupportedOperationException("no analytic gradient for " + dof.getClass().getSimpleName());
+	}
+
+	private double getTorque(DoubleBuffer coords, int atomIndex, double[] axis, double[] center) {
+
+		// rotating the atom by a small angle moves it by axis x (pos - center),
+		// so the energy changes by grad . (axis x (pos - center)) = axis . ((pos - center) x grad)
+		int i3 = atomIndex*3;
+		double rx = coords.get(i3) - center[0];
+		double ry = coords.get(i3 + 1) - center[1];
+		double rz = coords.get(i3 + 2) - center[2];
+		double gx = atomGradient[i3];
+		double gy = atomGradient[i3 + 1];
+		double gz = atomGradient[i3 + 2];
+		return axis[0]*(ry*gz - rz*gy)
+			+ axis[1]*(rz*gx - rx*gz)
+			+ axis[2]*(rx*gy - ry*gx);
+	}
+
+	private static double[] getAtomCoords(DoubleBuffer coords, int atomIndex) {
+		int i3 = atomIndex*3;
+		return new double[] { coords.get(i3), coords.get(i3 + 1), coords.get(i3 + 2) };
+	}
+
+	private static void normalize(double[] v) {
+		double len = Math.sqrt(v[0]*v[0] + v[1]*v[1] + v[2]*v[2]);
+		for (int i=0; i<3; i++) {
+			v[i] /= len;
+		}
+	}
+}
@@ -244,6 +244,7 @@ public class GpuConfMinimizer extends ConfMinimizer {
 			}
 		};
 		init(context.getNumStreams(), efuncs, context.minimizers, confSpace);
+		setSettings("GPU " + type.name());
 	}
 	
 	@Override
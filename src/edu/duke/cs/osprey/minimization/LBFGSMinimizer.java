@@ -0,0 +1,225 @@
+package edu.duke.cs.osprey.minimization;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+
+/**
+ * Box-constrained limited-memory BFGS
+ *
+ * Unlike CCD, this moves all the dofs at once, using the gradient from
+ * ObjectiveFunction.getValueAndGradient() (analytic for BigForcefieldEnergy, finite differences otherwise)
+ * and a low-rank approximation of the inverse Hessian built from the last few steps.
+ * Dofs at a bound whose gradient points out of the box are held fixed for that iteration,
+ * and steps are clamped to the box, so the line search backtracks along the projected path.
+ */
+public class LBFGSMinimizer implements Minimizer.Reusable {
+
+	private static final int MaxIterations = 200;
+	private static final int HistorySize = 8;
+	private static final double ConvergenceThreshold = 1e-6; // energy improvement per iteration
+	private static final double GradientThreshold = 1e-4; // largest projected gradient component, times the dof step size
+	private static final double ArmijoFactor = 1e-4;
+	private static final int MaxBacktracks = 30;
+
+	private ObjectiveFunction f;
+	private ObjectiveFunction.DofBounds bounds;
+	private int numEvaluations;
+
+	public LBFGSMinimizer() {
+		f = null;
+		bounds = null;
+		numEvaluations = 0;
+	}
+
+	public LBFGSMinimizer(ObjectiveFunction f) {
+		this();
+		init(f);
+	}
+
+	@Override
+	public void init(ObjectiveFunction f) {
+		this.f = f;
+		this.bounds = new ObjectiveFunction.DofBounds(f.getConstraints());
+	}
+
+	/** number of objective function evaluations (with gradients) used by the last minimize() */
+	public int getNumEvaluations() {
+		return numEvaluations;
+	}
+
+	@Override
+	public Minimizer.Result minimize() {
+
+		numEvaluations = 0;
+		int n = f.getNumDOFs();
+
+		// init x to the center of the bounds, like CCD
+		DoubleMatrix1D x = DoubleFactory1D.dense.make(n);
+		bounds.getCenter(x);
+
+		if (n == 0) {
+			numEvaluations++;
+			return new Minimizer.Result(x, f.getValue(x));
+		}
+
+		// step sizes put angles and distances on comparable scales
+		double[] stepSizes = new double[n];
+		boolean[] isFixed = new boolean[n];
+		for (int d=0; d<n; d++) {
+			stepSizes[d] = f.getInitStepSize(d);
+			isFixed[d] = bounds.getMin(d) >= bounds.getMax(d);
+		}
+
+		DoubleMatrix1D g = DoubleFactory1D.dense.make(n);
+		double fx = evaluate(x, g);
+
+		DoubleMatrix1D nextx = DoubleFactory1D.dense.make(n);
+		DoubleMatrix1D nextg = DoubleFactory1D.dense.make(n);
+		double[] dir = new double[n];
+		boolean[] isFree = new boolean[n];
+
+		// the history, as a ring buffer
+		double[][] s = new double[HistorySize][n];
+		double[][] y = new double[HistorySize][n];
+		double[] rho = new double[HistorySize];
+		double[] alpha = new double[HistorySize];
+		int numHistory = 0;
+		int newest = -1;
+
+		// the point where the dofs were last set
+		boolean isMolAtX = true;
+
+		for (int iter=0; iter<MaxIterations; iter++) {
+
+			// hold dofs at a bound if the gradient wants to leave the box
+			double maxScaledGradient = 0;
+			for (int d=0; d<n; d++) {
+				double xd = x.get(d);
+				double gd = g.get(d);
+				isFree[d] = !isFixed[d]
+					&& !(xd <= bounds.getMin(d) && gd > 0)
+					&& !(xd >= bounds.getMax(d) && gd < 0);
+				if (isFree[d]) {
+					maxScaledGradient = Math.max(maxScaledGradient, Math.abs(gd)*stepSizes[d]);
+				}
+			}
+			if (maxScaledGradient < GradientThreshold) {
+				break;
+			}
+
+			// get the search direction from the two-loop recursion
+			double dirDotG = 0;
+			if (numHistory > 0) {
+
+				for (int d=0; d<n; d++) {
+					dir[d] = isFree[d] ? g.get(d) : 0;
+				}
+				for (int h=0; h<numHistory; h++) {
+					int k = (newest - h + HistorySize) % HistorySize;
+					alpha[k] = rho[k]*dot(s[k], dir);
+					addScaled(dir, -alpha[k], y[k]);
+				}
+				double gamma = dot(s[newest], y[newest])/dot(y[newest], y[newest]);
+				for (int d=0; d<n; d++) {
+					dir[d] *= gamma;
+				}
+				for (int h=numHistory-1; h>=0; h--) {
+					int k = (newest - h + HistorySize) % HistorySize;
+					double beta = rho[k]*dot(y[k], dir);
+					addScaled(dir, alpha[k] - beta, s[k]);
+				}
+				for (int d=0; d<n; d++) {
+					dir[d] = isFree[d] ? -dir[d] : 0;
+					dirDotG += dir[d]*g.get(d);
+				}
+			}
+
+			// if we don't have a history, or it doesn't give a descent direction,
+			// go downhill, moving each dof at most by its step size
+			if (numHistory == 0 || dirDotG >= 0) {
+				numHistory = 0;
+				for (int d=0; d<n; d++) {
+					dir[d] = isFree[d] ? -g.get(d)*stepSizes[d]*stepSizes[d]/maxScaledGradient : 0;
+				}
+			}
+
+			// backtrack along the projected path until we get enough of a decrease
+			double step = 1;
+			double nextfx = Double.NaN;
+			boolean accepted = false;
+			for (int b=0; b<MaxBacktracks; b++) {
+
+				double expectedDecrease = 0;
+				for (int d=0; d<n; d++) {
+					double xd = x.get(d);
+					double nextxd = bounds.clamp(d, xd + step*dir[d]);
+					nextx.set(d, nextxd);
+					expectedDecrease += g.get(d)*(nextxd - xd);
+				}
+
+				nextfx = evaluate(nextx, nextg);
+				isMolAtX = false;
+				if (nextfx <= fx + ArmijoFactor*expectedDecrease) {
+					accepted = true;
+					break;
+				}
+
+				step /= 2;
+			}
+			if (!accepted) {
+				break;
+			}
+
+			// update the history
+			int k = (newest + 1) % HistorySize;
+			double sy = 0;
+			for (int d=0; d<n; d++) {
+				s[k][d] = nextx.get(d) - x.get(d);
+				y[k][d] = nextg.get(d) - g.get(d);
+				sy += s[k][d]*y[k][d];
+			}
+			if (sy > 1e-10) {
+				rho[k] = 1/sy;
+				newest = k;
+				numHistory = Math.min(numHistory + 1, HistorySize);
+			}
+
+			// take the step
+			double improvement = fx - nextfx;
+			x.assign(nextx);
+			g.assign(nextg);
+			fx = nextfx;
+			isMolAtX = true;
+
+			if (improvement < ConvergenceThreshold) {
+				break;
+			}
+		}
+
+		// leave the molecule at the minimized conformation
+		if (!isMolAtX) {
+			f.setDOFs(x);
+		}
+
+		return new Minimizer.Result(x, fx);
+	}
+
+	private double evaluate(DoubleMatrix1D x, DoubleMatrix1D g) {
+		numEvaluations++;
+		return f.getValueAndGradient(x, g);
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int i=0; i<a.length; i++) {
+			sum += a[i]*b[i];
+		}
+		return sum;
+	}
+
+	private static void addScaled(double[] out, double scale, double[] v) {
+		for (int i=0; i<out.length; i++) {
+			out[i] += scale*v[i];
+		}
+	}
+}
@@ -26,6 +26,7 @@ import edu.duke.cs.osprey.dof.StrandTranslation;
 import edu.duke.cs.osprey.dof.deeper.perts.Backrub;
 import edu.duke.cs.osprey.dof.deeper.perts.Shear;
 import edu.duke.cs.osprey.energy.EnergyFunction;
+import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
 import edu.duke.cs.osprey.restypes.HardCodedResidueInfo;
 import edu.duke.cs.osprey.restypes.ResidueTemplate;
 import edu.duke.cs.osprey.structure.Molecule;
@@ -62,6 +63,8 @@ public class MoleculeModifierAndScorer implements ObjectiveFunction {
     
     List<EnergyFunction> partialEFuncs = null;//if not null, can use when searching along a single DOF
     
+    transient ForcefieldDofGradient gradient = null;//if not null, gives analytic gradients for the DOFs
+    
     public static boolean hasMinimizableDofs(ConfSpace confSpace, RCTuple tuple) {
     
         // for each pos...
@@ -301,6 +304,20 @@ public class MoleculeModifierAndScorer implements ObjectiveFunction {
         return efunc.getEnergy();
     }
 
+    @Override
+    public double getValueAndGradient(DoubleMatrix1D x, DoubleMatrix1D grad) {
+        
+        if(gradient == null)//no analytic gradients for this efunc, use finite differences
+            return ObjectiveFunction.super.getValueAndGradient(x, grad);
+        
+        setDOFs(x);
+        return gradient.getEnergyAndGradient(grad);
+    }
+    
+    public boolean hasAnalyticGradient() {
+        return gradient != null;
+    }
+
     @Override
     public double getValForDOF(int dof, double val) {
         
@@ -392,6 +409,13 @@ public class MoleculeModifierAndScorer implements ObjectiveFunction {
         	partialEFuncs = null;
         }
         
+        // use analytic gradients if we can
+        if (efunc instanceof BigForcefieldEnergy && ForcefieldDofGradient.isSupported(DOFs)) {
+            gradient = new ForcefieldDofGradient((BigForcefieldEnergy)efunc, DOFs);
+        } else {
+            gradient = null;
+        }
+        
 		// we might have made chemical changes, explicitly update the efuncs if supported
         if (efunc instanceof EnergyFunction.ExplicitChemicalChanges) {
         	((EnergyFunction.ExplicitChemicalChanges)efunc).handleChemicalChanges();
@@ -30,7 +30,21 @@ public interface ObjectiveFunction extends Serializable {
 
     //Value and gradient at a given point (specified as values for all DOFs)
     public double getValue(DoubleMatrix1D x);
-    //public DoubleMatrix1D getGradient(DoubleMatrix1D x);
+    
+    //Value at x, and its gradient with respect to the DOFs written into gradient
+    //Leaves the DOFs set to x.  This default uses central differences along each DOF
+    //(two partial evaluations per DOF), so implementations should override it if they have analytic gradients
+    public default double getValueAndGradient(DoubleMatrix1D x, DoubleMatrix1D gradient) {
+        for (int d=0; d<getNumDOFs(); d++) {
+            double xd = x.get(d);
+            double h = 1e-4*getInitStepSize(d);
+            setDOFs(x);
+            double fplus = getValForDOF(d, xd + h);
+            double fminus = getValForDOF(d, xd - h);
+            gradient.set(d, (fplus - fminus)/(2*h));
+        }
+        return getValue(x);
+    }
 
     //Value at a given value for a given DOF,
     //and, for efficiency, possibly omitting energy terms that don't depend on that DOF
@@ -37,6 +37,7 @@ public interface KStarScore {
 	public void compute(int maxNumConfs);
 	public void computeUnboundStates(int maxNumConfs);
 	public void computeBoundState(int maxNumConfs);
+	public boolean shareUnboundState(int state, KStarScore owner);
 	public boolean constrSatisfied();
 	public boolean isFullyAssigned();
 	public boolean isFinal();
@@ -123,6 +123,7 @@ public class KStarScoreMinimized implements KStarScore {
 				);
 
 		partitionFunctions[state].setReportProgress(settings.isReportingProgress);
+		partitionFunctions[state].setUseBigExp(settings.cfp.getParams().getBool("kStarPFuncBigExp"));
 
 		//init partition function
 		partitionFunctions[state].init(settings.targetEpsilon);
@@ -218,6 +219,29 @@ public class KStarScoreMinimized implements KStarScore {
 		if(isComputed()) cleanup();
 	}
 
+	/**
+	 * re-use an unbound state partition function that a sibling with the same 
+	 * unbound state sequence has already computed
+	 * @param state
+	 * @param owner
+	 * @return true if the partition function is shared, otherwise we compute our own
+	 */
+	@Override
+	public boolean shareUnboundState(int state, KStarScore owner) {
+		if(state >= numStates-1) throw new RuntimeException("ERROR: only unbound states can be shared");
+
+		//owner has passed the constraints for all of its unbound states
+		if(!owner.constrSatisfied()) return false;
+		PartitionFunction pf = owner.getPartitionFunction(state);
+		if(pf==null || pf.getStatus() != Status.Estimated) return false;
+
+		//keep the owner's search problem, which has the pruning that the partition function used
+		settings.search[state] = owner.getSettings().search[state];
+		partitionFunctions[state] = (PartitionFunctionMinimized) pf;
+		initialized[state] = true;
+		return true;
+	}
+
 	private void cleanup() {
 		for(PartitionFunctionMinimized pf : partitionFunctions) {
 			if(pf==null) continue;
@@ -271,6 +295,7 @@ public class KStarScoreMinimized implements KStarScore {
 				);
 		
 		p2pf.setReportProgress(settings.isReportingProgress);
+		p2pf.setUseBigExp(settings.cfp.getParams().getBool("kStarPFuncBigExp"));
 
 		p2pf.init(targetEpsilon);//enumerating over pstar, energies can be high
 		p2pf.getValues().qstar = qstar;//keep old qstar
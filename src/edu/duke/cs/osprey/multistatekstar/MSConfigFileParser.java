@@ -76,6 +76,7 @@ public class MSConfigFileParser extends ConfigFileParser {
 				);
 
 		ans.numEmatThreads = params.getInt("EmatThreads");
+		ans.ematPairCutoff = params.getDouble("EmatPairCutoff");
 
 		return ans;
 	}
@@ -179,11 +179,13 @@ public class MSKStarFactory {
 			Parallelism parallelism
 			) {
 		// make the conf energy calculator
-		ConfEnergyCalculator.Async ecalc = MinimizingEnergyCalculator.make(
-				makeDefaultFFParams(cfp.getParams()),
+		ForcefieldParams ffparams = makeDefaultFFParams(cfp.getParams());
+		MinimizingEnergyCalculator ecalc = MinimizingEnergyCalculator.make(
+				ffparams,
 				multiSeqSearch, 
 				parallelism 
 				);
+		ecalc.setCacheFromConfig(cfp, multiSeqSearch, ffparams);
 		return ecalc;
 	}
 
@@ -3,6 +3,12 @@ package edu.duke.cs.osprey.multistatekstar;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import edu.duke.cs.osprey.confspace.SearchProblem;
 import edu.duke.cs.osprey.control.ConfEnergyCalculator;
@@ -10,6 +16,7 @@ import edu.duke.cs.osprey.control.ParamSet;
 import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
 import edu.duke.cs.osprey.multistatekstar.KStarScore.KStarScoreType;
 import edu.duke.cs.osprey.multistatekstar.ResidueOrder.AAAssignment;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
 import edu.duke.cs.osprey.tools.ObjectIO;
 
 /**
@@ -31,24 +38,42 @@ public class MSKStarNode {
 	public static ConfEnergyCalculator.Async[][] ECALCS_DISC;//energy calculators for discrete emats
 
 	public static ResidueOrder RESIDUE_ORDER;
-	public static boolean PARALLEL_EXPANSION;
 	public static int PARALLELISM_MULTIPLIER = 1;
 
 	public static boolean DEBUG = true;
 
+	/**
+	 * an unbound state of a child that is the same as the unbound state of a sibling, 
+	 * so the child borrows the sibling's partition function instead of computing its own
+	 */
+	private static class UnboundStateShare {
+		final KStarScore borrower;
+		final int subState;
+		final KStarScore owner;
+
+		UnboundStateShare(KStarScore borrower, int subState, KStarScore owner) {
+			this.borrower = borrower;
+			this.subState = subState;
+			this.owner = owner;
+		}
+	}
+
 	private KStarScore[] ksLB;//lower bound k* objects
 	private KStarScore[] ksUB;//upper bound k* objects
 	private KStarScore[] ksObjFunc;//k* objects that minimize objective function
 	private BigDecimal[] kss;//kstar score values
 	private BigDecimal score;//objective function value; smaller is better
 	private int numPruned;
+	private TaskExecutor executor;//scores children; owned by the tree, which stops it
 
 	public MSKStarNode(
 			KStarScore[] ksLB, 
-			KStarScore[] ksUB
+			KStarScore[] ksUB,
+			TaskExecutor executor
 			) {
 		this.ksLB = ksLB;
 		this.ksUB = ksUB;
+		this.executor = executor;
 		this.ksObjFunc = new KStarScore[ksLB.length];
 		this.kss = new BigDecimal[ksLB.length];
 		this.score = null;
@@ -196,29 +221,61 @@ public class MSKStarNode {
 		node.setScore(this.getScore());
 	}
 
-	private void setChildScores(ArrayList<MSKStarNode> nodes, boolean parallel) {
-		if(!parallel) {
-			KStarScore score;
-			for(MSKStarNode node : nodes) {					
-				for(int state=0;state<ksLB.length;++state) {
-					score = node.ksLB[state];
-					if(score!=null) score.compute(Integer.MAX_VALUE);
-					score = node.ksUB[state];
-					if(score!=null) score.compute(Integer.MAX_VALUE);
+	/**
+	 * runs the tasks on the task executor and waits for all of them to finish
+	 * @param executor
+	 * @param tasks
+	 */
+	public static void runTasks(TaskExecutor executor, ArrayList<Runnable> tasks) {
+		//the executor never finishes a task that throws, so catch everything here.
+		//also count tasks down ourselves, since waiting on the executor polls
+		AtomicReference<Throwable> error = new AtomicReference<>(null);
+		CountDownLatch numUnfinished = new CountDownLatch(tasks.size());
+		for(Runnable task : tasks) {
+			executor.submit(() -> {
+				try {
+					task.run();
+				} catch(Throwable t) {
+					error.compareAndSet(null, t);
+				} finally {
+					numUnfinished.countDown();
 				}
-			}		
-		} 
+			}, (Runnable r) -> {});
+		}
 
-		else {
-			ArrayList<KStarScore> scores = new ArrayList<>();
-			for(MSKStarNode node : nodes) {
-				for(int state=0;state<ksLB.length;++state) {
-					if(node.ksLB[state]!=null) scores.add(node.ksLB[state]);
-					if(node.ksUB[state]!=null) scores.add(node.ksUB[state]);
+		try {
+			numUnfinished.await();
+		} catch(InterruptedException ex) {
+			throw new RuntimeException("ERROR: interrupted while expanding a node", ex);
+		}
+
+		if(error.get() != null)
+			throw new RuntimeException("ERROR: a node expansion task failed", error.get());
+	}
+
+	private void setChildScores(ArrayList<MSKStarNode> nodes, ArrayList<UnboundStateShare> shares) {
+		//first compute the unbound states that siblings share, then lend them out
+		ArrayList<Runnable> tasks = new ArrayList<>();
+		Set<KStarScore> owners = Collections.newSetFromMap(new IdentityHashMap<>());
+		for(UnboundStateShare share : shares) {
+			if(owners.add(share.owner)) tasks.add(() -> share.owner.computeUnboundStates(Integer.MAX_VALUE));
+		}
+		runTasks(executor, tasks);
+
+		for(UnboundStateShare share : shares)
+			share.borrower.shareUnboundState(share.subState, share.owner);
+
+		//lb and ub are the same object for final discrete nodes, so only compute each score once
+		tasks.clear();
+		Set<KStarScore> scores = Collections.newSetFromMap(new IdentityHashMap<>());
+		for(MSKStarNode node : nodes) {
+			for(int state=0;state<ksLB.length;++state) {
+				for(KStarScore score : new KStarScore[]{node.ksLB[state], node.ksUB[state]}) {
+					if(score!=null && scores.add(score)) tasks.add(() -> score.compute(Integer.MAX_VALUE));
 				}
 			}
-			scores.parallelStream().forEach(score -> score.compute(Integer.MAX_VALUE));
 		}
+		runTasks(executor, tasks);
 
 		//remove nodes that violate local constraints
 		ArrayList<MSKStarNode> remove = new ArrayList<>();
@@ -255,6 +312,13 @@ public class MSKStarNode {
 
 		ArrayList<MSKStarNode> ans = new ArrayList<>();	
 		int numStates = getNumStates();
+
+		//siblings often have the same unbound state sequences. the first sibling
+		//with a sequence computes the partition function, and the rest borrow it
+		HashMap<String, KStarScore> lbOwners = new HashMap<>();
+		HashMap<String, KStarScore> ubOwners = new HashMap<>();
+		ArrayList<UnboundStateShare> ubShares = new ArrayList<>();
+
 		//each split is applied to every state ub and lb
 		int numSplits = splits.get(0).size();
 		for(int splitIndex=0;splitIndex<numSplits;++splitIndex) {
@@ -266,6 +330,12 @@ public class MSKStarNode {
 			for(int state=0;state<numStates;++state) {
 				//make lb
 				KStarScore lb = split(ksLB[state], splits, splitIndex);
+				//earlier siblings have already computed their lb unbound states
+				for(int subState : getSplitUnboundStates(splits, splitIndex)) {
+					String key = getUnboundStateKey(lb, subState);
+					KStarScore owner = lbOwners.get(key);
+					if(owner==null || !lb.shareUnboundState(subState, owner)) lbOwners.put(key, lb);
+				}
 				lb.computeUnboundStates(Integer.MAX_VALUE);
 				if(!lb.constrSatisfied()) {
 					addNode = false;
@@ -280,14 +350,43 @@ public class MSKStarNode {
 			}
 			if(!addNode) continue;
 
-			MSKStarNode child = new MSKStarNode(newKsLB, newKsUB);
+			//ub unbound states are computed along with the child scores
+			for(int state=0;state<numStates;++state) {
+				KStarScore ub = newKsUB[state];
+				if(ub==newKsLB[state]) continue;
+				for(int subState : getSplitUnboundStates(splits, splitIndex)) {
+					String key = getUnboundStateKey(ub, subState);
+					KStarScore owner = ubOwners.get(key);
+					if(owner==null) ubOwners.put(key, ub);
+					else ubShares.add(new UnboundStateShare(ub, subState, owner));
+				}
+			}
+
+			MSKStarNode child = new MSKStarNode(newKsLB, newKsUB, executor);
 			ans.add(child);
 		}
 
-		setChildScores(ans, PARALLEL_EXPANSION);
+		setChildScores(ans, ubShares);
 		return ans;
 	}
 
+	/**
+	 * unbound states that get a new search problem in this split; the rest
+	 * re-use the parent's partition function
+	 */
+	private ArrayList<Integer> getSplitUnboundStates(ArrayList<ArrayList<ArrayList<AAAssignment>>> splits, int index) {
+		ArrayList<Integer> ans = new ArrayList<>();
+		for(int subState=0;subState<splits.size()-1;++subState) {
+			if(splits.get(subState).get(index).size()>0) ans.add(subState);
+		}
+		return ans;
+	}
+
+	private String getUnboundStateKey(KStarScore score, int subState) {
+		MSKStarSettings kSet = score.getSettings();
+		return kSet.state+"."+subState+"."+score.getClass().getSimpleName()+"."+kSet.search[subState].settings.getFormattedSequence();
+	}
+
 	private KStarScore split(KStarScore parent, ArrayList<ArrayList<ArrayList<AAAssignment>>> splits, int index) {
 		//substate / split index / assignments for split
 		MSKStarSettings kSet = new MSKStarSettings(parent.getSettings());
@@ -379,7 +478,7 @@ public class MSKStarNode {
 			}
 
 			if(!addNode) return ans;
-			child = new MSKStarNode(newKsLB, newKsUB);
+			child = new MSKStarNode(newKsLB, newKsUB, executor);
 		}
 
 		else {
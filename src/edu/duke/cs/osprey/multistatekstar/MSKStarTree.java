@@ -11,7 +11,8 @@ import edu.duke.cs.osprey.confspace.SearchProblem;
 import edu.duke.cs.osprey.control.ConfEnergyCalculator;
 import edu.duke.cs.osprey.control.ParamSet;
 import edu.duke.cs.osprey.multistatekstar.KStarScore.KStarScoreType;
-import edu.duke.cs.osprey.parallelism.ThreadParallelism;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
+import edu.duke.cs.osprey.parallelism.ThreadPoolTaskExecutor;
 import edu.duke.cs.osprey.tools.ObjectIO;
 import edu.duke.cs.osprey.tools.Stopwatch;
 
@@ -55,6 +56,7 @@ public class MSKStarTree {
 	protected MSConfigFileParser[] cfps;//config file parsers for each state
 
 	protected PriorityQueue<MSKStarNode> pq;
+	protected TaskExecutor tasks;//scores children and orders residues; stopped by cleanup()
 
 	protected int numSeqsWanted;
 	protected int numSeqsReturned;
@@ -112,6 +114,7 @@ public class MSKStarTree {
 		this.numSeqsReturned = 0;
 		this.numCompleted = 0;
 		this.pq = null;
+		this.tasks = null;
 
 		this.lastScore = PartitionFunctionMinimized.MAX_VALUE.multiply(BigDecimal.valueOf(-1));
 		this.stopwatch = new Stopwatch().start();
@@ -171,14 +174,32 @@ public class MSKStarTree {
 		MSKStarNode.SEARCH_DISC = this.searchDisc;
 		MSKStarNode.ECALCS_CONT = this.ecalcsCont;
 		MSKStarNode.ECALCS_DISC = this.ecalcsDisc;
-		MSKStarNode.RESIDUE_ORDER = ResidueOrderFactory.getResidueOrder(this.msParams, root.getStateKStarSearch(this.objFcn));
-		
+		MSKStarNode.RESIDUE_ORDER = ResidueOrderFactory.getResidueOrder(this.msParams, root.getStateKStarSearch(this.objFcn), tasks);
+	}
+
+	private void initTasks() {
+		//children are scored on this tree's own thread pool, rather than the shared fork join pool
 		int astarThreads = this.msParams.getInt("ASTARTHREADS");
-		ThreadParallelism.setNumThreads(astarThreads);
-		MSKStarNode.PARALLEL_EXPANSION = astarThreads > 1 ? true : false;
+		if(astarThreads > 1) {
+			ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+			pool.start(astarThreads);
+			tasks = pool;
+		}
+		else
+			tasks = new TaskExecutor();
 		//MSKStarNode.PARALLELISM_MULTIPLIER = astarThreads;
 	}
 
+	/**
+	 * stops the task executor; call when done with the tree
+	 */
+	public void cleanup() {
+		if(tasks != null) {
+			tasks.stop();
+			tasks = null;
+		}
+	}
+
 	private MSKStarNode getRootNode() {
 
 		KStarScore[] kssLB = new KStarScore[numStates];
@@ -197,7 +218,8 @@ public class MSKStarTree {
 			kssUB[state] = scores[1];
 		}
 
-		MSKStarNode ans = new MSKStarNode(kssLB, kssUB);
+		initTasks();
+		MSKStarNode ans = new MSKStarNode(kssLB, kssUB, tasks);
 		ans.setScore(objFcn);//set score per the objective function
 		
 		initNodeStaticVars(ans);
@@ -89,7 +89,7 @@ public class MSSearchProblem extends SearchProblem {
 	private BigInteger getNumConfs(PruningMatrix pmat) {
 		BigInteger ans = BigInteger.ONE;
 		for(int pos=0;pos<pmat.getNumPos();++pos) {
-			ans = ans.multiply(BigInteger.valueOf(pmat.unprunedRCsAtPos(pos).size()));
+			ans = ans.multiply(BigInteger.valueOf(pmat.countUnprunedRCsAtPos(pos)));
 			if(ans.compareTo(BigInteger.ZERO)==0) 
 				return ans;
 		}
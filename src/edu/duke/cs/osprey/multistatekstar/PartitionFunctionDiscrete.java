@@ -9,6 +9,7 @@ import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
 import edu.duke.cs.osprey.control.ConfSearchFactory;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.BigExp;
 
 /**
  * 
@@ -40,8 +41,11 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 			throw new IllegalStateException("can't continue from status " + status);
 		}
 
+		loadValues();
+
 		ScoredConf conf;
-		BigDecimal scoreWeight;
+		BigDecimal scoreWeight = null;
+		BigExp scoreWeightExp = null;
 		int stopAtConf = numConfsEvaluated + maxNumConfs;
 
 		while (true) {
@@ -58,9 +62,16 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 
 			numConfsEvaluated++;
 
-			scoreWeight = boltzmann.calc(conf.getScore());
+			boolean isZeroWeight;
+			if (useBigExp) {
+				scoreWeightExp = boltzmann.calcBigExp(conf.getScore());
+				isZeroWeight = scoreWeightExp.isZero();
+			} else {
+				scoreWeight = boltzmann.calc(conf.getScore());
+				isZeroWeight = scoreWeight.compareTo(BigDecimal.ZERO) == 0;
+			}
 
-			if (scoreWeight.compareTo(BigDecimal.ZERO) == 0) {
+			if (isZeroWeight) {
 				if(status != Status.Estimated) status = Status.NotEnoughFiniteEnergies;
 				break;
 			}
@@ -69,8 +80,13 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 
 				numConfsToScore = numConfsToScore.subtract(BigInteger.ONE);
 
-				values.qstar = values.qstar.add(scoreWeight);
-				values.qprime = updateQprime(scoreWeight);
+				if (useBigExp) {
+					qstarExp = qstarExp.add(scoreWeightExp);
+					qprimeExp = scoreWeightExp.multiply(numConfsToScore);
+				} else {
+					values.qstar = values.qstar.add(scoreWeight);
+					values.qprime = updateQprime(scoreWeight);
+				}
 
 				// report progress if needed
 				if (isReportingProgress && numConfsEvaluated % 1024 == 0) {
@@ -93,6 +109,8 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 				}
 			}
 		}
+
+		saveValues();
 	}
 
 	public void compute(BigDecimal targetScoreWeights) {
@@ -101,13 +119,17 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 			throw new IllegalStateException("can't continue from status " + status);
 		}
 
+		loadValues();
+		BigExp targetScoreWeightsExp = useBigExp ? BigExp.valueOf(targetScoreWeights) : null;
+
 		ScoredConf conf;
-		BigDecimal scoreWeight;
+		BigDecimal scoreWeight = null;
+		BigExp scoreWeightExp = null;
 
 		while (true) {
 
 			// should we keep going?
-			if (!status.canContinue() || qstarScoreWeights.compareTo(targetScoreWeights) >= 0) {
+			if (!status.canContinue() || hasScoreWeights(targetScoreWeights, targetScoreWeightsExp)) {
 				break;
 			}
 
@@ -118,25 +140,35 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 
 			numConfsEvaluated++;
 
-			scoreWeight = boltzmann.calc(conf.getScore());
+			boolean isZeroWeight;
+			if (useBigExp) {
+				scoreWeightExp = boltzmann.calcBigExp(conf.getScore());
+				isZeroWeight = scoreWeightExp.isZero();
+			} else {
+				scoreWeight = boltzmann.calc(conf.getScore());
+				isZeroWeight = scoreWeight.compareTo(BigDecimal.ZERO) == 0;
+			}
 
-			if (scoreWeight.compareTo(BigDecimal.ZERO) == 0) {
+			if (isZeroWeight) {
 				if(status != Status.Estimated) status = Status.NotEnoughFiniteEnergies;
 				break;
 			}
 
 			if(status == Status.Estimating) {
-				// get the boltzmann weight
-				qstarScoreWeights = qstarScoreWeights.add(scoreWeight);	
-
 				// update pfunc state
-				values.qstar = values.qstar.add(scoreWeight);
-				values.qprime = updateQprime(scoreWeight);
-				BigDecimal pdiff = targetScoreWeights.subtract(qstarScoreWeights);
+				if (useBigExp) {
+					qstarScoreWeightsExp = qstarScoreWeightsExp.add(scoreWeightExp);
+					qstarExp = qstarExp.add(scoreWeightExp);
+					qprimeExp = scoreWeightExp.multiply(numConfsToScore);
+				} else {
+					qstarScoreWeights = qstarScoreWeights.add(scoreWeight);
+					values.qstar = values.qstar.add(scoreWeight);
+					values.qprime = updateQprime(scoreWeight);
+				}
 
 				// report progress if needed
 				if (isReportingProgress && numConfsEvaluated % 1024 == 0) {
-					phase2Output(conf, pdiff);
+					phase2Output(conf, getScoreWeightsDiff(targetScoreWeights));
 				}
 
 				// report confs if needed
@@ -151,17 +183,15 @@ public class PartitionFunctionDiscrete extends PartitionFunctionMinimized {
 				}
 				else if (effectiveEpsilon <= targetEpsilon) {
 					status = Status.Estimated;
-					if (isReportingProgress) phase2Output(conf, pdiff);
+					if (isReportingProgress) phase2Output(conf, getScoreWeightsDiff(targetScoreWeights));
 				}
 			}
 		}
+
+		saveValues();
 	}
 
 	protected BigDecimal updateQprime(BigDecimal val) {
 		return val.multiply(new BigDecimal(numConfsToScore.toString()));
 	}
-	
-	protected double getEffectiveEpsilon() {
-		return values.getEffectiveEpsilon();
-	}
 }
@@ -8,6 +8,7 @@ import java.math.RoundingMode;
 import edu.duke.cs.osprey.control.ConfSearchFactory;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.BigExp;
 
 /**
  * @author Adegoke Ojewole (ao68@duke.edu)
@@ -44,6 +45,14 @@ public class PartitionFunctionDiscreteUppperBound extends PartitionFunctionDiscr
 
 	@Override
 	protected double getEffectiveEpsilon() {
+
+		if(useBigExp) {
+			BigExp s = qprimeExp.add(pstarExp);
+			BigExp q = s.add(qstarExp);
+			if (q.isZero()) return Double.NaN;
+			return s.divide(qstarExp).doubleValue();
+		}
+
 		BigDecimal s = values.qprime.add(values.pstar);
 		BigDecimal q = s.add(values.qstar);
 
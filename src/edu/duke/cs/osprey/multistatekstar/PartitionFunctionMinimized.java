@@ -18,6 +18,7 @@ import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.kstar.pfunc.ParallelConfPartitionFunction;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.BigExp;
 import edu.duke.cs.osprey.tools.ObjectIO;
 import edu.duke.cs.osprey.tools.Stopwatch;
 
@@ -34,6 +35,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 	protected PriorityQueue<ScoredConf> topConfs;
 	protected int maxNumTopConfs;
 	protected BigDecimal qstarScoreWeights;
+	protected BigExp qstarScoreWeightsExp;
 	protected int numActiveThreads;
 	protected PruningMatrix invmat;
 
@@ -47,6 +49,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 		super(emat, pmat, confSearchFactory, ecalc);
 		this.invmat = invmat;
 		qstarScoreWeights = null;
+		qstarScoreWeightsExp = null;
 		topConfs = null;
 	}
 
@@ -100,10 +103,12 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 		// compute p*: boltzmann-weight the scores for all pruned conformations
 		ConfSearch ptree = confSearchFactory.make(emat, invmat);
 		if(ptree instanceof ConfAStarTree) ((ConfAStarTree)ptree).stopProgress();
-		values.pstar = calcWeightSumUpperBound(ptree);
+		if(useBigExp) values.pstar = toValue(calcWeightSumUpperBoundBigExp(ptree));
+		else values.pstar = calcWeightSumUpperBound(ptree);
+		ptree.cleanup();
 
 		// make the search tree for computing q*
-		ConfSearch tree = confSearchFactory.make(emat, pmat);
+		tree = confSearchFactory.make(emat, pmat);
 		if(tree instanceof ConfAStarTree) ((ConfAStarTree)tree).stopProgress();
 		ConfSearch.Splitter confsSplitter = new ConfSearch.Splitter(tree);
 		scoreConfs = confsSplitter.makeStream();
@@ -112,8 +117,11 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 		numConfsToScore = tree.getNumConformations();
 		qprimeUnevaluated = BigDecimal.ZERO;
 		qprimeUnscored = BigDecimal.ZERO;
+		qprimeUnevaluatedExp = BigExp.ZERO;
+		qprimeUnscoredExp = BigExp.ZERO;
 
 		qstarScoreWeights = BigDecimal.ZERO;
+		qstarScoreWeightsExp = BigExp.ZERO;
 		numActiveThreads = 0;
 		maxNumTopConfs = 0;
 		
@@ -157,6 +165,38 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 		return qprimeUnevaluated.add(qprimeUnscored);
 	}
 
+	@Override
+	protected BigExp updateQprimeBigExp(EnergiedConf econf) {
+
+		// same as updateQprime()
+		while (true) {
+
+			ScoredConf conf = scoreConfs.next();
+			if (conf == null) {
+				qprimeUnscoredExp = BigExp.ZERO;
+				break;
+			}
+
+			BigExp scoreWeight = boltzmann.calcBigExp(conf.getScore());
+			if (scoreWeight.isZero()) {
+				qprimeUnscoredExp = BigExp.ZERO;
+				break;
+			}
+
+			numConfsToScore = numConfsToScore.subtract(BigInteger.ONE);
+			qprimeUnevaluatedExp = qprimeUnevaluatedExp.add(scoreWeight);
+			qprimeUnscoredExp = scoreWeight.multiply(numConfsToScore);
+
+			double effectiveEpsilon = qprimeUnscoredExp.divide(qprimeUnevaluatedExp.add(qprimeUnscoredExp)).doubleValue();
+			if (effectiveEpsilon <= 0.01) {
+				break;
+			}
+		}
+
+		qprimeUnevaluatedExp = qprimeUnevaluatedExp.subtract(boltzmann.calcBigExp(econf.getScore()));
+		return qprimeUnevaluatedExp.add(qprimeUnscoredExp);
+	}
+
 	@Override
 	public void compute(int maxNumConfs) {
 		numActiveThreads = 0;
@@ -165,6 +205,8 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 			throw new IllegalStateException("can't continue from status " + status);
 		}
 
+		loadValues();
+
 		int stopAtConf = numConfsEvaluated + maxNumConfs;
 		while (true) {
 
@@ -186,7 +228,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 					break;
 				}
 
-				if (boltzmann.calc(conf.getScore()).compareTo(BigDecimal.ZERO) == 0) {
+				if (isZeroWeight(conf.getScore())) {
 					while(numActiveThreads > 0) {
 						try { this.wait(); } catch (InterruptedException e) { e.printStackTrace(); }
 					}
@@ -208,13 +250,9 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 
 					if(status == Status.Estimating) {
 
-						// get the boltzmann weight
-						BigDecimal energyWeight = boltzmann.calc(econf.getEnergy());
-
 						// update pfunc state
 						numConfsEvaluated++;
-						values.qstar = values.qstar.add(energyWeight);
-						values.qprime = updateQprime(econf);
+						updateValues(econf);
 
 						// report progress if needed
 						if (isReportingProgress && numConfsEvaluated % ecalc.getParallelism() == 0) {
@@ -227,7 +265,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 						}
 
 						// update status if needed
-						double effectiveEpsilon = values.getEffectiveEpsilon();
+						double effectiveEpsilon = getEffectiveEpsilon();
 						if(Double.isNaN(effectiveEpsilon)) {
 							status = Status.NotEnoughFiniteEnergies;
 						}
@@ -245,9 +283,12 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 
 		// wait for any remaining async minimizations to finish
 		ecalc.waitForFinish();
+
+		saveValues();
 	}
 
 	void phase1Output(ScoredConf conf) {
+		saveValues();
 		MemoryUsage heapMem = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
 		double confVal = conf instanceof EnergiedConf ? ((EnergiedConf)conf).getEnergy() : conf.getScore();
 		System.out.println(String.format("conf: %4d, energy: %.6f, q*: %12e, q': %12e, p*: %12e, epsilon: %.6f, time: %10s, heapMem: %.0f%%",
@@ -264,6 +305,9 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 			throw new IllegalStateException("can't continue from status " + status);
 		}
 
+		loadValues();
+		BigExp targetScoreWeightsExp = useBigExp ? BigExp.valueOf(targetScoreWeights) : null;
+
 		while (true) {
 
 			// get a conf from the tree
@@ -272,7 +316,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 			synchronized (this) {
 
 				// should we keep going?
-				if (!status.canContinue() || qstarScoreWeights.compareTo(targetScoreWeights) >= 0) {
+				if (!status.canContinue() || hasScoreWeights(targetScoreWeights, targetScoreWeightsExp)) {
 					break;
 				}
 
@@ -284,7 +328,7 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 					break;
 				}
 
-				if (boltzmann.calc(conf.getScore()).compareTo(BigDecimal.ZERO) == 0) {
+				if (isZeroWeight(conf.getScore())) {
 					while(numActiveThreads > 0) {
 						try { this.wait(); } catch (InterruptedException e) { e.printStackTrace(); }
 					}
@@ -307,19 +351,15 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 					if(status == Status.Estimating) {
 
 						// get the boltzmann weight
-						BigDecimal scoreWeight = boltzmann.calc(econf.getScore());
-						qstarScoreWeights = qstarScoreWeights.add(scoreWeight);	
-						BigDecimal energyWeight = boltzmann.calc(econf.getEnergy());
+						addScoreWeight(econf.getScore());
 
 						// update pfunc state
 						numConfsEvaluated++;
-						values.qstar = values.qstar.add(energyWeight);
-						values.qprime = updateQprime(econf);
-						BigDecimal pdiff = targetScoreWeights.subtract(qstarScoreWeights);
+						updateValues(econf);
 
 						// report progress if needed
 						if (isReportingProgress && numConfsEvaluated % ecalc.getParallelism() == 0) {
-							phase2Output(econf, pdiff);
+							phase2Output(econf, getScoreWeightsDiff(targetScoreWeights));
 						}
 
 						// report confs if needed
@@ -328,13 +368,13 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 						}
 
 						// update status if needed
-						double effectiveEpsilon = values.getEffectiveEpsilon();
+						double effectiveEpsilon = getEffectiveEpsilon();
 						if(Double.isNaN(effectiveEpsilon)) {
 							status = Status.NotEnoughFiniteEnergies;
 						}
 						else if (effectiveEpsilon <= targetEpsilon) {
 							status = Status.Estimated;
-							if (isReportingProgress) phase2Output(econf, pdiff);
+							if (isReportingProgress) phase2Output(econf, getScoreWeightsDiff(targetScoreWeights));
 						}
 					}
 
@@ -346,9 +386,12 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 
 		// wait for any remaining async minimizations to finish
 		ecalc.waitForFinish();
+
+		saveValues();
 	}
 
 	protected void phase2Output(ScoredConf conf, BigDecimal pdiff) {
+		saveValues();
 		MemoryUsage heapMem = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
 		double val = conf instanceof EnergiedConf ? ((EnergiedConf)conf).getEnergy() : conf.getScore();
 		System.out.println(String.format("conf: %4d, energy: %.6f, q*: %12e, q': %12e, score diff: %12e, epsilon: %.6f, time: %10s, heapMem: %.0f%%",
@@ -358,12 +401,42 @@ public class PartitionFunctionMinimized extends ParallelConfPartitionFunction {
 				));
 	}
 
+	protected void addScoreWeight(double score) {
+		if(useBigExp) qstarScoreWeightsExp = qstarScoreWeightsExp.add(boltzmann.calcBigExp(score));
+		else qstarScoreWeights = qstarScoreWeights.add(boltzmann.calc(score));
+	}
+
+	protected boolean hasScoreWeights(BigDecimal target, BigExp targetExp) {
+		if(useBigExp) return qstarScoreWeightsExp.compareTo(targetExp) >= 0;
+		return qstarScoreWeights.compareTo(target) >= 0;
+	}
+
+	protected BigDecimal getScoreWeightsDiff(BigDecimal target) {
+		if(useBigExp) return target.subtract(toValue(qstarScoreWeightsExp));
+		return target.subtract(qstarScoreWeights);
+	}
+
 	public void setStatus(Status val) {
 		status = val;
 	}
 
 	public void cleanup() {
+		//phase 2 keeps reading the tree after estimating, so only release it here
+		if(tree != null) tree.cleanup();
+		tree = null;
 		scoreConfs = null;
 		energyConfs = null;
+
+		//estimated partition functions are only read from here on. children re-use them,
+		//so drop the matrices and search factory instead of keeping them, and the search
+		//problems of every ancestor node, alive for the rest of the tree search
+		if(status == Status.Estimated) {
+			emat = null;
+			pmat = null;
+			invmat = null;
+			confSearchFactory = null;
+			confListener = null;
+			topConfs = null;
+		}
 	}
 }
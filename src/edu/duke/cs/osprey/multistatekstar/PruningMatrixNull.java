@@ -2,10 +2,12 @@ package edu.duke.cs.osprey.multistatekstar;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import edu.duke.cs.osprey.confspace.HigherTupleFinder;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tools.IntList;
 
 /**
  * 
@@ -108,11 +110,21 @@ public class PruningMatrixNull extends PruningMatrix {
 		return;
 	}
 	
+	@Override
+	public void unprunedRCsAtPos(IntList out, int pos) {
+		return;
+	}
+	
 	@Override
 	public ArrayList<Integer> unprunedRCsAtPos(int pos) {
 		return new ArrayList<Integer>();
 	}
 	
+	@Override
+	public int countUnprunedRCsAtPos(int pos) {
+		return 0;
+	}
+	
 	@Override
 	public void prunedRCsAtPos(ArrayList<Integer> out, int pos) {
 		return;
@@ -124,7 +136,7 @@ public class PruningMatrixNull extends PruningMatrix {
 	}
 	
 	@Override
-	public ArrayList<RCTuple> unprunedRCTuplesAtPos(ArrayList<Integer> pos) {
+	public ArrayList<RCTuple> unprunedRCTuplesAtPos(List<Integer> pos) {
 		return new ArrayList<RCTuple>();
 	}
 	
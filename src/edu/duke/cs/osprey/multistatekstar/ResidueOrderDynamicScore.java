@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import edu.duke.cs.osprey.kstar.pfunc.BoltzmannCalculator;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
 
 /**
  * 
@@ -16,10 +17,12 @@ public class ResidueOrderDynamicScore extends ResidueOrder {
 
 	private ArrayList<ArrayList<ArrayList<BigDecimal>>> residueValues;
 	private BoltzmannCalculator boltzmann;
+	private TaskExecutor executor;
 
-	public ResidueOrderDynamicScore(MSSearchProblem[][] objFcnSearch) {
+	public ResidueOrderDynamicScore(MSSearchProblem[][] objFcnSearch, TaskExecutor executor) {
 		super();
 		this.boltzmann = new BoltzmannCalculator();
+		this.executor = executor;
 		this.residueValues = allocate(objFcnSearch);
 	}
 
@@ -41,22 +44,18 @@ public class ResidueOrderDynamicScore extends ResidueOrder {
 		return residueValues;
 	}
 
-	protected void setResidueValues(MSSearchProblem[][] objFcnSearch, boolean assigned, boolean parallel) {
-		ArrayList<ResisueOrderWorker> workers = new ArrayList<>();
+	protected void setResidueValues(MSSearchProblem[][] objFcnSearch, boolean assigned) {
+		ArrayList<Runnable> workers = new ArrayList<>();
 		//set all workers
 		for(int state=0;state<objFcnSearch.length;++state) {
 			for(int subState=0;subState<objFcnSearch[state].length;++subState) {
-				workers.add(new ResisueOrderWorker(objFcnSearch[state][subState], state, subState));
+				ResisueOrderWorker w = new ResisueOrderWorker(objFcnSearch[state][subState], state, subState);
+				workers.add(() -> setResidueValues(w.search, w.state, w.subState, w.search.getPosNums(assigned)));
 			}
 		}
 
-		if(!parallel) {
-			for(ResisueOrderWorker w : workers) setResidueValues(w.search, w.state, w.subState, w.search.getPosNums(assigned));
-		}
-		//execute in parallel
-		else {
-			workers.parallelStream().forEach(w -> setResidueValues(w.search, w.state, w.subState, w.search.getPosNums(assigned)));
-		}
+		//execute on the tree's task executor, which is serial for one thread
+		MSKStarNode.runTasks(executor, workers);
 	}
 
 	protected void setResidueValues(MSSearchProblem search, int state, int subState, ArrayList<Integer> positions) {
@@ -321,10 +320,10 @@ public class ResidueOrderDynamicScore extends ResidueOrder {
 
 		if(unassignedPos.size() > 1) {
 			//"g-score": value assigned residues
-			setResidueValues(objFcnSearch, true, MSKStarNode.PARALLEL_EXPANSION);
+			setResidueValues(objFcnSearch, true);
 
 			//"h-score": value unassigned residues
-			setResidueValues(objFcnSearch, false, MSKStarNode.PARALLEL_EXPANSION);
+			setResidueValues(objFcnSearch, false);
 		}
 
 		//score unassigned residues by objfcn
@@ -1,16 +1,17 @@
 package edu.duke.cs.osprey.multistatekstar;
 
 import edu.duke.cs.osprey.control.ParamSet;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
 
 public class ResidueOrderFactory {
 	
-	public static ResidueOrder getResidueOrder(ParamSet msParams, MSSearchProblem[][] objFcnSearch) {
+	public static ResidueOrder getResidueOrder(ParamSet msParams, MSSearchProblem[][] objFcnSearch, TaskExecutor executor) {
 		String val = msParams.getValue("RESIDUEORDER");
 		switch(val.toLowerCase()) {
 		case "staticsequential":
 			return new ResidueOrderStaticSequential();
 		case "dynamicfscore":
-			return new ResidueOrderDynamicScore(objFcnSearch);
+			return new ResidueOrderDynamicScore(objFcnSearch, executor);
 		default:
 			throw new UnsupportedOperationException("ERROR: unsupported residue order type: "+val);
 		}
@@ -0,0 +1,163 @@
+package edu.duke.cs.osprey.parallelism;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Base for TaskExecutors that track task completion without locks
+ *
+ * Listeners are still called one at a time, like ThreadPoolTaskExecutor. But instead of
+ * handing results to a dedicated listener thread, each task pushes its listener call
+ * onto a lock-free queue, and whichever task thread wins a CAS runs the pending listeners.
+ * That saves two thread hand-offs per task, which matters when tasks are very small.
+ *
+ * Threads waiting in submit() or waitForFinish() sleep on a monitor, and finishing tasks
+ * only take the monitor lock to wake them up when someone is actually waiting.
+ */
+public abstract class LockFreeTaskExecutor extends TaskExecutor {
+	
+	private long maxTasksInFlight;
+	private AtomicLong numTasksStarted;
+	private AtomicLong numTasksFinished;
+	private ConcurrentLinkedQueue<Runnable> finishedListeners;
+	private AtomicBoolean isCallingListeners;
+	private AtomicReference<Throwable> error;
+	private volatile Thread listenerThread;
+	private final Object waitLock;
+	private AtomicInteger numWaiting;
+	
+	protected LockFreeTaskExecutor() {
+		maxTasksInFlight = 1;
+		numTasksStarted = new AtomicLong(0);
+		numTasksFinished = new AtomicLong(0);
+		finishedListeners = new ConcurrentLinkedQueue<>();
+		isCallingListeners = new AtomicBoolean(false);
+		error = new AtomicReference<>(null);
+		listenerThread = null;
+		waitLock = new Object();
+		numWaiting = new AtomicInteger(0);
+	}
+	
+	/**
+	 * Start running the task on some other thread
+	 */
+	protected abstract void execute(Runnable task);
+	
+	/**
+	 * Sets how many tasks can be submitted but not finished before submit() blocks
+	 */
+	protected void setMaxTasksInFlight(long val) {
+		maxTasksInFlight = Math.max(val, 1);
+	}
+	
+	@Override
+	public void submit(Runnable task, TaskListener listener) {
+		
+		// wait for a free thread (or queue slot), if needed
+		// NOTE: listeners can submit more tasks, but they can't wait for a free slot,
+		// since slots only free up when listeners finish. So let them go over the limit.
+		if (Thread.currentThread() != listenerThread) {
+			waitUntil(() -> numTasksStarted.get() - numTasksFinished.get() < maxTasksInFlight);
+		}
+		
+		numTasksStarted.incrementAndGet();
+		
+		execute(() -> {
+			
+			try {
+				task.run();
+				finishedListeners.add(() -> listener.onFinished(task));
+			} catch (Throwable t) {
+				
+				// don't call the listener for failed tasks, but still count them as finished
+				error.compareAndSet(null, t);
+				finishedListeners.add(() -> {});
+			}
+			
+			callListeners();
+		});
+	}
+	
+	@Override
+	public void waitForFinish() {
+		
+		if (Thread.currentThread() == listenerThread) {
+			throw new IllegalStateException("can't wait for tasks to finish from a listener");
+		}
+		
+		waitUntil(() -> numTasksFinished.get() >= numTasksStarted.get());
+		
+		// pass task failures on to the caller
+		Throwable t = error.getAndSet(null);
+		if (t != null) {
+			throw new RuntimeException("task failed", t);
+		}
+	}
+	
+	private void callListeners() {
+		
+		// only one thread gets to call listeners at once
+		// if another thread is already doing it, it will pick up our listener too
+		// NOTE: keep trying while listeners are pending, in case the other thread just finished
+		while (!finishedListeners.isEmpty() && isCallingListeners.compareAndSet(false, true)) {
+			listenerThread = Thread.currentThread();
+			try {
+				
+				Runnable listener;
+				while ((listener = finishedListeners.poll()) != null) {
+					try {
+						listener.run();
+					} catch (Throwable t) {
+						error.compareAndSet(null, t);
+					}
+					numTasksFinished.incrementAndGet();
+					wakeWaiters();
+				}
+				
+			} finally {
+				listenerThread = null;
+				isCallingListeners.set(false);
+			}
+		}
+	}
+	
+	private static interface Condition {
+		boolean isMet();
+	}
+	
+	private void waitUntil(Condition condition) {
+		
+		// fast path, no locks
+		if (condition.isMet()) {
+			return;
+		}
+		
+		// NOTE: count ourselves as waiting before checking the condition again,
+		// so a task that finishes after the check is guaranteed to see us and send the signal
+		numWaiting.incrementAndGet();
+		try {
+			synchronized (waitLock) {
+				while (!condition.isMet()) {
+					try {
+						waitLock.wait();
+					} catch (InterruptedException ex) {
+						throw new Error(ex);
+					}
+				}
+			}
+		} finally {
+			numWaiting.decrementAndGet();
+		}
+	}
+	
+	private void wakeWaiters() {
+		if (numWaiting.get() > 0) {
+			synchronized (waitLock) {
+				waitLock.notifyAll();
+			}
+		}
+	}
+}
@@ -22,6 +22,63 @@ public class Parallelism {
 		public abstract int getParallelism(Parallelism parallelism);
 	}
 	
+	public static enum TaskExecutorType {
+		
+		/** ThreadPoolExecutor with a bounded task queue and a dedicated listener thread */
+		ThreadPool {
+			@Override
+			public TaskExecutor make(int numThreads, Integer queueSize) {
+				ThreadPoolTaskExecutor tasks = new ThreadPoolTaskExecutor();
+				if (queueSize != null) {
+					tasks.queueSize = queueSize;
+				}
+				tasks.start(numThreads);
+				return tasks;
+			}
+		},
+		
+		/** work-stealing ForkJoinPool with lock-free completion tracking, best for very small tasks */
+		WorkStealing {
+			@Override
+			public TaskExecutor make(int numThreads, Integer queueSize) {
+				WorkStealingTaskExecutor tasks = new WorkStealingTaskExecutor();
+				if (queueSize != null) {
+					tasks.queueSize = queueSize;
+				}
+				tasks.start(numThreads);
+				return tasks;
+			}
+		},
+		
+		/**
+		 * one virtual thread per task, with CPU work bounded by a semaphore,
+		 * best when tasks block, or when lots of tasks should be in flight at once
+		 */
+		VirtualThreads {
+			@Override
+			public TaskExecutor make(int numThreads, Integer queueSize) {
+				VirtualThreadTaskExecutor tasks = new VirtualThreadTaskExecutor();
+				if (queueSize != null) {
+					tasks.queueSize = queueSize;
+				}
+				tasks.start(numThreads);
+				return tasks;
+			}
+		};
+		
+		public abstract TaskExecutor make(int numThreads, Integer queueSize);
+		
+		public static TaskExecutorType makeFromConfig(ConfigFileParser cfp) {
+			String name = cfp.getParams().getValue("TaskExecutor", ThreadPool.name());
+			for (TaskExecutorType type : values()) {
+				if (type.name().equalsIgnoreCase(name)) {
+					return type;
+				}
+			}
+			throw new IllegalArgumentException("unknown task executor type: " + name);
+		}
+	}
+	
 	public static Parallelism makeDefault() {
 		return makeCpu(1);
 	}
@@ -30,6 +87,10 @@ public class Parallelism {
 		return new Parallelism(numThreads, 0, 0);
 	}
 	
+	public static Parallelism makeCpu(int numThreads, TaskExecutorType taskExecutorType) {
+		return new Parallelism(numThreads, 0, 0, taskExecutorType);
+	}
+	
 	public static Parallelism makeGpu(int numGpus, int numStreamsPerGpu) {
 		return new Parallelism(0, numGpus, numStreamsPerGpu);
 	}
@@ -40,7 +101,8 @@ public class Parallelism {
 		return new Parallelism(
 			cfp.getParams().getInt("MinimizationThreads", 1),
 			cfp.getParams().getInt("MinimizationGpus", 0),
-			cfp.getParams().getInt("MinimizationStreamsPerGpu", 1)
+			cfp.getParams().getInt("MinimizationStreamsPerGpu", 1),
+			TaskExecutorType.makeFromConfig(cfp)
 		);
 	}
 	
@@ -48,11 +110,17 @@ public class Parallelism {
 	public final int numGpus;
 	public final int numStreamsPerGpu;
 	public final Type type;
+	public final TaskExecutorType taskExecutorType;
 	
 	public Parallelism(int numThreads, int numGpus, int numStreamsPerGpu) {
+		this(numThreads, numGpus, numStreamsPerGpu, TaskExecutorType.ThreadPool);
+	}
+	
+	public Parallelism(int numThreads, int numGpus, int numStreamsPerGpu, TaskExecutorType taskExecutorType) {
 		this.numThreads = numThreads;
 		this.numGpus = numGpus;
 		this.numStreamsPerGpu = numStreamsPerGpu;
+		this.taskExecutorType = taskExecutorType;
 		
 		// prefer gpus over threads
 		if (numGpus > 0) {
@@ -83,12 +151,7 @@ public class Parallelism {
 	 */
 	public TaskExecutor makeTaskExecutor(Integer queueSize) {
 		if (getParallelism() > 1) {
-			ThreadPoolTaskExecutor tasks = new ThreadPoolTaskExecutor();
-			if (queueSize != null) {
-				tasks.queueSize = queueSize;
-			}
-			tasks.start(getParallelism());
-			return tasks;
+			return taskExecutorType.make(getParallelism(), queueSize);
 		} else {
 			return new TaskExecutor();
 		}
@@ -18,4 +18,8 @@ public class TaskExecutor {
 	public void waitForFinish() {
 		// nothing to do
 	}
+	
+	public void stop() {
+		// nothing to do
+	}
 }
@@ -96,6 +96,7 @@ public class ThreadPoolTaskExecutor extends TaskExecutor implements GarbageDetec
 		Cleaner.addCleaner(this, threads);
 	}
 	
+	@Override
 	public void stop() {
 		if (threads != null) {
 			threads.clean();
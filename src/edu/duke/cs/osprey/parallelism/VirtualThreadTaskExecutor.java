@@ -0,0 +1,139 @@
+package edu.duke.cs.osprey.parallelism;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import edu.duke.cs.osprey.tools.Cleaner;
+import edu.duke.cs.osprey.tools.Cleaner.Cleanable;
+import edu.duke.cs.osprey.tools.Cleaner.GarbageDetectable;
+
+/**
+ * TaskExecutor that runs each task on its own virtual thread
+ *
+ * A semaphore with one permit per CPU thread bounds how many tasks do CPU work at once,
+ * but any number of tasks can be in flight, parked cheaply while they wait for a permit.
+ *
+ * Virtual threads need Java 21 or newer. On older JVMs, this falls back to a fixed pool
+ * of numThreads platform threads, and in-flight tasks wait in the pool's queue instead.
+ */
+public class VirtualThreadTaskExecutor extends LockFreeTaskExecutor implements GarbageDetectable {
+	
+	private static final ThreadFactory VirtualThreadFactory = makeVirtualThreadFactory();
+	
+	private static final ThreadFactory DaemonThreadFactory = new ThreadFactory() {
+		
+		private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = threadFactory.newThread(runnable);
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+	
+	private static ThreadFactory makeVirtualThreadFactory() {
+		
+		// NOTE: use reflection, so we still compile and run on JVMs without virtual threads
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory)factory.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+	
+	public static boolean hasVirtualThreads() {
+		return VirtualThreadFactory != null;
+	}
+	
+	private static class Threads implements Cleanable {
+		
+		ExecutorService pool;
+		
+		public Threads(int numThreads) {
+			
+			// NOTE: virtual threads aren't pooled, just make a new one for every task
+			// but platform threads are expensive, so never make more than we can keep busy
+			if (hasVirtualThreads()) {
+				pool = null;
+			} else {
+				pool = Executors.newFixedThreadPool(numThreads, DaemonThreadFactory);
+			}
+		}
+		
+		public void execute(Runnable task) {
+			if (pool == null) {
+				VirtualThreadFactory.newThread(task).start();
+			} else {
+				pool.execute(task);
+			}
+		}
+		
+		@Override
+		public void clean() {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * Controls how many tasks can be waiting for a CPU permit before submit() blocks
+	 */
+	public int queueSize = 10000;
+	
+	private Threads threads;
+	private Semaphore permits;
+	private int numThreads;
+	
+	public VirtualThreadTaskExecutor() {
+		threads = null;
+		permits = null;
+		numThreads = 0;
+	}
+	
+	public void start(int numThreads) {
+		this.numThreads = numThreads;
+		threads = new Threads(numThreads);
+		permits = new Semaphore(numThreads);
+		setMaxTasksInFlight(numThreads + Math.max(queueSize, 0));
+		Cleaner.addCleaner(this, threads);
+	}
+	
+	@Override
+	public void stop() {
+		if (threads != null) {
+			threads.clean();
+			threads = null;
+		}
+	}
+	
+	public boolean isVirtual() {
+		return threads != null && threads.pool == null;
+	}
+	
+	@Override
+	public int getParallelism() {
+		return numThreads;
+	}
+	
+	@Override
+	protected void execute(Runnable task) {
+		
+		Semaphore permits = this.permits;
+		threads.execute(() -> {
+			
+			permits.acquireUninterruptibly();
+			try {
+				task.run();
+			} finally {
+				permits.release();
+			}
+		});
+	}
+}
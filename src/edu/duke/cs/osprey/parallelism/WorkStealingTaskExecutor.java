@@ -0,0 +1,83 @@
+package edu.duke.cs.osprey.parallelism;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import edu.duke.cs.osprey.tools.Cleaner;
+import edu.duke.cs.osprey.tools.Cleaner.Cleanable;
+import edu.duke.cs.osprey.tools.Cleaner.GarbageDetectable;
+
+/**
+ * TaskExecutor backed by a work-stealing ForkJoinPool, with no locks on the task path
+ */
+public class WorkStealingTaskExecutor extends LockFreeTaskExecutor implements GarbageDetectable {
+	
+	// NOTE: ForkJoinPool worker threads are daemons already
+	private static class Threads implements Cleanable {
+		
+		ForkJoinPool pool;
+		
+		public Threads(int numThreads) {
+			// use async (FIFO) mode, since our tasks never join each other
+			pool = new ForkJoinPool(numThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		}
+		
+		@Override
+		public void clean() {
+			pool.shutdown();
+		}
+		
+		public void cleanAndWait(int timeoutMs) {
+			clean();
+			try {
+				pool.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				throw new Error(ex);
+			}
+		}
+	}
+	
+	/**
+	 * Controls how many tasks can wait for a free thread.
+	 * Set this to 0 to cause the main thread to block until a task thread is ready.
+	 * Works just like ThreadPoolTaskExecutor.queueSize
+	 */
+	public int queueSize = 0;
+	
+	private Threads threads;
+	
+	public WorkStealingTaskExecutor() {
+		threads = null;
+	}
+	
+	public void start(int numThreads) {
+		threads = new Threads(numThreads);
+		setMaxTasksInFlight(numThreads + Math.max(queueSize, 0));
+		Cleaner.addCleaner(this, threads);
+	}
+	
+	@Override
+	public void stop() {
+		if (threads != null) {
+			threads.clean();
+			threads = null;
+		}
+	}
+	
+	public void stopAndWait(int timeoutMs) {
+		if (threads != null) {
+			threads.cleanAndWait(timeoutMs);
+			threads = null;
+		}
+	}
+	
+	@Override
+	public int getParallelism() {
+		return threads.pool.getParallelism();
+	}
+	
+	@Override
+	protected void execute(Runnable task) {
+		threads.pool.execute(task);
+	}
+}
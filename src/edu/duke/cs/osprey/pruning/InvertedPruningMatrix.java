@@ -2,9 +2,11 @@ package edu.duke.cs.osprey.pruning;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import edu.duke.cs.osprey.confspace.HigherTupleFinder;
 import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.tools.IntList;
 
 public class InvertedPruningMatrix extends PruningMatrix {
 
@@ -61,11 +63,21 @@ public class InvertedPruningMatrix extends PruningMatrix {
 		pmat.unprunedRCsAtPos(out, pos);
 	}
 	
+	@Override
+	public void unprunedRCsAtPos(IntList out, int pos) {
+		pmat.unprunedRCsAtPos(out, pos);
+	}
+	
 	@Override
 	public ArrayList<Integer> unprunedRCsAtPos(int pos) {
 		return pmat.unprunedRCsAtPos(pos);
 	}
 	
+	@Override
+	public int countUnprunedRCsAtPos(int pos) {
+		return pmat.countUnprunedRCsAtPos(pos);
+	}
+	
 	@Override
 	public void prunedRCsAtPos(ArrayList<Integer> out, int pos) {
 		pmat.prunedRCsAtPos(out, pos);
@@ -77,7 +89,7 @@ public class InvertedPruningMatrix extends PruningMatrix {
 	}
 	
 	@Override
-	public ArrayList<RCTuple> unprunedRCTuplesAtPos(ArrayList<Integer> pos) {
+	public ArrayList<RCTuple> unprunedRCTuplesAtPos(List<Integer> pos) {
 		return pmat.unprunedRCTuplesAtPos(pos);
 	}
 	
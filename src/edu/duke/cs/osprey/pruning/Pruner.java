@@ -15,12 +15,18 @@ import edu.duke.cs.osprey.confspace.TupleEnumerator;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.ematrix.epic.EPICMatrix;
 import edu.duke.cs.osprey.pruning.PruningMethod.CheckSumType;
+import edu.duke.cs.osprey.tools.IntList;
+import edu.duke.cs.osprey.tools.Metrics;
 
 /**
  *
  * @author mhall44
  */
 public class Pruner {
+    
+    private static final Metrics.Counter numPrunedSingles = Metrics.counter("osprey_pruned_singles_total", "single RCs pruned");
+    private static final Metrics.Counter numPrunedPairs = Metrics.counter("osprey_pruned_pairs_total", "RC pairs pruned");
+    private static final Metrics.Counter numPrunedHigher = Metrics.counter("osprey_pruned_higher_tuples_total", "RC triples and higher tuples pruned");
     //This representation based on "candidate" and "competitor" objects and iterators
     //will let us cut down a lot on the code redundancy
     //and will make it way easier to update things when we need to
@@ -149,7 +155,7 @@ public class Pruner {
 					}
 												
 					if (canPrune(cand, competitor, method.cst, contELB)) {
-						pruneMat.markAsPruned(cand);
+						markAsPruned(cand);
 						prunedSomething = true;
 						prunedSomethingThisCycle = true;
 						break;
@@ -223,21 +229,20 @@ public class Pruner {
  
         EnergyMatrix emat = this.emat;
         PruningMatrix pruneMat = this.pruneMat;
-		ArrayList<Integer> candpos = cand.pos;
-		ArrayList<Integer> candRCs = cand.RCs;
-		ArrayList<Integer> comppos = cand.pos;
-		ArrayList<Integer> compRCs = comp.RCs;
+		IntList candpos = cand.pos;
+		IntList candRCs = cand.RCs;
+		IntList compRCs = comp.RCs;
         
 		int numCandPos = candpos.size();
-        ArrayList<Integer> unprunedRCs = new ArrayList<Integer>(64);
+        IntList unprunedRCs = new IntList(64);
         
         // pre-allocate some memory for a candidate-and-extra-pos tuple
         RCTuple candAndExtra = new RCTuple();
-        ArrayList<Integer> candAndExtraPos = candAndExtra.pos;
-        ArrayList<Integer> candAndExtraRCs = candAndExtra.RCs;
+        IntList candAndExtraPos = candAndExtra.pos;
+        IntList candAndExtraRCs = candAndExtra.RCs;
         candAndExtra.set(cand);
-        candAndExtraPos.add(-1);
-        candAndExtraRCs.add(-1);
+        candAndExtraPos.addInt(-1);
+        candAndExtraRCs.addInt(-1);
         int extraPosIndex = candAndExtraPos.size() - 1;
         int extraRCIndex = candAndExtraRCs.size() - 1;
         
@@ -259,7 +264,7 @@ public class Pruner {
         // for each witness pos...
         int numPos = confSpace.numPos;
         for (int posWit=0; posWit<numPos; posWit++) {
-            if (candpos.contains(posWit)) {
+            if (candpos.containsInt(posWit)) {
             	continue;
             }
 
@@ -272,11 +277,13 @@ public class Pruner {
 			
 			//if no rc's at pos are compatible with cand, we can set infinite checkSum --> prune cand
 			double minDiff = Double.POSITIVE_INFINITY;
-			for (int rcWit : unprunedRCs) {
+			int numUnprunedRCs = unprunedRCs.size();
+			for (int i=0; i<numUnprunedRCs; i++) {
+				int rcWit = unprunedRCs.getInt(i);
 				
 				// is witness compatible with the candidate?
-				candAndExtraPos.set(extraPosIndex, posWit);
-				candAndExtraRCs.set(extraRCIndex, rcWit);
+				candAndExtraPos.setInt(extraPosIndex, posWit);
+				candAndExtraRCs.setInt(extraRCIndex, rcWit);
 				if (pruneMat.isPruned(candAndExtra)) {
 					// nope, don't even consider this combination
 					continue;
@@ -285,11 +292,11 @@ public class Pruner {
 				// compute the energy diff between the candidate and competitor
 				// from the point of view of the witness
 				double diff = 0;
-				for (int i=0; i<numCandPos; i++) {
+				for (int j=0; j<numCandPos; j++) {
 					
-					int posCand = candpos.get(i);
-					int rcCand = candRCs.get(i);
-					int rcComp = compRCs.get(i);
+					int posCand = candpos.getInt(j);
+					int rcCand = candRCs.getInt(j);
+					int rcComp = compRCs.getInt(j);
 					
 					diff += emat.getPairwise(posWit, rcWit, posCand, rcCand)
 						- emat.getPairwise(posWit, rcWit, posCand, rcComp);
@@ -538,7 +545,7 @@ public class Pruner {
                     E = emat.getPairwise(cand.pos.get(0), cand.RCs.get(0), cand.pos.get(1), cand.RCs.get(1));
                 
                 if( E > stericThresh ){
-                    pruneMat.markAsPruned(cand);
+                    markAsPruned(cand);
                     numPruned++;
                 }
             }
@@ -547,6 +554,15 @@ public class Pruner {
                 System.out.println("Pruned "+numPruned+" in "+numBodies+"-body steric pruning");
         }
     }
+    
+    private void markAsPruned(RCTuple cand){
+        pruneMat.markAsPruned(cand);
+        switch(cand.size()){
+            case 1: numPrunedSingles.increment(); break;
+            case 2: numPrunedPairs.increment(); break;
+            default: numPrunedHigher.increment();
+        }
+    }
 
     
     
@@ -5,11 +5,13 @@
 package edu.duke.cs.osprey.pruning;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import edu.duke.cs.osprey.confspace.ConfSpace;
 import edu.duke.cs.osprey.confspace.HigherTupleFinder;
 import edu.duke.cs.osprey.confspace.RCTuple;
 import edu.duke.cs.osprey.confspace.TupleMatrixBoolean;
+import edu.duke.cs.osprey.tools.IntList;
 
 /**
  *
@@ -43,8 +45,28 @@ public class PruningMatrix extends TupleMatrixBoolean {
         fill(false);
     }
     
+    public PruningMatrix(int numPos, int[] numConfAtPos, double pruningInterval) {
+    	this(numPos, numConfAtPos, pruningInterval, true);
+    }
+    
+    protected PruningMatrix(int numPos, int[] numConfAtPos, double pruningInterval, boolean allocate) {
+    	//if !allocate, we get indexing only, no storage (for views of other matrices, e.g. UpdatedPruningMatrix)
+    	super(numPos, numConfAtPos, pruningInterval, false, allocate);
+    	if (allocate) {
+    		fill(false);
+    	}
+    }
+    
+    //NOTE: when we have our own storage, the RC queries work on whole words of the bitset at a time
+    //views of other matrices fall back to checking RCs one at a time
+    
     public void unprunedRCsAtPos(ArrayList<Integer> out, int pos) {
     	out.clear();
+    	if (hasStorage()) {
+    		for (int rc=nextOneBody(pos, 0, false); rc>=0; rc=nextOneBody(pos, rc+1, false))
+    			out.add(rc);
+    		return;
+    	}
     	int numRCs = getNumConfAtPos(pos);
 		for (int index=0; index<numRCs; index++) {
 			if(!getOneBody(pos,index))
@@ -52,6 +74,33 @@ public class PruningMatrix extends TupleMatrixBoolean {
 		}
     }
     
+    public void unprunedRCsAtPos(IntList out, int pos) {
+    	out.clear();
+    	if (hasStorage()) {
+    		for (int rc=nextOneBody(pos, 0, false); rc>=0; rc=nextOneBody(pos, rc+1, false))
+    			out.addInt(rc);
+    		return;
+    	}
+    	int numRCs = getNumConfAtPos(pos);
+		for (int index=0; index<numRCs; index++) {
+			if(!getOneBody(pos,index))
+				out.addInt(index);
+		}
+    }
+    
+    public int countUnprunedRCsAtPos(int pos) {
+    	if (hasStorage()) {
+    		return countOneBody(pos, false);
+    	}
+    	int count = 0;
+    	int numRCs = getNumConfAtPos(pos);
+		for (int index=0; index<numRCs; index++) {
+			if(!getOneBody(pos,index))
+				count++;
+		}
+		return count;
+    }
+    
     
     public ArrayList<Integer> unprunedRCsAtPos(int pos){
         //which RCs at the given position are unpruned?
@@ -64,6 +113,11 @@ public class PruningMatrix extends TupleMatrixBoolean {
 
     public void prunedRCsAtPos(ArrayList<Integer> out, int pos) {
     	out.clear();
+    	if (hasStorage()) {
+    		for (int rc=nextOneBody(pos, 0, true); rc>=0; rc=nextOneBody(pos, rc+1, true))
+    			out.add(rc);
+    		return;
+    	}
     	int numRCs = getNumConfAtPos(pos);
 		for (int index=0; index<numRCs; index++) {
 			if(getOneBody(pos,index))
@@ -81,46 +135,45 @@ public class PruningMatrix extends TupleMatrixBoolean {
     }
     
     
-    public ArrayList<RCTuple> unprunedRCTuplesAtPos(ArrayList<Integer> pos){
+    public ArrayList<RCTuple> unprunedRCTuplesAtPos(List<Integer> pos){
         //get a list of unpruned RCTuples with the given positions
-        //this method tests a few things more than once, so it could be sped up if needed, but it is convenient
         
-        int numPos = pos.size();
         ArrayList<RCTuple> unpruned = new ArrayList<>();
+        IntList posList = pos instanceof IntList ? (IntList)pos : new IntList(pos);
         
-        if(numPos==1){
-            int posNum = pos.get(0);
-            for(int rc=0; rc<getNumConfAtPos(posNum); rc++){
-                if(!getOneBody(posNum,rc))
-                    unpruned.add(new RCTuple(posNum,rc));
-            }
+        //build tuples from the last position down, so tuples come out in the same order as always
+        //(RCs at the last position vary slowest), reusing one partial tuple for all the pruning checks
+        RCTuple partialTup = new RCTuple();
+        addUnprunedRCTuples(unpruned, posList, posList.size()-1, partialTup);
+        
+        return unpruned;     
+    }
+    
+    private void addUnprunedRCTuples(ArrayList<RCTuple> unpruned, IntList pos, int index, RCTuple partialTup){
+        //partialTup has RCs for all positions after index
+        //add all unpruned extensions of it to unpruned
+        
+        if(index<0){
+            unpruned.add(new RCTuple(new IntList(partialTup.pos), new IntList(partialTup.RCs)));
+            return;
         }
-        else {
-            //get unpruned tuples of RCs at all but the last position
-            //then see what RCs at the last position we can add
-            ArrayList<Integer> posReduced = (ArrayList<Integer>)pos.clone();
-            posReduced.remove(numPos-1);
+        
+        int posNum = pos.getInt(index);
+        for(int rc=0; rc<getNumConfAtPos(posNum); rc++){
             
-            ArrayList<RCTuple> tupsReduced = unprunedRCTuplesAtPos(posReduced);
+            if(getOneBody(posNum,rc))
+                continue;
             
-            int lastPos = pos.get(numPos-1);
+            partialTup.pos.addInt(0, posNum);
+            partialTup.RCs.addInt(0, rc);
             
-            for(int rc=0; rc<getNumConfAtPos(lastPos); rc++){
-                if(!getOneBody(lastPos,rc)){
-                    for(RCTuple reducedTup : tupsReduced){//try to combine into an unpruned RC
-                        
-                        ArrayList<Integer> fullRCList = (ArrayList<Integer>)reducedTup.RCs.clone();
-                        fullRCList.add(rc);
-                        
-                        RCTuple fullTup = new RCTuple(pos,fullRCList);
-                        if(!isPruned(fullTup))
-                            unpruned.add(fullTup);
-                    }
-                }
-            }
+            //if part of the tuple is pruned, so is everything that contains it
+            if(partialTup.size()==1 || !isPruned(partialTup))
+                addUnprunedRCTuples(unpruned, pos, index-1, partialTup);
+            
+            partialTup.pos.removeInt(0);
+            partialTup.RCs.removeInt(0);
         }
-        
-        return unpruned;     
     }
     
     
@@ -130,8 +183,8 @@ public class PruningMatrix extends TupleMatrixBoolean {
     	// so even pedantic optimizations can have a noticeable impact
     	
     	// copy some references to stack
-    	ArrayList<Integer> tuppos = tup.pos;
-    	ArrayList<Integer> tupRCs = tup.RCs;
+    	IntList tuppos = tup.pos;
+    	IntList tupRCs = tup.RCs;
     	
     	// OPTIMIZATION: skipping even the check for higher order terms
     	// improves CPU cache performance a lot when we don't actually have any terms to use
@@ -146,8 +199,8 @@ public class PruningMatrix extends TupleMatrixBoolean {
     	// check singles
     	int numTupPos = tuppos.size();
         for (int i1=0; i1<numTupPos; i1++) {
-            int pos1 = tuppos.get(i1);
-            int rc1 = tupRCs.get(i1);
+            int pos1 = tuppos.getInt(i1);
+            int rc1 = tupRCs.getInt(i1);
             
             if (getOneBody(pos1, rc1)) {
                 return true;
@@ -156,12 +209,12 @@ public class PruningMatrix extends TupleMatrixBoolean {
             
         // check pairs
         for (int i1=0; i1<numTupPos; i1++) {
-            int pos1 = tuppos.get(i1);
-            int rc1 = tupRCs.get(i1);
+            int pos1 = tuppos.getInt(i1);
+            int rc1 = tupRCs.getInt(i1);
             
             for (int i2=0; i2<i1; i2++) {
-                int pos2 = tuppos.get(i2);
-                int rc2 = tupRCs.get(i2);
+                int pos2 = tuppos.getInt(i2);
+                int rc2 = tupRCs.getInt(i2);
             
                 if (getPairwise(pos1, rc1, pos2, rc2)) {
                     return true;
@@ -185,26 +238,27 @@ public class PruningMatrix extends TupleMatrixBoolean {
     public boolean isPrunedHigherOrder(RCTuple tup, int curIndex, HigherTupleFinder<Boolean> htf){
         //Checks if tup is pruned based on interactions in htf (corresponds to some sub-tuple of tup)
         //with RCs whose indices in tup are < curIndex
-        ArrayList<Integer> interactingPos = htf.getInteractingPos();
+        IntList interactingPos = htf.getInteractingPos();
         
-        for(int ipos : interactingPos){
+        for(int i=0; i<interactingPos.size(); i++){
+            int ipos = interactingPos.getInt(i);
             
             //see if ipos is in tup with index < curIndex
             int iposIndex = -1;
             for(int ind=0; ind<curIndex; ind++){
-                if(tup.pos.get(ind)==ipos){
+                if(tup.pos.getInt(ind)==ipos){
                     iposIndex = ind;
                     break;
                 }
             }
 
             if(iposIndex > -1){//ipos interactions need to be counted
-                int iposRC = tup.RCs.get(iposIndex);
+                int iposRC = tup.RCs.getInt(iposIndex);
                 if( htf.getInteraction(ipos, iposRC) )//sub-tuple plus (ipos,iposRC) is pruned
                     return true;
                 
                 //see if need to go up to highers order again...
-                HigherTupleFinder htf2 = htf.getHigherInteractions(ipos,iposRC);
+                HigherTupleFinder<Boolean> htf2 = htf.getHigherInteractions(ipos,iposRC);
                 if(htf2!=null){
                     if( isPrunedHigherOrder(tup,iposIndex,htf2) )
                         return true;
@@ -233,6 +287,9 @@ public class PruningMatrix extends TupleMatrixBoolean {
     
     public int countPrunedRCs(){
         //how many RCs are pruned overall?
+        if (hasStorage()) {
+        	return countOneBody();
+        }
         int count = 0;
         int numPos = getNumPos();
         for (int res1=0; res1<numPos; res1++) {
@@ -249,6 +306,9 @@ public class PruningMatrix extends TupleMatrixBoolean {
     
     public int countPrunedPairs(){
         //how many pairs are pruned overall?
+        if (hasStorage()) {
+        	return countPairwise();
+        }
         int count = 0;
         int numPos = getNumPos();
         for (int res1=0; res1<numPos; res1++) {
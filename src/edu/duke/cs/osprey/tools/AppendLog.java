@@ -0,0 +1,221 @@
+package edu.duke.cs.osprey.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+/**
+ * Append-only binary log that keeps everything written before a crash
+ *
+ * The file starts with a header (magic, version, and a signature of whatever the records depend on),
+ * followed by records in whatever format the owner likes. Records are flushed as soon as they're appended.
+ * When a log is opened, the complete records are read back, and any half-written record at the end
+ * (eg, from a killed run) is chopped off, so new records go right after the last good one.
+ *
+ * Records can also be read back later by their offset in the file, so owners can index the log
+ * rather than keeping every record in memory.
+ *
+ * Layout (big-endian): magic, version, signature, then records
+ *
+ * NOTE: not thread-safe, owners should lock around appends
+ */
+public class AppendLog {
+
+	public static interface RecordReader {
+
+		/** reads one record starting at offset in the file, EOFExceptions mean the record is incomplete */
+		void read(DataInputStream in, long offset) throws IOException;
+	}
+
+	public static interface RecordWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/** the file isn't a log with the expected magic, version, or signature */
+	public static class HeaderMismatchException extends IOException {
+
+		private static final long serialVersionUID = -3526137804356371538L;
+
+		public HeaderMismatchException(String msg) {
+			super(msg);
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+
+		public long count = 0;
+
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read()
+		throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buf, int offset, int length)
+		throws IOException {
+			int n = super.read(buf, offset, length);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n)
+		throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+
+	/**
+	 * Reads all the complete records from the log, or starts a new log if the file is missing or empty
+	 * @throws HeaderMismatchException if the file has some other header, use create() to start over
+	 */
+	public static AppendLog open(File file, int magic, int version, byte[] signature, RecordReader reader)
+	throws IOException {
+
+		if (!file.exists() || file.length() == 0) {
+			return create(file, magic, version, signature);
+		}
+
+		long size;
+		try (FileInputStream fin = new FileInputStream(file)) {
+
+			CountingInputStream counter = new CountingInputStream(new BufferedInputStream(fin));
+			DataInputStream in = new DataInputStream(counter);
+
+			try {
+				if (in.readInt() != magic) {
+					throw new HeaderMismatchException("has the wrong format");
+				}
+				int fileVersion = in.readInt();
+				if (fileVersion != version) {
+					throw new HeaderMismatchException("has version " + fileVersion + ", expected " + version);
+				}
+				byte[] fileSignature = new byte[signature.length];
+				in.readFully(fileSignature);
+				if (!Arrays.equals(fileSignature, signature)) {
+					throw new HeaderMismatchException("was made with different inputs");
+				}
+			} catch (EOFException ex) {
+				throw new HeaderMismatchException("has an incomplete header");
+			}
+
+			size = counter.count;
+			try {
+				while (true) {
+					reader.read(in, size);
+					size = counter.count;
+				}
+			} catch (EOFException ex) {
+				// end of the log, or a half-written record
+			}
+		}
+
+		// drop any half-written record at the end
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (raf.length() > size) {
+				raf.setLength(size);
+			}
+		}
+
+		return new AppendLog(file, size);
+	}
+
+	/** starts a new log, throwing away anything already in the file */
+	public static AppendLog create(File file, int magic, int version, byte[] signature)
+	throws IOException {
+
+		long size;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			raf.writeInt(magic);
+			raf.writeInt(version);
+			raf.write(signature);
+			size = raf.length();
+		}
+
+		return new AppendLog(file, size);
+	}
+
+	private final File file;
+	private final FileOutputStream fout;
+	private final DataOutputStream out;
+	private RandomAccessFile readFile;
+	private long size;
+
+	private AppendLog(File file, long size)
+	throws IOException {
+		this.file = file;
+		this.fout = new FileOutputStream(file, true);
+		this.out = new DataOutputStream(new BufferedOutputStream(fout));
+		this.readFile = null;
+		this.size = size;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/** size of the log in bytes, ie the offset of the next record */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * writes the record and flushes it right away, so a killed run still keeps it
+	 * @return the offset of the record, for read()
+	 */
+	public long append(RecordWriter writer)
+	throws IOException {
+		long offset = size;
+		writer.write(out);
+		out.flush();
+		size = fout.getChannel().position();
+		return offset;
+	}
+
+	/** reads back the record at the offset returned by append() or passed to the RecordReader by open() */
+	public void read(long offset, RecordReader reader)
+	throws IOException {
+		if (offset < 0 || offset >= size) {
+			throw new IllegalArgumentException("offset " + offset + " is outside the log (size " + size + ")");
+		}
+		if (readFile == null) {
+			readFile = new RandomAccessFile(file, "r");
+		}
+		readFile.seek(offset);
+		reader.read(new DataInputStream(new BufferedInputStream(Channels.newInputStream(readFile.getChannel()))), offset);
+	}
+
+	public void close()
+	throws IOException {
+		out.close();
+		if (readFile != null) {
+			readFile.close();
+			readFile = null;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package edu.duke.cs.osprey.tools;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Immutable extended-range number: a double mantissa times a power of two with a long exponent
+ *
+ * Boltzmann weights and partition function values overflow doubles easily, but they only need
+ * about double precision. So this is a cheap alternative to BigDecimal for them: arithmetic is
+ * a few floating point ops and one small allocation, instead of arbitrary-precision math.
+ * Relative error is about one ulp of a double per operation.
+ */
+public class BigExp implements Comparable<BigExp> {
+
+	// ln(2) split so k*Ln2Hi is exact for any reasonable k (see fdlibm's exp)
+	private static final double Ln2Hi = 6.93147180369123816490e-01;
+	private static final double Ln2Lo = 1.90821492927058770002e-10;
+	private static final double Ln2 = Math.log(2);
+	private static final double Ln10 = Math.log(10);
+
+	// enough digits to round-trip a double
+	private static final MathContext DecimalContext = new MathContext(17, RoundingMode.HALF_EVEN);
+
+	public static final BigExp ZERO = new BigExp(0, 0);
+	public static final BigExp ONE = new BigExp(1, 0);
+
+	// the value is fp*2^exp, where 1 <= |fp| < 2, or fp == 0 and exp == 0
+	private final double fp;
+	private final long exp;
+
+	private BigExp(double fp, long exp) {
+		this.fp = fp;
+		this.exp = exp;
+	}
+
+	private static BigExp make(double fp, long exp) {
+
+		if (fp == 0) {
+			return ZERO;
+		}
+		if (Double.isNaN(fp) || Double.isInfinite(fp)) {
+			throw new ArithmeticException("not a finite number: " + fp);
+		}
+
+		int e = Math.getExponent(fp);
+		if (e == Double.MIN_EXPONENT - 1) {
+			// subnormal, scale it up first
+			fp *= 0x1p64;
+			exp -= 64;
+			e = Math.getExponent(fp);
+		}
+		return new BigExp(Math.scalb(fp, -e), exp + e);
+	}
+
+	public static BigExp valueOf(double val) {
+		return make(val, 0);
+	}
+
+	public static BigExp valueOf(long val) {
+		return valueOf(BigInteger.valueOf(val));
+	}
+
+	public static BigExp valueOf(BigInteger val) {
+		int shift = Math.max(0, val.bitLength() - 62);
+		return make(val.shiftRight(shift).doubleValue(), shift);
+	}
+
+	public static BigExp valueOf(BigDecimal val) {
+		if (val.signum() == 0) {
+			return ZERO;
+		}
+		if (val.scale() <= 0) {
+			return valueOf(val.toBigIntegerExact());
+		}
+		return valueOf(val.unscaledValue()).divide(valueOf(BigInteger.TEN.pow(val.scale())));
+	}
+
+	/** returns e^x */
+	public static BigExp exp(double x) {
+
+		if (x == Double.NEGATIVE_INFINITY) {
+			return ZERO;
+		}
+		if (Double.isNaN(x) || Double.isInfinite(x)) {
+			throw new IllegalArgumentException("can't exponentiate " + x);
+		}
+
+		// e^x = e^r*2^k, where x = r + k*ln(2) and |r| <= ln(2)/2
+		long k = Math.round(x/Ln2);
+		double r = (x - k*Ln2Hi) - k*Ln2Lo;
+		return make(Math.exp(r), k);
+	}
+
+	public boolean isZero() {
+		return fp == 0;
+	}
+
+	public int signum() {
+		return (int)Math.signum(fp);
+	}
+
+	public BigExp negate() {
+		return new BigExp(-fp, exp);
+	}
+
+	public BigExp add(BigExp other) {
+
+		if (other.fp == 0) {
+			return this;
+		} else if (fp == 0) {
+			return other;
+		}
+
+		// if the numbers are too far apart, the small one doesn't change the big one
+		long diff = exp - other.exp;
+		if (diff > 64) {
+			return this;
+		} else if (diff < -64) {
+			return other;
+		}
+
+		if (diff >= 0) {
+			return make(fp + Math.scalb(other.fp, (int)-diff), exp);
+		} else {
+			return make(Math.scalb(fp, (int)diff) + other.fp, other.exp);
+		}
+	}
+
+	public BigExp subtract(BigExp other) {
+		return add(other.negate());
+	}
+
+	public BigExp multiply(BigExp other) {
+		return make(fp*other.fp, exp + other.exp);
+	}
+
+	public BigExp multiply(double val) {
+		return multiply(valueOf(val));
+	}
+
+	public BigExp multiply(BigInteger val) {
+		return multiply(valueOf(val));
+	}
+
+	public BigExp divide(BigExp other) {
+		if (other.fp == 0) {
+			throw new ArithmeticException("divide by zero");
+		}
+		return make(fp/other.fp, exp - other.exp);
+	}
+
+	/** returns the value as a double, which may overflow to infinity or underflow to zero */
+	public double doubleValue() {
+		if (exp > Double.MAX_EXPONENT + 1) {
+			return fp*Double.POSITIVE_INFINITY;
+		} else if (exp < Double.MIN_EXPONENT - 64) {
+			return fp*0.0;
+		}
+		return Math.scalb(fp, (int)exp);
+	}
+
+	/** returns the natural log */
+	public double ln() {
+		if (fp < 0) {
+			return Double.NaN;
+		} else if (fp == 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		return Math.log(fp) + exp*Ln2;
+	}
+
+	public double log10() {
+		return ln()/Ln10;
+	}
+
+	/** returns the value as a BigDecimal, rounded to 17 significant digits */
+	public BigDecimal toBigDecimal() {
+		if (fp == 0) {
+			return BigDecimal.ZERO;
+		}
+		BigDecimal pow2;
+		if (exp >= 0) {
+			pow2 = new BigDecimal(BigInteger.ONE.shiftLeft((int)exp));
+		} else {
+			// 2^-n = 5^n/10^n exactly
+			int n = (int)-exp;
+			pow2 = new BigDecimal(BigInteger.valueOf(5).pow(n), n);
+		}
+		return new BigDecimal(fp).multiply(pow2, DecimalContext);
+	}
+
+	@Override
+	public int compareTo(BigExp other) {
+		int sign = signum();
+		int otherSign = other.signum();
+		if (sign != otherSign) {
+			return Integer.compare(sign, otherSign);
+		}
+		if (sign == 0) {
+			return 0;
+		}
+		// same sign, so bigger exponents mean bigger magnitudes
+		int cmp = exp != other.exp ? Long.compare(exp, other.exp) : Double.compare(Math.abs(fp), Math.abs(other.fp));
+		return sign*cmp;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other instanceof BigExp) {
+			return fp == ((BigExp)other).fp && exp == ((BigExp)other).exp;
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return Double.hashCode(fp)*31 + Long.hashCode(exp);
+	}
+
+	/** formats the value like %e would */
+	@Override
+	public String toString() {
+		if (fp == 0) {
+			return "0.000000e+00";
+		}
+		double log10 = Math.log10(Math.abs(fp)) + exp*Math.log10(2);
+		long exp10 = (long)Math.floor(log10);
+		double mantissa = Math.pow(10, log10 - exp10);
+		if (Math.round(mantissa*1e6) >= 10000000L) {
+			mantissa /= 10;
+			exp10++;
+		}
+		return String.format("%s%.6fe%s%02d", fp < 0 ? "-" : "", mantissa, exp10 < 0 ? "-" : "+", Math.abs(exp10));
+	}
+}
@@ -0,0 +1,189 @@
+package edu.duke.cs.osprey.tools;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A growable list of ints, backed by an int[] rather than boxed Integers
+ *
+ * It's a regular List<Integer> too, so code that doesn't care can keep using it like an ArrayList,
+ * but hot code should use the primitive getInt()/setInt()/addInt() methods to avoid boxing.
+ */
+public class IntList extends AbstractList<Integer> implements RandomAccess, Serializable {
+
+	private static final long serialVersionUID = 4372095893457220847L;
+
+	private int[] vals;
+	private int size;
+
+	public IntList() {
+		this(4);
+	}
+
+	public IntList(int capacity) {
+		vals = new int[capacity];
+		size = 0;
+	}
+
+	public IntList(IntList other) {
+		vals = Arrays.copyOf(other.vals, Math.max(other.size, 1));
+		size = other.size;
+	}
+
+	public IntList(Collection<Integer> other) {
+		this(Math.max(other.size(), 1));
+		for (int val : other) {
+			addInt(val);
+		}
+	}
+
+	public static IntList of(int ... vals) {
+		IntList list = new IntList(Math.max(vals.length, 1));
+		System.arraycopy(vals, 0, list.vals, 0, vals.length);
+		list.size = vals.length;
+		return list;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public int getInt(int i) {
+		if (i >= size) {
+			throw new IndexOutOfBoundsException("index " + i + " out of bounds for size " + size);
+		}
+		return vals[i];
+	}
+
+	public int setInt(int i, int val) {
+		if (i >= size) {
+			throw new IndexOutOfBoundsException("index " + i + " out of bounds for size " + size);
+		}
+		int old = vals[i];
+		vals[i] = val;
+		return old;
+	}
+
+	public void addInt(int val) {
+		if (size == vals.length) {
+			vals = Arrays.copyOf(vals, Math.max(vals.length*2, 4));
+		}
+		vals[size++] = val;
+		modCount++;
+	}
+
+	public void addInt(int i, int val) {
+		if (i > size || i < 0) {
+			throw new IndexOutOfBoundsException("index " + i + " out of bounds for size " + size);
+		}
+		if (size == vals.length) {
+			vals = Arrays.copyOf(vals, Math.max(vals.length*2, 4));
+		}
+		System.arraycopy(vals, i, vals, i + 1, size - i);
+		vals[i] = val;
+		size++;
+		modCount++;
+	}
+
+	public int removeInt(int i) {
+		int old = getInt(i);
+		System.arraycopy(vals, i + 1, vals, i, size - i - 1);
+		size--;
+		modCount++;
+		return old;
+	}
+
+	public int indexOfInt(int val) {
+		for (int i=0; i<size; i++) {
+			if (vals[i] == val) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean containsInt(int val) {
+		return indexOfInt(val) >= 0;
+	}
+
+	public int[] toIntArray() {
+		return Arrays.copyOf(vals, size);
+	}
+
+	@Override
+	public Integer get(int i) {
+		return getInt(i);
+	}
+
+	@Override
+	public Integer set(int i, Integer val) {
+		return setInt(i, val);
+	}
+
+	@Override
+	public boolean add(Integer val) {
+		addInt(val);
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public void add(int i, Integer val) {
+		addInt(i, val);
+	}
+
+	@Override
+	public Integer remove(int i) {
+		return removeInt(i);
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		if (o instanceof Integer) {
+			return indexOfInt((Integer)o);
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other instanceof IntList) {
+			IntList o = (IntList)other;
+			if (size != o.size) {
+				return false;
+			}
+			for (int i=0; i<size; i++) {
+				if (vals[i] != o.vals[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return super.equals(other);
+	}
+
+	@Override
+	public int hashCode() {
+		// same as List.hashCode(), so we can still be compared to other lists
+		int hashCode = 1;
+		for (int i=0; i<size; i++) {
+			hashCode = 31*hashCode + Integer.hashCode(vals[i]);
+		}
+		return hashCode;
+	}
+}
@@ -0,0 +1,67 @@
+package edu.duke.cs.osprey.tools;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An array of doubles backed by a memory-mapped region of a file
+ *
+ * A single mapping can't be bigger than 2 GiB, so big arrays are split into chunks,
+ * each with its own mapping.
+ */
+public class MappedDoubleArray {
+
+	// 2^27 doubles is 1 GiB per mapping
+	private static final int ChunkBits = 27;
+	private static final int ChunkSize = 1 << ChunkBits;
+	private static final int ChunkMask = ChunkSize - 1;
+
+	private final DoubleBuffer[] chunks;
+	private final int size;
+
+	/**
+	 * @param channel file to map
+	 * @param offset where the array starts in the file, in bytes
+	 * @param size number of doubles in the array
+	 * @param mode how to map the file, set() only works for writable mappings
+	 * @param order byte order of the doubles in the file
+	 */
+	public MappedDoubleArray(FileChannel channel, long offset, int size, FileChannel.MapMode mode, ByteOrder order)
+	throws IOException {
+
+		this.size = size;
+
+		int numChunks = (size + ChunkSize - 1) >>> ChunkBits;
+		chunks = new DoubleBuffer[numChunks];
+		for (int i=0; i<numChunks; i++) {
+			int chunkSize = Math.min(ChunkSize, size - i*ChunkSize);
+			chunks[i] = channel.map(mode, offset + (long)i*ChunkSize*Double.BYTES, (long)chunkSize*Double.BYTES)
+				.order(order)
+				.asDoubleBuffer();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double get(int i) {
+		return chunks[i >>> ChunkBits].get(i & ChunkMask);
+	}
+
+	public void set(int i, double val) {
+		chunks[i >>> ChunkBits].put(i & ChunkMask, val);
+	}
+
+	public double[] toArray() {
+		double[] out = new double[size];
+		for (int i=0; i<chunks.length; i++) {
+			DoubleBuffer chunk = chunks[i].duplicate();
+			chunk.rewind();
+			chunk.get(out, i*ChunkSize, chunk.remaining());
+		}
+		return out;
+	}
+}
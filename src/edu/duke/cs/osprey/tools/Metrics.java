@@ -0,0 +1,392 @@
+package edu.duke.cs.osprey.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Global registry of runtime counters, gauges, and latency histograms, with periodic export to a file
+ *
+ * Metrics are cheap enough to leave on all the time: counters and histogram buckets are striped
+ * (LongAdder), so threads updating the same metric don't fight over one cache line.
+ * Classes should look up their metrics once (eg, in a static final field) and update them in the hot path.
+ *
+ * Exports are snapshots in either JSON or the Prometheus text format,
+ * written to a temp file and moved into place, so readers never see a half-written file.
+ */
+public class Metrics {
+
+	public static enum Format {
+
+		Json,
+		Prometheus;
+
+		/** guesses the format from the file extension, JSON unless it looks like Prometheus text */
+		public static Format fromFile(File file) {
+			String name = file.getName().toLowerCase();
+			if (name.endsWith(".prom") || name.endsWith(".txt")) {
+				return Prometheus;
+			}
+			return Json;
+		}
+	}
+
+	public static abstract class Metric {
+
+		public final String name;
+		public final String help;
+
+		protected Metric(String name, String help) {
+			this.name = name;
+			this.help = help;
+		}
+
+		public abstract void reset();
+		protected abstract void writeJson(StringBuilder buf);
+		protected abstract void writePrometheus(StringBuilder buf);
+	}
+
+	/** a count that only goes up, eg number of energy evaluations */
+	public static class Counter extends Metric {
+
+		private final LongAdder adder = new LongAdder();
+
+		private Counter(String name, String help) {
+			super(name, help);
+		}
+
+		public void increment() {
+			adder.increment();
+		}
+
+		public void add(long val) {
+			adder.add(val);
+		}
+
+		public long get() {
+			return adder.sum();
+		}
+
+		@Override
+		public void reset() {
+			adder.reset();
+		}
+
+		@Override
+		protected void writeJson(StringBuilder buf) {
+			buf.append("{\"type\":\"counter\",\"value\":").append(get()).append("}");
+		}
+
+		@Override
+		protected void writePrometheus(StringBuilder buf) {
+			buf.append("# TYPE ").append(name).append(" counter\n");
+			buf.append(name).append(' ').append(get()).append('\n');
+		}
+	}
+
+	/** a value that goes up and down, eg the current size of a queue */
+	public static class Gauge extends Metric {
+
+		private final AtomicLong val = new AtomicLong(0);
+
+		private Gauge(String name, String help) {
+			super(name, help);
+		}
+
+		public void set(long val) {
+			// lazySet is enough, exports don't need to see the very latest value
+			this.val.lazySet(val);
+		}
+
+		public long get() {
+			return val.get();
+		}
+
+		@Override
+		public void reset() {
+			val.set(0);
+		}
+
+		@Override
+		protected void writeJson(StringBuilder buf) {
+			buf.append("{\"type\":\"gauge\",\"value\":").append(get()).append("}");
+		}
+
+		@Override
+		protected void writePrometheus(StringBuilder buf) {
+			buf.append("# TYPE ").append(name).append(" gauge\n");
+			buf.append(name).append(' ').append(get()).append('\n');
+		}
+	}
+
+	/**
+	 * distribution of durations, eg how long minimizations take
+	 *
+	 * Durations are counted in power-of-two buckets of nanoseconds, so quantiles are only accurate to within a factor of 2,
+	 * but recording a duration is just a couple of striped increments.
+	 */
+	public static class Histogram extends Metric {
+
+		private static final int NumBuckets = 64;
+
+		private final LongAdder[] buckets;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sumNs = new LongAdder();
+		private final LongAccumulator maxNs = new LongAccumulator(Long::max, 0);
+
+		private Histogram(String name, String help) {
+			super(name, help);
+			buckets = new LongAdder[NumBuckets];
+			for (int i=0; i<NumBuckets; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		/** returns a start time to pass to recordSince() */
+		public long start() {
+			return System.nanoTime();
+		}
+
+		public void recordSince(long startNs) {
+			record(System.nanoTime() - startNs);
+		}
+
+		public void record(long ns) {
+			if (ns < 0) {
+				ns = 0;
+			}
+			// bucket i holds durations in [2^(i-1), 2^i) ns
+			buckets[NumBuckets - Long.numberOfLeadingZeros(ns)].increment();
+			count.increment();
+			sumNs.add(ns);
+			maxNs.accumulate(ns);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getSumNs() {
+			return sumNs.sum();
+		}
+
+		public long getMaxNs() {
+			return maxNs.get();
+		}
+
+		/** returns an upper bound for the q quantile (eg 0.99) */
+		public long getQuantileNs(double q) {
+			long[] counts = getBucketCounts();
+			long total = 0;
+			for (long c : counts) {
+				total += c;
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long target = (long)Math.ceil(q*total);
+			long cumulative = 0;
+			for (int i=0; i<NumBuckets; i++) {
+				cumulative += counts[i];
+				if (cumulative >= target) {
+					return Math.min(getBucketMaxNs(i), getMaxNs());
+				}
+			}
+			return getMaxNs();
+		}
+
+		private long[] getBucketCounts() {
+			long[] counts = new long[NumBuckets];
+			for (int i=0; i<NumBuckets; i++) {
+				counts[i] = buckets[i].sum();
+			}
+			return counts;
+		}
+
+		private static long getBucketMaxNs(int i) {
+			return i >= NumBuckets - 1 ? Long.MAX_VALUE : (1L << i);
+		}
+
+		@Override
+		public void reset() {
+			for (LongAdder bucket : buckets) {
+				bucket.reset();
+			}
+			count.reset();
+			sumNs.reset();
+			maxNs.reset();
+		}
+
+		@Override
+		protected void writeJson(StringBuilder buf) {
+			buf.append("{\"type\":\"histogram\"");
+			buf.append(",\"count\":").append(getCount());
+			buf.append(",\"sumSeconds\":").append(toSeconds(getSumNs()));
+			buf.append(",\"p50Seconds\":").append(toSeconds(getQuantileNs(0.5)));
+			buf.append(",\"p90Seconds\":").append(toSeconds(getQuantileNs(0.9)));
+			buf.append(",\"p99Seconds\":").append(toSeconds(getQuantileNs(0.99)));
+			buf.append(",\"maxSeconds\":").append(toSeconds(getMaxNs()));
+			buf.append("}");
+		}
+
+		@Override
+		protected void writePrometheus(StringBuilder buf) {
+			buf.append("# TYPE ").append(name).append(" histogram\n");
+
+			// only write the buckets up to the biggest one we've used
+			long[] counts = getBucketCounts();
+			int lastBucket = 0;
+			for (int i=0; i<NumBuckets - 1; i++) {
+				if (counts[i] > 0) {
+					lastBucket = i;
+				}
+			}
+			long cumulative = 0;
+			for (int i=0; i<=lastBucket; i++) {
+				cumulative += counts[i];
+				buf.append(name).append("_bucket{le=\"").append(toSeconds(getBucketMaxNs(i))).append("\"} ").append(cumulative).append('\n');
+			}
+			long total = 0;
+			for (long c : counts) {
+				total += c;
+			}
+			buf.append(name).append("_bucket{le=\"+Inf\"} ").append(total).append('\n');
+			buf.append(name).append("_sum ").append(toSeconds(getSumNs())).append('\n');
+			buf.append(name).append("_count ").append(total).append('\n');
+		}
+
+		private static double toSeconds(long ns) {
+			return ns/1e9;
+		}
+	}
+
+	private static final Map<String,Metric> metrics = new ConcurrentHashMap<>();
+	private static ScheduledExecutorService exporter = null;
+	private static File exportFile = null;
+	private static Format exportFormat = null;
+
+	public static Counter counter(String name, String help) {
+		return get(name, Counter.class, () -> new Counter(name, help));
+	}
+
+	public static Gauge gauge(String name, String help) {
+		return get(name, Gauge.class, () -> new Gauge(name, help));
+	}
+
+	public static Histogram histogram(String name, String help) {
+		return get(name, Histogram.class, () -> new Histogram(name, help));
+	}
+
+	private static <T extends Metric> T get(String name, Class<T> type, Supplier<T> factory) {
+		Metric metric = metrics.computeIfAbsent(name, (key) -> factory.get());
+		if (!type.isInstance(metric)) {
+			throw new IllegalArgumentException("metric " + name + " is a " + metric.getClass().getSimpleName() + ", not a " + type.getSimpleName());
+		}
+		return type.cast(metric);
+	}
+
+	/** zeroes all the metrics, eg between runs in the same JVM */
+	public static void reset() {
+		for (Metric metric : metrics.values()) {
+			metric.reset();
+		}
+	}
+
+	private static List<Metric> getSortedMetrics() {
+		List<Metric> sorted = new ArrayList<>(metrics.values());
+		sorted.sort((a, b) -> a.name.compareTo(b.name));
+		return sorted;
+	}
+
+	public static String toJson() {
+		StringBuilder buf = new StringBuilder();
+		buf.append("{\n  \"timestampMs\": ").append(System.currentTimeMillis()).append(",\n  \"metrics\": {");
+		boolean isFirst = true;
+		for (Metric metric : getSortedMetrics()) {
+			buf.append(isFirst ? "\n" : ",\n");
+			isFirst = false;
+			buf.append("    \"").append(escapeJson(metric.name)).append("\": ");
+			metric.writeJson(buf);
+		}
+		buf.append("\n  }\n}\n");
+		return buf.toString();
+	}
+
+	private static String escapeJson(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	public static String toPrometheus() {
+		StringBuilder buf = new StringBuilder();
+		for (Metric metric : getSortedMetrics()) {
+			buf.append("# HELP ").append(metric.name).append(' ').append(metric.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+			metric.writePrometheus(buf);
+		}
+		return buf.toString();
+	}
+
+	public static void write(File file, Format format) {
+		String text = format == Format.Prometheus ? toPrometheus() : toJson();
+		File tempFile = new File(file.getAbsolutePath() + ".tmp");
+		try {
+			Files.write(tempFile.toPath(), text.getBytes(StandardCharsets.UTF_8));
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't write metrics to " + file, ex);
+		}
+	}
+
+	/** writes all the metrics to the file every so often, until stopExport() */
+	public static synchronized void startExport(File file, Format format, long intervalMs) {
+
+		stopExport();
+
+		exportFile = file;
+		exportFormat = format;
+		exporter = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "Metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		exporter.scheduleAtFixedRate(() -> {
+			try {
+				write(file, format);
+			} catch (RuntimeException ex) {
+				// don't let a bad write stop the exports, but say something
+				System.err.println(ex.getMessage());
+			}
+		}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+
+		System.out.println("Writing metrics to " + file + " every " + TimeFormatter.format(intervalMs*1000000L, 0));
+	}
+
+	/** stops the periodic exports, and writes the final values */
+	public static synchronized void stopExport() {
+		if (exporter == null) {
+			return;
+		}
+		exporter.shutdownNow();
+		try {
+			exporter.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		exporter = null;
+		write(exportFile, exportFormat);
+		exportFile = null;
+		exportFormat = null;
+	}
+}
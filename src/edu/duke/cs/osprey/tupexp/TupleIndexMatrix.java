@@ -8,6 +8,7 @@ import java.util.ArrayList;
 
 import edu.duke.cs.osprey.confspace.HigherTupleFinder;
 import edu.duke.cs.osprey.confspace.TupleMatrixGeneric;
+import edu.duke.cs.osprey.tools.IntList;
 
 /**
  *
@@ -60,9 +61,10 @@ public class TupleIndexMatrix extends TupleMatrixGeneric<Integer> {
     void calcHigherOrderTuples(ArrayList<Integer> sampleTuples, int sample[], int maxPos, HigherTupleFinder<Integer> htf){
         //Look for higher-order tuples that are interactions of htf with positions <maxPos in sample.
         //Add these tuple's indices to sampleTuples
-        ArrayList<Integer> interactingPos = htf.getInteractingPos();
+        IntList interactingPos = htf.getInteractingPos();
         
-        for(int ipos : interactingPos){
+        for(int i=0; i<interactingPos.size(); i++){
+            int ipos = interactingPos.getInt(i);
             
             if(ipos<maxPos){
                 int iTupIndex = htf.getInteraction(ipos, sample[ipos]);
@@ -71,7 +73,7 @@ public class TupleIndexMatrix extends TupleMatrixGeneric<Integer> {
                     sampleTuples.add(iTupIndex);
                 
                 //see if we need to go to even higher order
-                HigherTupleFinder htf2 = htf.getHigherInteractions(ipos, sample[ipos]);
+                HigherTupleFinder<Integer> htf2 = htf.getHigherInteractions(ipos, sample[ipos]);
                 if(htf2!=null){
                     calcHigherOrderTuples(sampleTuples, sample, ipos, htf2);
                 }
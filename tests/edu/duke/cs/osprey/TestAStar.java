@@ -3,12 +3,18 @@ package edu.duke.cs.osprey;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import edu.duke.cs.osprey.astar.ConfTree;
+import edu.duke.cs.osprey.astar.conf.ConfAStarQueue;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
 import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.astar.conf.SpillingConfAStarQueue;
 import edu.duke.cs.osprey.astar.conf.order.AStarOrder;
 import edu.duke.cs.osprey.astar.conf.order.DynamicHMeanAStarOrder;
 import edu.duke.cs.osprey.astar.conf.order.StaticScoreHMeanAStarOrder;
@@ -17,10 +23,12 @@ import edu.duke.cs.osprey.astar.conf.scoring.MPLPPairwiseHScorer;
 import edu.duke.cs.osprey.astar.conf.scoring.PairwiseGScorer;
 import edu.duke.cs.osprey.astar.conf.scoring.TraditionalPairwiseHScorer;
 import edu.duke.cs.osprey.astar.conf.scoring.mplp.EdgeUpdater;
+import edu.duke.cs.osprey.astar.conf.scoring.mplp.MessageVarsCache;
 import edu.duke.cs.osprey.astar.conf.scoring.mplp.NodeUpdater;
 import edu.duke.cs.osprey.confspace.ConfSearch;
 import edu.duke.cs.osprey.confspace.SearchProblem;
 import edu.duke.cs.osprey.ematrix.EnergyMatrix;
+import edu.duke.cs.osprey.parallelism.Parallelism;
 
 public class TestAStar extends TestBase {
 	
@@ -193,6 +201,48 @@ public class TestAStar extends TestBase {
 		return search;
 	}
 	
+	@Test
+	public void testDagkRigidStaticScoreOrderMPLPEdge5IterCached() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		AStarOrder order = new StaticScoreHMeanAStarOrder();
+		MessageVarsCache cache = new MessageVarsCache(1000);
+		AStarScorer hscorer = new MPLPPairwiseHScorer(new EdgeUpdater(), search.emat, 5, 0.0001, cache);
+		ConfAStarTree tree = new ConfAStarTree(order, new PairwiseGScorer(search.emat), hscorer, rcs);
+		
+		checkDagkRigid(tree, search);
+		
+		// children of expanded nodes should warm-start from the cached parent messages
+		assertThat(cache.getNumHits(), greaterThan(0L));
+	}
+	
+	@Test
+	public void testDagkRigidMPLPCachesRoot() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		MessageVarsCache cache = new MessageVarsCache(1000);
+		AStarScorer hscorer = new MPLPPairwiseHScorer(new EdgeUpdater(), search.emat, 5, 0.0001, cache);
+		ConfAStarTree tree = new ConfAStarTree(new StaticScoreHMeanAStarOrder(), new PairwiseGScorer(search.emat), hscorer, rcs);
+		
+		// the first expansion is the root, so its children can only warm-start if the root's messages were kept
+		tree.nextConf();
+		assertThat(cache.getNumMisses(), is(0L));
+		assertThat(cache.getNumHits(), greaterThan(0L));
+	}
+	
+	@Test
+	public void testDagkRigidMPLPWarmStartMatchesTraditional() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		ConfAStarTree tradTree = new ConfAStarTree(new StaticScoreHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+		ConfAStarTree mplpTree = new ConfAStarTree(new StaticScoreHMeanAStarOrder(), new PairwiseGScorer(search.emat), new MPLPPairwiseHScorer(new EdgeUpdater(), search.emat, 5, 0.0001, new MessageVarsCache(1000)), rcs);
+		
+		checkSameScores(tradTree, mplpTree, 100);
+	}
+	
 	@Test
 	public void testDagkRigidConfTreePruned() {
 		SearchProblem search = makePrunedSearchProblemDagkRigid();
@@ -428,4 +478,220 @@ public class TestAStar extends TestBase {
 		
 		checkDagkContinuous(tree, search);
 	}
+	
+	
+	// QUEUE TESTS
+	
+	@Test
+	public void testDagkRigidCompactQueue() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		AStarOrder order = new DynamicHMeanAStarOrder();
+		AStarScorer hscorer = new TraditionalPairwiseHScorer(search.emat, rcs);
+		ConfAStarTree tree = new ConfAStarTree(order, new PairwiseGScorer(search.emat), hscorer, rcs);
+		tree.setQueueType(ConfAStarQueue.Type.Compact);
+		
+		checkDagkRigid(tree, search);
+	}
+	
+	@Test
+	public void testDagkRigidInfCompactQueue() {
+		SearchProblem search = makeSearchProblemDagkRigidInf();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		AStarOrder order = new StaticScoreHMeanAStarOrder();
+		AStarScorer hscorer = new MPLPPairwiseHScorer(new NodeUpdater(), search.emat, 1, 0.0001);
+		ConfAStarTree tree = new ConfAStarTree(order, new PairwiseGScorer(search.emat), hscorer, rcs);
+		tree.setQueueType(ConfAStarQueue.Type.Compact);
+		
+		checkDagkRigidInf(tree, search);
+	}
+	
+	@Test
+	public void testDagkRigidPrunedCompactQueue() {
+		SearchProblem search = makePrunedSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		AStarOrder order = new DynamicHMeanAStarOrder();
+		AStarScorer hscorer = new TraditionalPairwiseHScorer(search.emat, rcs);
+		ConfAStarTree tree = new ConfAStarTree(order, new PairwiseGScorer(search.emat), hscorer, rcs);
+		tree.setQueueType(ConfAStarQueue.Type.Compact);
+		
+		checkDagkRigid(tree, search);
+	}
+	
+	@Test
+	public void testDagkRigidCompactQueueMatchesObjectQueue() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		ConfAStarTree objectTree = new ConfAStarTree(new DynamicHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+		ConfAStarTree compactTree = new ConfAStarTree(new DynamicHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+		compactTree.setQueueType(ConfAStarQueue.Type.Compact);
+		
+		checkSameScores(objectTree, compactTree, 1000);
+	}
+	
+	@Test
+	public void testDagkRigidSpillingQueue() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		AStarOrder order = new DynamicHMeanAStarOrder();
+		AStarScorer hscorer = new TraditionalPairwiseHScorer(search.emat, rcs);
+		ConfAStarTree tree = new ConfAStarTree(order, new PairwiseGScorer(search.emat), hscorer, rcs);
+		tree.setQueue(new SpillingConfAStarQueue(rcs.getNumPos(), 16, null));
+		
+		checkDagkRigid(tree, search);
+		tree.cleanup();
+	}
+	
+	@Test
+	public void testDagkRigidSpillingQueueMatchesObjectQueue() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		ConfAStarTree objectTree = new ConfAStarTree(new DynamicHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+		ConfAStarTree spillingTree = new ConfAStarTree(new DynamicHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+		SpillingConfAStarQueue queue = new SpillingConfAStarQueue(rcs.getNumPos(), 64, null);
+		spillingTree.setQueue(queue);
+		
+		checkSameScores(objectTree, spillingTree, 1000);
+		assertThat(queue.getNumSpilledNodes(), greaterThan(0L));
+		queue.clear();
+	}
+	
+	@Test
+	public void testDagkRigidSpillingQueueMergesRuns()
+	throws IOException {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		File dir = Files.createTempDirectory("astar-spill-test").toFile();
+		try {
+			
+			RCs rcs = new RCs(search.pruneMat);
+			ConfAStarTree objectTree = new ConfAStarTree(new DynamicHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+			ConfAStarTree spillingTree = new ConfAStarTree(new DynamicHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+			
+			// spill very often, so there are way more spills than MaxNumRuns
+			SpillingConfAStarQueue queue = new SpillingConfAStarQueue(rcs.getNumPos(), 4, dir);
+			spillingTree.setQueue(queue);
+			
+			checkSameScores(objectTree, spillingTree, 1000);
+			assertThat(queue.getNumSpilledNodes(), greaterThan(0L));
+			assertThat(queue.getNumRuns(), lessThanOrEqualTo(SpillingConfAStarQueue.MaxNumRuns));
+			assertThat(dir.list().length, is(queue.getNumRuns()));
+			
+			queue.clear();
+			assertThat(dir.list().length, is(0));
+			
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+	
+	
+	@Test
+	public void testDagkRigidSpillingQueueCleanup()
+	throws IOException {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		File dir = Files.createTempDirectory("astar-spill-test").toFile();
+		try {
+			
+			RCs rcs = new RCs(search.pruneMat);
+			ConfAStarTree tree = new ConfAStarTree(new DynamicHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+			tree.setQueue(new SpillingConfAStarQueue(rcs.getNumPos(), 4, dir));
+			
+			// stop early, like a search that reached its energy window, while runs are still on disk
+			for (int i=0; i<10; i++) {
+				assertThat(tree.nextConf(), is(not(nullValue())));
+			}
+			assertThat(dir.list().length, greaterThan(0));
+			
+			tree.cleanup();
+			assertThat(dir.list().length, is(0));
+			
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+	
+	
+	// BATCHED EXPANSION TESTS
+	
+	@Test
+	public void testDagkRigidBatchedExpansion() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		AStarOrder order = new DynamicHMeanAStarOrder();
+		AStarScorer hscorer = new TraditionalPairwiseHScorer(search.emat, rcs);
+		ConfAStarTree tree = new ConfAStarTree(order, new PairwiseGScorer(search.emat), hscorer, rcs);
+		tree.setParallelism(Parallelism.makeCpu(4));
+		tree.setExpansionBatchSize(8);
+		
+		checkDagkRigid(tree, search);
+	}
+	
+	@Test
+	public void testDagkRigidInfBatchedExpansionMPLP() {
+		SearchProblem search = makeSearchProblemDagkRigidInf();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		AStarOrder order = new StaticScoreHMeanAStarOrder();
+		AStarScorer hscorer = new MPLPPairwiseHScorer(new EdgeUpdater(), search.emat, 1, 0.0001);
+		ConfAStarTree tree = new ConfAStarTree(order, new PairwiseGScorer(search.emat), hscorer, rcs);
+		tree.setParallelism(Parallelism.makeCpu(4));
+		tree.setExpansionBatchSize(8);
+		
+		checkDagkRigidInf(tree, search);
+	}
+	
+	@Test
+	public void testDagkRigidBatchedExpansionWorkStealing() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		AStarOrder order = new DynamicHMeanAStarOrder();
+		AStarScorer hscorer = new TraditionalPairwiseHScorer(search.emat, rcs);
+		ConfAStarTree tree = new ConfAStarTree(order, new PairwiseGScorer(search.emat), hscorer, rcs);
+		tree.setParallelism(Parallelism.makeCpu(4, Parallelism.TaskExecutorType.WorkStealing));
+		tree.setExpansionBatchSize(8);
+		
+		checkDagkRigid(tree, search);
+	}
+	
+	@Test
+	public void testDagkRigidBatchedExpansionMatchesSerial() {
+		SearchProblem search = makeSearchProblemDagkRigid();
+		
+		RCs rcs = new RCs(search.pruneMat);
+		ConfAStarTree serialTree = new ConfAStarTree(new DynamicHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+		ConfAStarTree batchedTree = new ConfAStarTree(new DynamicHMeanAStarOrder(), new PairwiseGScorer(search.emat), new TraditionalPairwiseHScorer(search.emat, rcs), rcs);
+		batchedTree.setParallelism(Parallelism.makeCpu(4));
+		batchedTree.setExpansionBatchSize(16);
+		batchedTree.setQueueType(ConfAStarQueue.Type.Compact);
+		
+		checkSameScores(serialTree, batchedTree, 1000);
+	}
+	
+	private void checkSameScores(ConfSearch expectedTree, ConfSearch observedTree, int numConfs) {
+		for (int i=0; i<numConfs; i++) {
+			ConfSearch.ScoredConf expectedConf = expectedTree.nextConf();
+			ConfSearch.ScoredConf observedConf = observedTree.nextConf();
+			if (expectedConf == null) {
+				assertThat(observedConf, is(nullValue()));
+				break;
+			}
+			assertThat(observedConf.getScore(), isRelatively(expectedConf.getScore()));
+		}
+	}
 }
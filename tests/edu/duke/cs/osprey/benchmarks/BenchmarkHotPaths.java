@@ -0,0 +1,286 @@
+package edu.duke.cs.osprey.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
+import edu.duke.cs.osprey.astar.conf.RCs;
+import edu.duke.cs.osprey.astar.conf.order.DynamicHMeanAStarOrder;
+import edu.duke.cs.osprey.astar.conf.order.StaticScoreHMeanAStarOrder;
+import edu.duke.cs.osprey.astar.conf.scoring.MPLPPairwiseHScorer;
+import edu.duke.cs.osprey.astar.conf.scoring.NaiveTraditionalPairwiseHScorer;
+import edu.duke.cs.osprey.astar.conf.scoring.PairwiseGScorer;
+import edu.duke.cs.osprey.astar.conf.scoring.TraditionalPairwiseHScorer;
+import edu.duke.cs.osprey.astar.conf.scoring.mplp.EdgeUpdater;
+import edu.duke.cs.osprey.astar.conf.scoring.mplp.NodeUpdater;
+import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
+import edu.duke.cs.osprey.confspace.ParameterizedMoleculeCopy;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.dof.deeper.DEEPerSettings;
+import edu.duke.cs.osprey.ematrix.SimpleEnergyMatrixCalculator;
+import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
+import edu.duke.cs.osprey.energy.ForcefieldInteractionsGenerator;
+import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
+import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.gpu.BufferTools;
+import edu.duke.cs.osprey.minimization.MoleculeModifierAndScorer;
+import edu.duke.cs.osprey.minimization.ObjectiveFunction;
+import edu.duke.cs.osprey.minimization.SimpleCCDMinimizer;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+import edu.duke.cs.osprey.tupexp.LUTESettings;
+
+/**
+ * Microbenchmarks for the core hot paths, on a fixed design so scores are comparable between commits
+ *
+ * usage: BenchmarkHotPaths [-o results.tsv] [-b baseline.tsv] [benchmark name prefixes...]
+ *
+ * Save the results from one commit with -o, then compare another commit against them with -b.
+ * Benchmarks share one JVM, so for the most stable numbers, run one benchmark (or group) at a time.
+ */
+public class BenchmarkHotPaths extends TestBase {
+
+	private static final int NumConfs = 256;
+
+	private static SearchProblem search;
+	private static ForcefieldParams ffparams;
+	private static List<ScoredConf> confs;
+
+	public static void main(String[] args) {
+
+		File outFile = null;
+		File baselineFile = null;
+		List<String> prefixes = new ArrayList<>();
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("-o")) {
+				outFile = new File(args[++i]);
+			} else if (args[i].equals("-b")) {
+				baselineFile = new File(args[++i]);
+			} else {
+				prefixes.add(args[i]);
+			}
+		}
+
+		makeFixture();
+
+		Microbenchmark bench = new Microbenchmark();
+		System.out.println("\nBenchmarking...");
+
+		run(bench, prefixes, "forcefield.getEnergy", BenchmarkHotPaths::benchmarkForcefield);
+		run(bench, prefixes, "minimize.simpleCCD", BenchmarkHotPaths::benchmarkMinimize);
+		run(bench, prefixes, "astar.traditional", () -> benchmarkAStar(() -> new ConfAStarTree(
+			new DynamicHMeanAStarOrder(),
+			new PairwiseGScorer(search.emat),
+			new TraditionalPairwiseHScorer(search.emat, new RCs(search.pruneMat)),
+			new RCs(search.pruneMat)
+		)));
+		run(bench, prefixes, "astar.naiveTraditional", () -> benchmarkAStar(() -> new ConfAStarTree(
+			new DynamicHMeanAStarOrder(),
+			new PairwiseGScorer(search.emat),
+			new NaiveTraditionalPairwiseHScorer(search.emat),
+			new RCs(search.pruneMat)
+		)));
+		run(bench, prefixes, "astar.mplpNode", () -> benchmarkAStar(() -> new ConfAStarTree(
+			new StaticScoreHMeanAStarOrder(),
+			new PairwiseGScorer(search.emat),
+			new MPLPPairwiseHScorer(new NodeUpdater(), search.emat, 1, 0.0001),
+			new RCs(search.pruneMat)
+		)));
+		run(bench, prefixes, "astar.mplpEdge", () -> benchmarkAStar(() -> new ConfAStarTree(
+			new StaticScoreHMeanAStarOrder(),
+			new PairwiseGScorer(search.emat),
+			new MPLPPairwiseHScorer(new EdgeUpdater(), search.emat, 1, 0.0001),
+			new RCs(search.pruneMat)
+		)));
+		run(bench, prefixes, "pruningMatrix.lookups", BenchmarkHotPaths::benchmarkPruningMatrix);
+		run(bench, prefixes, "energyMatrix.confE", BenchmarkHotPaths::benchmarkConfE);
+
+		// keep the JIT compiler honest
+		if (Double.isNaN(bench.getSink())) {
+			System.out.println("(sink is NaN)");
+		}
+
+		if (outFile != null) {
+			bench.write(outFile);
+			System.out.println("\nWrote results to " + outFile);
+		}
+		if (baselineFile != null) {
+			bench.compare(Microbenchmark.read(baselineFile));
+		}
+	}
+
+	private static void run(Microbenchmark bench, List<String> prefixes, String name, Supplier<Microbenchmark.Op> factory) {
+		if (!prefixes.isEmpty() && prefixes.stream().noneMatch((prefix) -> name.startsWith(prefix))) {
+			return;
+		}
+		bench.run(name, factory.get());
+	}
+
+	private static void makeFixture() {
+
+		initDefaultEnvironment();
+
+		// for these small problems, more than one thread is actually slower
+		MultiTermEnergyFunction.setNumThreads(1);
+
+		System.out.println("Building fixture...");
+
+		// NOTE: don't change the design, or scores won't be comparable to older results anymore
+		ResidueFlexibility resFlex = new ResidueFlexibility();
+		resFlex.addMutable("39 43", "ALA");
+		resFlex.addFlexible("40 41 42 44 45");
+		boolean doMinimize = true;
+		boolean addWt = false;
+		boolean useEpic = false;
+		boolean useTupleExpansion = false;
+		boolean useEllipses = false;
+		boolean useERef = false;
+		boolean addResEntropy = false;
+		boolean addWtRots = false;
+		ArrayList<String[]> moveableStrands = new ArrayList<String[]>();
+		ArrayList<String[]> freeBBZones = new ArrayList<String[]>();
+		search = new SearchProblem(
+			"test", "test/1CC8/1CC8.ss.pdb",
+			resFlex.flexResList, resFlex.allowedAAs, addWt, doMinimize, useEpic, new EPICSettings(), useTupleExpansion, new LUTESettings(),
+			new DEEPerSettings(), moveableStrands, freeBBZones, useEllipses, useERef, addResEntropy, addWtRots, null,
+			false, new ArrayList<>()
+		);
+		ffparams = makeDefaultFFParams();
+
+		SimpleEnergyMatrixCalculator ematcalc = new SimpleEnergyMatrixCalculator.Cpu(2, ffparams, search.confSpace, search.shellResidues);
+		search.emat = ematcalc.calcEnergyMatrix();
+		ematcalc.cleanup();
+
+		// prune a fixed random-looking set of pairs, so the pruning matrix lookups have something to find
+		search.pruneMat = new PruningMatrix(search.confSpace, 0);
+		Random rand = new Random(12345);
+		for (int pos1=0; pos1<search.pruneMat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<search.pruneMat.getNumConfAtPos(pos1); rc1++) {
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<search.pruneMat.getNumConfAtPos(pos2); rc2++) {
+						search.pruneMat.setPairwise(pos1, rc1, pos2, rc2, rand.nextInt(10) == 0);
+					}
+				}
+			}
+		}
+
+		// get the lowest confs from an unpruned tree, so they don't depend on the pruning
+		PruningMatrix noPruning = new PruningMatrix(search.confSpace, 0);
+		ConfAStarTree tree = new ConfAStarTree(
+			new StaticScoreHMeanAStarOrder(),
+			new PairwiseGScorer(search.emat),
+			new MPLPPairwiseHScorer(new NodeUpdater(), search.emat, 1, 0.0001),
+			new RCs(noPruning)
+		);
+		confs = new ArrayList<>();
+		for (int i=0; i<NumConfs; i++) {
+			confs.add(tree.nextConf());
+		}
+		System.out.println("GMEC: " + Arrays.toString(confs.get(0).getAssignments()));
+	}
+
+	private static Microbenchmark.Op benchmarkForcefield() {
+
+		ParameterizedMoleculeCopy pmol = new ParameterizedMoleculeCopy(search.confSpace);
+		BigForcefieldEnergy efunc = new BigForcefieldEnergy(
+			ffparams,
+			new ForcefieldInteractionsGenerator().makeFullConf(search.confSpace, search.shellResidues, pmol.getCopiedMolecule()),
+			BufferTools.Type.Normal
+		);
+
+		// put the molecule in the GMEC, at the center of its voxel
+		MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(efunc, search.confSpace, new RCTuple(confs.get(0).getAssignments()), pmol);
+		ObjectiveFunction.DofBounds bounds = new ObjectiveFunction.DofBounds(mof.getConstraints());
+		DoubleMatrix1D x = DoubleFactory1D.dense.make(bounds.size());
+		bounds.getCenter(x);
+		mof.setDOFs(x);
+
+		return () -> efunc.getEnergy();
+	}
+
+	private static Microbenchmark.Op benchmarkMinimize() {
+
+		ParameterizedMoleculeCopy pmol = new ParameterizedMoleculeCopy(search.confSpace);
+		BigForcefieldEnergy efunc = new BigForcefieldEnergy(
+			ffparams,
+			new ForcefieldInteractionsGenerator().makeFullConf(search.confSpace, search.shellResidues, pmol.getCopiedMolecule()),
+			BufferTools.Type.Normal
+		);
+		RCTuple tuple = new RCTuple(confs.get(0).getAssignments());
+
+		// minimize the GMEC from the center of its voxel every time
+		return () -> {
+			MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(efunc, search.confSpace, tuple, pmol);
+			return new SimpleCCDMinimizer(mof).minimize().energy;
+		};
+	}
+
+	private static Microbenchmark.Op benchmarkAStar(Supplier<ConfAStarTree> trees) {
+
+		// enumerate the lowest confs from a fresh tree
+		return () -> {
+			ConfAStarTree tree = trees.get();
+			double sum = 0;
+			for (int i=0; i<NumConfs; i++) {
+				ScoredConf conf = tree.nextConf();
+				if (conf == null) {
+					break;
+				}
+				sum += conf.getScore();
+			}
+			return sum;
+		};
+	}
+
+	private static Microbenchmark.Op benchmarkPruningMatrix() {
+
+		PruningMatrix pmat = search.pruneMat;
+		List<RCTuple> tuples = new ArrayList<>();
+		for (ScoredConf conf : confs) {
+			tuples.add(new RCTuple(conf.getAssignments()));
+		}
+
+		// check every pair in the matrix, and then every conf
+		return () -> {
+			int count = 0;
+			for (int pos1=0; pos1<pmat.getNumPos(); pos1++) {
+				for (int rc1=0; rc1<pmat.getNumConfAtPos(pos1); rc1++) {
+					if (pmat.getOneBody(pos1, rc1)) {
+						count++;
+					}
+					for (int pos2=0; pos2<pos1; pos2++) {
+						for (int rc2=0; rc2<pmat.getNumConfAtPos(pos2); rc2++) {
+							if (pmat.getPairwise(pos1, rc1, pos2, rc2)) {
+								count++;
+							}
+						}
+					}
+				}
+			}
+			for (RCTuple tuple : tuples) {
+				if (pmat.isPruned(tuple)) {
+					count++;
+				}
+			}
+			return count;
+		};
+	}
+
+	private static Microbenchmark.Op benchmarkConfE() {
+		return () -> {
+			double sum = 0;
+			for (ScoredConf conf : confs) {
+				sum += search.emat.confE(conf.getAssignments());
+			}
+			return sum;
+		};
+	}
+}
@@ -0,0 +1,158 @@
+package edu.duke.cs.osprey.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.distribution.TDistribution;
+
+/**
+ * Tiny microbenchmark harness, in the spirit of JMH's average time mode
+ *
+ * Each benchmark runs for some warmup iterations (so the JIT compiler can settle down),
+ * then some measured iterations of a fixed length. Each iteration calls the op as many times as it can,
+ * and the score is the mean time per op over the measured iterations, with a 99.9% confidence interval.
+ * Ops return a value that gets folded into a sink, so the JIT compiler can't throw the work away.
+ *
+ * Results can be saved as tab-separated text and compared against a saved baseline,
+ * so runs from different commits can be compared.
+ */
+public class Microbenchmark {
+
+	public static interface Op {
+		double run();
+	}
+
+	public static class Result {
+
+		public final String name;
+		public final double usPerOp;
+		public final double errorUsPerOp;
+
+		public Result(String name, double usPerOp, double errorUsPerOp) {
+			this.name = name;
+			this.usPerOp = usPerOp;
+			this.errorUsPerOp = errorUsPerOp;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-40s %14.3f +- %10.3f us/op", name, usPerOp, errorUsPerOp);
+		}
+	}
+
+	public int numWarmupIterations = 5;
+	public int numIterations = 10;
+	public long iterationTimeMs = 500;
+
+	private final List<Result> results = new ArrayList<>();
+	private double sink = 0;
+
+	public Result run(String name, Op op) {
+
+		System.out.print(String.format("%-40s ", name));
+
+		for (int i=0; i<numWarmupIterations; i++) {
+			runIteration(op);
+		}
+
+		double[] usPerOp = new double[numIterations];
+		for (int i=0; i<numIterations; i++) {
+			usPerOp[i] = runIteration(op);
+		}
+
+		// get the mean and the 99.9% confidence interval
+		double mean = 0;
+		for (double x : usPerOp) {
+			mean += x;
+		}
+		mean /= numIterations;
+		double error = Double.NaN;
+		if (numIterations > 1) {
+			double var = 0;
+			for (double x : usPerOp) {
+				var += (x - mean)*(x - mean);
+			}
+			var /= numIterations - 1;
+			double t = new TDistribution(numIterations - 1).inverseCumulativeProbability(0.9995);
+			error = t*Math.sqrt(var/numIterations);
+		}
+
+		Result result = new Result(name, mean, error);
+		results.add(result);
+		System.out.println(String.format("%14.3f +- %10.3f us/op", result.usPerOp, result.errorUsPerOp));
+		return result;
+	}
+
+	private double runIteration(Op op) {
+		long stopNs = System.nanoTime() + iterationTimeMs*1000000;
+		long numOps = 0;
+		long startNs = System.nanoTime();
+		long nowNs;
+		do {
+			sink += op.run();
+			numOps++;
+			nowNs = System.nanoTime();
+		} while (nowNs < stopNs);
+		return (nowNs - startNs)/1000.0/numOps;
+	}
+
+	/** returns the sum of everything the ops returned, so the JIT compiler can't prove it's unused */
+	public double getSink() {
+		return sink;
+	}
+
+	public List<Result> getResults() {
+		return results;
+	}
+
+	public void write(File file) {
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			out.println("benchmark\tus/op\terror");
+			for (Result result : results) {
+				out.println(result.name + "\t" + result.usPerOp + "\t" + result.errorUsPerOp);
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't write benchmark results to " + file, ex);
+		}
+	}
+
+	public static Map<String,Result> read(File file) {
+		Map<String,Result> results = new LinkedHashMap<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			in.readLine(); // skip the header
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] parts = line.split("\t");
+				results.put(parts[0], new Result(parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2])));
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("ERROR: can't read benchmark results from " + file, ex);
+		}
+		return results;
+	}
+
+	/** prints how each result changed from the baseline, ignoring changes within the error bars */
+	public void compare(Map<String,Result> baseline) {
+		System.out.println("\nChanges from baseline:");
+		for (Result result : results) {
+			Result base = baseline.get(result.name);
+			if (base == null) {
+				System.out.println(String.format("%-40s (not in baseline)", result.name));
+				continue;
+			}
+			double change = (result.usPerOp - base.usPerOp)/base.usPerOp;
+			boolean isSignificant = Math.abs(result.usPerOp - base.usPerOp) > result.errorUsPerOp + base.errorUsPerOp;
+			System.out.println(String.format("%-40s %14.3f -> %14.3f us/op  %+7.1f%%%s",
+				result.name, base.usPerOp, result.usPerOp, change*100, isSignificant ? "" : "  (within error)"
+			));
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package edu.duke.cs.osprey.confspace;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.tools.IntList;
+
+public class TestHigherTupleFinder {
+
+	@Test
+	public void sameTupleBigNumbers() {
+
+		// Integer caching only covers small numbers, so make sure we compare values, not boxes
+		RCTuple a = new RCTuple(500, 1000, 700, 2000);
+		RCTuple b = new RCTuple(500, 1000, 700, 2000);
+		RCTuple c = new RCTuple(500, 1000, 700, 2001);
+
+		assertThat(a.isSameTuple(b), is(true));
+		assertThat(a.isSameTuple(c), is(false));
+	}
+
+	@Test
+	public void addAndSubtract() {
+
+		RCTuple tup = new RCTuple(new int[] { 3, -1, 5, 7 });
+		assertThat(tup.pos, contains(0, 2, 3));
+		assertThat(tup.RCs, contains(3, 5, 7));
+
+		RCTuple bigger = tup.addRC(4, 9);
+		assertThat(bigger.pos, contains(0, 2, 3, 4));
+		assertThat(bigger.RCs, contains(3, 5, 7, 9));
+		assertThat(tup.size(), is(3));
+
+		RCTuple smaller = bigger.subtractMember(1);
+		assertThat(smaller.pos, contains(0, 3, 4));
+		assertThat(smaller.RCs, contains(3, 7, 9));
+
+		// other list types get copied
+		RCTuple fromLists = new RCTuple(new ArrayList<>(Arrays.asList(1, 2)), new ArrayList<>(Arrays.asList(3, 4)));
+		assertThat(fromLists.isSameTuple(new RCTuple(1, 3, 2, 4)), is(true));
+	}
+
+	@Test
+	public void intList() {
+
+		IntList list = new IntList(1);
+		for (int i=0; i<100; i++) {
+			list.addInt(i*10);
+		}
+		assertThat(list.size(), is(100));
+		assertThat(list.getInt(42), is(420));
+		assertThat(list.indexOfInt(990), is(99));
+		assertThat(list.containsInt(5), is(false));
+
+		list.addInt(0, -1);
+		assertThat(list.getInt(0), is(-1));
+		assertThat(list.getInt(1), is(0));
+		assertThat(list.removeInt(0), is(-1));
+
+		// should be interchangeable with other lists
+		ArrayList<Integer> copy = new ArrayList<>(list);
+		assertThat(list.equals(copy), is(true));
+		assertThat(copy.equals(list), is(true));
+		assertThat(list.hashCode(), is(copy.hashCode()));
+	}
+
+	@Test(expected=ConcurrentModificationException.class)
+	public void intListAppendIsFailFast() {
+
+		IntList list = new IntList(1);
+		list.addInt(1);
+		list.addInt(2);
+		for (int val : list) {
+			list.addInt(val);
+		}
+	}
+
+	@Test
+	public void getAndSet() {
+
+		HigherTupleFinder<Double> htf = new HigherTupleFinder<>(0.0);
+		assertThat(htf.getInteraction(2, 3), is(0.0));
+		assertThat(htf.getHigherInteractions(2, 3), is(nullValue()));
+		assertThat(htf.getInteractingPos().isEmpty(), is(true));
+
+		// enough RCs to make the table grow a few times
+		for (int rc=0; rc<200; rc++) {
+			htf.setInteraction(new RCTuple(2, rc), rc + 0.5);
+		}
+		htf.setInteraction(new RCTuple(5, 1), 7.0);
+
+		for (int rc=0; rc<200; rc++) {
+			assertThat(htf.getInteraction(2, rc), is(rc + 0.5));
+		}
+		assertThat(htf.getInteraction(5, 1), is(7.0));
+		assertThat(htf.getInteraction(5, 2), is(0.0));
+		assertThat(htf.getInteraction(4, 1), is(0.0));
+		assertThat(htf.getInteractingPos(), contains(2, 5));
+
+		// overwrite
+		htf.setInteraction(new RCTuple(2, 150), -1.0);
+		assertThat(htf.getInteraction(2, 150), is(-1.0));
+	}
+
+	@Test
+	public void higherOrder() {
+
+		HigherTupleFinder<Double> htf = new HigherTupleFinder<>(0.0);
+		htf.setInteraction(new RCTuple(1, 4, 3, 6), 2.0);
+
+		// the pair doesn't have a direct interaction, but each member leads to the other
+		assertThat(htf.getInteraction(1, 4), is(0.0));
+		assertThat(htf.getHigherInteractions(1, 4).getInteraction(3, 6), is(2.0));
+		assertThat(htf.getHigherInteractions(3, 6).getInteraction(1, 4), is(2.0));
+		assertThat(htf.getHigherInteractions(1, 5), is(nullValue()));
+	}
+
+	@Test
+	public void listInteractions() {
+
+		HigherTupleFinder<Boolean> htf = new HigherTupleFinder<>(false);
+		htf.setInteraction(new RCTuple(4, 9), true);
+		htf.setInteraction(new RCTuple(4, 2), true);
+		htf.setInteraction(new RCTuple(4, 5), false);
+		htf.setInteraction(new RCTuple(1, 3, 2, 8), true);
+
+		ArrayList<RCTuple> tups = htf.listInteractionsWithValue(true);
+		assertThat(tups.size(), is(3));
+
+		// singles come out in RC order
+		assertThat(tups.get(0).isSameTuple(new RCTuple(4, 2)), is(true));
+		assertThat(tups.get(1).isSameTuple(new RCTuple(4, 9)), is(true));
+
+		// pairs only once, in descending position order
+		assertThat(tups.get(2).pos, contains(1, 2));
+		assertThat(tups.get(2).RCs, contains(3, 8));
+	}
+}
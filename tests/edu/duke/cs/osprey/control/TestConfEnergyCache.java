@@ -0,0 +1,410 @@
+package edu.duke.cs.osprey.control;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.ConfSearch.EnergiedConf;
+import edu.duke.cs.osprey.confspace.ConfSearch.MinimizedConf;
+import edu.duke.cs.osprey.confspace.ConfSearch.ScoredConf;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.dof.deeper.DEEPerSettings;
+import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
+import edu.duke.cs.osprey.energy.EnergySignature;
+import edu.duke.cs.osprey.energy.ForcefieldInteractionsGenerator;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.minimization.ConfMinimizer;
+import edu.duke.cs.osprey.minimization.CpuConfMinimizer;
+import edu.duke.cs.osprey.minimization.SimpleCCDMinimizer;
+import edu.duke.cs.osprey.parallelism.Parallelism;
+import edu.duke.cs.osprey.structure.Molecule;
+import edu.duke.cs.osprey.tools.Factory;
+import edu.duke.cs.osprey.tupexp.LUTESettings;
+
+public class TestConfEnergyCache extends TestBase {
+
+	private static SearchProblem search;
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+
+		ResidueFlexibility resFlex = new ResidueFlexibility();
+		resFlex.addFlexible("40 41");
+		boolean doMinimize = true;
+		boolean addWt = true;
+		boolean useEpic = false;
+		boolean useTupleExpansion = false;
+		boolean useEllipses = false;
+		boolean useERef = false;
+		boolean addResEntropy = false;
+		boolean addWtRots = false;
+		ArrayList<String[]> moveableStrands = new ArrayList<String[]>();
+		ArrayList<String[]> freeBBZones = new ArrayList<String[]>();
+
+		search = new SearchProblem(
+			"test", "test/1CC8/1CC8.ss.pdb",
+			resFlex.flexResList, resFlex.allowedAAs, addWt, doMinimize, useEpic, new EPICSettings(), useTupleExpansion, new LUTESettings(),
+			new DEEPerSettings(), moveableStrands, freeBBZones, useEllipses, useERef, addResEntropy, addWtRots, null,
+			false, new ArrayList<>()
+		);
+	}
+
+	private static File makeTempFile()
+	throws IOException {
+		File file = File.createTempFile("confEnergies", ".dat");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static byte[] makeSignature(int seed) {
+		byte[] signature = new byte[ConfEnergyCache.SignatureSize];
+		new Random(seed).nextBytes(signature);
+		return signature;
+	}
+
+	@Test
+	public void putGet()
+	throws Exception {
+
+		ConfEnergyCache cache = new ConfEnergyCache(makeTempFile(), 100);
+		byte[] sig1 = makeSignature(1);
+		byte[] sig2 = makeSignature(2);
+
+		assertThat(cache.get(sig1, new int[] { 0, 1 }), is(nullValue()));
+
+		cache.put(sig1, new int[] { 0, 1 }, -5.0, new double[] { 1, 2, 3 });
+		cache.put(sig2, new int[] { 0, 1 }, -7.0, null);
+
+		ConfEnergyCache.Entry entry = cache.get(sig1, new int[] { 0, 1 });
+		assertThat(entry.energy, is(-5.0));
+		assertThat(entry.dofValues, is(new double[] { 1, 2, 3 }));
+
+		// same assignments, different conf space
+		entry = cache.get(sig2, new int[] { 0, 1 });
+		assertThat(entry.energy, is(-7.0));
+		assertThat(entry.dofValues.length, is(0));
+
+		assertThat(cache.get(sig1, new int[] { 1, 0 }), is(nullValue()));
+		assertThat(cache.getNumHits(), is(2));
+		assertThat(cache.getNumMisses(), is(2));
+
+		cache.close();
+	}
+
+	@Test
+	public void reopen()
+	throws Exception {
+
+		File file = makeTempFile();
+		byte[] sig = makeSignature(1);
+
+		ConfEnergyCache cache = new ConfEnergyCache(file, 100);
+		for (int i=0; i<10; i++) {
+			cache.put(sig, new int[] { i, 2*i }, -i, new double[] { i });
+		}
+		cache.close();
+
+		cache = new ConfEnergyCache(file, 100);
+		assertThat(cache.size(), is(10));
+		for (int i=0; i<10; i++) {
+			ConfEnergyCache.Entry entry = cache.get(sig, new int[] { i, 2*i });
+			assertThat(entry.energy, is((double)-i));
+			assertThat(entry.dofValues, is(new double[] { i }));
+		}
+
+		// new entries go after the old ones
+		cache.put(sig, new int[] { 10, 20 }, -10, new double[] { 10 });
+		cache.close();
+
+		cache = new ConfEnergyCache(file, 100);
+		assertThat(cache.size(), is(11));
+		assertThat(cache.get(sig, new int[] { 10, 20 }).energy, is(-10.0));
+		cache.close();
+	}
+
+	@Test
+	public void truncatedRecord()
+	throws Exception {
+
+		File file = makeTempFile();
+		byte[] sig = makeSignature(1);
+
+		ConfEnergyCache cache = new ConfEnergyCache(file, 100);
+		cache.put(sig, new int[] { 0 }, -1, new double[] { 1 });
+		cache.put(sig, new int[] { 1 }, -2, new double[] { 2 });
+		cache.close();
+
+		// chop the last record in half, like a run that got killed while writing
+		// (each record here is a 32 byte signature, 3 ints, and 2 doubles)
+		long recordSize = 32 + 3*4 + 2*8;
+		long goodSize;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			goodSize = raf.length() - recordSize;
+			raf.setLength(raf.length() - recordSize/2);
+		}
+
+		cache = new ConfEnergyCache(file, 100);
+		assertThat(cache.size(), is(1));
+		assertThat(cache.get(sig, new int[] { 0 }).energy, is(-1.0));
+		assertThat(cache.get(sig, new int[] { 1 }), is(nullValue()));
+		assertThat(file.length(), is(goodSize));
+
+		// the log should still be readable after appending to it
+		cache.put(sig, new int[] { 1 }, -2, new double[] { 2 });
+		cache.close();
+
+		cache = new ConfEnergyCache(file, 100);
+		assertThat(cache.size(), is(2));
+		assertThat(cache.get(sig, new int[] { 1 }).energy, is(-2.0));
+		cache.close();
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed()
+	throws Exception {
+
+		File file = makeTempFile();
+		byte[] sig = makeSignature(1);
+
+		ConfEnergyCache cache = new ConfEnergyCache(file, 2);
+		cache.put(sig, new int[] { 0 }, -1, null);
+		cache.put(sig, new int[] { 1 }, -2, null);
+		cache.get(sig, new int[] { 0 });
+		cache.put(sig, new int[] { 2 }, -3, null);
+		assertThat(cache.size(), is(2));
+
+		// evicted entries are read back from the log
+		assertThat(cache.get(sig, new int[] { 1 }).energy, is(-2.0));
+		assertThat(cache.size(), is(2));
+		assertThat(cache.get(sig, new int[] { 0 }).energy, is(-1.0));
+		assertThat(cache.get(sig, new int[] { 2 }).energy, is(-3.0));
+		assertThat(cache.get(sig, new int[] { 3 }), is(nullValue()));
+		assertThat(cache.getNumHits(), is(4));
+		assertThat(cache.getNumMisses(), is(1));
+		cache.close();
+
+		// and everything is still in the log
+		cache = new ConfEnergyCache(file, 100);
+		assertThat(cache.size(), is(3));
+		cache.close();
+	}
+
+	@Test
+	public void reopenSmallerThanLog()
+	throws Exception {
+
+		File file = makeTempFile();
+		byte[] sig = makeSignature(1);
+
+		ConfEnergyCache cache = new ConfEnergyCache(file, 100);
+		for (int i=0; i<10; i++) {
+			cache.put(sig, new int[] { i }, -i, new double[] { i });
+		}
+		cache.close();
+
+		// only the last records fit in memory, but the older ones can still hit
+		cache = new ConfEnergyCache(file, 3);
+		assertThat(cache.size(), is(3));
+		for (int i=0; i<10; i++) {
+			ConfEnergyCache.Entry entry = cache.get(sig, new int[] { i });
+			assertThat(entry.energy, is((double)-i));
+			assertThat(entry.dofValues, is(new double[] { i }));
+		}
+		assertThat(cache.get(sig, new int[] { 10 }), is(nullValue()));
+		assertThat(cache.get(makeSignature(2), new int[] { 0 }), is(nullValue()));
+		assertThat(cache.getNumHits(), is(10));
+		assertThat(cache.getNumMisses(), is(2));
+		cache.close();
+	}
+
+	@Test
+	public void evictedEntriesAreLoggedOnce()
+	throws Exception {
+
+		File file = makeTempFile();
+		byte[] sig = makeSignature(1);
+
+		ConfEnergyCache cache = new ConfEnergyCache(file, 1);
+		cache.put(sig, new int[] { 0 }, -1, null);
+		cache.put(sig, new int[] { 1 }, -2, null);
+		long size = file.length();
+
+		// conf 0 was evicted, but it's already in the log
+		cache.put(sig, new int[] { 0 }, -1, null);
+		assertThat(cache.get(sig, new int[] { 0 }).energy, is(-1.0));
+		assertThat(file.length(), is(size));
+		cache.close();
+
+		// reopened caches don't append logged entries again either
+		cache = new ConfEnergyCache(file, 1);
+		cache.put(sig, new int[] { 0 }, -1, null);
+		cache.put(sig, new int[] { 1 }, -2, null);
+		assertThat(file.length(), is(size));
+		cache.close();
+	}
+
+	@Test
+	public void sharedCachesCloseOnLastUser()
+	throws Exception {
+
+		File file = makeTempFile();
+		byte[] sig = makeSignature(1);
+
+		ConfEnergyCache cache1 = ConfEnergyCache.open(file, 100);
+		ConfEnergyCache cache2 = ConfEnergyCache.open(file, 100);
+		assertThat(cache2, is(sameInstance(cache1)));
+
+		// still open for the other user
+		cache1.close();
+		cache2.put(sig, new int[] { 0 }, -1, null);
+		cache2.close();
+
+		// closed caches aren't shared anymore
+		ConfEnergyCache cache3 = ConfEnergyCache.open(file, 100);
+		assertThat(cache3, is(not(sameInstance(cache1))));
+		assertThat(cache3.get(sig, new int[] { 0 }).energy, is(-1.0));
+		cache3.close();
+	}
+
+	@Test
+	public void signatures() {
+
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		String minimizerSettings = "CPU forcefield=residues minimizer=SimpleCCDMinimizer";
+		byte[] sig = EnergySignature.make(search.confSpace, search.shellResidues, ffparams, minimizerSettings);
+		assertThat(sig.length, is(ConfEnergyCache.SignatureSize));
+		assertThat(EnergySignature.make(search.confSpace, search.shellResidues, makeDefaultFFParams(), minimizerSettings), is(sig));
+
+		// different forcefield settings should give different signatures
+		ffparams.doSolvationE = !ffparams.doSolvationE;
+		assertThat(EnergySignature.make(search.confSpace, search.shellResidues, ffparams, minimizerSettings), is(not(sig)));
+
+		// so should different shells
+		assertThat(EnergySignature.make(search.confSpace, new ArrayList<>(), makeDefaultFFParams(), minimizerSettings), is(not(sig)));
+
+		// and different minimizers
+		String lbfgsSettings = "CPU forcefield=BigForcefield/Vectorized minimizer=LBFGSMinimizer";
+		assertThat(EnergySignature.make(search.confSpace, search.shellResidues, makeDefaultFFParams(), lbfgsSettings), is(not(sig)));
+	}
+
+	@Test
+	public void minimizerSettings() {
+
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		ForcefieldInteractionsGenerator intergen = new ForcefieldInteractionsGenerator();
+		Factory<ForcefieldInteractions,Molecule> interactions = (mol) -> intergen.makeFullConf(search.confSpace, search.shellResidues, mol);
+
+		ConfMinimizer minimizer = new CpuConfMinimizer.Builder(ffparams, interactions, search.confSpace).build();
+		assertThat(minimizer.getSettings(), containsString(SimpleCCDMinimizer.class.getSimpleName()));
+		minimizer.cleanup();
+
+		// unknown minimizers can't be cached
+		minimizer = new CpuConfMinimizer.Builder(ffparams, interactions, search.confSpace)
+			.setMinimizers((mof) -> new SimpleCCDMinimizer(mof))
+			.build();
+		assertThat(minimizer.getSettings(), is(nullValue()));
+		minimizer.cleanup();
+	}
+
+	@Test
+	public void minimizingEnergyCalculator()
+	throws Exception {
+
+		File file = makeTempFile();
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		ScoredConf conf = new ScoredConf(new int[] { 0, 0 }, Double.NaN);
+
+		// minimize the conf the first time
+		ConfEnergyCache cache = new ConfEnergyCache(file, 100);
+		MinimizingEnergyCalculator ecalc = MinimizingEnergyCalculator.make(ffparams, search);
+		ecalc.setCache(cache, search.confSpace, search.shellResidues, ffparams);
+		EnergiedConf minimized = ecalc.calcEnergy(conf);
+		ecalc.cleanup();
+		cache.close();
+		assertThat(cache.getNumMisses(), is(1));
+		assertThat(cache.size(), is(1));
+
+		// then read it back from the log
+		cache = new ConfEnergyCache(file, 100);
+		ecalc = MinimizingEnergyCalculator.make(ffparams, search);
+		ecalc.setCache(cache, search.confSpace, search.shellResidues, ffparams);
+		EnergiedConf cached = ecalc.calcEnergy(conf);
+		ecalc.cleanup();
+		cache.close();
+		assertThat(cache.getNumHits(), is(1));
+		assertThat(cached.getEnergy(), is(minimized.getEnergy()));
+		assertThat(((MinimizedConf)cached).getDofValues(), is(((MinimizedConf)minimized).getDofValues()));
+	}
+
+	@Test
+	public void minimizingEnergyCalculatorAsyncHitsAndMisses()
+	throws Exception {
+		for (Parallelism.TaskExecutorType type : Parallelism.TaskExecutorType.values()) {
+			checkAsyncHitsAndMisses(Parallelism.makeCpu(4, type));
+		}
+	}
+
+	private void checkAsyncHitsAndMisses(Parallelism parallelism)
+	throws Exception {
+
+		File file = makeTempFile();
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		List<ScoredConf> confs = new ArrayList<>();
+		for (int i=0; i<4; i++) {
+			for (int j=0; j<4; j++) {
+				confs.add(new ScoredConf(new int[] { i, j }, Double.NaN));
+			}
+		}
+
+		ConfEnergyCache cache = new ConfEnergyCache(file, 100);
+		MinimizingEnergyCalculator ecalc = MinimizingEnergyCalculator.make(ffparams, search, parallelism);
+		ecalc.setCache(cache, search.confSpace, search.shellResidues, ffparams);
+
+		// cache every other conf, so the async calls mix hits and misses
+		for (int i=0; i<confs.size(); i+=2) {
+			ecalc.calcEnergy(confs.get(i));
+		}
+
+		// listeners shouldn't have to be thread-safe, even when some energies come from the cache
+		AtomicInteger numInListener = new AtomicInteger(0);
+		AtomicBoolean overlapped = new AtomicBoolean(false);
+		List<EnergiedConf> econfs = new ArrayList<>();
+		for (ScoredConf conf : confs) {
+			ecalc.calcEnergyAsync(conf, (econf) -> {
+				if (numInListener.incrementAndGet() > 1) {
+					overlapped.set(true);
+				}
+				econfs.add(econf);
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException ex) {
+					// don't care
+				}
+				numInListener.decrementAndGet();
+			});
+		}
+		ecalc.waitForFinish();
+		ecalc.cleanup();
+		cache.close();
+
+		assertThat(parallelism.taskExecutorType.name(), overlapped.get(), is(false));
+		assertThat(econfs.size(), is(confs.size()));
+		assertThat(cache.getNumHits(), is(confs.size()/2));
+		assertThat(cache.size(), is(confs.size()));
+	}
+}
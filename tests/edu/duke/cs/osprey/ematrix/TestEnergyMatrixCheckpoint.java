@@ -0,0 +1,197 @@
+package edu.duke.cs.osprey.ematrix;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.energy.EnergySignature;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+
+public class TestEnergyMatrixCheckpoint extends TestBase {
+
+	private static ForcefieldParams ffparams;
+	private static SearchProblem search;
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+		ffparams = makeDefaultFFParams();
+
+		EnergyMatrixConfig emConfig = new EnergyMatrixConfig();
+		emConfig.pdbPath = "test/DAGK/2KDC.P.forOsprey.pdb";
+		emConfig.numFlexible = 3;
+		emConfig.addWtRots = true;
+		emConfig.doMinimize = false;
+		search = makeSearchProblem(emConfig);
+	}
+
+	private static File makeTempFile()
+	throws IOException {
+		File file = File.createTempFile("emat", ".checkpoint");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static byte[] makeSignature(String settings) {
+		return EnergySignature.make(search.confSpace, search.shellResidues, ffparams, settings);
+	}
+
+	@Test
+	public void reopen()
+	throws Exception {
+
+		File file = makeTempFile();
+		byte[] signature = makeSignature("test");
+
+		EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, signature);
+		checkpoint.put(new double[] { 1, 2 }, 0);
+		checkpoint.put(new double[][] { { 3 }, { 4 } }, 1, 0);
+		checkpoint.close();
+
+		checkpoint = new EnergyMatrixCheckpoint(file, signature);
+		assertThat(checkpoint.getNumBlocks(), is(2));
+		assertThat(checkpoint.has(0), is(true));
+		assertThat(checkpoint.has(1), is(false));
+		assertThat(checkpoint.has(1, 0), is(true));
+		assertThat(checkpoint.get(0), is(new double[] { 1, 2 }));
+		assertThat(checkpoint.get(1, 0), is(new double[][] { { 3 }, { 4 } }));
+		assertThat(checkpoint.get(2, 1), is(nullValue()));
+		checkpoint.close();
+	}
+
+	@Test
+	public void truncatedBlock()
+	throws Exception {
+
+		File file = makeTempFile();
+		byte[] signature = makeSignature("test");
+
+		EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, signature);
+		checkpoint.put(new double[] { 1, 2 }, 0);
+		long goodSize = file.length();
+		checkpoint.put(new double[] { 3, 4 }, 1);
+		checkpoint.close();
+
+		// chop the last block in half, like a run that got killed while writing
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength((goodSize + raf.length())/2);
+		}
+
+		checkpoint = new EnergyMatrixCheckpoint(file, signature);
+		assertThat(checkpoint.getNumBlocks(), is(1));
+		assertThat(checkpoint.has(1), is(false));
+		assertThat(file.length(), is(goodSize));
+		checkpoint.put(new double[] { 3, 4 }, 1);
+		checkpoint.close();
+
+		checkpoint = new EnergyMatrixCheckpoint(file, signature);
+		assertThat(checkpoint.get(1), is(new double[] { 3, 4 }));
+		checkpoint.close();
+	}
+
+	@Test
+	public void differentInputs()
+	throws Exception {
+
+		File file = makeTempFile();
+
+		EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, makeSignature("test"));
+		checkpoint.put(new double[] { 1, 2 }, 0);
+		checkpoint.close();
+
+		// blocks from other settings shouldn't be used
+		checkpoint = new EnergyMatrixCheckpoint(file, makeSignature("other"));
+		assertThat(checkpoint.getNumBlocks(), is(0));
+		checkpoint.close();
+	}
+
+	@Test
+	public void resume()
+	throws Exception {
+
+		File file = makeTempFile();
+		int numPos = search.confSpace.numPos;
+
+		// calc the whole emat, saving the checkpoint as we go
+		SimpleEnergyMatrixCalculator ematcalc = new SimpleEnergyMatrixCalculator.Cpu(2, ffparams, search.confSpace, search.shellResidues);
+		ematcalc.setCheckpointFile(file);
+		EnergyMatrix emat = ematcalc.calcEnergyMatrix();
+		ematcalc.cleanup();
+
+		EnergyMatrixCheckpoint checkpoint = new EnergyMatrixCheckpoint(file, makeSignature(SimpleEnergyMatrixCalculator.class.getName()));
+		assertThat(checkpoint.getNumBlocks(), is(numPos + numPos*(numPos - 1)/2));
+		checkpoint.close();
+
+		// start over with a checkpoint that only has some of the blocks, one of them with made-up energies
+		file.delete();
+		checkpoint = new EnergyMatrixCheckpoint(file, makeSignature(SimpleEnergyMatrixCalculator.class.getName()));
+		double[] singles = new double[emat.getNumConfAtPos(0)];
+		Arrays.fill(singles, 42);
+		checkpoint.put(singles, 0);
+		double[][] pairs = new double[emat.getNumConfAtPos(2)][emat.getNumConfAtPos(1)];
+		for (int rc1=0; rc1<pairs.length; rc1++) {
+			for (int rc2=0; rc2<pairs[rc1].length; rc2++) {
+				pairs[rc1][rc2] = emat.getPairwise(2, rc1, 1, rc2);
+			}
+		}
+		checkpoint.put(pairs, 2, 1);
+		checkpoint.close();
+
+		ematcalc = new SimpleEnergyMatrixCalculator.Cpu(2, ffparams, search.confSpace, search.shellResidues);
+		ematcalc.setCheckpointFile(file);
+		EnergyMatrix resumed = ematcalc.calcEnergyMatrix();
+		ematcalc.cleanup();
+
+		// the made-up energies should come from the checkpoint, everything else should be calculated
+		for (int pos1=0; pos1<numPos; pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+				double expected = pos1 == 0 ? 42 : emat.getOneBody(pos1, rc1);
+				assertThat(resumed.getOneBody(pos1, rc1), is(expected));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						assertThat(resumed.getPairwise(pos1, rc1, pos2, rc2), is(emat.getPairwise(pos1, rc1, pos2, rc2)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void resumeOldCalculator()
+	throws Exception {
+
+		File file = makeTempFile();
+
+		EnergyMatrixCalculator emCalc = new EnergyMatrixCalculator(search.confSpace, search.shellResidues, false, false);
+		emCalc.setCheckpointFile(file);
+		emCalc.calcPEM();
+		EnergyMatrix emat = emCalc.getEMatrix();
+
+		// resuming from a finished checkpoint shouldn't need to calculate anything, but should give the same matrix
+		emCalc = new EnergyMatrixCalculator(search.confSpace, search.shellResidues, false, false);
+		emCalc.setCheckpointFile(file);
+		emCalc.calcPEM();
+		EnergyMatrix resumed = emCalc.getEMatrix();
+
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+				assertThat(resumed.getOneBody(pos1, rc1), is(emat.getOneBody(pos1, rc1)));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						assertThat(resumed.getPairwise(pos1, rc1, pos2, rc2), is(emat.getPairwise(pos1, rc1, pos2, rc2)));
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package edu.duke.cs.osprey.ematrix;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.tools.ObjectIO;
+
+public class TestEnergyMatrixFile {
+	
+	private static EnergyMatrix makeRandomMatrix() {
+		
+		Random rand = new Random(12345);
+		int[] numRCsAtPos = { 3, 1, 5, 4 };
+		EnergyMatrix emat = new EnergyMatrix(numRCsAtPos.length, numRCsAtPos, Double.POSITIVE_INFINITY);
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+				emat.setOneBody(pos1, rc1, rand.nextDouble());
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						emat.setPairwise(pos1, rc1, pos2, rc2, rand.nextDouble());
+					}
+				}
+			}
+		}
+		emat.setConstTerm(4.2);
+		return emat;
+	}
+	
+	private static File makeTempFile()
+	throws IOException {
+		File file = File.createTempFile("emat", ".dat");
+		file.deleteOnExit();
+		return file;
+	}
+	
+	private static void assertSameEnergies(EnergyMatrix expected, EnergyMatrix observed) {
+		
+		assertThat(observed.getNumPos(), is(expected.getNumPos()));
+		assertThat(observed.getConstTerm(), is(expected.getConstTerm()));
+		assertThat(observed.getPruningInterval(), is(expected.getPruningInterval()));
+		
+		for (int pos1=0; pos1<expected.getNumPos(); pos1++) {
+			assertThat(observed.getNumConfAtPos(pos1), is(expected.getNumConfAtPos(pos1)));
+			for (int rc1=0; rc1<expected.getNumConfAtPos(pos1); rc1++) {
+				assertThat(observed.getOneBody(pos1, rc1), is(expected.getOneBody(pos1, rc1)));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<expected.getNumConfAtPos(pos2); rc2++) {
+						assertThat(observed.getPairwise(pos1, rc1, pos2, rc2), is(expected.getPairwise(pos1, rc1, pos2, rc2)));
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void roundTrip()
+	throws Exception {
+		
+		EnergyMatrix emat = makeRandomMatrix();
+		File file = makeTempFile();
+		EnergyMatrixFile.write(emat, file);
+		
+		assertThat(EnergyMatrixFile.isEnergyMatrixFile(file), is(true));
+		
+		EnergyMatrix loaded = EnergyMatrixFile.read(file, false);
+		assertThat(loaded.isMapped(), is(true));
+		assertThat(loaded.hasHigherOrderTerms(), is(false));
+		assertSameEnergies(emat, loaded);
+	}
+	
+	@Test
+	public void sparseRoundTrip()
+	throws Exception {
+		
+		// only store some of the pairs
+		boolean[][] hasPairBlocks = { {}, { true }, { false, true }, { false, false, true } };
+		EnergyMatrix dense = makeRandomMatrix();
+		EnergyMatrix emat = new EnergyMatrix(4, new int[] { 3, 1, 5, 4 }, dense.getPruningInterval(), hasPairBlocks);
+		emat.setConstTerm(dense.getConstTerm());
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+				emat.setOneBody(pos1, rc1, dense.getOneBody(pos1, rc1));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						emat.setPairwise(pos1, rc1, pos2, rc2, dense.getPairwise(pos1, rc1, pos2, rc2));
+					}
+				}
+			}
+		}
+		assertThat(emat.isSparse(), is(true));
+		assertThat(emat.getPairwise(2, 4, 0, 2), is(0.0));
+		assertThat(emat.getPairwise(2, 4, 1, 0), is(dense.getPairwise(2, 4, 1, 0)));
+		
+		File denseFile = makeTempFile();
+		EnergyMatrixFile.write(dense, denseFile);
+		File file = makeTempFile();
+		EnergyMatrixFile.write(emat, file);
+		assertThat(file.length(), lessThan(denseFile.length()));
+		
+		EnergyMatrix loaded = EnergyMatrixFile.read(file, false);
+		assertThat(loaded.getPairBlocks(), is(hasPairBlocks));
+		assertSameEnergies(emat, loaded);
+	}
+	
+	@Test
+	public void higherOrderTerms()
+	throws Exception {
+		
+		EnergyMatrix emat = makeRandomMatrix();
+		RCTuple triple = new RCTuple(new ArrayList<>(Arrays.asList(0, 2, 3)), new ArrayList<>(Arrays.asList(1, 4, 2)));
+		emat.setHigherOrder(triple, 7.0);
+		
+		File file = makeTempFile();
+		EnergyMatrixFile.write(emat, file);
+		EnergyMatrix loaded = EnergyMatrixFile.read(file, false);
+		
+		assertThat(loaded.hasHigherOrderTerms(), is(true));
+		assertSameEnergies(emat, loaded);
+		
+		int[] conf = { 1, 0, 4, 2 };
+		assertThat(loaded.confE(conf), is(emat.confE(conf)));
+		int[] otherConf = { 0, 0, 4, 2 };
+		assertThat(loaded.confE(otherConf), is(emat.confE(otherConf)));
+	}
+	
+	@Test
+	public void writesDontChangeFile()
+	throws Exception {
+		
+		EnergyMatrix emat = makeRandomMatrix();
+		File file = makeTempFile();
+		EnergyMatrixFile.write(emat, file);
+		
+		EnergyMatrix loaded = EnergyMatrixFile.read(file, false);
+		loaded.setOneBody(2, 3, 100.0);
+		assertThat(loaded.isMapped(), is(false));
+		assertThat(loaded.getOneBody(2, 3), is(100.0));
+		assertThat(loaded.getPairwise(2, 3, 0, 1), is(emat.getPairwise(2, 3, 0, 1)));
+		
+		assertSameEnergies(emat, EnergyMatrixFile.read(file, false));
+	}
+	
+	@Test
+	public void serializeMapped()
+	throws Exception {
+		
+		EnergyMatrix emat = makeRandomMatrix();
+		File file = makeTempFile();
+		EnergyMatrixFile.write(emat, file);
+		EnergyMatrix loaded = EnergyMatrixFile.read(file, false);
+		
+		EnergyMatrix copy = (EnergyMatrix)ObjectIO.deepCopy(loaded);
+		assertThat(copy.isMapped(), is(false));
+		assertSameEnergies(emat, copy);
+		
+		assertSameEnergies(emat, new EnergyMatrix(loaded));
+	}
+	
+	@Test
+	public void readOldSerializedMatrices()
+	throws Exception {
+		
+		EnergyMatrix emat = makeRandomMatrix();
+		File file = makeTempFile();
+		ObjectIO.writeObject(emat, file.getAbsolutePath());
+		
+		assertThat(EnergyMatrixFile.isEnergyMatrixFile(file), is(false));
+		assertSameEnergies(emat, (EnergyMatrix)SearchProblem.readMatrixFile(file.getAbsolutePath(), false));
+	}
+	
+	@Test
+	public void wrongVersion()
+	throws Exception {
+		
+		File file = makeTempFile();
+		EnergyMatrixFile.write(makeRandomMatrix(), file);
+		
+		// bump the version number, right after the magic number
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(8);
+			raf.write(EnergyMatrixFile.Version + 1);
+		}
+		
+		assertThat(EnergyMatrixFile.read(file, true), is(nullValue()));
+	}
+}
@@ -0,0 +1,183 @@
+package edu.duke.cs.osprey.ematrix;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.ParameterizedMoleculeCopy;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.energy.EnergyFunction;
+import edu.duke.cs.osprey.energy.EnergyFunctionGenerator;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.minimization.Minimizer;
+import edu.duke.cs.osprey.parallelism.ThreadPoolTaskExecutor;
+import edu.duke.cs.osprey.structure.Molecule;
+
+public class TestLazyEnergyMatrix extends TestBase {
+
+	private static class CountingEnergyCalculator extends SimpleEnergyCalculator {
+
+		private SimpleEnergyCalculator ecalc;
+		public final AtomicInteger numCalcs = new AtomicInteger(0);
+
+		public CountingEnergyCalculator(SimpleEnergyCalculator ecalc) {
+			super(ecalc.ffparams, ecalc.confSpace, ecalc.shellResidues);
+			this.ecalc = ecalc;
+		}
+
+		@Override
+		public EnergyFunctionGenerator getEnergyFunctionGenerator() {
+			return ecalc.getEnergyFunctionGenerator();
+		}
+
+		@Override
+		public EnergyFunction makeSingleEfunc(int pos, Molecule mol) {
+			return ecalc.makeSingleEfunc(pos, mol);
+		}
+
+		@Override
+		public Minimizer.Result calcSingle(int pos, int rc, ParameterizedMoleculeCopy pmol) {
+			numCalcs.incrementAndGet();
+			return ecalc.calcSingle(pos, rc, pmol);
+		}
+
+		@Override
+		public EnergyFunction makePairEfunc(int pos1, int pos2, Molecule mol) {
+			return ecalc.makePairEfunc(pos1, pos2, mol);
+		}
+
+		@Override
+		public Minimizer.Result calcPair(int pos1, int rc1, int pos2, int rc2, ParameterizedMoleculeCopy pmol) {
+			numCalcs.incrementAndGet();
+			return ecalc.calcPair(pos1, rc1, pos2, rc2, pmol);
+		}
+	}
+
+	private static final double Epsilon = 1e-12;
+
+	private static ForcefieldParams ffparams;
+	private static SearchProblem search;
+	private static int numEnergies;
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+		ffparams = makeDefaultFFParams();
+
+		EnergyMatrixConfig emConfig = new EnergyMatrixConfig();
+		emConfig.pdbPath = "test/DAGK/2KDC.P.forOsprey.pdb";
+		emConfig.numFlexible = 3;
+		emConfig.addWtRots = true;
+		emConfig.doMinimize = false;
+		search = makeSearchProblem(emConfig);
+
+		numEnergies = 0;
+		for (int pos1=0; pos1<search.emat.getNumPos(); pos1++) {
+			numEnergies += search.emat.getNumConfAtPos(pos1);
+			for (int pos2=0; pos2<pos1; pos2++) {
+				numEnergies += search.emat.getNumConfAtPos(pos1)*search.emat.getNumConfAtPos(pos2);
+			}
+		}
+	}
+
+	private static CountingEnergyCalculator makeEcalc() {
+		return new CountingEnergyCalculator(new SimpleEnergyCalculator.Cpu(ffparams, search.confSpace, search.shellResidues));
+	}
+
+	private static void checkEnergies(LazyEnergyMatrix emat) {
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+				assertThat(emat.hasOneBody(pos1, rc1), is(true));
+				assertThat(emat.getOneBody(pos1, rc1), isRelatively(search.emat.getOneBody(pos1, rc1), Epsilon));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						assertThat(emat.hasPairwise(pos1, rc1, pos2, rc2), is(true));
+						assertThat(emat.getPairwise(pos1, rc1, pos2, rc2), isRelatively(search.emat.getPairwise(pos1, rc1, pos2, rc2), Epsilon));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void concurrentAccess()
+	throws Exception {
+
+		CountingEnergyCalculator ecalc = makeEcalc();
+		LazyEnergyMatrix emat = new LazyEnergyMatrix(search.confSpace, Double.POSITIVE_INFINITY, ecalc);
+
+		// have a bunch of threads all ask for every energy at once, in different orders
+		List<Thread> threads = new ArrayList<>();
+		List<Throwable> errors = new ArrayList<>();
+		for (int i=0; i<4; i++) {
+			final boolean isForward = i % 2 == 0;
+			Thread thread = new Thread(() -> {
+				try {
+					for (int j=0; j<emat.getNumPos(); j++) {
+						int pos1 = isForward ? j : emat.getNumPos() - j - 1;
+						for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+							emat.getOneBody(pos1, rc1);
+							for (int pos2=0; pos2<emat.getNumPos(); pos2++) {
+								if (pos2 != pos1) {
+									for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+										emat.getPairwise(pos1, rc1, pos2, rc2);
+									}
+								}
+							}
+						}
+					}
+				} catch (Throwable t) {
+					synchronized (errors) {
+						errors.add(t);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertThat(errors, is(empty()));
+
+		// each energy should have been calculated exactly once
+		assertThat(ecalc.numCalcs.get(), is(numEnergies));
+		checkEnergies(emat);
+	}
+
+	@Test
+	public void prefetch() {
+
+		CountingEnergyCalculator ecalc = makeEcalc();
+		LazyEnergyMatrix emat = new LazyEnergyMatrix(search.confSpace, Double.POSITIVE_INFINITY, ecalc);
+
+		ThreadPoolTaskExecutor tasks = new ThreadPoolTaskExecutor();
+		tasks.start(4);
+		try {
+
+			// prefetch one row first, then everything else
+			emat.prefetchRow(tasks, 1, 0);
+			tasks.waitForFinish();
+			assertThat(emat.hasOneBody(1, 0), is(true));
+			assertThat(emat.hasPairwise(1, 0, 0, 0), is(true));
+			assertThat(emat.hasPairwise(1, 0, 2, 0), is(true));
+			assertThat(emat.hasOneBody(2, 0), is(false));
+
+			emat.prefetch(tasks);
+			tasks.waitForFinish();
+
+		} finally {
+			tasks.stop();
+		}
+
+		assertThat(ecalc.numCalcs.get(), is(numEnergies));
+		checkEnergies(emat);
+	}
+}
@@ -0,0 +1,163 @@
+package edu.duke.cs.osprey.ematrix;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.ParameterizedMoleculeCopy;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.dof.deeper.DEEPerSettings;
+import edu.duke.cs.osprey.ematrix.epic.EPICSettings;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.minimization.MoleculeModifierAndScorer;
+import edu.duke.cs.osprey.minimization.ObjectiveFunction;
+import edu.duke.cs.osprey.structure.Residue;
+import edu.duke.cs.osprey.tupexp.LUTESettings;
+
+public class TestSparseEnergyMatrix extends TestBase {
+
+	private static final double Cutoff = 8;
+
+	private static ForcefieldParams ffparams;
+	private static SearchProblem search;
+	private static EnergyMatrix denseEmat;
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+		ffparams = makeDefaultFFParams();
+
+		// a few residues close together, and a few farther away
+		ResidueFlexibility resFlex = new ResidueFlexibility();
+		resFlex.addFlexible("2 3 20 40 60");
+		boolean doMinimize = true;
+		boolean addWt = true;
+		boolean useEpic = false;
+		boolean useTupleExpansion = false;
+		boolean useEllipses = false;
+		boolean useERef = false;
+		boolean addResEntropy = false;
+		boolean addWtRots = false;
+		ArrayList<String[]> moveableStrands = new ArrayList<String[]>();
+		ArrayList<String[]> freeBBZones = new ArrayList<String[]>();
+
+		search = new SearchProblem(
+			"test", "test/1CC8/1CC8.ss.pdb",
+			resFlex.flexResList, resFlex.allowedAAs, addWt, doMinimize, useEpic, new EPICSettings(), useTupleExpansion, new LUTESettings(),
+			new DEEPerSettings(), moveableStrands, freeBBZones, useEllipses, useERef, addResEntropy, addWtRots, null,
+			false, new ArrayList<>()
+		);
+
+		SimpleEnergyMatrixCalculator ematcalc = new SimpleEnergyMatrixCalculator.Cpu(2, ffparams, search.confSpace, search.shellResidues);
+		denseEmat = ematcalc.calcEnergyMatrix();
+		ematcalc.cleanup();
+	}
+
+	@Test
+	public void spheresContainVoxels() {
+
+		RCBoundingSpheres spheres = new RCBoundingSpheres(search.confSpace);
+		ParameterizedMoleculeCopy pmol = new ParameterizedMoleculeCopy(search.confSpace);
+		Random rand = new Random(12345);
+
+		for (int pos=0; pos<search.confSpace.numPos; pos++) {
+			for (int rc=0; rc<search.confSpace.posFlex.get(pos).RCs.size(); rc++) {
+
+				RCBoundingSpheres.Sphere sphere = spheres.get(pos, rc);
+				MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(null, search.confSpace, new RCTuple(pos, rc), pmol);
+				Residue res = pmol.getCopiedMolecule().residues.get(search.confSpace.posFlex.get(pos).res.indexInMolecule);
+				ObjectiveFunction.DofBounds bounds = new ObjectiveFunction.DofBounds(mof.getConstraints());
+
+				// every atom should stay in the sphere anywhere in the voxel
+				for (int i=0; i<10; i++) {
+					DoubleMatrix1D x = DoubleFactory1D.dense.make(bounds.size());
+					for (int d=0; d<bounds.size(); d++) {
+						x.set(d, bounds.getMin(d) + rand.nextDouble()*(bounds.getMax(d) - bounds.getMin(d)));
+					}
+					mof.setDOFs(x);
+					for (int a=0; a<res.coords.length; a+=3) {
+						double dx = res.coords[a] - sphere.x;
+						double dy = res.coords[a + 1] - sphere.y;
+						double dz = res.coords[a + 2] - sphere.z;
+						assertThat(Math.sqrt(dx*dx + dy*dy + dz*dz), lessThanOrEqualTo(sphere.radius));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void interactingPairs() {
+
+		RCBoundingSpheres spheres = new RCBoundingSpheres(search.confSpace);
+
+		// neighbors always interact, and everything interacts without a cutoff
+		assertThat(spheres.getMinDistance(1, 0), is(0.0));
+		boolean[][] pairs = spheres.getInteractingPairs(Double.POSITIVE_INFINITY);
+		for (int pos1=0; pos1<pairs.length; pos1++) {
+			for (int pos2=0; pos2<pos1; pos2++) {
+				assertThat(pairs[pos1][pos2], is(true));
+			}
+		}
+
+		// but residues 2 and 60 are far apart
+		pairs = spheres.getInteractingPairs(Cutoff);
+		assertThat(pairs[1][0], is(true));
+		assertThat(pairs[4][0], is(false));
+	}
+
+	@Test
+	public void sparseCalc()
+	throws Exception {
+
+		SimpleEnergyMatrixCalculator ematcalc = new SimpleEnergyMatrixCalculator.Cpu(2, ffparams, search.confSpace, search.shellResidues);
+		ematcalc.setPairCutoff(Cutoff);
+		EnergyMatrix emat = ematcalc.calcEnergyMatrix();
+		ematcalc.cleanup();
+
+		assertThat(emat.isSparse(), is(true));
+		assertThat(emat.getNumPairwiseTerms(), lessThan(denseEmat.getNumPairwiseTerms()));
+
+		boolean[][] pairs = new RCBoundingSpheres(search.confSpace).getInteractingPairs(Cutoff);
+		for (int pos1=0; pos1<emat.getNumPos(); pos1++) {
+			for (int rc1=0; rc1<emat.getNumConfAtPos(pos1); rc1++) {
+				assertThat(emat.getOneBody(pos1, rc1), is(denseEmat.getOneBody(pos1, rc1)));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					assertThat(emat.hasPairBlock(pos1, pos2), is(pairs[pos1][pos2]));
+					for (int rc2=0; rc2<emat.getNumConfAtPos(pos2); rc2++) {
+						if (emat.hasPairBlock(pos1, pos2)) {
+							assertThat(emat.getPairwise(pos1, rc1, pos2, rc2), is(denseEmat.getPairwise(pos1, rc1, pos2, rc2)));
+						} else {
+
+							// skipped pairs read as zero, and should be close to it
+							assertThat(emat.getPairwise(pos1, rc1, pos2, rc2), is(0.0));
+							assertThat(denseEmat.getPairwise(pos1, rc1, pos2, rc2), isAbsolutely(0, 0.1));
+						}
+					}
+				}
+			}
+		}
+
+		// sparse matrices should make smaller files
+		File denseFile = File.createTempFile("emat", ".dat");
+		denseFile.deleteOnExit();
+		EnergyMatrixFile.write(denseEmat, denseFile);
+		File sparseFile = File.createTempFile("emat", ".dat");
+		sparseFile.deleteOnExit();
+		EnergyMatrixFile.write(emat, sparseFile);
+		assertThat(sparseFile.length(), lessThan(denseFile.length()));
+
+		EnergyMatrix loaded = EnergyMatrixFile.read(sparseFile, false);
+		assertThat(loaded.getPairBlocks(), is(emat.getPairBlocks()));
+	}
+}
@@ -0,0 +1,142 @@
+package edu.duke.cs.osprey.gpu;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.control.EnvironmentVars;
+import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel.Residues;
+import edu.duke.cs.osprey.structure.Residue;
+
+public class TestBigForcefieldIncrementalEnergy extends TestBase {
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+	}
+
+	private static Residue[] makeResidues() {
+		Residues r = new Residues();
+		return new Residue[] { r.gly15, r.ser17, r.trp18, r.trp25, r.arg22, r.ala24, r.ile26, r.phe31, r.arg32, r.glu34 };
+	}
+
+	private static BigForcefieldEnergy makeForcefield(Residue[] residues, boolean incremental, double cutoff) {
+
+		ForcefieldParams ffparams = EnvironmentVars.curEFcnGenerator.ffParams;
+		boolean oldIncremental = ffparams.incrementalEnergies;
+		double oldCutoff = ffparams.neighborListCutoff;
+		try {
+			ffparams.incrementalEnergies = incremental;
+			ffparams.neighborListCutoff = cutoff;
+
+			ForcefieldInteractions interactions = new ForcefieldInteractions();
+			for (int pos1=0; pos1<residues.length; pos1++) {
+				interactions.addResidue(residues[pos1]);
+				for (int pos2=0; pos2<pos1; pos2++) {
+					interactions.addResiduePair(residues[pos1], residues[pos2]);
+				}
+			}
+
+			return new BigForcefieldEnergy(ffparams, interactions);
+
+		} finally {
+			ffparams.incrementalEnergies = oldIncremental;
+			ffparams.neighborListCutoff = oldCutoff;
+		}
+	}
+
+	private static BigForcefieldEnergy.Subset makeSubset(BigForcefieldEnergy bigff, Residue res) {
+		return bigff.new Subset(bigff.getInteractions().makeSubsetByResidue(res));
+	}
+
+	private static void moveAtom(Residue res, int atomIndex, double dx) {
+		res.coords[atomIndex*3] += dx;
+	}
+
+	@Test
+	public void onlyMovedPairs() {
+
+		Residue[] residues = makeResidues();
+		Residue res = residues[2];
+		BigForcefieldEnergy.Subset subset = makeSubset(makeForcefield(residues, true, Double.POSITIVE_INFINITY), res);
+
+		// the first time computes everything
+		assertThat(subset.getEnergy(), isRelatively(makeSubset(makeForcefield(residues, false, Double.POSITIVE_INFINITY), res).getEnergy(), 1e-12));
+		assertThat(subset.getNumPairEnergyCalcs(), is((long)subset.getNumAtomPairs()));
+
+		// nothing moved, so nothing to compute
+		long numCalcs = subset.getNumPairEnergyCalcs();
+		subset.getEnergy();
+		assertThat(subset.getNumPairEnergyCalcs(), is(numCalcs));
+
+		// moving one atom only recomputes pairs with that atom
+		moveAtom(res, res.atoms.size() - 1, 0.3);
+		numCalcs = subset.getNumPairEnergyCalcs();
+		assertThat(subset.getEnergy(), isRelatively(makeSubset(makeForcefield(residues, false, Double.POSITIVE_INFINITY), res).getEnergy(), 1e-12));
+		long numMovedCalcs = subset.getNumPairEnergyCalcs() - numCalcs;
+		assertThat(numMovedCalcs, greaterThan(0L));
+		assertThat(numMovedCalcs, lessThan((long)subset.getNumAtomPairs()/4));
+
+		// moving another residue only recomputes the pairs with that residue
+		Residue other = residues[7];
+		for (int i=0; i<other.atoms.size(); i++) {
+			moveAtom(other, i, -0.2);
+		}
+		numCalcs = subset.getNumPairEnergyCalcs();
+		assertThat(subset.getEnergy(), isRelatively(makeSubset(makeForcefield(residues, false, Double.POSITIVE_INFINITY), res).getEnergy(), 1e-12));
+		assertThat(subset.getNumPairEnergyCalcs() - numCalcs, is((long)res.atoms.size()*other.atoms.size()));
+	}
+
+	@Test
+	public void fullForcefield() {
+
+		Residue[] residues = makeResidues();
+		BigForcefieldEnergy incremental = makeForcefield(residues, true, Double.POSITIVE_INFINITY);
+
+		for (Residue res : residues) {
+			moveAtom(res, 0, 0.1);
+			assertThat(res.fullName, incremental.getEnergy(), isRelatively(makeForcefield(residues, false, Double.POSITIVE_INFINITY).getEnergy(), 1e-12));
+		}
+	}
+
+	@Test
+	public void withCutoff() {
+
+		Residue[] residues = makeResidues();
+		Residue res = residues[4];
+		BigForcefieldEnergy.Subset subset = makeSubset(makeForcefield(residues, true, 6), res);
+
+		for (double dx : new double[] { 0, 0.5, 0.75, 3 }) {
+			for (int i=0; i<res.atoms.size(); i++) {
+				moveAtom(res, i, dx);
+			}
+			assertThat(subset.getEnergy(), isRelatively(makeSubset(makeForcefield(residues, false, 6), res).getEnergy(), 1e-12));
+		}
+	}
+
+	@Test
+	public void withCutoffAndGradients() {
+
+		// the gradient path builds the neighbor list, which shouldn't change what the incremental path packs
+		Residue[] residues = makeResidues();
+		Residue res = residues[4];
+		BigForcefieldEnergy bigff = makeForcefield(residues, true, 6);
+		BigForcefieldEnergy.Subset subset = makeSubset(bigff, res);
+		double[] gradient = new double[bigff.getNumAtoms()*3];
+
+		for (double dx : new double[] { 0, 0.5, 0.75, 3 }) {
+			for (int i=0; i<res.atoms.size(); i++) {
+				moveAtom(res, i, dx);
+			}
+			BigForcefieldEnergy.Subset expected = makeSubset(makeForcefield(residues, false, 6), res);
+			assertThat(subset.getEnergyAndGradient(gradient), isRelatively(expected.getEnergy(), 1e-12));
+			assertThat(subset.getEnergy(), isRelatively(expected.getEnergy(), 1e-12));
+		}
+	}
+}
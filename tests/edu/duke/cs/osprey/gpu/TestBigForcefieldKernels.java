@@ -0,0 +1,115 @@
+package edu.duke.cs.osprey.gpu;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.control.EnvironmentVars;
+import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
+import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.energy.forcefield.ResPairEnergy;
+import edu.duke.cs.osprey.energy.forcefield.SingleResEnergy;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel.Residues;
+import edu.duke.cs.osprey.structure.Residue;
+
+public class TestBigForcefieldKernels extends TestBase {
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+	}
+
+	private static Residue[] makeResidues() {
+		Residues r = new Residues();
+		return new Residue[] { r.gly15, r.ser17, r.trp18, r.trp25, r.arg22, r.ala24, r.ile26, r.phe31, r.arg32, r.glu34 };
+	}
+
+	private static ForcefieldInteractions makeInteractions(Residue[] residues) {
+		ForcefieldInteractions interactions = new ForcefieldInteractions();
+		for (int pos1=0; pos1<residues.length; pos1++) {
+			interactions.addResidue(residues[pos1]);
+			for (int pos2=0; pos2<pos1; pos2++) {
+				interactions.addResiduePair(residues[pos1], residues[pos2]);
+			}
+		}
+		return interactions;
+	}
+
+	private static BigForcefieldEnergy makeForcefield(Residue[] residues, BigForcefieldEnergy.Kernel kernel, double cutoff) {
+		ForcefieldParams ffparams = EnvironmentVars.curEFcnGenerator.ffParams;
+		double oldCutoff = ffparams.neighborListCutoff;
+		try {
+			ffparams.neighborListCutoff = cutoff;
+			return new BigForcefieldEnergy(ffparams, makeInteractions(residues), BufferTools.Type.Normal, kernel);
+		} finally {
+			ffparams.neighborListCutoff = oldCutoff;
+		}
+	}
+
+	private static MultiTermEnergyFunction makeSubsetEfunc(Residue[] residues, Residue res) {
+		ForcefieldParams ffparams = EnvironmentVars.curEFcnGenerator.ffParams;
+		MultiTermEnergyFunction efunc = new MultiTermEnergyFunction();
+		efunc.addTerm(new SingleResEnergy(res, ffparams));
+		for (Residue other : residues) {
+			if (other != res) {
+				efunc.addTerm(new ResPairEnergy(res, other, ffparams));
+			}
+		}
+		return efunc;
+	}
+
+	@Test
+	public void allPairs() {
+
+		Residue[] residues = makeResidues();
+		BigForcefieldEnergy buffers = makeForcefield(residues, BigForcefieldEnergy.Kernel.Buffers, Double.POSITIVE_INFINITY);
+		BigForcefieldEnergy vectorized = makeForcefield(residues, BigForcefieldEnergy.Kernel.Vectorized, Double.POSITIVE_INFINITY);
+
+		assertThat(vectorized.getEnergy(), isRelatively(buffers.getEnergy(), 1e-10));
+		assertThat(vectorized.getEnergy(), isRelatively(-93.33337795127768, 1e-10));
+	}
+
+	@Test
+	public void subsets() {
+
+		Residue[] residues = makeResidues();
+		BigForcefieldEnergy buffers = makeForcefield(residues, BigForcefieldEnergy.Kernel.Buffers, Double.POSITIVE_INFINITY);
+		BigForcefieldEnergy vectorized = makeForcefield(residues, BigForcefieldEnergy.Kernel.Vectorized, Double.POSITIVE_INFINITY);
+		ForcefieldInteractions interactions = buffers.getInteractions();
+
+		// every residue, so the subsets have 1-4 pairs that aren't at the start of the forcefield
+		for (Residue res : residues) {
+			double expected = makeSubsetEfunc(residues, res).getEnergy();
+			BigForcefieldEnergy.Subset buffersSubset = buffers.new Subset(interactions.makeSubsetByResidue(res));
+			BigForcefieldEnergy.Subset vectorizedSubset = vectorized.new Subset(vectorized.getInteractions().makeSubsetByResidue(res));
+			assertThat(res.fullName, buffersSubset.getEnergy(), isRelatively(expected, 1e-10));
+			assertThat(res.fullName, vectorizedSubset.getEnergy(), isRelatively(expected, 1e-10));
+		}
+	}
+
+	@Test
+	public void subsetsWithCutoff() {
+
+		Residue[] residues = makeResidues();
+		BigForcefieldEnergy buffers = makeForcefield(residues, BigForcefieldEnergy.Kernel.Buffers, 6);
+		BigForcefieldEnergy vectorized = makeForcefield(residues, BigForcefieldEnergy.Kernel.Vectorized, 6);
+
+		Residue res = residues[4];
+		BigForcefieldEnergy.Subset buffersSubset = buffers.new Subset(buffers.getInteractions().makeSubsetByResidue(res));
+		BigForcefieldEnergy.Subset vectorizedSubset = vectorized.new Subset(vectorized.getInteractions().makeSubsetByResidue(res));
+
+		// move the residue around, so the neighbor lists get rebuilt
+		for (double dx : new double[] { 0, 0.5, 0.75, 3 }) {
+			for (int i=0; i<res.coords.length; i+=3) {
+				res.coords[i] += dx;
+			}
+			assertThat(vectorizedSubset.getEnergy(), isRelatively(buffersSubset.getEnergy(), 1e-10));
+		}
+		assertThat(vectorizedSubset.getNumNeighborListBuilds(), is(3));
+	}
+}
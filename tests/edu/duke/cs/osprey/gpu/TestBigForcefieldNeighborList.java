@@ -0,0 +1,109 @@
+package edu.duke.cs.osprey.gpu;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.control.EnvironmentVars;
+import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
+import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.gpu.TestForceFieldKernel.Residues;
+import edu.duke.cs.osprey.structure.Residue;
+
+public class TestBigForcefieldNeighborList extends TestBase {
+
+	@BeforeClass
+	public static void before() {
+		initDefaultEnvironment();
+	}
+
+	private static Residue[] makeResidues() {
+		Residues r = new Residues();
+		return new Residue[] { r.gly15, r.ser17, r.trp18, r.trp25, r.arg22, r.ala24, r.ile26, r.phe31, r.arg32, r.glu34 };
+	}
+
+	private static BigForcefieldEnergy.Subset makeSubset(Residue[] residues, double cutoff, double skin) {
+
+		ForcefieldParams ffparams = EnvironmentVars.curEFcnGenerator.ffParams;
+		double oldCutoff = ffparams.neighborListCutoff;
+		double oldSkin = ffparams.neighborListSkin;
+		try {
+			ffparams.neighborListCutoff = cutoff;
+			ffparams.neighborListSkin = skin;
+
+			ForcefieldInteractions interactions = new ForcefieldInteractions();
+			for (int pos1=0; pos1<residues.length; pos1++) {
+				interactions.addResidue(residues[pos1]);
+				for (int pos2=0; pos2<pos1; pos2++) {
+					interactions.addResiduePair(residues[pos1], residues[pos2]);
+				}
+			}
+
+			BigForcefieldEnergy bigff = new BigForcefieldEnergy(ffparams, interactions);
+			return bigff.new Subset(interactions.makeSubsetByResidue(residues[0]));
+
+		} finally {
+			ffparams.neighborListCutoff = oldCutoff;
+			ffparams.neighborListSkin = oldSkin;
+		}
+	}
+
+	private static void translate(Residue res, double dx) {
+		for (int i=0; i<res.coords.length; i+=3) {
+			res.coords[i] += dx;
+		}
+	}
+
+	@Test
+	public void bigCutoffMatchesNoCutoff() {
+
+		Residue[] residues = makeResidues();
+		BigForcefieldEnergy.Subset noCutoff = makeSubset(residues, Double.POSITIVE_INFINITY, 2);
+		BigForcefieldEnergy.Subset bigCutoff = makeSubset(residues, 1000, 2);
+
+		assertThat(bigCutoff.getEnergy(), isRelatively(noCutoff.getEnergy()));
+		assertThat(bigCutoff.getNumNeighborPairs(), is(noCutoff.getNumNeighborPairs()));
+		assertThat(noCutoff.getNumNeighborListBuilds(), is(0));
+	}
+
+	@Test
+	public void rebuildsOnlyPastSkin() {
+
+		final double cutoff = 6;
+		final double skin = 2;
+
+		Residue[] residues = makeResidues();
+		BigForcefieldEnergy.Subset subset = makeSubset(residues, cutoff, skin);
+
+		subset.getEnergy();
+		assertThat(subset.getNumNeighborListBuilds(), is(1));
+		assertThat(subset.getNumNeighborPairs(), lessThan(makeSubset(residues, Double.POSITIVE_INFINITY, skin).getNumNeighborPairs()));
+
+		// small moves keep the list, but still give the same energy as a fresh list
+		translate(residues[0], 0.4);
+		double energy = subset.getEnergy();
+		assertThat(subset.getNumNeighborListBuilds(), is(1));
+		assertThat(energy, isRelatively(makeSubset(residues, cutoff, skin).getEnergy()));
+
+		translate(residues[0], 0.4);
+		energy = subset.getEnergy();
+		assertThat(subset.getNumNeighborListBuilds(), is(1));
+		assertThat(energy, isRelatively(makeSubset(residues, cutoff, skin).getEnergy()));
+
+		// moving more than half the skin from where the list was built needs a rebuild
+		translate(residues[0], 0.4);
+		energy = subset.getEnergy();
+		assertThat(subset.getNumNeighborListBuilds(), is(2));
+		assertThat(energy, isRelatively(makeSubset(residues, cutoff, skin).getEnergy()));
+
+		// big moves too
+		translate(residues[0], 5);
+		energy = subset.getEnergy();
+		assertThat(subset.getNumNeighborListBuilds(), is(3));
+		assertThat(energy, isRelatively(makeSubset(residues, cutoff, skin).getEnergy()));
+	}
+}
@@ -0,0 +1,213 @@
+package edu.duke.cs.osprey.handlempi;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.TestBase;
+import edu.duke.cs.osprey.confspace.SearchProblem;
+import edu.duke.cs.osprey.control.ConfigFileParser;
+import edu.duke.cs.osprey.control.EnvironmentVars;
+import edu.duke.cs.osprey.ematrix.EnergyMatrix;
+import edu.duke.cs.osprey.ematrix.EnergyMatrixCalculator;
+
+public class TestMPIMaster extends TestBase {
+	
+	private static final int NumSlaves = 3;
+	
+	@SuppressWarnings("serial")
+	private static class SquareTask implements MPISlaveTask {
+		
+		public final int val;
+		
+		public SquareTask(int val) {
+			this.val = val;
+		}
+		
+		@Override
+		public Object doCalculation() {
+			
+			// take a little while, so all the slaves get some work
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException ex) {
+				throw new Error(ex);
+			}
+			
+			return new Object[] { val*val, ManagementFactory.getRuntimeMXBean().getName() };
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private static class FailingTask implements MPISlaveTask {
+		
+		@Override
+		public Object doCalculation() {
+			throw new IllegalStateException("oops");
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private static class UnsendableResultTask implements MPISlaveTask {
+		
+		@Override
+		public Object doCalculation() {
+			return new Object();
+		}
+	}
+	
+	// slaves load the same config we do, just like with Main
+	private static final String[] Args = new String[] { "-c", "test/1CC8.junit/KStar.cfg", "test" };
+	
+	@BeforeClass
+	public static void before() {
+		
+		new ConfigFileParser(Args).loadData();
+		MPIMaster.getInstance().setSlaveArgs(Args);
+		MPIMaster.getInstance().setNumSlaves(NumSlaves);
+	}
+	
+	@AfterClass
+	public static void after() {
+		MPIMaster.getInstance().setNumSlaves(0);
+	}
+	
+	@Test
+	public void resultsInOrder() {
+		
+		ArrayList<MPISlaveTask> tasks = new ArrayList<>();
+		for (int i=0; i<30; i++) {
+			tasks.add(new SquareTask(i));
+		}
+		
+		ArrayList<Object> results = MPIMaster.getInstance().handleTasks(tasks);
+		
+		assertThat(results.size(), is(tasks.size()));
+		Set<String> processNames = new HashSet<>();
+		for (int i=0; i<tasks.size(); i++) {
+			Object[] result = (Object[])results.get(i);
+			assertThat(result[0], is(i*i));
+			processNames.add((String)result[1]);
+		}
+		
+		// tasks should run in the slaves, not here
+		assertThat(processNames, not(hasItem(ManagementFactory.getRuntimeMXBean().getName())));
+		assertThat(processNames.size(), greaterThan(1));
+	}
+	
+	@Test
+	public void severalBatches() {
+		
+		for (int b=0; b<3; b++) {
+			
+			ArrayList<MPISlaveTask> tasks = new ArrayList<>();
+			for (int i=0; i<5; i++) {
+				tasks.add(new SquareTask(b*10 + i));
+			}
+			
+			ArrayList<Object> results = MPIMaster.getInstance().handleTasks(tasks);
+			for (int i=0; i<tasks.size(); i++) {
+				assertThat(((Object[])results.get(i))[0], is((b*10 + i)*(b*10 + i)));
+			}
+		}
+	}
+	
+	@Test
+	public void taskFailure() {
+		
+		ArrayList<MPISlaveTask> tasks = new ArrayList<>();
+		tasks.add(new SquareTask(1));
+		tasks.add(new FailingTask());
+		tasks.add(new SquareTask(2));
+		
+		try {
+			MPIMaster.getInstance().handleTasks(tasks);
+			fail("task failure should be reported");
+		} catch (RuntimeException ex) {
+			assertThat(ex.getCause(), is(instanceOf(IllegalStateException.class)));
+		}
+		
+		// slaves should still be usable
+		tasks.clear();
+		tasks.add(new SquareTask(3));
+		assertThat(((Object[])MPIMaster.getInstance().handleTasks(tasks).get(0))[0], is(9));
+	}
+	
+	@Test
+	public void unsendableResult() {
+		
+		ArrayList<MPISlaveTask> tasks = new ArrayList<>();
+		tasks.add(new UnsendableResultTask());
+		
+		try {
+			MPIMaster.getInstance().handleTasks(tasks);
+			fail("unsendable result should be reported");
+		} catch (RuntimeException ex) {
+			assertThat(ex.getCause().getMessage(), containsString("can't be sent back"));
+		}
+		
+		// slaves should still be usable
+		tasks.clear();
+		tasks.add(new SquareTask(4));
+		assertThat(((Object[])MPIMaster.getInstance().handleTasks(tasks).get(0))[0], is(16));
+	}
+	
+	@Test
+	public void slaveStartupFailure() {
+		
+		MPIMaster.getInstance().setSlaveArgs("-c", "test/does-not-exist.cfg");
+		try {
+			
+			ArrayList<MPISlaveTask> tasks = new ArrayList<>();
+			tasks.add(new SquareTask(1));
+			MPIMaster.getInstance().handleTasks(tasks);
+			fail("slave startup failure should be reported");
+			
+		} catch (RuntimeException ex) {
+			assertThat(ex.getCause().getMessage(), containsString("failed to start"));
+		} finally {
+			MPIMaster.getInstance().setSlaveArgs(Args);
+		}
+	}
+	
+	@Test
+	public void energyMatrixMatchesLocal() {
+		
+		EnergyMatrixConfig emConfig = new EnergyMatrixConfig();
+		emConfig.pdbPath = "test/DAGK/2KDC.P.forOsprey.pdb";
+		emConfig.numFlexible = 3;
+		emConfig.addWtRots = true;
+		emConfig.doMinimize = false;
+		SearchProblem search = makeSearchProblem(emConfig);
+		
+		// makeSearchProblem computes the emat locally, now do it again on the slaves
+		EnvironmentVars.useMPI = true;
+		EnergyMatrix emat;
+		try {
+			EnergyMatrixCalculator emCalc = new EnergyMatrixCalculator(search.confSpace, search.shellResidues, false, false);
+			emCalc.calcPEM();
+			emat = emCalc.getEMatrix();
+		} finally {
+			EnvironmentVars.useMPI = false;
+		}
+		
+		for (int pos1=0; pos1<search.confSpace.numPos; pos1++) {
+			for (int rc1=0; rc1<search.emat.getNumConfAtPos(pos1); rc1++) {
+				assertThat(emat.getOneBody(pos1, rc1), is(search.emat.getOneBody(pos1, rc1)));
+				for (int pos2=0; pos2<pos1; pos2++) {
+					for (int rc2=0; rc2<search.emat.getNumConfAtPos(pos2); rc2++) {
+						assertThat(emat.getPairwise(pos1, rc1, pos2, rc2), is(search.emat.getPairwise(pos1, rc1, pos2, rc2)));
+					}
+				}
+			}
+		}
+	}
+}
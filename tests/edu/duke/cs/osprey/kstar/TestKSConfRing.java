@@ -0,0 +1,113 @@
+package edu.duke.cs.osprey.kstar;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class TestKSConfRing {
+
+	@Test
+	public void capacity() {
+		assertThat(new KSConfRing(1).getCapacity(), is(1));
+		assertThat(new KSConfRing(4).getCapacity(), is(4));
+		assertThat(new KSConfRing(5).getCapacity(), is(8));
+		assertThat(new KSConfRing(3000).getCapacity(), is(4096));
+	}
+
+	@Test
+	public void fifo() {
+
+		KSConfRing ring = new KSConfRing(4);
+		assertThat(ring.poll(), is(nullValue()));
+
+		// go around the ring a few times
+		int next = 0;
+		for (int round=0; round<5; round++) {
+
+			for (int i=0; i<4; i++) {
+				assertThat(ring.offer(new int[] { next + i, 7 }, next + i), is(true));
+			}
+			assertThat(ring.size(), is(4));
+			assertThat(ring.offer(new int[] { 0, 0 }, 0), is(false));
+
+			for (int i=0; i<4; i++) {
+				KSConf conf = ring.poll();
+				assertThat(conf.getConfArray(), is(new int[] { next + i, 7 }));
+				assertThat(conf.getEnergyBound(), is((double)(next + i)));
+			}
+			assertThat(ring.isEmpty(), is(true));
+			next += 4;
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void wrongNumPos() {
+		KSConfRing ring = new KSConfRing(4);
+		ring.offer(new int[] { 1, 2 }, 0);
+		ring.offer(new int[] { 1, 2, 3 }, 0);
+	}
+
+	@Test
+	public void oneProducerManyConsumers()
+	throws Exception {
+
+		final int numConfs = 200000;
+		final int numConsumers = 4;
+		KSConfRing ring = new KSConfRing(64);
+		AtomicBoolean done = new AtomicBoolean(false);
+
+		// every conf should come out exactly once, intact
+		List<boolean[]> seens = new ArrayList<>();
+		List<Thread> consumers = new ArrayList<>();
+		for (int i=0; i<numConsumers; i++) {
+			boolean[] seen = new boolean[numConfs];
+			seens.add(seen);
+			consumers.add(new Thread(() -> {
+				while (true) {
+					KSConf conf = ring.poll();
+					if (conf == null) {
+						if (done.get() && ring.isEmpty()) {
+							break;
+						}
+						Thread.yield();
+						continue;
+					}
+					int[] confArray = conf.getConfArray();
+					int id = confArray[0];
+					assertThat(confArray[1], is(-id));
+					assertThat(conf.getEnergyBound(), is((double)id));
+					seen[id] = true;
+				}
+			}));
+		}
+		for (Thread consumer : consumers) {
+			consumer.start();
+		}
+
+		for (int id=0; id<numConfs; id++) {
+			while (!ring.offer(new int[] { id, -id }, id)) {
+				Thread.yield();
+			}
+		}
+		done.set(true);
+
+		for (Thread consumer : consumers) {
+			consumer.join();
+		}
+
+		for (int id=0; id<numConfs; id++) {
+			int count = 0;
+			for (boolean[] seen : seens) {
+				if (seen[id]) {
+					count++;
+				}
+			}
+			assertThat("conf " + id, count, is(1));
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package edu.duke.cs.osprey.kstar;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestKSConfSet {
+
+	@Test
+	public void addContains() {
+
+		KSConfSet set = new KSConfSet();
+		assertThat(set.isEmpty(), is(true));
+
+		assertThat(set.add(new int[] { 1, 2, 3 }), is(true));
+		assertThat(set.add(new int[] { 1, 2, 3 }), is(false));
+		assertThat(set.add(new int[] { 3, 2, 1 }), is(true));
+
+		// confs with different lengths are different confs
+		assertThat(set.add(new int[] { 1, 2 }), is(true));
+		assertThat(set.add(new int[] {}), is(true));
+
+		assertThat(set.size(), is(4));
+		assertThat(set.contains(new int[] { 1, 2, 3 }), is(true));
+		assertThat(set.contains(new int[] { 1, 2 }), is(true));
+		assertThat(set.contains(new int[] {}), is(true));
+		assertThat(set.contains(new int[] { 1, 2, 4 }), is(false));
+		assertThat(set.contains(new int[] { 1 }), is(false));
+
+		set.clear();
+		assertThat(set.size(), is(0));
+		assertThat(set.contains(new int[] { 1, 2, 3 }), is(false));
+	}
+
+	@Test
+	public void manyConfs() {
+
+		// compare against a boxed set, with enough confs to rehash a few times
+		Random rand = new Random(12345);
+		KSConfSet set = new KSConfSet();
+		HashSet<List<Integer>> expected = new HashSet<>();
+		List<int[]> added = new ArrayList<>();
+
+		for (int i=0; i<20000; i++) {
+			int[] conf = new int[5];
+			for (int pos=0; pos<conf.length; pos++) {
+				conf[pos] = rand.nextInt(10);
+			}
+			assertThat(set.add(conf), is(expected.add(KSConf.array2List(conf))));
+			if (expected.size() > added.size()) {
+				added.add(conf);
+			}
+		}
+
+		assertThat(set.size(), is(expected.size()));
+		for (List<Integer> conf : expected) {
+			assertThat(set.contains(KSConf.list2Array(new ArrayList<>(conf))), is(true));
+		}
+
+		// iteration should be in insertion order
+		int i = 0;
+		for (int[] conf : set) {
+			assertThat(conf, is(added.get(i++)));
+		}
+		assertThat(i, is(added.size()));
+	}
+}
@@ -0,0 +1,200 @@
+package edu.duke.cs.osprey.kstar;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
+
+public class TestKSScheduler {
+
+	// orders events across all the partition functions
+	private static final AtomicLong clock = new AtomicLong(0);
+
+	/** pretends to process a fixed number of confs, one per slice, and remembers when it ran */
+	@SuppressWarnings("serial")
+	private static class FakePF extends PFAbstract {
+
+		final int numConfs;
+		final boolean fails;
+		int numInits = 0;
+		int numStarts = 0;
+		int numProcessed = 0;
+		long firstSlice = -1;
+		long lastSlice = -1;
+
+		FakePF(String name, int numConfs) {
+			this(name, numConfs, false);
+		}
+
+		FakePF(String name, int numConfs, boolean fails) {
+			this.sequence = new ArrayList<>(Arrays.asList(name));
+			this.numConfs = numConfs;
+			this.fails = fails;
+		}
+
+		@Override
+		public void start() {
+			numStarts++;
+			setRunState(RunState.STARTED);
+		}
+
+		@Override
+		protected void computeSlice() {
+
+			if (fails) {
+				throw new RuntimeException("fake failure");
+			}
+
+			long now = clock.incrementAndGet();
+			if (firstSlice < 0) {
+				firstSlice = now;
+			}
+			lastSlice = now;
+
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException ex) {
+				throw new Error(ex);
+			}
+
+			numProcessed++;
+			processedConfsDuringInterval = processedConfsDuringInterval.add(BigInteger.ONE);
+			effectiveEpsilon = 1.0 - (double)numProcessed/numConfs;
+			if (numProcessed >= numConfs) {
+				eAppx = EApproxReached.TRUE;
+			}
+		}
+
+		@Override
+		protected void compute() {
+			while (eAppx == EApproxReached.FALSE) {
+				computeSlice();
+			}
+		}
+
+		@Override
+		protected void iterate() {
+			computeSlice();
+		}
+
+		@Override
+		protected void printHeader() {
+			// nothing to print
+		}
+
+		@Override
+		public String getImpl() {
+			return "fake";
+		}
+	}
+
+	private static KSCalc makeCalc(int seqId, PFAbstract l, PFAbstract p, PFAbstract pl) {
+		ConcurrentHashMap<Integer,PFAbstract> pfs = new ConcurrentHashMap<>();
+		pfs.put(1, l);
+		pfs.put(0, p);
+		pfs.put(2, pl);
+		return new KSCalc(seqId, pfs);
+	}
+
+	@Test
+	public void sharedPartitionFunctions() {
+
+		// two sequences with the same ligand
+		FakePF l = new FakePF("L", 20);
+		FakePF p1 = new FakePF("P1", 10);
+		FakePF p2 = new FakePF("P2", 15);
+		FakePF pl1 = new FakePF("PL1", 10);
+		FakePF pl2 = new FakePF("PL2", 10);
+
+		List<KSCalc> finished = new ArrayList<>();
+		KSScheduler scheduler = new KSScheduler(null, 4, 2, 8);
+		scheduler.add(makeCalc(1, l, p1, pl1), (calc) -> finished.add(calc));
+		scheduler.add(makeCalc(2, l, p2, pl2), (calc) -> finished.add(calc));
+		scheduler.finish();
+
+		assertThat(finished.size(), is(2));
+		for (KSCalc calc : finished) {
+			assertThat(calc.getEpsilonStatus(), is(PFAbstract.EApproxReached.TRUE));
+		}
+
+		// the ligand should only be computed once
+		assertThat(l.numStarts, is(1));
+		assertThat(l.numProcessed, is(20));
+
+		// each sequence computes the ligand, then the protein, then the complex
+		for (FakePF[] seq : new FakePF[][] { { l, p1, pl1 }, { l, p2, pl2 } }) {
+			assertThat(seq[1].firstSlice, greaterThan(seq[0].lastSlice));
+			assertThat(seq[2].firstSlice, greaterThan(seq[1].lastSlice));
+			assertThat(seq[2].numProcessed, is(10));
+		}
+	}
+
+	@Test
+	public void biggestGapFirst() {
+
+		// with one thread, two sequences should take turns rather than run one after the other
+		FakePF l1 = new FakePF("L1", 200);
+		FakePF l2 = new FakePF("L2", 200);
+
+		KSScheduler scheduler = new KSScheduler(null, 1, 1, 2);
+		scheduler.add(makeCalc(1, l1, new FakePF("P1", 1), new FakePF("PL1", 1)), (calc) -> {});
+		scheduler.add(makeCalc(2, l2, new FakePF("P2", 1), new FakePF("PL2", 1)), (calc) -> {});
+		scheduler.finish();
+
+		assertThat(l2.firstSlice, lessThan(l1.lastSlice));
+		assertThat(l1.numProcessed, is(200));
+		assertThat(l2.numProcessed, is(200));
+	}
+
+	@Test
+	public void initOnSchedulerThreads() {
+
+		// two sequences with the same ligand, and a complex that turns out to have no confs
+		FakePF l = new FakePF("L", 5);
+		FakePF p1 = new FakePF("P1", 5);
+		FakePF p2 = new FakePF("P2", 5);
+		FakePF pl1 = new FakePF("PL1", 5);
+		FakePF pl2 = new FakePF("PL2", 5);
+
+		Thread mainThread = Thread.currentThread();
+		List<KSCalc> finished = new ArrayList<>();
+		KSScheduler scheduler = new KSScheduler(null, 2, 1, 4, (pf, strand) -> {
+			FakePF fakePF = (FakePF)pf;
+			assertThat(Thread.currentThread(), is(not(mainThread)));
+			assertThat(fakePF.numStarts, is(0));
+			fakePF.numInits++;
+			if (pf == pl2) {
+				pf.setEpsilonStatus(PFAbstract.EApproxReached.NOT_POSSIBLE);
+			}
+		});
+		scheduler.add(makeCalc(1, l, p1, pl1), (calc) -> finished.add(calc));
+		scheduler.add(makeCalc(2, l, p2, pl2), (calc) -> finished.add(calc));
+		scheduler.finish();
+
+		assertThat(finished.size(), is(2));
+		for (FakePF pf : Arrays.asList(l, p1, p2, pl1, pl2)) {
+			assertThat(pf.numInits, is(1));
+		}
+		assertThat(l.numStarts, is(1));
+
+		// partition functions that can't be computed after initializing shouldn't start
+		assertThat(pl2.numStarts, is(0));
+		assertThat(pl1.numProcessed, is(5));
+	}
+
+	@Test(expected=RuntimeException.class)
+	public void failure() {
+		KSScheduler scheduler = new KSScheduler(null, 2, 1, 2);
+		scheduler.add(makeCalc(1, new FakePF("L", 1, true), new FakePF("P", 1), new FakePF("PL", 1)), (calc) -> {});
+		scheduler.finish();
+	}
+}
@@ -3,7 +3,10 @@ package edu.duke.cs.osprey.kstar;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -15,11 +18,12 @@ import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
 import edu.duke.cs.osprey.kstar.impl.KSImplLinear;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
 import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.EApproxReached;
+import edu.duke.cs.osprey.kstar.pfunc.PFStore;
 import edu.duke.cs.osprey.parallelism.ThreadParallelism;
 
 public class TestKStar {
 
-	private void testLinear(KSConfigFileParser cfp) {
+	private KSImplLinear testLinear(KSConfigFileParser cfp) {
 		
 		double targetEpsilon = cfp.getParams().getDouble("epsilon");
 		
@@ -99,6 +103,8 @@ public class TestKStar {
 		checkPfunc(result, 2, complexSequences.get(22), "VAL-649 ASP-650 GLU-651 THR-654 PHE-156 LYS-172 ILE-192 THR-193", "9.1350184819e+48", targetEpsilon);
 		checkPfunc(result, 2, complexSequences.get(23), "ILE-649 ASP-650 GLU-651 THR-654 PHE-156 LYS-172 ILE-192 THR-193", "8.0042346894e+49", targetEpsilon);
 		checkPfunc(result, 2, complexSequences.get(24), "LEU-649 ASP-650 GLU-651 THR-654 PHE-156 LYS-172 ILE-192 THR-193", "1.8064201386e+47", targetEpsilon);
+		
+		return result;
 	}
 	
 	@SuppressWarnings("unused")
@@ -186,6 +192,54 @@ public class TestKStar {
 		testLinear(cfp);
 	}
 	
+	@Test
+	public void test2RL0LinearScheduled() {
+		
+		// run single-threaded pfuncs, but several sequences at once
+		ThreadParallelism.setNumThreadsIfPossible(1);
+		MultiTermEnergyFunction.setNumThreads(1);
+		
+		KSConfigFileParser cfp = make2RL0Config();
+		cfp.getParams().setValue("kStarSchedulerThreads", "4");
+		testLinear(cfp);
+	}
+	
+	@Test
+	public void test2RL0LinearStored()
+	throws IOException {
+		
+		ThreadParallelism.setNumThreadsIfPossible(1);
+		MultiTermEnergyFunction.setNumThreads(1);
+		
+		File storeDir = Files.createTempDirectory("pfstore").toFile();
+		try {
+			
+			// the first run fills the store
+			KSConfigFileParser cfp = make2RL0Config();
+			cfp.getParams().setValue("kStarPFuncStoreDir", storeDir.getPath());
+			testLinear(cfp);
+			assertThat(storeDir.list().length, greaterThan(0));
+			
+			// the second run reuses or resumes every partition function, and should get the same answers
+			// at a tighter epsilon
+			cfp = make2RL0Config();
+			cfp.getParams().setValue("kStarPFuncStoreDir", storeDir.getPath());
+			cfp.getParams().setValue("epsilon", "0.98");
+			KSImplLinear result = testLinear(cfp);
+			
+			// finished partition functions should come back exactly as they were stored
+			PFAbstract pfunc = result.getPartitionFunction(1, result.getUniqueSequences(1).get(0));
+			PFStore.Record record = new PFStore(storeDir, cfp.getParams()).read(new PFStore(storeDir, cfp.getParams()).getKey(pfunc));
+			assertThat(pfunc.getQStar(), is(record.qStar));
+			
+		} finally {
+			for (File file : storeDir.listFiles()) {
+				file.delete();
+			}
+			storeDir.delete();
+		}
+	}
+	
 	@Test
 	public void test2RL0LinearParallelConf() {
 		KSConfigFileParser cfp = make2RL0Config();
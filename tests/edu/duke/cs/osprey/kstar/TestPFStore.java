@@ -0,0 +1,279 @@
+package edu.duke.cs.osprey.kstar;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.control.ParamSet;
+import edu.duke.cs.osprey.kstar.pfunc.PFAbstract;
+import edu.duke.cs.osprey.kstar.pfunc.PFAbstract.EApproxReached;
+import edu.duke.cs.osprey.kstar.pfunc.PFStore;
+import edu.duke.cs.osprey.pruning.PruningMatrix;
+
+public class TestPFStore {
+
+	@SuppressWarnings("serial")
+	private static class FakePF extends PFAbstract {
+
+		PruningMatrix pruneMat = makePruningMatrix(0.5);
+
+		FakePF(int strand, String ... sequence) {
+			this.strand = strand;
+			this.sequence = new ArrayList<>(Arrays.asList(sequence));
+		}
+
+		@Override
+		public void start() {
+			// nothing to do
+		}
+
+		@Override
+		protected void computeSlice() {
+			// nothing to do
+		}
+
+		@Override
+		protected void compute() {
+			// nothing to do
+		}
+
+		@Override
+		protected void iterate() {
+			// nothing to do
+		}
+
+		@Override
+		protected void printHeader() {
+			// nothing to print
+		}
+
+		@Override
+		public String getImpl() {
+			return "fake";
+		}
+
+		@Override
+		public boolean canResume() {
+			return true;
+		}
+
+		@Override
+		public PruningMatrix getReducedPruningMatrix() {
+			return pruneMat;
+		}
+
+		void process(int rc, double energy) {
+			updateQStar(new KSConf(new int[] { rc }, energy - 1, energy));
+		}
+
+		void finish(EApproxReached status, double epsilon) {
+			eAppx = status;
+			effectiveEpsilon = epsilon;
+		}
+	}
+
+	private File dir;
+
+	@Before
+	public void before()
+	throws IOException {
+		dir = Files.createTempDirectory("pfstore").toFile();
+	}
+
+	@After
+	public void after() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	private static PruningMatrix makePruningMatrix(double interval) {
+		return new PruningMatrix(3, new int[] { 4, 5, 6 }, interval);
+	}
+
+	private static ParamSet makeParams(String ... namesAndValues) {
+		ParamSet params = new KSConfigFileParser().getParams();
+		params.setVerbosity(false);
+		params.setValue("strand0", "648 654");
+		params.setValue("strand1", "155 194");
+		for (int i=0; i<namesAndValues.length; i+=2) {
+			params.setValue(namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return params;
+	}
+
+	@Test
+	public void keys() {
+
+		FakePF pf = new FakePF(1, "PHE-156", "LYS-172");
+		String key = new PFStore(dir, makeParams("Forcefield", "AMBER")).getKey(pf);
+
+		// same settings, same key
+		assertThat(new PFStore(dir, makeParams("Forcefield", "AMBER")).getKey(pf), is(key));
+
+		// pruning and search settings don't change the partition function
+		assertThat(new PFStore(dir, makeParams("Forcefield", "AMBER", "Ew", "1", "kStarPFuncMethod", "parallel0")).getKey(pf), is(key));
+
+		// but the energy function, strands, and sequence do
+		assertThat(new PFStore(dir, makeParams("Forcefield", "CHARMM22")).getKey(pf), is(not(key)));
+		assertThat(new PFStore(dir, makeParams("Forcefield", "AMBER", "strand1", "155 193")).getKey(pf), is(not(key)));
+		assertThat(new PFStore(dir, makeParams("Forcefield", "AMBER", "NeighborListCutoff", "10")).getKey(pf), is(not(key)));
+		assertThat(new PFStore(dir, makeParams("Forcefield", "AMBER", "IncrementalEnergies", "true")).getKey(pf), is(not(key)));
+		assertThat(new PFStore(dir, makeParams("Forcefield", "AMBER", "CCDNumIter", "10")).getKey(pf), is(not(key)));
+		PFStore store = new PFStore(dir, makeParams("Forcefield", "AMBER"));
+		assertThat(store.getKey(new FakePF(1, "TYR-156", "LYS-172")), is(not(key)));
+		assertThat(store.getKey(new FakePF(0, "PHE-156", "LYS-172")), is(not(key)));
+	}
+
+	@Test
+	public void pruningFingerprints() {
+
+		PruningMatrix pruneMat = makePruningMatrix(0.5);
+		String fingerprint = PFStore.getPruningFingerprint(pruneMat);
+
+		// same pruning, same fingerprint
+		assertThat(PFStore.getPruningFingerprint(makePruningMatrix(0.5)), is(fingerprint));
+
+		// any other pruning changes it
+		assertThat(PFStore.getPruningFingerprint(makePruningMatrix(1.0)), is(not(fingerprint)));
+		assertThat(PFStore.getPruningFingerprint(new PruningMatrix(3, new int[] { 4, 5, 7 }, 0.5)), is(not(fingerprint)));
+
+		PruningMatrix singles = makePruningMatrix(0.5);
+		singles.markAsPruned(new RCTuple(1, 3));
+		String singlesFingerprint = PFStore.getPruningFingerprint(singles);
+		assertThat(singlesFingerprint, is(not(fingerprint)));
+
+		PruningMatrix pairs = makePruningMatrix(0.5);
+		pairs.markAsPruned(new RCTuple(1, 3, 2, 0));
+		String pairsFingerprint = PFStore.getPruningFingerprint(pairs);
+		assertThat(pairsFingerprint, is(not(fingerprint)));
+		assertThat(pairsFingerprint, is(not(singlesFingerprint)));
+
+		pairs.markAsPruned(new RCTuple(0, 2, 2, 5));
+		assertThat(PFStore.getPruningFingerprint(pairs), is(not(pairsFingerprint)));
+
+		// no pruning matrix, no fingerprint
+		assertThat(PFStore.getPruningFingerprint(null), is(nullValue()));
+	}
+
+	@Test
+	public void writeRead() {
+
+		PFStore store = new PFStore(dir, makeParams());
+		String key = store.getKey(new FakePF(2, "PHE-649", "PHE-156"));
+		assertThat(store.read(key), is(nullValue()));
+
+		PFStore.ConfLog confs = new PFStore.ConfLog();
+		for (int i=0; i<100; i++) {
+			confs.add(new int[] { i, 2*i }, -i, -i - 0.5);
+		}
+
+		PFStore.Record record = new PFStore.Record();
+		record.key = key;
+		record.pruning = "pruning";
+		record.canResume = true;
+		record.status = EApproxReached.TRUE;
+		record.effectiveEpsilon = 0.01;
+		record.qStar = new BigDecimal("1.5e30");
+		record.qPrime = new BigDecimal("2e27");
+		record.pStar = BigDecimal.ZERO;
+		record.numProcessed = BigInteger.valueOf(100);
+		record.confs = confs;
+		store.write(record);
+
+		// a new store, like a later run, should find the record
+		PFStore.Record stored = new PFStore(dir, makeParams()).read(key);
+		assertThat(stored.status, is(EApproxReached.TRUE));
+		assertThat(stored.effectiveEpsilon, is(0.01));
+		assertThat(stored.qStar, is(record.qStar));
+		assertThat(stored.qPrime, is(record.qPrime));
+		assertThat(stored.numProcessed, is(record.numProcessed));
+		assertThat(stored.confs.size(), is(100));
+		for (int i=0; i<100; i++) {
+			KSConf conf = stored.confs.get(i);
+			assertThat(conf.getConfArray(), is(new int[] { i, 2*i }));
+			assertThat(conf.getEnergyBound(), is((double)-i));
+			assertThat(conf.getEnergy(), is(-i - 0.5));
+		}
+
+		// other partition functions shouldn't see it
+		assertThat(store.read(store.getKey(new FakePF(2, "PHE-649", "TYR-156"))), is(nullValue()));
+	}
+
+	@Test
+	public void loadFinished() {
+
+		PFStore store = new PFStore(dir, makeParams());
+		FakePF pf = new FakePF(1, "PHE-156");
+		store.load(pf);
+
+		PFStore.Record record = new PFStore.Record();
+		record.key = store.getKey(pf);
+		record.status = EApproxReached.TRUE;
+		record.effectiveEpsilon = PFAbstract.targetEpsilon/2;
+		record.qStar = new BigDecimal("1.5e30");
+		record.qPrime = new BigDecimal("2e27");
+		record.pStar = BigDecimal.ZERO;
+		record.numProcessed = BigInteger.valueOf(42);
+		record.confs = new PFStore.ConfLog();
+		store.write(record);
+
+		pf = new FakePF(1, "PHE-156");
+		assertThat(store.load(pf), is(true));
+		assertThat(pf.getEpsilonStatus(), is(EApproxReached.TRUE));
+		assertThat(pf.getQStar(), is(record.qStar));
+		assertThat(pf.getQPrime(), is(record.qPrime));
+		assertThat(pf.getNumProcessed(), is(record.numProcessed));
+		assertThat(pf.getEffectiveEpsilon(), is(record.effectiveEpsilon));
+	}
+
+	@Test
+	public void loadUnfinished() {
+
+		// an earlier run got partway, or finished to a looser epsilon than any target
+		PFStore store = new PFStore(dir, makeParams());
+		FakePF pf = new FakePF(1, "PHE-156");
+		store.load(pf);
+		for (int i=0; i<10; i++) {
+			pf.process(i, -i);
+		}
+		pf.finish(EApproxReached.TRUE, 1.0);
+		BigDecimal qStar = pf.getQStar();
+		store.save(pf);
+
+		// the next run should get the minimized confs back, but not the status
+		pf = new FakePF(1, "PHE-156");
+		assertThat(store.load(pf), is(false));
+		assertThat(pf.getEpsilonStatus(), is(EApproxReached.FALSE));
+		assertThat(pf.getQStar(), is(qStar));
+		assertThat(pf.getNumProcessed(), is(BigInteger.valueOf(10)));
+		for (int i=0; i<10; i++) {
+			assertThat(pf.getProcessedConfsSet().contains(new int[] { i }), is(true));
+		}
+
+		// and it should keep them when it saves its own confs
+		pf.process(10, -10);
+		pf.finish(EApproxReached.NOT_POSSIBLE, 1.0);
+		store.save(pf);
+		assertThat(store.read(store.getKey(pf)).confs.size(), is(11));
+
+		// but with different pruning, the confs aren't from the same conf space, so start over
+		pf = new FakePF(1, "PHE-156");
+		pf.pruneMat.markAsPruned(new RCTuple(0, 3));
+		assertThat(store.load(pf), is(false));
+		assertThat(pf.getNumProcessed(), is(BigInteger.ZERO));
+	}
+}
@@ -26,6 +26,8 @@ import edu.duke.cs.osprey.ematrix.EnergyMatrix;
 import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction;
 import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.kstar.pfunc.ParallelConfPartitionFunction;
+import edu.duke.cs.osprey.multistatekstar.PartitionFunctionDiscrete;
+import edu.duke.cs.osprey.pruning.InvertedPruningMatrix;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
 
 public class TestParallelConfPartitionFunction extends TestBase {
@@ -117,6 +119,65 @@ public class TestParallelConfPartitionFunction extends TestBase {
 		testProtein(Parallelism.makeGpu(1, 2));
 	}
 	
+	private static void assertSameValues(PartitionFunction observed, PartitionFunction expected) {
+		assertThat(observed.getStatus(), is(expected.getStatus()));
+		assertThat(observed.getValues().qstar, isRelatively(expected.getValues().qstar, 1e-6));
+		assertThat(observed.getValues().qprime, isRelatively(expected.getValues().qprime, 1e-6));
+		assertThat(observed.getValues().pstar, isRelatively(expected.getValues().pstar, 1e-6));
+		assertThat(observed.getValues().getEffectiveEpsilon(), isRelatively(expected.getValues().getEffectiveEpsilon(), 1e-6));
+	}
+	
+	@Test
+	public void testProteinBigExp() {
+		
+		KSSearchProblem search = TestPartitionFunction.makeSearch(0, "648", "654", "649 650 651 654");
+		
+		// the number of confs we evaluate before reaching epsilon depends on thread timing,
+		// so use a tiny epsilon to get the same answer with BigDecimal and BigExp
+		final double targetEpsilon = 1e-9;
+		
+		Pfunc bigDecimalPfunc = makePfunc(search);
+		bigDecimalPfunc.pfunc.init(targetEpsilon);
+		bigDecimalPfunc.pfunc.compute();
+		bigDecimalPfunc.cleanup();
+		
+		Pfunc bigExpPfunc = makePfunc(search);
+		bigExpPfunc.pfunc.setUseBigExp(true);
+		bigExpPfunc.pfunc.init(targetEpsilon);
+		bigExpPfunc.pfunc.compute();
+		bigExpPfunc.cleanup();
+		
+		assertPfunc(bigDecimalPfunc.pfunc, PartitionFunction.Status.Estimated, targetEpsilon, "4.3704590631e+04");
+		assertPfunc(bigExpPfunc.pfunc, PartitionFunction.Status.Estimated, targetEpsilon, "4.3704590631e+04");
+		assertThat(bigExpPfunc.pfunc.getValues().qstar, isRelatively(bigDecimalPfunc.pfunc.getValues().qstar, 1e-6));
+	}
+	
+	@Test
+	public void testLigandDiscreteBigExp() {
+		
+		KSSearchProblem search = TestPartitionFunction.makeSearch(1, "155", "194", "156 172 192 193");
+		ConfSearchFactory confSearchFactory = (emat, pmat) -> new ConfAStarTree(
+			new StaticScoreHMeanAStarOrder(),
+			new PairwiseGScorer(emat),
+			new MPLPPairwiseHScorer(new NodeUpdater(), emat, 1, 0.0001),
+			new RCs(pmat)
+		);
+		
+		// discrete pfuncs don't minimize, so they're deterministic
+		final double targetEpsilon = 0.05;
+		PartitionFunctionDiscrete[] pfuncs = new PartitionFunctionDiscrete[2];
+		for (int i=0; i<2; i++) {
+			pfuncs[i] = new PartitionFunctionDiscrete(search.emat, search.pruneMat, new InvertedPruningMatrix(search.pruneMat), confSearchFactory, null);
+			pfuncs[i].setReportProgress(false);
+			pfuncs[i].setUseBigExp(i == 1);
+			pfuncs[i].init(targetEpsilon);
+			pfuncs[i].compute();
+		}
+		
+		assertThat(pfuncs[0].getStatus(), is(PartitionFunction.Status.Estimated));
+		assertSameValues(pfuncs[1], pfuncs[0]);
+	}
+	
 	public void testLigand(Parallelism parallelism) {
 		
 		KSSearchProblem search = TestPartitionFunction.makeSearch(1, "155", "194", "156 172 192 193");
@@ -159,6 +159,10 @@ public class TestPartitionFunction extends TestBase {
 	private PFAbstract makeAndComputePfunc(String pfImpl, int strand, String firstRes, String lastRes, String flexibility, double targetEpsilon) {
 		KSSearchProblem search = makeSearch(strand, firstRes, lastRes, flexibility);
 		PFAbstract pfunc = makePfunc(search, pfImpl, strand, flexibility);
+		return computePfunc(pfunc, targetEpsilon);
+	}
+	
+	private PFAbstract computePfunc(PFAbstract pfunc, double targetEpsilon) {
 		PFAbstract.targetEpsilon = targetEpsilon;
 		pfunc.start();
 		pfunc.runToCompletion();
@@ -274,6 +278,21 @@ public class TestPartitionFunction extends TestBase {
 	}
 	
 	
+	@Test
+	public void testProteinWildTypeParallelConfBigExp() {
+		
+		String flexibility = "649 650 651 654";
+		KSSearchProblem search = makeSearch(0, "648", "654", flexibility);
+		KSConfigFileParser cfp = new KSConfigFileParser();
+		cfp.getParams().setValue("MinimizationThreads", Integer.toString(NumThreads));
+		cfp.getParams().setValue("MinimizationGpus", Integer.toString(NumGpus));
+		cfp.getParams().setValue("kStarPFuncBigExp", "true");
+		PFAbstract pfunc = computePfunc(makePfunc(search, "parallelConf", 0, flexibility, cfp), 0.05);
+		
+		assertPfunc(pfunc, EApproxReached.TRUE, 0.05, "4.3704590631e+04"); // e=0.05
+	}
+	
+	
 	// mutant tests
 	
 	@Test
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import cern.colt.matrix.DoubleMatrix1D;
 import edu.duke.cs.osprey.TestBase;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
 import edu.duke.cs.osprey.astar.conf.RCs;
@@ -34,6 +35,7 @@ import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
 import edu.duke.cs.osprey.energy.forcefield.GpuForcefieldEnergy;
 import edu.duke.cs.osprey.gpu.BufferTools;
 import edu.duke.cs.osprey.gpu.opencl.GpuQueuePool;
+import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.parallelism.ThreadPoolTaskExecutor;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
 import edu.duke.cs.osprey.structure.Molecule;
@@ -118,6 +120,7 @@ public class BenchmarkMinimization extends TestBase {
 		//benchmarkSerial(search, confs);
 		benchmarkParallel(search, confs);
 		//compareOneConf(search, confs);
+		//compareEvaluations(search, confs.subList(0, 64));
 	}
 
 	private static void benchmarkSerial(SearchProblem search, List<ScoredConf> confs)
@@ -174,6 +177,17 @@ public class BenchmarkMinimization extends TestBase {
 			}
 		}
 		
+		// benchmark cpu with virtual threads
+		for (int numThreads : numThreadsList) {
+			
+			System.out.println("\nBenchmarking " + numThreads + " thread(s) with CPU efuncs and virtual threads...");
+			ConfMinimizer minimizer = new CpuConfMinimizer.Builder(ffparams, interactionsFactory, search.confSpace)
+				.setNumThreads(numThreads)
+				.setTaskExecutorType(Parallelism.TaskExecutorType.VirtualThreads)
+				.build();
+			benchmark(minimizer, confs, oneCpuStopwatch);
+		}
+		
 		// benchmark opencl
 		for (int numStreams : numStreamsList) {
 			System.out.println("\nBenchmarking " + numStreams + " stream(s) with OpenCL efuncs...");
@@ -264,6 +278,74 @@ public class BenchmarkMinimization extends TestBase {
 		System.out.println(String.format("%21.16f   %e", cudaCcdEnergy, cudaCcdEnergy - originalEnergy));
 	}
 	
+	private static void compareEvaluations(SearchProblem search, List<ScoredConf> confs) {
+		
+		ForcefieldInteractionsGenerator ffintergen = new ForcefieldInteractionsGenerator();
+		Factory<ForcefieldInteractions,Molecule> ffinteractions = (mol) -> ffintergen.makeFullConf(search.confSpace, search.shellResidues, mol);
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		
+		int numCcdEvals = 0;
+		int numLbfgsEvals = 0;
+		double ccdEnergySum = 0;
+		double lbfgsEnergySum = 0;
+		double maxEnergyDiff = Double.NEGATIVE_INFINITY;
+		
+		for (ScoredConf conf : confs) {
+			
+			ParameterizedMoleculeCopy pmol = new ParameterizedMoleculeCopy(search.confSpace);
+			BigForcefieldEnergy efunc = new BigForcefieldEnergy(ffparams, ffinteractions.make(pmol.getCopiedMolecule()), BufferTools.Type.Normal, BigForcefieldEnergy.Kernel.Vectorized);
+			MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(efunc, search.confSpace, new RCTuple(conf.getAssignments()), pmol);
+			
+			// a value with a gradient counts as one evaluation, since the analytic gradient comes with the energy
+			int[] numEvals = { 0 };
+			ObjectiveFunction counted = new ObjectiveFunction() {
+				
+				private static final long serialVersionUID = 1L;
+				
+				@Override public int getNumDOFs() { return mof.getNumDOFs(); }
+				@Override public DoubleMatrix1D[] getConstraints() { return mof.getConstraints(); }
+				@Override public void setDOFs(DoubleMatrix1D x) { mof.setDOFs(x); }
+				@Override public void setDOF(int dof, double val) { mof.setDOF(dof, val); }
+				@Override public double getInitStepSize(int dof) { return mof.getInitStepSize(dof); }
+				@Override public boolean isDOFAngle(int dof) { return mof.isDOFAngle(dof); }
+				@Override public ArrayList<Integer> getInitFixableDOFs() { return mof.getInitFixableDOFs(); }
+				
+				@Override
+				public double getValue(DoubleMatrix1D x) {
+					numEvals[0]++;
+					return mof.getValue(x);
+				}
+				
+				@Override
+				public double getValForDOF(int dof, double val) {
+					numEvals[0]++;
+					return mof.getValForDOF(dof, val);
+				}
+				
+				@Override
+				public double getValueAndGradient(DoubleMatrix1D x, DoubleMatrix1D gradient) {
+					numEvals[0]++;
+					return mof.getValueAndGradient(x, gradient);
+				}
+			};
+			
+			numEvals[0] = 0;
+			double ccdEnergy = new SimpleCCDMinimizer(counted).minimize().energy;
+			numCcdEvals += numEvals[0];
+			
+			numEvals[0] = 0;
+			double lbfgsEnergy = new LBFGSMinimizer(counted).minimize().energy;
+			numLbfgsEvals += numEvals[0];
+			
+			ccdEnergySum += ccdEnergy;
+			lbfgsEnergySum += lbfgsEnergy;
+			maxEnergyDiff = Math.max(maxEnergyDiff, lbfgsEnergy - ccdEnergy);
+		}
+		
+		System.out.println(String.format("CCD:    %8.1f evals/conf, mean energy %12.6f", (double)numCcdEvals/confs.size(), ccdEnergySum/confs.size()));
+		System.out.println(String.format("L-BFGS: %8.1f evals/conf, mean energy %12.6f, max energy above CCD %.6f", (double)numLbfgsEvals/confs.size(), lbfgsEnergySum/confs.size(), maxEnergyDiff));
+	}
+	
 	private static void checkEnergies(List<EnergiedConf> minimizedConfs) {
 		
 		// what do we expect the energies to be?
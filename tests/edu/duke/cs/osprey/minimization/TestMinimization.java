@@ -12,6 +12,8 @@ import java.util.Map;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import cern.colt.matrix.DoubleFactory1D;
+import cern.colt.matrix.DoubleMatrix1D;
 import edu.duke.cs.osprey.TestBase;
 import edu.duke.cs.osprey.astar.conf.ConfAStarTree;
 import edu.duke.cs.osprey.astar.conf.RCs;
@@ -35,8 +37,10 @@ import edu.duke.cs.osprey.energy.EnergyFunction;
 import edu.duke.cs.osprey.energy.EnergyFunctionGenerator;
 import edu.duke.cs.osprey.energy.ForcefieldInteractionsGenerator;
 import edu.duke.cs.osprey.energy.MultiTermEnergyFunction;
+import edu.duke.cs.osprey.energy.forcefield.BigForcefieldEnergy;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldInteractions;
 import edu.duke.cs.osprey.energy.forcefield.ForcefieldParams;
+import edu.duke.cs.osprey.parallelism.Parallelism;
 import edu.duke.cs.osprey.pruning.PruningMatrix;
 import edu.duke.cs.osprey.structure.Molecule;
 import edu.duke.cs.osprey.tools.Factory;
@@ -190,6 +194,90 @@ public class TestMinimization extends TestBase {
 		check((ffparams, intergen, confSpace) -> new CpuConfMinimizer.Builder(ffparams, intergen, confSpace).setNumThreads(2).build());
 	}
 	
+	@Test
+	public void testCpuConfMinimizer2VirtualThreads() {
+		check((ffparams, intergen, confSpace) -> new CpuConfMinimizer.Builder(ffparams, intergen, confSpace).setNumThreads(2).setTaskExecutorType(Parallelism.TaskExecutorType.VirtualThreads).build());
+	}
+	
+	@Test
+	public void testCpuConfMinimizerLBFGS() {
+		
+		// L-BFGS moves all the dofs at once, so it can settle into a different local minimum in the voxel than CCD does
+		// usually that one is lower, but sometimes it's a little higher
+		check((ffparams, intergen, confSpace) -> new CpuConfMinimizer.Builder(ffparams, intergen, confSpace)
+			.setForcefieldKernel(BigForcefieldEnergy.Kernel.Vectorized)
+			.setMinimizers((mof) -> new LBFGSMinimizer(mof))
+			.build(),
+			0.2
+		);
+	}
+	
+	@Test
+	public void testAnalyticGradientDihedrals() {
+		
+		for (boolean doSolv : Arrays.asList(true, false)) {
+			Info info = Infos.get(doSolv);
+			for (int i=0; i<4; i++) {
+				checkGradient(info.ffparams, info.search.confSpace, new RCTuple(info.confs.get(i).getAssignments()), info.intergen);
+			}
+		}
+	}
+	
+	@Test
+	public void testAnalyticGradientStrands() {
+		
+		ForcefieldParams ffparams = makeDefaultFFParams();
+		
+		ResidueFlexibility resFlex = new ResidueFlexibility();
+		resFlex.addFlexible("40 41 42");
+		ArrayList<String[]> moveableStrands = new ArrayList<String[]>();
+		moveableStrands.add(new String[] { "40", "42" });
+		SearchProblem search = new SearchProblem(
+			"test", "test/1CC8/1CC8.ss.pdb", 
+			resFlex.flexResList, resFlex.allowedAAs, false, true, false, new EPICSettings(), false, new LUTESettings(),
+			new DEEPerSettings(), moveableStrands, new ArrayList<String[]>(), false, false, false, false, null,
+			false, new ArrayList<>()
+		);
+		
+		ForcefieldInteractionsGenerator ffintergen = new ForcefieldInteractionsGenerator();
+		Factory<ForcefieldInteractions,Molecule> intergen = (mol) -> ffintergen.makeFullConf(search.confSpace, search.shellResidues, mol);
+		
+		checkGradient(ffparams, search.confSpace, new RCTuple(new int[] { 0, 0, 0 }), intergen);
+	}
+	
+	private void checkGradient(ForcefieldParams ffparams, ConfSpace confSpace, RCTuple tuple, Factory<ForcefieldInteractions,Molecule> intergen) {
+		
+		ParameterizedMoleculeCopy pmol = new ParameterizedMoleculeCopy(confSpace);
+		BigForcefieldEnergy efunc = new BigForcefieldEnergy(ffparams, intergen.make(pmol.getCopiedMolecule()));
+		MoleculeModifierAndScorer mof = new MoleculeModifierAndScorer(efunc, confSpace, tuple, pmol);
+		assertThat(mof.hasAnalyticGradient(), is(true));
+		
+		// check somewhere that's not the center of the voxel
+		int n = mof.getNumDOFs();
+		DoubleMatrix1D x = DoubleFactory1D.dense.make(n);
+		for (int d=0; d<n; d++) {
+			double min = mof.getConstraints()[0].get(d);
+			double max = mof.getConstraints()[1].get(d);
+			x.set(d, min + (max - min)*(d + 1)/(n + 2));
+		}
+		
+		DoubleMatrix1D gradient = DoubleFactory1D.dense.make(n);
+		double energy = mof.getValueAndGradient(x, gradient);
+		assertThat(energy, isAbsolutely(mof.getValue(x), 1e-9));
+		
+		// compare to central differences
+		final double h = 1e-5;
+		for (int d=0; d<n; d++) {
+			DoubleMatrix1D xh = x.copy();
+			xh.set(d, x.get(d) + h);
+			double fplus = mof.getValue(xh);
+			xh.set(d, x.get(d) - h);
+			double fminus = mof.getValue(xh);
+			double expected = (fplus - fminus)/(2*h);
+			assertThat("dof " + d, gradient.get(d), isAbsolutely(expected, 1e-4*Math.max(1, Math.abs(expected))));
+		}
+	}
+	
 	@Test
 	public void testCudaConfMinmizer1Stream() {
 		check((ffparams, intergen, confSpace) -> new GpuConfMinimizer.Builder(ffparams, intergen, confSpace).setGpuInfo(GpuConfMinimizer.Type.Cuda, 1, 1).build());
@@ -225,6 +313,10 @@ public class TestMinimization extends TestBase {
 	}
 	
 	private void check(MinimizerFactory factory) {
+		check(factory, Epsilon);
+	}
+	
+	private void check(MinimizerFactory factory, double epsilon) {
 		
 		for (boolean doSolv : Arrays.asList(true, false)) {
 			
@@ -245,7 +337,7 @@ public class TestMinimization extends TestBase {
 				
 				// penalize large errors, but not lower energies
 				double absErr = econf.getEnergy() - info.expectedEnergies[i];
-				assertThat(absErr, lessThanOrEqualTo(Epsilon));
+				assertThat(absErr, lessThanOrEqualTo(epsilon));
 			}
 		}
 	}
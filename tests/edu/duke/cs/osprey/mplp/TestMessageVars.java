@@ -158,4 +158,25 @@ public class TestMessageVars extends TestBase {
 		assertThat(vars.getEnergyWithout(0, 0, 1), is(0.0));
 		assertThat(vars.getEnergyWithout(0, 0, 2), is(0.0));
 	}
+	
+	@Test
+	public void testInitFromParentMatchesTraditional() {
+		
+		// get the RCs and a conf index
+		SearchProblem search = makeSearchProblemDagkRigid();
+		RCs rcs = new RCs(search.pruneMat);
+		ConfAStarNode node = new ConfAStarNode();
+		node = new ConfAStarNode(node, 1, 0);
+		ConfIndex parentIndex = new ConfIndex(rcs.getNumPos());
+		parentIndex.index(node);
+		
+		// warm-starting from the traditional messages should give the traditional messages
+		MessageVars parentVars = new MessageVars(rcs, parentIndex);
+		parentVars.initTraditionalAStar(search.emat);
+		ConfIndex childIndex = new ConfIndex(parentIndex, 4, 2);
+		MessageVars childVars = new MessageVars(rcs, childIndex);
+		childVars.initFromParent(parentVars, 4, 2, search.emat);
+		
+		checkTotalEnergy(search.emat, rcs, childIndex, childVars);
+	}
 }
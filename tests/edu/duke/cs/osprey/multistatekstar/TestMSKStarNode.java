@@ -0,0 +1,121 @@
+package edu.duke.cs.osprey.multistatekstar;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.kstar.pfunc.PartitionFunction.Status;
+import edu.duke.cs.osprey.parallelism.TaskExecutor;
+import edu.duke.cs.osprey.parallelism.ThreadPoolTaskExecutor;
+
+public class TestMSKStarNode {
+
+	private static class FakePF extends PartitionFunctionMinimized {
+
+		FakePF(Status status) {
+			super(null, null, null, null, null);
+			this.status = status;
+		}
+	}
+
+	private static ArrayList<Runnable> makeTasks(AtomicInteger count, int numTasks, int failIndex) {
+		ArrayList<Runnable> tasks = new ArrayList<>();
+		for(int i=0;i<numTasks;++i) {
+			boolean fail = i==failIndex;
+			tasks.add(() -> {
+				count.incrementAndGet();
+				if(fail) throw new IllegalStateException("task failed");
+			});
+		}
+		return tasks;
+	}
+
+	private static void assertTaskFailurePropagates(TaskExecutor executor) {
+
+		AtomicInteger count = new AtomicInteger(0);
+		try {
+			MSKStarNode.runTasks(executor, makeTasks(count, 20, 7));
+			fail("the task failure should be rethrown");
+		} catch(RuntimeException ex) {
+			assertThat(ex.getCause(), instanceOf(IllegalStateException.class));
+		}
+
+		//the rest of the tasks still finished, rather than hanging the executor
+		assertThat(count.get(), is(20));
+
+		//and the executor still works
+		count.set(0);
+		MSKStarNode.runTasks(executor, makeTasks(count, 20, -1));
+		assertThat(count.get(), is(20));
+	}
+
+	@Test
+	public void runTasksSerial() {
+		assertTaskFailurePropagates(new TaskExecutor());
+	}
+
+	@Test
+	public void runTasksThreads() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.start(4);
+		try {
+			assertTaskFailurePropagates(executor);
+		} finally {
+			executor.stop();
+		}
+	}
+
+	private static KStarScoreMinimized makeScore(PartitionFunctionMinimized ... pfs) {
+		MSKStarSettings settings = new MSKStarSettings();
+		settings.search = new MSSearchProblem[3];
+		KStarScoreMinimized score = new KStarScoreMinimized(settings);
+		for(int subState=0;subState<pfs.length;++subState) {
+			score.partitionFunctions[subState] = pfs[subState];
+			score.initialized[subState] = pfs[subState] != null;
+		}
+		return score;
+	}
+
+	@Test
+	public void shareUnboundState() {
+
+		FakePF pf = new FakePF(Status.Estimated);
+		KStarScoreMinimized owner = makeScore(pf);
+		KStarScoreMinimized borrower = makeScore();
+
+		assertThat(borrower.shareUnboundState(0, owner), is(true));
+		assertThat(borrower.getPartitionFunction(0), sameInstance(pf));
+		assertThat(borrower.initialized[0], is(true));
+	}
+
+	@Test
+	public void shareUnboundStateOwnerFailedConstraints() {
+
+		KStarScoreMinimized owner = makeScore(new FakePF(Status.Estimated));
+		owner.constrSatisfied = false;
+		KStarScoreMinimized borrower = makeScore();
+
+		//the borrower has to compute its own partition function
+		assertThat(borrower.shareUnboundState(0, owner), is(false));
+		assertThat(borrower.getPartitionFunction(0), is(nullValue()));
+		assertThat(borrower.initialized[0], is(false));
+	}
+
+	@Test
+	public void shareUnboundStateOwnerNotEstimated() {
+
+		KStarScoreMinimized borrower = makeScore();
+		assertThat(borrower.shareUnboundState(0, makeScore()), is(false));
+		assertThat(borrower.shareUnboundState(0, makeScore(new FakePF(Status.NotEnoughFiniteEnergies))), is(false));
+		assertThat(borrower.getPartitionFunction(0), is(nullValue()));
+	}
+
+	@Test(expected=RuntimeException.class)
+	public void shareBoundState() {
+		makeScore().shareUnboundState(2, makeScore(null, null, new FakePF(Status.Estimated)));
+	}
+}
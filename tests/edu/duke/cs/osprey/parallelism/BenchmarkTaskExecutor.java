@@ -101,6 +101,35 @@ public class BenchmarkTaskExecutor {
 				TimeFormatter.format(avgNs, 2),
 				(float)baseNs*numThreads/avgNs
 			));
+			
+			totalNs = 0;
+			for (int i=0; i<numTrials; i++) {
+		
+				System.out.print(String.format("Benchmarking %2d work-stealing threads...  ", numThreads));
+				
+				WorkStealingTaskExecutor tasks = new WorkStealingTaskExecutor();
+				tasks.queueSize = factory.numRuns;
+				tasks.start(numThreads);
+				
+				Stopwatch stopwatch = benchmark(factory, tasks, baseNs);
+				
+				System.out.println(String.format("Finished in %s, speedup: %.2fx",
+					stopwatch.getTime(2),
+					(float)baseNs*numThreads/stopwatch.getTimeNs()
+				));
+				
+				if (i >= numTrials/2) {
+					totalNs += stopwatch.getTimeNs();
+				}
+				
+				// cleanup
+				tasks.stopAndWait(10000);
+			}
+			avgNs = totalNs*2/numTrials;
+			System.out.println(String.format("\tLast half avg time %s, speedup: %.2fx",
+				TimeFormatter.format(avgNs, 2),
+				(float)baseNs*numThreads/avgNs
+			));
 		}
 	}
 	
@@ -0,0 +1,150 @@
+package edu.duke.cs.osprey.parallelism;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestVirtualThreadTaskExecutor {
+	
+	@Test
+	public void countToTen() {
+		
+		VirtualThreadTaskExecutor tasks = new VirtualThreadTaskExecutor();
+		tasks.start(1);
+		
+		int[] count = { 0 };
+		
+		for (int i=0; i<10; i++) {
+			tasks.submit(() -> {
+				// no work to do
+			}, (task) -> {
+				// increment the counter, listeners are called one at a time
+				count[0]++;
+			});
+		}
+		tasks.waitForFinish();
+		tasks.stop();
+		
+		assertThat(count[0], is(10));
+	}
+	
+	@Test
+	public void countLotsOfTimes() {
+		
+		VirtualThreadTaskExecutor tasks = new VirtualThreadTaskExecutor();
+		tasks.start(4);
+		
+		for (int r=0; r<1000; r++) {
+			
+			int[] count = { 0 };
+			
+			for (int i=0; i<4; i++) {
+				tasks.submit(() -> {
+					// on task thread: no work to do
+				}, (task) -> {
+					// on some task thread, but only one at a time: increment counter
+					count[0]++;
+				});
+			}
+			tasks.waitForFinish();
+		
+			assertThat(count[0], is(4));
+		}
+		tasks.stop();
+	}
+	
+	@Test
+	public void countWithQueue() {
+		
+		VirtualThreadTaskExecutor tasks = new VirtualThreadTaskExecutor();
+		tasks.queueSize = 100;
+		tasks.start(4);
+		
+		int[] count = { 0 };
+		
+		for (int i=0; i<10000; i++) {
+			tasks.submit(() -> {
+				// no work to do
+			}, (task) -> {
+				count[0]++;
+			});
+		}
+		tasks.waitForFinish();
+		tasks.stop();
+		
+		assertThat(count[0], is(10000));
+	}
+	
+	@Test
+	public void cpuWorkIsBounded() {
+		
+		VirtualThreadTaskExecutor tasks = new VirtualThreadTaskExecutor();
+		tasks.start(2);
+		
+		AtomicInteger numRunning = new AtomicInteger(0);
+		AtomicInteger maxRunning = new AtomicInteger(0);
+		
+		for (int i=0; i<100; i++) {
+			tasks.submit(() -> {
+				int n = numRunning.incrementAndGet();
+				maxRunning.accumulateAndGet(n, Math::max);
+				Thread.yield();
+				numRunning.decrementAndGet();
+			}, (task) -> {});
+		}
+		tasks.waitForFinish();
+		tasks.stop();
+		
+		assertThat(maxRunning.get(), lessThanOrEqualTo(2));
+	}
+	
+	@Test
+	public void fallbackThreadsAreBounded() {
+		
+		// without virtual threads, each in-flight task must not get its own platform thread
+		VirtualThreadTaskExecutor tasks = new VirtualThreadTaskExecutor();
+		tasks.start(2);
+		
+		Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		for (int i=0; i<1000; i++) {
+			tasks.submit(() -> {
+				threads.add(Thread.currentThread());
+			}, (task) -> {});
+		}
+		tasks.waitForFinish();
+		boolean isVirtual = tasks.isVirtual();
+		tasks.stop();
+		
+		if (!isVirtual) {
+			assertThat(threads.size(), lessThanOrEqualTo(2));
+		}
+	}
+	
+	@Test
+	public void fromParallelism() {
+		
+		TaskExecutor tasks = Parallelism.makeCpu(2, Parallelism.TaskExecutorType.VirtualThreads).makeTaskExecutor();
+		assertThat(tasks, is(instanceOf(VirtualThreadTaskExecutor.class)));
+		assertThat(tasks.getParallelism(), is(2));
+		tasks.stop();
+	}
+	
+	@Test(expected=RuntimeException.class)
+	public void taskFailure() {
+		
+		VirtualThreadTaskExecutor tasks = new VirtualThreadTaskExecutor();
+		tasks.start(2);
+		
+		tasks.submit(() -> {
+			throw new IllegalStateException("oops");
+		}, (task) -> {
+			fail("listener shouldn't be called for failed tasks");
+		});
+		tasks.waitForFinish();
+	}
+}
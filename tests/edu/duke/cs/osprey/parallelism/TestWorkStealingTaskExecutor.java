@@ -0,0 +1,124 @@
+package edu.duke.cs.osprey.parallelism;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestWorkStealingTaskExecutor {
+	
+	@Test
+	public void countToTen() {
+		
+		WorkStealingTaskExecutor tasks = new WorkStealingTaskExecutor();
+		tasks.start(1);
+		
+		int[] count = { 0 };
+		
+		for (int i=0; i<10; i++) {
+			tasks.submit(() -> {
+				// no work to do
+			}, (task) -> {
+				// increment the counter, listeners are called one at a time
+				count[0]++;
+			});
+		}
+		tasks.waitForFinish();
+		
+		assertThat(count[0], is(10));
+	}
+	
+	@Test
+	public void countLotsOfTimes() {
+		
+		WorkStealingTaskExecutor tasks = new WorkStealingTaskExecutor();
+		tasks.start(4);
+		
+		for (int r=0; r<1000; r++) {
+			
+			int[] count = { 0 };
+			
+			for (int i=0; i<4; i++) {
+				tasks.submit(() -> {
+					// on worker thread: no work to do
+				}, (task) -> {
+					// on some worker thread, but only one at a time: increment counter
+					count[0]++;
+				});
+			}
+			tasks.waitForFinish();
+		
+			assertThat(count[0], is(4));
+		}
+	}
+	
+	@Test
+	public void countWithQueue() {
+		
+		WorkStealingTaskExecutor tasks = new WorkStealingTaskExecutor();
+		tasks.queueSize = 100;
+		tasks.start(4);
+		
+		int[] count = { 0 };
+		
+		for (int i=0; i<100000; i++) {
+			tasks.submit(() -> {
+				// no work to do
+			}, (task) -> {
+				count[0]++;
+			});
+		}
+		tasks.waitForFinish();
+		
+		assertThat(count[0], is(100000));
+	}
+	
+	@Test
+	public void listenersCanSubmitWhenFull() {
+		
+		WorkStealingTaskExecutor tasks = new WorkStealingTaskExecutor();
+		tasks.start(2);
+		
+		int[] count = { 0 };
+		
+		// every listener submits another task while the executor is full,
+		// which would deadlock if listeners had to wait for a free slot
+		for (int i=0; i<100; i++) {
+			tasks.submit(() -> {
+				// no work to do
+			}, (task) -> {
+				count[0]++;
+				tasks.submit(() -> {
+					// no work to do
+				}, (task2) -> {
+					count[0]++;
+				});
+			});
+		}
+		tasks.waitForFinish();
+		
+		assertThat(count[0], is(200));
+	}
+	
+	@Test
+	public void fromParallelism() {
+		
+		TaskExecutor tasks = Parallelism.makeCpu(2, Parallelism.TaskExecutorType.WorkStealing).makeTaskExecutor();
+		assertThat(tasks, is(instanceOf(WorkStealingTaskExecutor.class)));
+		assertThat(tasks.getParallelism(), is(2));
+	}
+	
+	@Test(expected=RuntimeException.class)
+	public void taskFailure() {
+		
+		WorkStealingTaskExecutor tasks = new WorkStealingTaskExecutor();
+		tasks.start(2);
+		
+		tasks.submit(() -> {
+			throw new IllegalStateException("oops");
+		}, (task) -> {
+			fail("listener shouldn't be called for failed tasks");
+		});
+		tasks.waitForFinish();
+	}
+}
@@ -0,0 +1,124 @@
+package edu.duke.cs.osprey.pruning;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import edu.duke.cs.osprey.astar.comets.UpdatedPruningMatrix;
+import edu.duke.cs.osprey.confspace.RCTuple;
+import edu.duke.cs.osprey.tools.IntList;
+
+public class TestPruningMatrix {
+
+	// enough RCs to span a few bitset words
+	private static final int[] NumConfsAtPos = { 3, 100, 70 };
+
+	private static PruningMatrix makePmat() {
+		PruningMatrix pmat = new PruningMatrix(NumConfsAtPos.length, NumConfsAtPos, 0);
+		pmat.markAsPruned(new RCTuple(0, 1));
+		pmat.markAsPruned(new RCTuple(1, 0));
+		pmat.markAsPruned(new RCTuple(1, 63));
+		pmat.markAsPruned(new RCTuple(1, 64));
+		pmat.markAsPruned(new RCTuple(1, 99));
+		pmat.markAsPruned(new RCTuple(2, 5, 1, 7));
+		pmat.markAsPruned(new RCTuple(0, 2, 2, 69));
+		return pmat;
+	}
+
+	@Test
+	public void counts() {
+		PruningMatrix pmat = makePmat();
+		assertThat(pmat.hasStorage(), is(true));
+		assertThat(pmat.countPrunedRCs(), is(5));
+		assertThat(pmat.countPrunedPairs(), is(2));
+		assertThat(pmat.countUnprunedRCsAtPos(0), is(2));
+		assertThat(pmat.countUnprunedRCsAtPos(1), is(96));
+		assertThat(pmat.countUnprunedRCsAtPos(2), is(70));
+	}
+
+	@Test
+	public void iterate() {
+		PruningMatrix pmat = makePmat();
+
+		assertThat(pmat.prunedRCsAtPos(1), contains(0, 63, 64, 99));
+		assertThat(pmat.prunedRCsAtPos(2).isEmpty(), is(true));
+		assertThat(pmat.unprunedRCsAtPos(0), contains(0, 2));
+
+		// iteration stops at the end of the position, not the end of the bitset
+		ArrayList<Integer> unpruned = pmat.unprunedRCsAtPos(1);
+		assertThat(unpruned.size(), is(96));
+		assertThat(unpruned.get(0), is(1));
+		assertThat(unpruned.get(unpruned.size() - 1), is(98));
+		assertThat(unpruned.contains(63), is(false));
+
+		IntList unprunedInts = new IntList();
+		pmat.unprunedRCsAtPos(unprunedInts, 1);
+		assertThat(unprunedInts, is(unpruned));
+	}
+
+	@Test
+	public void orAndAnd() {
+
+		PruningMatrix a = makePmat();
+		PruningMatrix b = new PruningMatrix(NumConfsAtPos.length, NumConfsAtPos, 0);
+		b.markAsPruned(new RCTuple(0, 1));
+		b.markAsPruned(new RCTuple(2, 10));
+		b.markAsPruned(new RCTuple(2, 5, 1, 7));
+
+		PruningMatrix union = new PruningMatrix(a);
+		union.or(b);
+		assertThat(union.countPrunedRCs(), is(6));
+		assertThat(union.countPrunedPairs(), is(2));
+		assertThat(union.getOneBody(2, 10), is(true));
+
+		PruningMatrix intersection = new PruningMatrix(a);
+		intersection.and(b);
+		assertThat(intersection.countPrunedRCs(), is(1));
+		assertThat(intersection.countPrunedPairs(), is(1));
+		assertThat(intersection.getOneBody(0, 1), is(true));
+		assertThat(intersection.getPairwise(1, 7, 2, 5), is(true));
+	}
+
+	@Test
+	public void updated() {
+
+		PruningMatrix parent = makePmat();
+		UpdatedPruningMatrix child = new UpdatedPruningMatrix(parent);
+		assertThat(child.hasStorage(), is(false));
+		assertThat(child.countUpdates(), is(0));
+
+		child.markAsPruned(new RCTuple(2, 3));
+		child.markAsPruned(new RCTuple(2, 3));
+		child.markAsPruned(new RCTuple(1, 20, 2, 30));
+		child.markAsPruned(new RCTuple(2, 30, 1, 20));
+		assertThat(child.countUpdates(), is(2));
+
+		// sees parent and its own updates, in either order
+		assertThat(child.getOneBody(1, 63), is(true));
+		assertThat(child.getOneBody(2, 3), is(true));
+		assertThat(child.getOneBody(2, 4), is(false));
+		assertThat(child.getPairwise(1, 7, 2, 5), is(true));
+		assertThat(child.getPairwise(2, 30, 1, 20), is(true));
+		assertThat(child.getPairwise(1, 30, 2, 20), is(false));
+
+		// but doesn't change the parent
+		assertThat(parent.getOneBody(2, 3), is(false));
+		assertThat(parent.getPairwise(1, 20, 2, 30), is(false));
+
+		assertThat(child.countPrunedRCs(), is(6));
+		assertThat(child.countPrunedPairs(), is(3));
+		assertThat(child.countUnprunedRCsAtPos(2), is(69));
+		assertThat(child.unprunedRCsAtPos(2).contains(3), is(false));
+
+		// chains of updates see all their ancestors
+		UpdatedPruningMatrix grandchild = new UpdatedPruningMatrix(child);
+		grandchild.markAsPruned(new RCTuple(0, 0));
+		assertThat(grandchild.countUpdates(), is(1));
+		assertThat(grandchild.countPrunedRCs(), is(7));
+		assertThat(grandchild.isPruned(new RCTuple(new int[] { 2, 20, 30 })), is(true));
+		assertThat(grandchild.isPruned(new RCTuple(new int[] { 2, 21, 30 })), is(false));
+	}
+}
@@ -0,0 +1,105 @@
+package edu.duke.cs.osprey.tools;
+
+import static edu.duke.cs.osprey.TestBase.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+import org.junit.Test;
+
+public class TestBigExp {
+
+	private static final double Epsilon = 1e-14;
+
+	private static final MathContext mc = new MathContext(64);
+
+	@Test
+	public void exp() {
+		ExpFunction e = new ExpFunction();
+		// ExpFunction rounds to 8 decimal places, so only compare big values to it
+		for (double x : new double[] { 20.25, 100, 1234.5678 }) {
+			assertRelatively(BigExp.exp(x).toBigDecimal(), e.exp(x));
+		}
+		for (double x : new double[] { 0, 1, 0.5, -1, -20, -700 }) {
+			assertThat(BigExp.exp(x).doubleValue(), isRelatively(Math.exp(x), Epsilon));
+		}
+		assertThat(BigExp.exp(-1e6).ln(), isRelatively(-1e6, Epsilon));
+		assertThat(BigExp.exp(Double.NEGATIVE_INFINITY).isZero(), is(true));
+	}
+
+	@Test
+	public void conversions() {
+
+		assertThat(BigExp.valueOf(0.0), is(BigExp.ZERO));
+		assertThat(BigExp.valueOf(1.0), is(BigExp.ONE));
+		assertThat(BigExp.valueOf(-3.5).doubleValue(), is(-3.5));
+		assertThat(BigExp.valueOf(Double.MIN_VALUE).doubleValue(), is(Double.MIN_VALUE));
+		assertThat(BigExp.valueOf(123456789L).doubleValue(), is(123456789.0));
+
+		BigInteger big = BigInteger.TEN.pow(400).add(BigInteger.valueOf(7));
+		assertRelatively(BigExp.valueOf(big).toBigDecimal(), new BigDecimal(big));
+
+		for (String s : new String[] { "4.3704590631e+04", "3.5213742379e+54", "1.5e-300", "2e65536", "0.00000001" }) {
+			BigDecimal val = new BigDecimal(s);
+			assertRelatively(BigExp.valueOf(val).toBigDecimal(), val);
+		}
+	}
+
+	@Test
+	public void arithmetic() {
+
+		BigDecimal a = new BigDecimal("3.5213742379e+54");
+		BigDecimal b = new BigDecimal("4.4699772362e+30");
+		BigExp ea = BigExp.valueOf(a);
+		BigExp eb = BigExp.valueOf(b);
+
+		assertRelatively(ea.add(eb).toBigDecimal(), a.add(b));
+		assertRelatively(ea.subtract(eb).toBigDecimal(), a.subtract(b));
+		assertRelatively(eb.subtract(ea).toBigDecimal(), b.subtract(a));
+		assertRelatively(ea.multiply(eb).toBigDecimal(), a.multiply(b));
+		assertRelatively(ea.divide(eb).toBigDecimal(), a.divide(b, mc));
+		assertRelatively(eb.multiply(BigInteger.valueOf(1000)).toBigDecimal(), b.multiply(BigDecimal.valueOf(1000)));
+
+		// tiny numbers don't change huge ones
+		assertThat(ea.add(BigExp.ONE), is(ea));
+		assertThat(ea.subtract(ea).isZero(), is(true));
+		assertThat(ea.ln(), isRelatively(Math.log(3.5213742379e+54), Epsilon));
+	}
+
+	private static void assertRelatively(BigDecimal observed, BigDecimal expected) {
+		// values can be too big for doubles, so get the error in BigDecimal
+		double relErr = observed.subtract(expected).abs().divide(expected.abs(), mc).doubleValue();
+		assertThat(observed + " vs " + expected, relErr, lessThanOrEqualTo(Epsilon));
+	}
+
+	@Test(expected=ArithmeticException.class)
+	public void divideByZero() {
+		BigExp.ONE.divide(BigExp.ZERO);
+	}
+
+	@Test
+	public void compare() {
+
+		BigExp big = BigExp.valueOf(new BigDecimal("1e1000"));
+		BigExp small = BigExp.valueOf(1e-10);
+
+		assertThat(big.compareTo(small), greaterThan(0));
+		assertThat(small.compareTo(big), lessThan(0));
+		assertThat(small.compareTo(BigExp.ZERO), greaterThan(0));
+		assertThat(big.negate().compareTo(small.negate()), lessThan(0));
+		assertThat(big.negate().compareTo(BigExp.ZERO), lessThan(0));
+		assertThat(BigExp.valueOf(1.5).compareTo(BigExp.valueOf(1.25)), greaterThan(0));
+		assertThat(BigExp.valueOf(1.5).compareTo(BigExp.valueOf(1.5)), is(0));
+	}
+
+	@Test
+	public void format() {
+		assertThat(BigExp.ZERO.toString(), is(String.format("%e", 0.0)));
+		assertThat(BigExp.valueOf(4.3704590631e+04).toString(), is(String.format("%e", 4.3704590631e+04)));
+		assertThat(BigExp.valueOf(-1.5e-7).toString(), is(String.format("%e", -1.5e-7)));
+		assertThat(BigExp.valueOf(new BigDecimal("3.5213742379e+554")).toString(), is("3.521374e+554"));
+	}
+}
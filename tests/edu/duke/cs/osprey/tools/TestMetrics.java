@@ -0,0 +1,114 @@
+package edu.duke.cs.osprey.tools;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestMetrics {
+
+	@Test
+	public void counterThreads()
+	throws Exception {
+
+		Metrics.Counter counter = Metrics.counter("test_counter_threads_total", "test");
+		counter.reset();
+
+		List<Thread> threads = new ArrayList<>();
+		for (int i=0; i<4; i++) {
+			threads.add(new Thread(() -> {
+				for (int j=0; j<10000; j++) {
+					counter.increment();
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertThat(counter.get(), is(40000L));
+
+		// asking for the same name should give the same counter
+		assertThat(Metrics.counter("test_counter_threads_total", "test"), sameInstance(counter));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void wrongType() {
+		Metrics.counter("test_wrong_type", "test");
+		Metrics.gauge("test_wrong_type", "test");
+	}
+
+	@Test
+	public void histogram() {
+
+		Metrics.Histogram histogram = Metrics.histogram("test_histogram_seconds", "test");
+		histogram.reset();
+
+		assertThat(histogram.getQuantileNs(0.5), is(0L));
+
+		for (int i=1; i<=100; i++) {
+			histogram.record(i*1000);
+		}
+
+		assertThat(histogram.getCount(), is(100L));
+		assertThat(histogram.getSumNs(), is(5050L*1000));
+		assertThat(histogram.getMaxNs(), is(100000L));
+
+		// quantiles are upper bounds, good to within a factor of 2
+		long p50 = histogram.getQuantileNs(0.5);
+		assertThat(p50, greaterThanOrEqualTo(50000L));
+		assertThat(p50, lessThanOrEqualTo(100000L));
+		assertThat(histogram.getQuantileNs(1.0), is(100000L));
+	}
+
+	@Test
+	public void formats() {
+
+		Metrics.counter("test_format_total", "a test counter").add(5);
+		Metrics.gauge("test_format_gauge", "a test gauge").set(7);
+		Metrics.histogram("test_format_seconds", "a test histogram").record(1000);
+
+		String json = Metrics.toJson();
+		assertThat(json, containsString("\"test_format_gauge\": {\"type\":\"gauge\",\"value\":7}"));
+		assertThat(json, containsString("\"test_format_seconds\": {\"type\":\"histogram\""));
+
+		String prom = Metrics.toPrometheus();
+		assertThat(prom, containsString("# HELP test_format_total a test counter\n# TYPE test_format_total counter\n"));
+		assertThat(prom, containsString("test_format_gauge 7\n"));
+		assertThat(prom, containsString("test_format_seconds_bucket{le=\"+Inf\"} "));
+		assertThat(prom, containsString("test_format_seconds_count "));
+
+		assertThat(Metrics.Format.fromFile(new File("metrics.prom")), is(Metrics.Format.Prometheus));
+		assertThat(Metrics.Format.fromFile(new File("metrics.json")), is(Metrics.Format.Json));
+	}
+
+	@Test
+	public void export()
+	throws Exception {
+
+		File file = File.createTempFile("metrics", ".prom");
+		file.deleteOnExit();
+
+		Metrics.Counter counter = Metrics.counter("test_export_total", "test");
+		counter.reset();
+		counter.add(42);
+
+		Metrics.startExport(file, Metrics.Format.fromFile(file), 10);
+		Thread.sleep(100);
+		counter.increment();
+		Metrics.stopExport();
+
+		// the final write should have the latest value
+		String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		assertThat(text, containsString("test_export_total 43\n"));
+	}
+}